@@ -0,0 +1,66 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.cool.chatty.protocol.TextCodec;
+import org.cool.chatty.server.ChatServer;
+import org.cool.chatty.server.ServerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatServer.broadcastMessage mit unterschiedlich vielen angemeldeten Clients je Protokoll.
+ * Die Clients sind InMemoryConnections; gemessen werden Zerlegen, Kodieren und Einreihen, nicht das Netzwerk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    @Param({"TEXT", "BINARY"})
+    public ProtocolVersion protocol;
+
+    private ChatServer server;
+    private final List<InMemoryConnection> connections = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ServerConfig config = new ServerConfig();
+        config.setLogEnabled(false);
+        config.setServerLogFile(null); // Das ServerLog reiht weiter ein, schreibt aber nichts
+        config.setServerLogConsole(false);
+        server = new ChatServer("127.0.0.1", 0, config);
+        for (int i = 0; i < clients; i++) {
+            InMemoryConnection connection = new InMemoryConnection();
+            server.addClient(connection);
+            server.handleConnect(connection, "CONNECT:client-" + i
+                    + (protocol == ProtocolVersion.BINARY ? TextCodec.BINARY_REQUEST : ""));
+            connections.add(connection);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public long broadcastMessage() {
+        server.broadcastMessage("client-0: Hallo zusammen, wie geht es euch? :)");
+        return connections.get(0).getBytes();
+    }
+}
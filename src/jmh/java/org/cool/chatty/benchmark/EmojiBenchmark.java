@@ -0,0 +1,41 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.client.Emojis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ersetzen der Textkürzel durch Emojis, das der Client für jede gesendete und angezeigte Nachricht aufruft.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmojiBenchmark {
+
+    @Param({"plain", "emojis", "long"})
+    public String kind;
+
+    private String message;
+
+    @Setup
+    public void setUp() {
+        message = switch (kind) {
+            case "plain" -> "Hallo zusammen, wie geht es euch?";
+            case "emojis" -> "Hallo :) das ist super :D nur schade :(";
+            default -> "Ein längerer Text ohne Kürzel. ".repeat(40) + ":)";
+        };
+    }
+
+    @Benchmark
+    public String replace() {
+        return Emojis.replace(message);
+    }
+}
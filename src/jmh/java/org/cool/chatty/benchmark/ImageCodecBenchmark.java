@@ -0,0 +1,48 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bilder im Textprotokoll: Kodieren als Base64-Zeile und Zerlegen einer solchen Zeile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageCodecBenchmark {
+
+    @Param({"10240", "1048576"})
+    public int size;
+
+    private ChatMessage image;
+    private String line;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes); // Zufällige Bytes verhalten sich wie ein komprimiertes Bild
+        image = ChatMessage.image("alice", bytes);
+        line = TextCodec.encode(image);
+    }
+
+    @Benchmark
+    public String encode() {
+        return TextCodec.encode(image);
+    }
+
+    @Benchmark
+    public ChatMessage decode() {
+        return TextCodec.decode(line);
+    }
+}
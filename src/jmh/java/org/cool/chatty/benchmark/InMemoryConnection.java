@@ -0,0 +1,59 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.cool.chatty.server.ClientConnection;
+import org.cool.chatty.server.EncodedMessage;
+
+/**
+ * Ersatz für eine Socket-Verbindung: nimmt Nachrichten an wie die Ausgangswarteschlange (retain)
+ * und gibt sie sofort wieder frei, als wären sie geschrieben. So misst ein Benchmark den Broadcast ohne Netzwerk.
+ */
+class InMemoryConnection implements ClientConnection {
+    private String name;
+    private volatile ProtocolVersion protocol = ProtocolVersion.TEXT;
+    private long bytes; // Geschriebene Bytes, damit die JIT den Versand nicht wegoptimiert
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ProtocolVersion getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public void setProtocol(ProtocolVersion protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public void send(EncodedMessage message) {
+        message.retain();
+        bytes += message.length();
+        message.release();
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void closeAfterFlush() {
+    }
+}
@@ -0,0 +1,66 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zerlegen der Nachrichten, die ChatClient.handleMessage verarbeitet.
+ * Das Zerlegen übernimmt inzwischen die ChatConnection mit TextCodec (v1) bzw. FrameCodec (v2);
+ * handleMessage selbst aktualisiert nur noch die Oberfläche und ist ohne JavaFX nicht messbar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParsingBenchmark {
+    private String textLine;
+    private String systemLine;
+    private String participantsLine;
+    private ByteBuffer textFrame;
+
+    @Setup
+    public void setUp() {
+        textLine = "alice: Hallo zusammen, wie geht es euch? :)";
+        systemLine = "SYSTEM: bob hat den Chat betreten.";
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("client-" + i);
+        }
+        participantsLine = TextCodec.encode(ChatMessage.participants(names));
+        byte[] frame = FrameCodec.encode(ChatMessage.text("alice", "Hallo zusammen, wie geht es euch? :)").withSequence(42, 1));
+        textFrame = ByteBuffer.wrap(frame, 4, frame.length - 4).slice(); // Ohne die Längenangabe, wie nach dem Lesen
+    }
+
+    @Benchmark
+    public ChatMessage decodeTextLine() {
+        return TextCodec.decode(textLine);
+    }
+
+    @Benchmark
+    public ChatMessage decodeSystemLine() {
+        return TextCodec.decode(systemLine);
+    }
+
+    @Benchmark
+    public ChatMessage decodeParticipantsLine() {
+        return TextCodec.decode(participantsLine);
+    }
+
+    @Benchmark
+    public ChatMessage decodeTextFrame() throws ProtocolException {
+        return FrameCodec.decode(textFrame.duplicate());
+    }
+}
@@ -0,0 +1,64 @@
+package org.cool.chatty.benchmark;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.protocol.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kosten einer Änderung der Teilnehmerliste je Empfänger.
+ * Früher baute updateParticipantsList bei jeder An- und Abmeldung die vollständige Liste (participantsList);
+ * heute kodiert der PresenceTracker ein Delta (presenceDelta), die vollständige Liste geht nur noch an
+ * Clients mit Textprotokoll und bei der Anmeldung (presenceSnapshot).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PresenceBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    private List<String> names;
+    private ChatMessage delta;
+
+    @Setup
+    public void setUp() {
+        names = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            names.add("client-" + i);
+        }
+        delta = Presence.delta(1, List.of("client-new"), List.of());
+    }
+
+    @Benchmark
+    public String participantsList() {
+        return TextCodec.encode(ChatMessage.participants(names));
+    }
+
+    @Benchmark
+    public ChatMessage presenceSnapshot() {
+        return Presence.snapshot(1, names);
+    }
+
+    @Benchmark
+    public ChatMessage presenceDelta() {
+        return Presence.delta(1, List.of("client-new"), List.of());
+    }
+
+    @Benchmark
+    public Presence.Update parseDelta() {
+        return Presence.parse(delta);
+    }
+}
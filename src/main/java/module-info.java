@@ -1,11 +1,14 @@
 module org.cool.chatty {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.management;
+    requires jdk.httpserver;
 
 
     opens org.cool.chatty.server to javafx.fxml;
     opens org.cool.chatty.client to javafx.fxml;
 
     exports org.cool.chatty.client;
+    exports org.cool.chatty.protocol;
     exports org.cool.chatty.server;
 }
\ No newline at end of file
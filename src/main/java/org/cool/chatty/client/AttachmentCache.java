@@ -0,0 +1,82 @@
+package org.cool.chatty.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.cool.chatty.protocol.FileTransfer;
+
+/**
+ * Lokaler Zwischenspeicher für Anhänge, adressiert über den SHA-256-Hash ihres Inhalts.
+ * Bereits bekannte Anhänge werden nicht erneut vom Server geladen, auch nicht nach einem Neustart.
+ */
+public class AttachmentCache {
+    private final Path directory; // Verzeichnis, in dem jeder Inhalt unter seinem Hash liegt
+
+    public AttachmentCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    // Standardverzeichnis im Benutzerordner
+    public static AttachmentCache inUserHome() throws IOException {
+        return new AttachmentCache(Path.of(System.getProperty("user.home"), ".chatty", "attachments"));
+    }
+
+    // Liefert die Datei zu einem Hash oder null, wenn sie nicht im Zwischenspeicher liegt
+    public Path get(String hash) {
+        Path file = directory.resolve(hash);
+        return Files.exists(file) ? file : null;
+    }
+
+    // Verschiebt eine bereits geprüfte, empfangene Datei unter ihrem Hash in den Zwischenspeicher
+    public Path put(String hash, Path received) throws IOException {
+        return Files.move(received, directory.resolve(hash), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Kopiert eine eigene Datei in den Zwischenspeicher, damit sie nicht vom Server zurückgeladen werden muss
+    public Path copy(String hash, Path source) throws IOException {
+        Path file = directory.resolve(hash);
+        if (!Files.exists(file)) {
+            Files.copy(source, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    // Legt einen Inhalt aus dem Speicher (z. B. ein Bild im Textprotokoll) unter seinem Hash ab
+    public Path store(byte[] content) throws IOException {
+        String hash = FileTransfer.toHex(newDigest().digest(content));
+        Path file = directory.resolve(hash);
+        if (!Files.exists(file)) {
+            // Erst vollständig schreiben, dann umbenennen: unter dem Hash liegt nie eine halbe Datei
+            Path part = Files.createTempFile(directory, hash, ".part");
+            Files.write(part, content);
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    // Berechnet den SHA-256-Hash einer Datei, ohne sie vollständig zu laden
+    public static String hashOf(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[FileTransfer.CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return FileTransfer.toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
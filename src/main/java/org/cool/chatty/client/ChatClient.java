@@ -6,7 +6,6 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
@@ -14,18 +13,29 @@ import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
-import javafx.scene.text.TextAlignment;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.util.Pair;
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FileTransfer;
+import org.cool.chatty.protocol.History;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.protocol.ProtocolVersion;
 import org.cool.chatty.server.ChatServer;
 
 import java.io.*;
-import java.net.Socket;
-import java.util.Base64;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static org.cool.chatty.server.ChatServer.isValidIPv4;
 
@@ -42,22 +52,52 @@ public class ChatClient extends Application {
     private String username; // Der Benutzername des aktuellen Benutzers
 
     // Verbindungselemente
-    private Socket connectionToServer; // Verbindung zum Server
-    private BufferedReader fromServerReader; // Leser für eingehende Nachrichten
-    private PrintWriter toServerWriter; // Schreiber für ausgehende Nachrichten
+    // Verbindung zum Server (Text- oder Binärprotokoll); nach einem Abbruch ersetzt sie der Empfangs-Thread durch eine neue
+    private volatile ChatConnection connection;
+    private volatile FileSender fileSender; // Kündigt Anhänge an und lädt sie bei Bedarf hoch (nur Binärprotokoll)
+    private volatile boolean closing; // Das Fenster wird geschlossen: nicht mehr neu verbinden
+    private FileReceiver fileReceiver; // Setzt angeforderte Anhänge zusammen (nur Binärprotokoll)
+    private AttachmentCache attachmentCache; // Bereits bekannte Anhänge, adressiert über ihren Hash
+    private MessageStore messageStore; // Die letzten Nachrichten auf der Festplatte (null = ohne, z. B. im Textprotokoll)
+    // Angeforderte, noch nicht empfangene Anhänge je Hash mit den Nachrichten, die auf sie verweisen.
+    // Wird nur vom Empfangs-Thread verwendet.
+    private final Map<String, List<ChatMessage>> requestedAttachments = new HashMap<>();
+    // Empfangene Nachrichten werden gesammelt und einmal pro Bild angezeigt, höchstens so viele auf einmal
+    private final UiUpdateQueue uiUpdates = new UiUpdateQueue(Integer.getInteger("chatty.client.batch", 500));
+    // Dekodiert Bilder im Hintergrund und hält höchstens so viele Megabyte an Bildern im Speicher
+    private final ImageCache imageCache = new ImageCache(Long.getLong("chatty.client.imageCache", 64) * 1024 * 1024,
+            uiUpdates::post);
 
     // GUI-Elemente
-    private VBox messageContainer; // Container für Nachrichten
+    private StackPane messageArea; // Nachrichtenbereich; zeigt die Liste des gewählten Raums
+    private ListView<String> roomList; // Alle Räume des Servers, "" steht für den Standardraum
+    private TextField roomField; // Eingabefeld für den Namen eines neuen Raums
     private TextField inputTextField; // Eingabefeld für Nachrichten
     private VBox participantsContainer; // Container für Teilnehmerliste
     private Set<String> participants; // Liste der aktuellen Teilnehmer
-
-    // Map für Textkürzel zu Unicode-Emoji
-    private static final Map<String, String> emojiMap = Map.of(
-            ":)", "\uD83D\uDE42",  // 🙂 - lächelnd
-            ":D", "\uD83D\uDE04",  // 😀 - lachend
-            ":(", "\uD83D\uDE41"   // 🙁 - traurig
-    );
+    private long presenceVersion = -1; // Version der Teilnehmerliste im Binärprotokoll (-1 = noch kein Snapshot)
+
+    // Räume und Verlauf (nur Binärprotokoll); alle Felder werden nur im JavaFX-Thread verwendet
+    private static final int HISTORY_PAGE = 50; // Anzahl der Nachrichten, die pro Anfrage nachgeladen werden
+    private static final String DEFAULT_ROOM_LABEL = "Allgemein"; // Anzeigename des Standardraums
+    // Höchstens so viele Nachrichten je Raum im Speicher; ältere werden beim Scrollen erneut als Verlauf geladen
+    private static final int MESSAGE_WINDOW = Math.max(2 * HISTORY_PAGE, Integer.getInteger("chatty.client.window", 1000));
+    // Größe der lokalen Kopie der letzten Nachrichten in Megabyte (0 = keine)
+    private static final int STORE_SIZE = Integer.getInteger("chatty.client.store", 8);
+    private final Map<String, RoomView> roomViews = new HashMap<>(); // Nachrichtenbereiche der betretenen Räume
+    private RoomView currentView; // Der angezeigte Raum
+
+    // Wiederverbinden (nur Binärprotokoll): die Wartezeit in Millisekunden verdoppelt sich bis zur Obergrenze
+    // und wird zufällig gestreut, damit sich nach einem Neustart des Servers nicht alle Clients gleichzeitig anmelden.
+    // Die Obergrenze liegt unter der Karenzzeit des Servers, so dass die Sitzung meist fortgesetzt werden kann.
+    private static final long RECONNECT_MIN = Math.max(1, Long.getLong("chatty.client.reconnect.min", 500));
+    private static final long RECONNECT_MAX = Math.max(RECONNECT_MIN, Long.getLong("chatty.client.reconnect.max", 15_000));
+    // Höchstens so viele Nachrichten werden ohne Verbindung zurückgehalten
+    private static final int OUTBOX_SIZE = Integer.getInteger("chatty.client.outbox", 200);
+    // Ohne Verbindung gesendete Nachrichten, in ihrer Reihenfolge; wie die folgenden Felder nur im JavaFX-Thread
+    private final Deque<ChatMessage> outbox = new ArrayDeque<>();
+    private boolean online; // Die Verbindung steht; false ab dem Abbruch, bis nach dem Wiederverbinden alles nachgeholt ist
+    private final Set<String> rejoining = new HashSet<>(); // Räume, die nach dem Wiederverbinden erneut betreten werden
 
 
     /**
@@ -322,25 +362,40 @@ public class ChatClient extends Application {
         // Header-Elemente zum VBox-Container hinzufügen
         header.getChildren().addAll(headerLabel);
 
-        // Nachrichtenbereich (Container für Chat-Nachrichten)
-        messageContainer = new VBox(10); // Vertikaler Abstand von 10 Pixeln zwischen den Nachrichten
-        messageContainer.setPadding(new Insets(10)); // Innenabstand von 10 Pixeln
-        messageContainer.setPrefWidth(600); // Fixe Breite von 600 Pixeln
-        messageContainer.setStyle("""
-        -fx-border-radius: 10;
-        -fx-background-radius: 10;
-        """);
-
-        // ScrollPane, um den Nachrichtenbereich scrollbar zu machen
-        ScrollPane scrollPane = new ScrollPane(messageContainer);
-        scrollPane.setFitToWidth(true); // ScrollPane passt sich der Breite an
-        scrollPane.setStyle("""
-        -fx-background: transparent; // Transparentes ScrollPane
-        -fx-background-color: transparent;
-        -fx-border-color: transparent;
+        // Nachrichtenbereich des gewählten Raums; jeder Raum hat seine eigene Liste
+        messageArea = new StackPane();
+        showRoom(roomView(""));
+
+        // Raumliste links: Ein Klick wechselt in den Raum bzw. betritt ihn
+        roomList = new ListView<>();
+        roomList.getItems().add("");
+        roomList.setPrefWidth(160);
+        roomList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(String room, boolean empty) {
+                super.updateItem(room, empty);
+                setText(empty || room == null ? null : "# " + (room.isEmpty() ? DEFAULT_ROOM_LABEL : room));
+            }
+        });
+        roomList.getSelectionModel().selectedItemProperty().addListener((observable, oldRoom, newRoom) -> {
+            if (newRoom != null) {
+                selectRoom(newRoom);
+            }
+        });
+        roomField = new TextField();
+        roomField.setPromptText("Neuer Raum...");
+        roomField.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER) {
+                joinRoom(roomField.getText().trim());
+            }
+        });
+        Button leaveButton = new Button("Raum verlassen");
+        leaveButton.setOnAction(event -> leaveRoom());
+        VBox roomContainer = new VBox(10, roomList, roomField, leaveButton);
+        roomContainer.setPadding(new Insets(10));
+        roomContainer.setStyle("""
+        -fx-background-color: rgba(255, 255, 255, 0.9); // Weißer Hintergrund
         """);
-        // Automatisches Scrollen zum Ende, wenn neue Nachrichten hinzukommen
-        scrollPane.vvalueProperty().bind(messageContainer.heightProperty());
 
         // Eingabefeld für die Texteingabe
         inputTextField = new TextField();
@@ -399,7 +454,8 @@ public class ChatClient extends Application {
 
         // Layout-Komponenten in das BorderPane setzen
         root.setTop(header); // Header oben
-        root.setCenter(scrollPane); // Nachrichtenbereich in der Mitte
+        root.setLeft(roomContainer); // Raumliste links
+        root.setCenter(messageArea); // Nachrichtenbereich in der Mitte
         root.setBottom(inputContainer); // Eingabebereich unten
 
         // Rückgabe der fertigen Szene mit definierten Abmessungen
@@ -411,20 +467,65 @@ public class ChatClient extends Application {
     private void setupConnection() {
         try {
             // Erstellt eine Verbindung zum Server mit der angegebenen Adresse und dem Port
-            connectionToServer = new Socket(address, port);
-
-            // Initialisiert den Reader zum Lesen von Nachrichten vom Server
-            fromServerReader = new BufferedReader(new InputStreamReader(connectionToServer.getInputStream()));
-
-            // Initialisiert den Writer zum Senden von Nachrichten an den Server
-            toServerWriter = new PrintWriter(new OutputStreamWriter(connectionToServer.getOutputStream()));
+            connection = openConnection();
+
+            // Meldet den Benutzer an und fragt das binäre Protokoll mit einer Sitzung an (ältere Server bleiben beim Textformat)
+            connection.connect(username, true, "");
+            if (connection.getProtocol() != ProtocolVersion.BINARY) {
+                String reason = rejection(connection);
+                connection.close();
+                if (reason != null) {
+                    showError("Anmeldung abgelehnt: " + reason);
+                    return;
+                }
+                // Ältere Server kennen das Binärprotokoll nicht und halten die Anfrage für einen Teil des Namens:
+                // ohne Binärprotokoll und Sitzung neu anmelden
+                connection = openConnection();
+                connection.connect(username, false);
+            }
+            online = true;
+            attachmentCache = AttachmentCache.inUserHome();
+            // Die zuletzt gespeicherten Nachrichten werden gelesen, bevor der Empfangs-Thread in die Datei schreibt
+            messageStore = openMessageStore();
+            List<ChatMessage> restored = messageStore != null ? messageStore.recent("", HISTORY_PAGE) : List.of();
+            fileSender = newFileSender(connection);
+            fileReceiver = new FileReceiver(new FileReceiver.Listener() {
+                @Override
+                public void fileReceived(String sender, FileTransfer.Attachment attachment, Path file) {
+                    try {
+                        Path cached = attachmentCache.put(attachment.hash(), file);
+                        // Alle Nachrichten anzeigen, die auf diesen Anhang gewartet haben
+                        for (ChatMessage waiting : requestedAttachments.getOrDefault(attachment.hash(), List.of())) {
+                            String fileName = FileTransfer.attachment(waiting).fileName();
+                            uiUpdates.post(() -> displayFile(waiting.getSender(), fileName, cached, waiting.getRoom(), waiting.getSequence()));
+                        }
+                        requestedAttachments.remove(attachment.hash());
+                    } catch (IOException e) {
+                        transferFailed(sender, attachment, e.getMessage());
+                    }
+                }
 
-            // Sendet eine Begrüßungsnachricht mit dem Benutzernamen an den Server
-            toServerWriter.println("CONNECT:" + username);
-            toServerWriter.flush();
+                @Override
+                public void transferFailed(String sender, FileTransfer.Attachment attachment, String reason) {
+                    // Ein späterer Verweis auf denselben Anhang fordert ihn erneut an
+                    for (ChatMessage waiting : requestedAttachments.getOrDefault(attachment.hash(), List.of())) {
+                        String message = "Fehler: Die Datei " + FileTransfer.attachment(waiting).fileName() + " von "
+                                + waiting.getSender() + " konnte nicht empfangen werden. " + reason;
+                        uiUpdates.post(() -> displaySystemMessage(message, waiting.getRoom(), waiting.getSequence()));
+                    }
+                    requestedAttachments.remove(attachment.hash());
+                }
+            });
 
             // Startet einen neuen Thread, um eingehende Nachrichten zu empfangen
-            new Thread(this::receiveMessages).start();
+            Thread.ofPlatform().name("chatty-receiver").daemon().start(this::receiveMessages);
+
+            // Die gespeicherten Nachrichten sofort anzeigen und nur die neueren nachladen
+            // (ohne gespeicherte die letzten); ältere folgen beim Scrollen nach oben
+            Platform.runLater(() -> {
+                restoreMessages(roomView(""), restored);
+                requestHistory(roomView(""));
+            });
 
         } catch (IOException e) {
             // Zeigt eine Fehlermeldung an, falls die Verbindung fehlschlägt
@@ -432,68 +533,550 @@ public class ChatClient extends Application {
         }
     }
 
+    // Eine neue Verbindung zum Server; übersprungene Zeilen eines älteren Servers werden im Chat gemeldet
+    private ChatConnection openConnection() throws IOException {
+        return new ChatConnection(address, port,
+                line -> uiUpdates.post(() -> displaySystemMessage("Fehler: Ungültige Nachricht vom Server empfangen.")));
+    }
+
+    private FileSender newFileSender(ChatConnection connection) {
+        return new FileSender(connection, username, attachmentCache,
+                e -> showError("Fehler beim Senden des Bildes: " + e.getMessage()));
+    }
+
+    // Meldet den Benutzer beim Schließen des Fensters ab; mit DISCONNECT entfällt die Karenzzeit auf dem Server
+    @Override
+    public void stop() {
+        closing = true;
+        ChatConnection current = connection;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (current.getProtocol() == ProtocolVersion.BINARY) {
+                current.send(new ChatMessage(MessageType.DISCONNECT, username, "", null));
+            }
+            current.close();
+        } catch (IOException e) {
+            // Die Verbindung ist ohnehin verloren
+        }
+    }
+
+    // Öffnet die lokale Kopie der letzten Nachrichten; ohne Nummern (Textprotokoll) gibt es keine
+    private MessageStore openMessageStore() {
+        if (STORE_SIZE <= 0 || connection.getProtocol() != ProtocolVersion.BINARY) {
+            return null;
+        }
+        try {
+            return MessageStore.inUserHome(address, port, STORE_SIZE * 1024 * 1024);
+        } catch (IOException e) {
+            // Läuft vor dem Aufbau der Oberfläche: der Hinweis erscheint mit dem nächsten Bild im Standardraum
+            String reason = e.getMessage();
+            uiUpdates.post(() -> displaySystemMessage("Lokale Nachrichten können nicht geöffnet werden, der Verlauf kommt nur vom Server. "
+                    + reason, "", 0));
+            return null;
+        }
+    }
+
+    // Zeigt die gespeicherten Nachrichten eines Raums an (im JavaFX-Thread)
+    private void restoreMessages(RoomView view, List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        for (ChatMessage message : messages) {
+            switch (message.getType()) {
+                case TEXT -> displayMessage(message.getSender(), message.text(), view.getRoom(), message.getSequence());
+                case SYSTEM -> displaySystemMessage(message.text(), view.getRoom(), message.getSequence());
+                case ATTACHMENT -> {
+                    // Nur Anhänge, die noch im Zwischenspeicher liegen
+                    FileTransfer.Attachment attachment = FileTransfer.attachment(message);
+                    Path cached = attachmentCache.get(attachment.hash());
+                    if (cached != null) {
+                        displayFile(message.getSender(), attachment.fileName(), cached, view.getRoom(), message.getSequence());
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        view.restored(messages.get(0).getSequence(), messages.get(messages.size() - 1).getSequence());
+    }
+
+    // Empfängt Nachrichten, bis die Verbindung endet. Im Binärprotokoll wird sie dann in diesem Thread neu aufgebaut
+    // und der Empfang fortgesetzt; ältere Server trennen wie bisher endgültig.
     private void receiveMessages() {
+        ChatConnection current = connection;
+        while (current != null) {
+            try {
+                receiveFrom(current);
+            } catch (IOException e) {
+                if (!closing && current.getProtocol() != ProtocolVersion.BINARY) {
+                    // Zeigt eine Fehlermeldung an, falls die Verbindung unterbrochen wird
+                    showError("Verbindung verloren: " + e.getMessage());
+                }
+            } finally {
+                fileReceiver.close(); // Unvollständige Dateien löschen
+            }
+            current = !closing && current.getProtocol() == ProtocolVersion.BINARY ? reconnect(current) : null;
+        }
+    }
+
+    private void receiveFrom(ChatConnection source) throws IOException {
+        ChatMessage message;
+        // Liest Nachrichten kontinuierlich vom Server
+        while ((message = source.read()) != null) {
+            if (messageStore != null) {
+                messageStore.append(message); // Nur neue, nummerierte Nachrichten der Räume
+            }
+            switch (message.getType()) {
+                // Mitgesendete Bilder werden hier abgelegt und wie Anhänge im Hintergrund geladen
+                case IMAGE -> showImage(message);
+                // Anhänge werden direkt in diesem Thread nachgeschlagen, angefordert und auf die Festplatte geschrieben
+                case ATTACHMENT -> {
+                    if (FileTransfer.isValid(message)) {
+                        showAttachment(message);
+                    }
+                }
+                case FETCH -> {
+                    if (FileTransfer.isValid(message)) {
+                        fileSender.upload(FileTransfer.fetchedHash(message));
+                    }
+                }
+                case FILE_START, FILE_CHUNK, FILE_END -> {
+                    if (FileTransfer.isValid(message) && isRequested(message)) {
+                        fileReceiver.accept(message);
+                    }
+                }
+                case FILE_ACK -> {
+                    if (FileTransfer.isValid(message)) {
+                        fileSender.acknowledge(message);
+                    }
+                }
+                default -> {
+                    ChatMessage finalMessage = message;
+                    // Übergibt die Nachricht zur Verarbeitung in die JavaFX-Anwendung (gesammelt pro Bild)
+                    uiUpdates.post(() -> handleMessage(finalMessage));
+                }
+            }
+        }
+    }
+
+    /**
+     * Baut die Verbindung neu auf, mit zufällig gestreuter, exponentiell wachsender Wartezeit zwischen den Versuchen.
+     * Das Token der bisherigen Verbindung setzt die Sitzung fort; ist sie auf dem Server abgelaufen, beginnt eine neue.
+     * Lehnt der Server die Anmeldung ab (z. B. weil der Name inzwischen vergeben ist), endet der Versuch:
+     * jeder weitere würde ebenso abgelehnt.
+     * @return Die neue Verbindung oder null, wenn der Client inzwischen beendet wird oder abgelehnt wurde
+     */
+    private ChatConnection reconnect(ChatConnection previous) {
+        uiUpdates.post(this::connectionLost);
+        try {
+            previous.close();
+        } catch (IOException e) {
+            // Bereits geschlossen
+        }
+        String token = Objects.requireNonNullElse(previous.getSessionToken(), "");
+        long delay = RECONNECT_MIN;
+        while (!closing) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+                ChatConnection next = openConnection();
+                try {
+                    next.connect(username, true, token);
+                    if (next.getProtocol() != ProtocolVersion.BINARY) {
+                        // Die Ablehnung kommt im Textformat; mit dem Binärprotokoll war der Server schon einmal einverstanden
+                        String reason = rejectionReason(next);
+                        next.close();
+                        uiUpdates.post(() -> loginRejected(reason));
+                        return null;
+                    }
+                    fileSender = newFileSender(next);
+                    connection = next;
+                    // Unvollständige Anhänge wurden verworfen und werden erneut angefordert
+                    for (String hash : requestedAttachments.keySet()) {
+                        next.send(FileTransfer.fetch(hash));
+                    }
+                } catch (IOException e) {
+                    next.close();
+                    throw e;
+                }
+                uiUpdates.post(() -> reconnected(next));
+                return next;
+            } catch (IOException e) {
+                // Der Hinweis auf das erneute Verbinden steht schon im Chat; jeden Fehlversuch zu melden, wäre nur Rauschen
+                delay = Math.min(delay * 2, RECONNECT_MAX);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Unterscheidet bei der ersten Anmeldung eine Ablehnung von einem Server ohne Binärprotokoll.
+     * Eine Ablehnung ist ein Hinweis (SYSTEM), nach dem der Server die Verbindung beendet; ein älterer Server
+     * begrüßt den Client dagegen mit einer SYSTEM-Nachricht und schickt danach die Teilnehmerliste.
+     * @return Der Hinweis des Servers oder null, wenn er die Anmeldung angenommen hat
+     */
+    private static String rejection(ChatConnection connection) throws IOException {
+        ChatMessage first = connection.read();
+        if (first == null) {
+            return "Der Server hat die Anmeldung abgelehnt.";
+        }
+        if (first.getType() == MessageType.SYSTEM && connection.read() == null) {
+            return first.text();
+        }
+        return null;
+    }
+
+    // Der Hinweis des Servers zu einer abgelehnten Anmeldung
+    private static String rejectionReason(ChatConnection rejected) {
         try {
-            String message;
-            // Liest Nachrichten kontinuierlich vom Server
-            while ((message = fromServerReader.readLine()) != null) {
-                String finalMessage = message;
-                // Übergibt die Nachricht zur Verarbeitung in die JavaFX-Anwendung
-                Platform.runLater(() -> handleMessage(finalMessage));
+            ChatMessage reply = rejected.read();
+            if (reply != null && reply.getType() == MessageType.SYSTEM) {
+                return reply.text();
             }
         } catch (IOException e) {
-            // Zeigt eine Fehlermeldung an, falls die Verbindung unterbrochen wird
-            showError("Verbindung verloren: " + e.getMessage());
-        }
-    }
-
-    private void handleMessage(String message) {
-        // Verarbeitet Nachrichten basierend auf ihrem Typ
-        if (message.startsWith("CONNECT:")) {
-            // Handhabt eine neue Verbindung und fügt den Teilnehmer zur Liste hinzu
-            String participant = message.substring(8);
-            participants.add(participant);
-            displaySystemMessage(participant + " hat den Chat betreten.");
-        } else if (message.startsWith("DISCONNECT:")) {
-            // Entfernt einen Teilnehmer bei Verbindungsabbruch und zeigt eine Systemnachricht
-            String participant = message.substring(11);
-            participants.remove(participant);
-            displaySystemMessage(participant + " hat den Chat verlassen.");
-        } else if (message.startsWith("IMAGE:")) {
-            // Verarbeitet empfangene Bildnachrichten
-            String content = message.substring(6);
-            int firstColon = content.indexOf(":");
-            if (firstColon > 0 && firstColon < content.length() - 1) {
-                String sender = content.substring(0, firstColon);
-                String base64Image = content.substring(firstColon + 1);
-                displayImage(sender, base64Image);
+            // Ohne Hinweis beendet
+        }
+        return "Der Server hat die Anmeldung abgelehnt.";
+    }
+
+    // Das erneute Verbinden wurde abgelehnt (im JavaFX-Thread); der Client bleibt getrennt
+    private void loginRejected(String reason) {
+        displaySystemMessage("Erneute Anmeldung abgelehnt: " + reason + " Die Verbindung wird nicht wieder aufgebaut.");
+        showError("Erneute Anmeldung abgelehnt: " + reason + "\nBitte starten Sie Chatty neu, gegebenenfalls mit einem anderen Namen.");
+    }
+
+    // Die Verbindung ist abgebrochen (im JavaFX-Thread); bis zum Wiederverbinden werden Nachrichten zurückgehalten
+    private void connectionLost() {
+        online = false;
+        displaySystemMessage("Verbindung zum Server verloren. Es wird erneut verbunden ...");
+    }
+
+    // Die Verbindung steht wieder (im JavaFX-Thread): Räume abgleichen und zurückgehaltene Nachrichten senden
+    private void reconnected(ChatConnection next) {
+        online = true;
+        displaySystemMessage("Verbindung wiederhergestellt.");
+        for (RoomView view : roomViews.values()) {
+            if (view.isDirect()) {
+                continue;
+            }
+            view.reconnected();
+            if (next.isResumed() || view.getRoom().isEmpty()) {
+                requestHistory(view); // Die seit dem Abbruch verteilten Nachrichten nachladen
             } else {
-                // Zeigt eine Fehlermeldung bei ungültigem Bildformat
-                System.err.println("Ungültige Bildnachricht: " + message);
-                displaySystemMessage("Fehler: Ungültige Bildnachricht empfangen.");
+                // Neue Sitzung: die Räume erneut betreten, der Verlauf folgt mit der Bestätigung
+                rejoining.add(view.getRoom());
+                send(new ChatMessage(MessageType.JOIN, username, view.getRoom(), null));
+            }
+        }
+        flushOutbox();
+    }
+
+    /**
+     * Sendet eine Nachricht des Benutzers. Ohne Verbindung wird sie zurückgehalten und nach dem Wiederverbinden gesendet.
+     * @return false, wenn sie weder gesendet noch zurückgehalten werden konnte
+     */
+    private boolean send(ChatMessage message) {
+        if (online) {
+            try {
+                connection.send(message);
+                return true;
+            } catch (IOException e) {
+                if (connection.getProtocol() != ProtocolVersion.BINARY) {
+                    showError("Fehler beim Senden der Nachricht: " + e.getMessage());
+                    return false;
+                }
+                online = false; // Der Empfangs-Thread bemerkt den Abbruch ebenfalls und verbindet neu
             }
+        }
+        if (outbox.size() >= OUTBOX_SIZE) {
+            displaySystemMessage("Zu viele ungesendete Nachrichten. Bitte warten, bis die Verbindung wiederhergestellt ist.");
+            return false;
+        }
+        if (outbox.isEmpty()) {
+            displaySystemMessage("Keine Verbindung: Nachrichten werden gesendet, sobald sie wiederhergestellt ist.");
+        }
+        outbox.add(message);
+        return true;
+    }
+
+    // Sendet die zurückgehaltenen Nachrichten; bricht die Verbindung dabei wieder ab, bleibt der Rest für den nächsten Versuch
+    private void flushOutbox() {
+        while (online && !outbox.isEmpty()) {
+            try {
+                connection.send(outbox.peek());
+                outbox.poll();
+            } catch (IOException e) {
+                online = false;
+            }
+        }
+    }
+
+    // Zeigt einen Anhang aus dem Zwischenspeicher an oder fordert ihn beim Server an (im Empfangs-Thread)
+    private void showAttachment(ChatMessage message) throws IOException {
+        FileTransfer.Attachment attachment = FileTransfer.attachment(message);
+        Path cached = attachmentCache.get(attachment.hash());
+        if (cached != null) {
+            uiUpdates.post(() -> displayFile(message.getSender(), attachment.fileName(), cached, message.getRoom(), message.getSequence()));
+            return;
+        }
+        List<ChatMessage> waiting = requestedAttachments.get(attachment.hash());
+        if (waiting == null) {
+            // Nur die erste Nachricht fordert den Inhalt an, weitere warten auf dieselbe Übertragung
+            waiting = new ArrayList<>();
+            requestedAttachments.put(attachment.hash(), waiting);
+            connection.send(FileTransfer.fetch(attachment.hash()));
+        }
+        waiting.add(message);
+    }
+
+    // Legt ein mitgesendetes Bild im Zwischenspeicher ab und zeigt es von dort an (im Empfangs-Thread).
+    // So hält die Oberfläche die Bildbytes nicht fest und kann das Bild später erneut von der Festplatte laden.
+    private void showImage(ChatMessage message) {
+        String sender = message.getSender();
+        String room = message.getRoom();
+        long sequence = message.getSequence();
+        if (sender.isEmpty() || message.getPayload().length == 0) {
+            // Zeigt eine Fehlermeldung bei ungültigem Bildformat
+            uiUpdates.post(() -> displaySystemMessage("Fehler: Ungültige Bildnachricht empfangen."));
+            return;
+        }
+        try {
+            Path file = attachmentCache.store(message.getPayload());
+            if (messageStore != null) {
+                // Gespeichert wird nur der Verweis auf den Zwischenspeicher
+                FileTransfer.Attachment attachment = new FileTransfer.Attachment(file.getFileName().toString(),
+                        message.getPayload().length, "bild.png");
+                messageStore.append(FileTransfer.attachment(sender, attachment).withRoom(room)
+                        .withSequence(sequence, message.getTimestamp()));
+            }
+            uiUpdates.post(() -> displayImage(sender, file, room, sequence));
+        } catch (IOException e) {
+            uiUpdates.post(() -> displaySystemMessage("Fehler: Das Bild von " + sender + " konnte nicht gespeichert werden. "
+                    + e.getMessage(), room, sequence));
+        }
+    }
+
+    // Nur selbst angeforderte Anhänge werden angenommen
+    private boolean isRequested(ChatMessage message) {
+        return message.getType() != MessageType.FILE_START
+                || requestedAttachments.containsKey(FileTransfer.fileInfo(message).attachment().hash());
+    }
+
+    private void handleMessage(ChatMessage message) {
+        // Verarbeitet Nachrichten basierend auf ihrem Typ; das Zerlegen übernimmt bereits die ChatConnection
+        switch (message.getType()) {
+            case CONNECT -> {
+                // Handhabt eine neue Verbindung und fügt den Teilnehmer zur Liste hinzu
+                participants.add(message.getSender());
+                displaySystemMessage(message.getSender() + " hat den Chat betreten.");
+            }
+            case DISCONNECT -> {
+                // Entfernt einen Teilnehmer bei Verbindungsabbruch und zeigt eine Systemnachricht
+                participants.remove(message.getSender());
+                displaySystemMessage(message.getSender() + " hat den Chat verlassen.");
+            }
+            case SYSTEM -> displaySystemMessage(message.text(), message.getRoom(), message.getSequence());
+            case PARTICIPANTS -> {
+                // Ersetzt die Teilnehmerliste durch die vom Server gesendete
+                participants.clear();
+                participants.addAll(message.names());
+            }
+            case PRESENCE -> applyPresence(Presence.parse(message));
+            case TEXT -> {
+                // Handhabt reguläre Textnachrichten
+                if (!message.getSender().isEmpty()) {
+                    displayMessage(message.getSender(), message.text(), message.getRoom(), message.getSequence());
+                } else {
+                    // Nachricht ohne gültiges Format
+                    displaySystemMessage("Fehler: Ungültige Textnachricht empfangen.", message.getRoom(), message.getSequence());
+                }
+            }
+            case HISTORY -> {
+                // Ende einer Antwort auf eine Verlaufsanfrage
+                History.End end = History.end(message);
+                RoomView view = roomViews.get(message.getRoom());
+                if (end != null && view != null && !view.historyReceived(end)) {
+                    // Seit dem letzten Start sind mehr Nachrichten hinzugekommen als nachgeladen wurden:
+                    // die gespeicherten verwerfen und wie beim ersten Start mit den letzten beginnen
+                    view.clear();
+                    requestHistory(view);
+                }
+            }
+            case JOIN -> {
+                // Der Server hat den Beitritt bestätigt: Raum anzeigen und seinen Verlauf laden.
+                // Nach dem Wiederverbinden erneut betretene Räume bleiben im Hintergrund.
+                RoomView view = roomView(message.getRoom());
+                if (!rejoining.remove(message.getRoom())) {
+                    showRoom(view);
+                }
+                requestHistory(view);
+            }
+            case LEAVE -> {
+                RoomView view = roomViews.remove(message.getRoom());
+                if (view == currentView) {
+                    showRoom(roomView(""));
+                }
+            }
+            case ROOMS -> {
+                // Ersetzt die Raumliste; der Standardraum steht immer oben, private Unterhaltungen unten
+                List<String> rooms = new ArrayList<>(List.of(""));
+                rooms.addAll(message.names());
+                for (String room : roomList.getItems()) {
+                    if (room.startsWith(RoomView.DIRECT_PREFIX)) {
+                        rooms.add(room);
+                    }
+                }
+                roomList.getItems().setAll(rooms);
+            }
+            case DIRECT -> {
+                // Eigene private Nachrichten kommen als Kopie zurück; Gesprächspartner ist dann der Empfänger
+                String partner = message.getSender().equals(username) ? message.getRoom() : message.getSender();
+                RoomView view = directView(partner);
+                displayMessage(message.getSender(), message.text(), view.getRoom(), 0);
+            }
+        }
+    }
+
+    // Übernimmt einen Snapshot oder ein Delta der Teilnehmerliste.
+    // Fehlt ein Delta (z. B. vom Server verworfen), wird der vollständige Stand neu angefordert.
+    private void applyPresence(Presence.Update update) {
+        if (update == null) {
+            return;
+        }
+        if (update.snapshot()) {
+            participants.clear();
+            participants.addAll(update.joined());
+            presenceVersion = update.version();
+        } else if (presenceVersion < 0 || update.version() <= presenceVersion) {
+            return; // Vor dem ersten Snapshot oder bereits enthalten
+        } else if (update.version() == presenceVersion + 1) {
+            participants.addAll(update.joined());
+            update.left().forEach(participants::remove);
+            presenceVersion = update.version();
         } else {
-            // Handhabt reguläre Textnachrichten
-            int firstColon = message.indexOf(":");
-            if (firstColon > 0 && firstColon < message.length() - 1) {
-                String sender = message.substring(0, firstColon);
-                String textMessage = message.substring(firstColon + 1).trim();
-                displayMessage(sender, textMessage);
-            } else {
-                // Nachricht ohne gültiges Format
-                System.err.println("Ungültige Textnachricht: " + message);
+            try {
+                presenceVersion = -1; // Bis zum Snapshot keine Deltas mehr anwenden
+                connection.send(Presence.request());
+            } catch (IOException e) {
+                // Verbindung verloren: nach dem Wiederverbinden sendet der Server ohnehin den vollständigen Stand
+            }
+        }
+    }
+
+    // Fordert ältere Nachrichten eines Raums an, falls es welche gibt und nicht schon eine Anfrage unterwegs ist
+    private void requestHistory(RoomView view) {
+        if (connection == null || !online || connection.getProtocol() != ProtocolVersion.BINARY || !view.canLoadOlder()) {
+            return;
+        }
+        try {
+            History.Mode mode = view.nextHistoryMode();
+            // Neuere Nachrichten werden bis zur Größe des Fensters auf einmal nachgeladen
+            int limit = mode == History.Mode.SINCE_SEQUENCE ? MESSAGE_WINDOW : HISTORY_PAGE;
+            connection.send(History.request(mode, view.getHistoryCursor(), limit).withRoom(view.getRoom()));
+            view.historyRequested();
+        } catch (IOException e) {
+            // Verbindung verloren: nach dem Wiederverbinden wird erneut angefragt
+        }
+    }
+
+    // Liefert den Nachrichtenbereich eines Raums und legt ihn bei Bedarf an
+    private RoomView roomView(String room) {
+        return roomViews.computeIfAbsent(room, name -> {
+            RoomView view = new RoomView(name, MESSAGE_WINDOW,
+                    list -> new MessageCell(username, imageCache, entry -> openImageInNewWindow(entry.file(), entry.sender())));
+            // Am oberen Rand wird die nächste ältere Seite angefordert
+            view.setOnScrollTop(() -> requestHistory(view));
+            return view;
+        });
+    }
+
+    // Liefert die private Unterhaltung mit einem Teilnehmer und nimmt sie bei Bedarf in die Raumliste auf
+    private RoomView directView(String partner) {
+        RoomView view = roomView(RoomView.DIRECT_PREFIX + partner);
+        if (!roomList.getItems().contains(view.getRoom())) {
+            roomList.getItems().add(view.getRoom());
+        }
+        return view;
+    }
+
+    // Fügt eine Nachricht in den Bereich ihres Raums ein; verspätete Nachrichten verlassener Räume werden verworfen
+    private void addToRoom(String room, ChatEntry entry) {
+        RoomView view = roomViews.get(room);
+        if (view != null) {
+            view.add(entry);
+        }
+    }
+
+    // Zeigt den Nachrichtenbereich eines Raums an
+    private void showRoom(RoomView view) {
+        currentView = view;
+        messageArea.getChildren().setAll(view.getList());
+        view.scrollToBottom();
+        if (roomList != null && !view.getRoom().equals(roomList.getSelectionModel().getSelectedItem())) {
+            if (!roomList.getItems().contains(view.getRoom())) {
+                roomList.getItems().add(view.getRoom());
             }
+            roomList.getSelectionModel().select(view.getRoom());
         }
     }
 
+    // Wechselt in einen Raum aus der Liste; noch nicht betretene Räume werden zuerst betreten
+    private void selectRoom(String room) {
+        RoomView view = roomViews.get(room);
+        if (view != null) {
+            if (view != currentView) {
+                showRoom(view);
+            }
+        } else {
+            joinRoom(room);
+        }
+    }
+
+    // Bittet den Server, einen Raum zu betreten; angezeigt wird er nach der Bestätigung (JOIN)
+    private void joinRoom(String room) {
+        if (room.isEmpty() || connection == null) {
+            return;
+        }
+        if (connection.getProtocol() != ProtocolVersion.BINARY) {
+            displaySystemMessage("Räume werden von diesem Server nicht unterstützt.");
+            return;
+        }
+        if (send(new ChatMessage(MessageType.JOIN, username, room, null))) {
+            roomField.clear();
+        }
+    }
+
+    // Verlässt den angezeigten Raum; den Standardraum verlässt man nur mit dem Chat
+    private void leaveRoom() {
+        if (currentView == null || currentView.getRoom().isEmpty()) {
+            return;
+        }
+        if (currentView.isDirect()) {
+            // Private Unterhaltungen gibt es nur im Client: einfach schließen
+            RoomView view = roomViews.remove(currentView.getRoom());
+            roomList.getItems().remove(view.getRoom());
+            showRoom(roomView(""));
+            return;
+        }
+        send(new ChatMessage(MessageType.LEAVE, username, currentView.getRoom(), null));
+    }
 
     private void sendMessage() {
         // Liest den Text aus dem Eingabefeld und sendet ihn, falls er nicht leer ist
         String message = inputTextField.getText().trim();
         if (!message.isEmpty()) {
-            toServerWriter.println(username + ": " + replaceEmojis(message));
-            toServerWriter.flush();
-            inputTextField.clear(); // Leert das Eingabefeld nach dem Senden
+            ChatMessage outgoing = outgoing(Emojis.replace(message));
+            if (outgoing == null) {
+                displaySystemMessage("Private Nachrichten werden von diesem Server nicht unterstützt.");
+                return;
+            }
+            // Ohne Verbindung wird die Nachricht zurückgehalten; ist dafür kein Platz, bleibt sie im Eingabefeld
+            if (send(outgoing)) {
+                inputTextField.clear(); // Leert das Eingabefeld nach dem Senden
+            }
         }
 
     }
@@ -501,15 +1084,26 @@ public class ChatClient extends Application {
 
 
     /**
-     * Ersetzt Textkürzel wie :) durch Unicode-Emojis.
-     * @param message Die ursprüngliche Nachricht
-     * @return Die Nachricht mit Emojis
+     * Baut die Nachricht für den angezeigten Raum.
+     * "DM:Name:Text" bzw. jede Nachricht in einer privaten Unterhaltung wird als private Nachricht gesendet.
+     * @return Die Nachricht oder null, wenn der Server keine privaten Nachrichten kennt
      */
-    private String replaceEmojis(String message) {
-        for (Map.Entry<String, String> entry : emojiMap.entrySet()) {
-            message = message.replace(entry.getKey(), entry.getValue());
+    private ChatMessage outgoing(String text) {
+        String recipient = null;
+        if (text.startsWith("DM:") && text.indexOf(':', 3) > 3) {
+            int separator = text.indexOf(':', 3);
+            recipient = text.substring(3, separator).trim();
+            text = text.substring(separator + 1).trim();
+        } else if (currentView.isDirect()) {
+            recipient = currentView.getPartner();
+        }
+        if (recipient == null) {
+            return ChatMessage.text(username, text).withRoom(currentView.getRoom());
         }
-        return message;
+        if (connection.getProtocol() != ProtocolVersion.BINARY) {
+            return null; // Ältere Server würden die private Nachricht an alle verteilen
+        }
+        return ChatMessage.direct(username, recipient, text);
     }
 
 
@@ -521,14 +1115,25 @@ public class ChatClient extends Application {
                 new FileChooser.ExtensionFilter("Bilddateien", "*.png", "*.jpg", "*.jpeg", "*.gif")
         );
 
-        // Liest die ausgewählte Bilddatei und sendet sie im Base64-Format
         File selectedFile = fileChooser.showOpenDialog(null);
-        if (selectedFile != null) {
+        if (selectedFile == null) {
+            return;
+        }
+        if (connection.getProtocol() == ProtocolVersion.BINARY) {
+            if (!online) {
+                // Ankündigung und Upload gehören zu einer Verbindung und werden nicht zurückgehalten
+                displaySystemMessage("Keine Verbindung: Bilder können erst nach dem Wiederverbinden gesendet werden.");
+                return;
+            }
+            // Im Binärprotokoll wird nur ein Verweis angekündigt; kennt der Server den Inhalt noch nicht,
+            // fordert er ihn an und das Bild wird im Hintergrund in Stücken hochgeladen.
+            // Angezeigt wird es wie bei allen anderen, sobald der Server den Verweis verteilt (aus dem Zwischenspeicher).
+            fileSender.send(selectedFile.toPath(), currentView.getRoom());
+        } else {
+            // Ältere Server kennen nur das Textprotokoll: das ganze Bild als Base64 in einer Zeile
             try (FileInputStream fis = new FileInputStream(selectedFile)) {
                 byte[] imageBytes = fis.readAllBytes();
-                String encodedImage = Base64.getEncoder().encodeToString(imageBytes);
-                toServerWriter.println("IMAGE:" + username + ":" + encodedImage);
-                toServerWriter.flush();
+                send(ChatMessage.image(username, imageBytes));
             } catch (IOException e) {
                 // Zeigt eine Fehlermeldung an, falls das Bild nicht gesendet werden kann
                 showError("Fehler beim Senden des Bildes: " + e.getMessage());
@@ -536,86 +1141,41 @@ public class ChatClient extends Application {
         }
     }
 
-    private void displayMessage(String sender, String message) {
-        // Überprüft, ob der Absender der Benutzer selbst ist
-        boolean isCurrentUser = sender.equals(username);
-
-        // Label für den Absender
-        Label senderLabel = new Label(isCurrentUser ? "Du" : sender);
-        senderLabel.setFont(Font.font("Segoe UI", 12));
-        senderLabel.setStyle("-fx-text-fill: black;");
-
-        // Label für die Nachricht
-        Label messageLabel = new Label(replaceEmojis(message));
-        messageLabel.setWrapText(true);
-        messageLabel.setFont(Font.font("Segoe UI", 14));
-
-        // Richtet das Styling basierend auf dem Absender ein
-        if (isCurrentUser) {
-            messageLabel.setStyle("""
-            -fx-background-color: #d1e7dd;
-            -fx-text-fill: #000000;
-            -fx-padding: 10;
-            -fx-border-radius: 10;
-            -fx-background-radius: 10;
-            """);
-            messageLabel.setTextAlignment(TextAlignment.RIGHT);
-        } else {
-            messageLabel.setStyle("""
-            -fx-background-color: #e0f7fa;
-            -fx-text-fill: #000000;
-            -fx-padding: 10;
-            -fx-border-radius: 10;
-            -fx-background-radius: 10;
-            """);
-            messageLabel.setTextAlignment(TextAlignment.LEFT);
-        }
+    private void displayMessage(String sender, String message, String room, long sequence) {
+        addToRoom(room, ChatEntry.text(sender, Emojis.replace(message), sequence));
+    }
 
-        // VBox für Benutzername und Nachricht
-        VBox messageBox = new VBox(5, senderLabel, messageLabel);
-        if (isCurrentUser) {
-            messageBox.setAlignment(Pos.CENTER_RIGHT);
+    // Zeigt eine empfangene Datei an: Bilder direkt, andere Dateien als Hinweis mit dem Speicherort
+    private void displayFile(String sender, String fileName, Path file, String room, long sequence) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".gif")) {
+            // Das Bild wird erst von der Zelle im Hintergrund geladen
+            displayImage(sender, file, room, sequence);
         } else {
-            messageBox.setAlignment(Pos.CENTER_LEFT);
+            displaySystemMessage(sender + " hat die Datei " + fileName + " gesendet: " + file, room, sequence);
         }
-
-        // Fügt die Nachricht zur Benutzeroberfläche hinzu
-        messageContainer.getChildren().add(messageBox);
     }
 
-
-
-    private void displayImage(String sender, String base64Image) {
-        // Dekodiert das Base64-Bild und zeigt es mit einem Label an
-        byte[] imageBytes = Base64.getDecoder().decode(base64Image);
-        Image image = new Image(new ByteArrayInputStream(imageBytes));
-        ImageView imageView = new ImageView(image);
-        imageView.setFitWidth(200);
-        imageView.setPreserveRatio(true);
-
-        // Label für den Absender der Bildnachricht
-        Label senderLabel = new Label(sender + " hat ein Bild gesendet:");
-        senderLabel.setFont(Font.font("Segoe UI", 14));
-        senderLabel.setStyle("-fx-text-fill: black;");
-
-        // Ermöglicht das Öffnen des Bildes in einem neuen Fenster bei Klick
-        imageView.setOnMouseClicked(event -> openImageInNewWindow(image, sender));
-
-        VBox imageBox = new VBox(5, senderLabel, imageView);
-        imageBox.setAlignment(Pos.CENTER_LEFT);
-        messageContainer.getChildren().add(imageBox);
+    private void displayImage(String sender, Path file, String room, long sequence) {
+        addToRoom(room, ChatEntry.image(sender, file, sequence));
     }
 
-    private void openImageInNewWindow(Image image, String sender) {
+    private void openImageInNewWindow(Path file, String sender) {
         // Öffnet ein Bild in einem neuen Fenster
         Stage imageStage = new Stage();
         VBox root = new VBox();
         root.setPadding(new Insets(10));
         root.setAlignment(Pos.CENTER);
 
-        ImageView imageView = new ImageView(image);
+        // Bis das Bild in voller Größe geladen ist, wird die Vorschau angezeigt
+        ImageView imageView = new ImageView(imageCache.get(file, true));
         imageView.setPreserveRatio(true);
         imageView.setFitWidth(500);
+        imageCache.load(file, false, image -> {
+            if (image != null) {
+                imageView.setImage(image);
+            }
+        });
 
         root.getChildren().addAll(imageView);
 
@@ -625,20 +1185,13 @@ public class ChatClient extends Application {
         imageStage.show();
     }
 
+    // Lokaler Hinweis im angezeigten Raum
     private void displaySystemMessage(String message) {
-        // Zeigt Systemnachrichten in der Benutzeroberfläche an
-        Label messageLabel = new Label(message);
-        messageLabel.setWrapText(true);
-        messageLabel.setTextAlignment(TextAlignment.LEFT);
-        messageLabel.setFont(Font.font("Segoe UI", 14));
-        messageLabel.setStyle("""
-            -fx-background-color: #ffcccb;
-            -fx-text-fill: #000000;
-            -fx-padding: 10;
-            -fx-border-radius: 10;
-            -fx-background-radius: 10;
-            """);
-        messageContainer.getChildren().add(messageLabel);
+        displaySystemMessage(message, currentView.getRoom(), 0);
+    }
+
+    private void displaySystemMessage(String message, String room, long sequence) {
+        addToRoom(room, ChatEntry.system(message, sequence));
     }
 
     private void showError(String message) {
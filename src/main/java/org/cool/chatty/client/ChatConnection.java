@@ -0,0 +1,146 @@
+package org.cool.chatty.client;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.cool.chatty.protocol.TextCodec;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Die Verbindung eines Clients zum Server, unabhängig von der Benutzeroberfläche.
+ * Meldet sich an, handelt dabei das Protokoll aus und liest bzw. schreibt Nachrichten
+ * im Textformat (v1) oder als binäre Frames (v2).
+ */
+public class ChatConnection implements Closeable {
+    private final Socket socket; // Verbindung zum Server
+    private final InputStream fromServer; // Gepufferter Eingangsstrom (Zeilen oder Frames)
+    private final DataInputStream fromServerFrames; // Derselbe Strom für binäre Frames
+    private final OutputStream toServer; // Ausgangsstrom; jede Nachricht wird in einem Stück geschrieben
+    private final ReentrantLock writeLock = new ReentrantLock(); // Verhindert vermischte Nachrichten mehrerer Threads
+    private final Consumer<String> onInvalidLine; // Erhält übersprungene Zeilen des Textprotokolls (im lesenden Thread)
+
+    private volatile ProtocolVersion protocol = ProtocolVersion.TEXT; // Ausgehandeltes Protokoll
+    private ChatMessage pending; // Erste Nachricht eines Servers, der das Binärprotokoll nicht kennt
+    private String sessionToken; // Token der Sitzung aus der Bestätigung des Servers (null = keine Sitzung)
+    private boolean resumed; // Der Server hat die bisherige Sitzung samt Räumen fortgesetzt
+
+    public ChatConnection(String address, int port) throws IOException {
+        this(address, port, line -> {
+        });
+    }
+
+    public ChatConnection(String address, int port, Consumer<String> onInvalidLine) throws IOException {
+        this.onInvalidLine = onInvalidLine;
+        socket = new Socket(address, port);
+        fromServer = new BufferedInputStream(socket.getInputStream());
+        fromServerFrames = new DataInputStream(fromServer);
+        toServer = socket.getOutputStream();
+    }
+
+    /**
+     * Meldet den Benutzer beim Server an.
+     * @param username Der Benutzername
+     * @param preferBinary true, um das Binärprotokoll anzufragen; ältere Server antworten weiter im Textformat
+     */
+    public void connect(String username, boolean preferBinary) throws IOException {
+        connect(username, preferBinary, null);
+    }
+
+    /**
+     * Meldet den Benutzer beim Server an und fragt dabei eine Sitzung an (nur zusammen mit dem Binärprotokoll).
+     * @param session Token der Sitzung, die fortgesetzt werden soll, "" für eine neue Sitzung oder null für keine
+     */
+    public void connect(String username, boolean preferBinary, String session) throws IOException {
+        boolean withSession = preferBinary && session != null;
+        writeLine("CONNECT:" + username + (preferBinary ? TextCodec.BINARY_REQUEST : "")
+                + (withSession ? TextCodec.SESSION_REQUEST + session : ""));
+        if (preferBinary) {
+            // Die Antwort ist entweder die Bestätigung oder bereits die erste Nachricht eines älteren Servers
+            String reply = TextCodec.readLine(fromServer);
+            if (reply == null) {
+                throw new EOFException("Der Server hat die Verbindung beendet.");
+            }
+            if (reply.equals(TextCodec.PROTOCOL_ACK)) {
+                protocol = ProtocolVersion.BINARY;
+            } else if (withSession && reply.startsWith(TextCodec.PROTOCOL_ACK + TextCodec.SESSION_REQUEST)) {
+                protocol = ProtocolVersion.BINARY;
+                String token = reply.substring(TextCodec.PROTOCOL_ACK.length() + TextCodec.SESSION_REQUEST.length());
+                resumed = token.endsWith(TextCodec.SESSION_RESUMED);
+                sessionToken = resumed ? token.substring(0, token.length() - TextCodec.SESSION_RESUMED.length()) : token;
+            } else {
+                pending = TextCodec.decode(reply);
+            }
+        }
+    }
+
+    public ProtocolVersion getProtocol() {
+        return protocol;
+    }
+
+    // Token für das Fortsetzen der Sitzung nach einem Abbruch (null = der Server bietet keine Sitzungen an)
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    // true, wenn der Server bei der Anmeldung die bisherige Sitzung fortgesetzt hat
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Liest die nächste Nachricht vom Server (blockierend).
+     * Ungültige Zeilen des Textprotokolls werden übersprungen und an onInvalidLine gemeldet.
+     * @return Die Nachricht oder null, wenn der Server die Verbindung beendet hat
+     */
+    public ChatMessage read() throws IOException {
+        if (pending != null) {
+            ChatMessage message = pending;
+            pending = null;
+            return message;
+        }
+        if (protocol == ProtocolVersion.BINARY) {
+            return FrameCodec.read(fromServerFrames);
+        }
+        String line;
+        while ((line = TextCodec.readLine(fromServer)) != null) {
+            ChatMessage message = TextCodec.decode(line);
+            if (message != null) {
+                return message;
+            }
+            onInvalidLine.accept(line);
+        }
+        return null;
+    }
+
+    // Sendet eine Nachricht im ausgehandelten Format
+    public void send(ChatMessage message) throws IOException {
+        if (protocol == ProtocolVersion.BINARY) {
+            write(FrameCodec.encode(message));
+        } else {
+            writeLine(TextCodec.encode(message));
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        writeLock.lock();
+        try {
+            toServer.write(bytes);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
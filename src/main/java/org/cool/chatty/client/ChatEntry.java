@@ -0,0 +1,40 @@
+package org.cool.chatty.client;
+
+import java.nio.file.Path;
+
+/**
+ * Eine Nachricht im Nachrichtenbereich eines Raums.
+ * Die Liste eines Raums hält nur diese Einträge; angezeigt werden sie von wiederverwendeten MessageCells,
+ * so dass nur für den sichtbaren Ausschnitt Knoten existieren.
+ *
+ * @param kind Art der Anzeige
+ * @param sender Absender (leer bei Hinweisen)
+ * @param text Text der Nachricht bzw. des Hinweises (null bei Bildern)
+ * @param file Das Bild im Zwischenspeicher der Anhänge (nur bei IMAGE); geladen wird es erst von der Zelle
+ * @param sequence Nummer der Nachricht auf dem Server (0 = keine, z. B. lokale Hinweise)
+ * @param order Sortierschlüssel in der Liste; bei Einträgen ohne Nummer die größte Nummer beim Einfügen
+ */
+record ChatEntry(Kind kind, String sender, String text, Path file, long sequence, long order) {
+
+    enum Kind {
+        TEXT,
+        IMAGE,
+        SYSTEM
+    }
+
+    static ChatEntry text(String sender, String text, long sequence) {
+        return new ChatEntry(Kind.TEXT, sender, text, null, sequence, sequence);
+    }
+
+    static ChatEntry image(String sender, Path file, long sequence) {
+        return new ChatEntry(Kind.IMAGE, sender, null, file, sequence, sequence);
+    }
+
+    static ChatEntry system(String text, long sequence) {
+        return new ChatEntry(Kind.SYSTEM, "", text, null, sequence, sequence);
+    }
+
+    ChatEntry withOrder(long order) {
+        return new ChatEntry(kind, sender, text, file, sequence, order);
+    }
+}
@@ -0,0 +1,32 @@
+package org.cool.chatty.client;
+
+import java.util.Map;
+
+/**
+ * Ersetzt Textkürzel wie :) durch Unicode-Emojis.
+ * Unabhängig von JavaFX, damit die Ersetzung auch außerhalb der Oberfläche (z. B. in Benchmarks) verwendet werden kann.
+ */
+public final class Emojis {
+
+    // Map für Textkürzel zu Unicode-Emoji
+    private static final Map<String, String> EMOJIS = Map.of(
+            ":)", "\uD83D\uDE42",  // 🙂 - lächelnd
+            ":D", "\uD83D\uDE04",  // 😀 - lachend
+            ":(", "\uD83D\uDE41"   // 🙁 - traurig
+    );
+
+    private Emojis() {
+    }
+
+    /**
+     * Ersetzt Textkürzel wie :) durch Unicode-Emojis.
+     * @param message Die ursprüngliche Nachricht
+     * @return Die Nachricht mit Emojis
+     */
+    public static String replace(String message) {
+        for (Map.Entry<String, String> entry : EMOJIS.entrySet()) {
+            message = message.replace(entry.getKey(), entry.getValue());
+        }
+        return message;
+    }
+}
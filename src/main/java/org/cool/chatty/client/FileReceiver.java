@@ -0,0 +1,165 @@
+package org.cool.chatty.client;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FileTransfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Setzt empfangene Dateien Stück für Stück in einer temporären Datei zusammen.
+ * Im Speicher liegt dabei immer nur das aktuelle Stück, unabhängig von der Größe der Datei.
+ * Der Hash wird beim Schreiben mitberechnet; eine Datei gilt nur als empfangen, wenn er zum angekündigten passt.
+ * Wird nur vom Empfangs-Thread aufgerufen und ist daher nicht threadsicher.
+ */
+public class FileReceiver {
+
+    // Wird über fertige und fehlgeschlagene Übertragungen informiert (im Empfangs-Thread)
+    public interface Listener {
+        void fileReceived(String sender, FileTransfer.Attachment attachment, Path file);
+
+        void transferFailed(String sender, FileTransfer.Attachment attachment, String reason);
+    }
+
+    // Zustand einer laufenden Übertragung
+    private static final class Transfer {
+        private final String sender;
+        private final FileTransfer.Attachment info;
+        private final Path file;
+        private final FileChannel channel;
+        private final MessageDigest digest = AttachmentCache.newDigest();
+        private int nextSequence; // Erwartete Nummer des nächsten Stücks
+        private long received; // Bisher empfangene Bytes
+
+        private Transfer(String sender, FileTransfer.Attachment info, Path file, FileChannel channel) throws IOException {
+            this.sender = sender;
+            this.info = info;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Transfer> transfers = new HashMap<>(); // Laufende Übertragungen je Absender und Kennung
+
+    public FileReceiver(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Verarbeitet FILE_START, FILE_CHUNK und FILE_END
+    public void accept(ChatMessage message) {
+        String key = message.getSender() + "/" + FileTransfer.transferId(message);
+        switch (message.getType()) {
+            case FILE_START -> start(key, message);
+            case FILE_CHUNK -> {
+                Transfer transfer = transfers.get(key);
+                if (transfer != null) {
+                    chunk(key, transfer, message);
+                }
+            }
+            case FILE_END -> {
+                Transfer transfer = transfers.get(key);
+                if (transfer != null) {
+                    end(key, transfer, FileTransfer.sequence(message));
+                }
+            }
+            default -> throw new IllegalArgumentException("Keine Dateiübertragung: " + message.getType());
+        }
+    }
+
+    private void start(String key, ChatMessage message) {
+        FileTransfer.Attachment info = FileTransfer.fileInfo(message).attachment();
+        try {
+            // Nur die Dateiendung wird übernommen, der Name des Absenders bestimmt keinen Pfad
+            Path file = Files.createTempFile("chatty-", extensionOf(info.fileName()));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            Transfer previous = transfers.put(key, new Transfer(message.getSender(), info, file, channel));
+            if (previous != null) {
+                discard(previous);
+            }
+        } catch (IOException e) {
+            listener.transferFailed(message.getSender(), info, e.getMessage());
+        }
+    }
+
+    private void chunk(String key, Transfer transfer, ChatMessage message) {
+        // Ein fehlendes Stück (z. B. vom Server für einen langsamen Empfänger verworfen) macht die Datei unbrauchbar
+        if (FileTransfer.sequence(message) != transfer.nextSequence) {
+            fail(key, transfer, "Stück " + transfer.nextSequence + " fehlt.");
+            return;
+        }
+        ByteBuffer data = FileTransfer.chunkData(message);
+        transfer.received += data.remaining();
+        if (transfer.received > transfer.info.size()) {
+            fail(key, transfer, "Mehr Daten als angekündigt.");
+            return;
+        }
+        transfer.digest.update(data.duplicate());
+        try {
+            while (data.hasRemaining()) {
+                transfer.channel.write(data);
+            }
+            transfer.nextSequence++;
+        } catch (IOException e) {
+            fail(key, transfer, e.getMessage());
+        }
+    }
+
+    private void end(String key, Transfer transfer, int chunkCount) {
+        if (chunkCount != transfer.nextSequence || transfer.received != transfer.info.size()) {
+            fail(key, transfer, "Datei unvollständig.");
+            return;
+        }
+        if (!FileTransfer.toHex(transfer.digest.digest()).equals(transfer.info.hash())) {
+            fail(key, transfer, "Der Inhalt passt nicht zum Hash.");
+            return;
+        }
+        transfers.remove(key);
+        try {
+            transfer.channel.close();
+            listener.fileReceived(transfer.sender, transfer.info, transfer.file);
+        } catch (IOException e) {
+            listener.transferFailed(transfer.sender, transfer.info, e.getMessage());
+        }
+    }
+
+    private void fail(String key, Transfer transfer, String reason) {
+        transfers.remove(key);
+        discard(transfer);
+        listener.transferFailed(transfer.sender, transfer.info, reason);
+    }
+
+    // Bricht alle laufenden Übertragungen ab, z. B. wenn die Verbindung getrennt wurde
+    public void close() {
+        for (Transfer transfer : transfers.values()) {
+            discard(transfer);
+        }
+        transfers.clear();
+    }
+
+    // Schließt und löscht die unvollständige Datei; gelingt das nicht, wird sie beim Beenden gelöscht
+    private static void discard(Transfer transfer) {
+        try {
+            transfer.channel.close();
+            Files.deleteIfExists(transfer.file);
+        } catch (IOException e) {
+            transfer.file.toFile().deleteOnExit();
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return "";
+        }
+        String extension = fileName.substring(dot);
+        return extension.matches("\\.[A-Za-z0-9]{1,10}") ? extension : "";
+    }
+}
@@ -0,0 +1,118 @@
+package org.cool.chatty.client;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FileTransfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sendet Anhänge über das Binärprotokoll (siehe FileTransfer).
+ * Zuerst wird nur der Verweis (Hash, Größe, Name) in einem Raum angekündigt. Den Inhalt lädt der Client erst hoch,
+ * wenn der Server ihn mit FETCH anfordert, also wenn er ihn noch nicht kennt; FILE_END nennt dann den Raum,
+ * in dem der Server den Anhang verteilt.
+ * Der Upload läuft in einem eigenen Thread und liest die Datei stückweise,
+ * statt sie vollständig in den Speicher zu laden. Zwischen den Stücken können weiter Chat-Nachrichten gesendet werden.
+ */
+public class FileSender {
+    private static final long ACK_TIMEOUT_SECONDS = 30; // So lange wird höchstens auf eine Bestätigung gewartet
+
+    private final ChatConnection connection; // Verbindung zum Server
+    private final String username; // Absender der Dateien
+    private final AttachmentCache cache; // Eigene Anhänge werden hier abgelegt
+    private final Consumer<IOException> onError; // Wird bei einem Fehler aufgerufen (im Hintergrund- oder Empfangs-Thread)
+    private final AtomicInteger nextTransferId = new AtomicInteger(); // Kennung des nächsten Uploads
+    private final Map<String, ChatMessage> offered = new ConcurrentHashMap<>(); // Ankündigungen (ATTACHMENT) je Hash
+    private final Map<Integer, Semaphore> windows = new ConcurrentHashMap<>(); // Freie Plätze im Fenster je Upload
+
+    public FileSender(ChatConnection connection, String username, AttachmentCache cache, Consumer<IOException> onError) {
+        this.connection = connection;
+        this.username = username;
+        this.cache = cache;
+        this.onError = onError;
+    }
+
+    // Berechnet im Hintergrund den Hash einer Datei und kündigt sie im angegebenen Raum an
+    public void send(Path file, String room) {
+        inBackground(() -> {
+            String hash = AttachmentCache.hashOf(file);
+            cache.copy(hash, file);
+            FileTransfer.Attachment attachment =
+                    new FileTransfer.Attachment(hash, Files.size(file), file.getFileName().toString());
+            ChatMessage announcement = FileTransfer.attachment(username, attachment).withRoom(room);
+            offered.put(hash, announcement);
+            connection.send(announcement);
+        });
+    }
+
+    // Der Server fordert den Inhalt eines angekündigten Anhangs an (FETCH)
+    public void upload(String hash) {
+        ChatMessage announcement = offered.remove(hash);
+        Path file = cache.get(hash);
+        if (announcement == null || file == null) {
+            // Z. B. nach einem Wiederverbinden angefordert, die Ankündigung kannte nur die vorige Verbindung
+            onError.accept(new IOException("Der Server hat einen unbekannten Anhang angefordert."));
+            return;
+        }
+        inBackground(() -> transfer(file, FileTransfer.attachment(announcement), announcement.getRoom()));
+    }
+
+    // Verarbeitet eine Bestätigung (FILE_ACK) des Servers
+    public void acknowledge(ChatMessage ack) {
+        Semaphore window = windows.get(FileTransfer.transferId(ack));
+        if (window != null) {
+            window.release();
+        }
+    }
+
+    private void transfer(Path file, FileTransfer.Attachment attachment, String room) throws IOException {
+        int transferId = nextTransferId.incrementAndGet();
+        // Höchstens WINDOW Stücke dürfen unbestätigt sein; jede Bestätigung des Servers gibt einen Platz frei
+        Semaphore window = new Semaphore(FileTransfer.WINDOW);
+        windows.put(transferId, window);
+        try (InputStream in = Files.newInputStream(file)) {
+            connection.send(FileTransfer.start(username, transferId, attachment));
+            byte[] buffer = new byte[FileTransfer.CHUNK_SIZE];
+            int sequence = 0;
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                if (!window.tryAcquire(ACK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IOException("Der Server hat die Datei nicht rechtzeitig bestätigt.");
+                }
+                connection.send(FileTransfer.chunk(username, transferId, sequence++, buffer, read));
+            }
+            connection.send(FileTransfer.end(username, transferId, sequence).withRoom(room));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Übertragung abgebrochen.");
+        } finally {
+            windows.remove(transferId);
+        }
+    }
+
+    // Eine Aufgabe, die eine IOException werfen kann
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private void inBackground(Task task) {
+        Thread sender = new Thread(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                onError.accept(e);
+            }
+        }, "file-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+}
@@ -0,0 +1,116 @@
+package org.cool.chatty.client;
+
+import javafx.scene.image.Image;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Lädt Bilder aus dem Zwischenspeicher der Anhänge im Hintergrund und hält die geladenen Bilder im Speicher.
+ * Für den Nachrichtenbereich wird nur ein verkleinertes Vorschaubild dekodiert; das Bild in voller Größe
+ * erst, wenn es geöffnet wird.
+ * Die geladenen Bilder liegen in einem LRU-Cache, dessen Größe in Bytes (Breite x Höhe x 4) begrenzt ist:
+ * wer zurückscrollt, bekommt das Vorschaubild ohne erneutes Dekodieren, und der Speicher bleibt beschränkt.
+ * Der Cache selbst wird nur im JavaFX-Thread verwendet; dekodiert wird in eigenen Threads.
+ */
+class ImageCache {
+    static final int THUMBNAIL_WIDTH = 200; // Breite der Vorschau im Nachrichtenbereich
+
+    private record Key(Path file, boolean thumbnail) {
+    }
+
+    private final long maxBytes;
+    private final Executor fxThread; // Führt die Rückmeldungen im JavaFX-Thread aus
+    private final ExecutorService decoder = Executors.newFixedThreadPool(2,
+            Thread.ofPlatform().name("chatty-images-", 0).daemon().factory());
+    private final Map<Key, Image> images = new LinkedHashMap<>(16, 0.75f, true); // Zugriffsreihenfolge: LRU zuerst
+    private final Map<Key, List<Consumer<Image>>> loading = new HashMap<>(); // Laufende Ladevorgänge mit ihren Wartenden
+    private long bytes; // Geschätzter Speicher aller Bilder im Cache
+
+    /**
+     * @param maxBytes Obergrenze für den Speicher der Bilder im Cache
+     * @param fxThread Führt Aufgaben im JavaFX-Thread aus
+     */
+    ImageCache(long maxBytes, Executor fxThread) {
+        this.maxBytes = maxBytes;
+        this.fxThread = fxThread;
+    }
+
+    // Liefert das Bild, falls es bereits geladen ist, sonst null
+    Image get(Path file, boolean thumbnail) {
+        return images.get(new Key(file, thumbnail));
+    }
+
+    /**
+     * Lädt ein Bild im Hintergrund, falls es nicht im Cache liegt.
+     * done wird im JavaFX-Thread mit dem Bild aufgerufen, oder mit null, wenn es nicht gelesen werden konnte.
+     * Mehrere Anfragen für dasselbe Bild teilen sich einen Ladevorgang.
+     */
+    void load(Path file, boolean thumbnail, Consumer<Image> done) {
+        Key key = new Key(file, thumbnail);
+        Image cached = images.get(key);
+        if (cached != null) {
+            done.accept(cached);
+            return;
+        }
+        List<Consumer<Image>> waiting = loading.get(key);
+        if (waiting != null) {
+            waiting.add(done);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(done);
+        loading.put(key, waiting);
+        decoder.execute(() -> {
+            Image result = null;
+            try {
+                // Ohne Hintergrundladen dekodiert der Konstruktor sofort in diesem Thread, die Vorschau schon verkleinert
+                Image image = new Image(file.toUri().toString(), thumbnail ? THUMBNAIL_WIDTH : 0, 0, true, true, false);
+                result = image.isError() ? null : image;
+            } catch (RuntimeException e) {
+                // Nicht lesbar: die Wartenden erhalten null
+            } finally {
+                // Auch bei einem Fehler, sonst bliebe der Ladevorgang hängen und jede weitere Anfrage würde nur warten
+                Image image = result;
+                fxThread.execute(() -> loaded(key, image));
+            }
+        });
+    }
+
+    private void loaded(Key key, Image image) {
+        if (image != null) {
+            put(key, image);
+        }
+        for (Consumer<Image> done : loading.remove(key)) {
+            done.accept(image);
+        }
+    }
+
+    // Legt ein Bild ab und verdrängt die am längsten nicht verwendeten, bis die Obergrenze wieder eingehalten ist
+    private void put(Key key, Image image) {
+        Image previous = images.put(key, image);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+        bytes += weight(image);
+        Iterator<Image> eldest = images.values().iterator();
+        // Das neue Bild bleibt auch dann, wenn es allein schon größer als die Obergrenze ist
+        while (bytes > maxBytes && images.size() > 1) {
+            bytes -= weight(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+}
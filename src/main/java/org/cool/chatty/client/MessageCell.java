@@ -0,0 +1,135 @@
+package org.cool.chatty.client;
+
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.util.function.Consumer;
+
+/**
+ * Zeigt einen ChatEntry an: Absender, Text bzw. Bild und Hinweise.
+ * Die ListView legt nur so viele Zellen an, wie sichtbar sind, und belegt sie beim Scrollen neu;
+ * die Knoten einer Zelle werden deshalb einmal erzeugt und in updateItem nur umgestellt.
+ * Bilder kommen als Vorschau aus dem ImageCache; ist sie noch nicht geladen, wird sie nachgereicht.
+ */
+class MessageCell extends ListCell<ChatEntry> {
+    private static final String OWN_STYLE = """
+            -fx-background-color: #d1e7dd;
+            -fx-text-fill: #000000;
+            -fx-padding: 10;
+            -fx-border-radius: 10;
+            -fx-background-radius: 10;
+            """;
+    private static final String OTHER_STYLE = """
+            -fx-background-color: #e0f7fa;
+            -fx-text-fill: #000000;
+            -fx-padding: 10;
+            -fx-border-radius: 10;
+            -fx-background-radius: 10;
+            """;
+    private static final String SYSTEM_STYLE = """
+            -fx-background-color: #ffcccb;
+            -fx-text-fill: #000000;
+            -fx-padding: 10;
+            -fx-border-radius: 10;
+            -fx-background-radius: 10;
+            """;
+
+    private final String username; // Eigene Nachrichten werden rechts als "Du" angezeigt
+    private final ImageCache images;
+    private final Label senderLabel = new Label();
+    private final Label messageLabel = new Label();
+    private final ImageView imageView = new ImageView();
+    private final VBox box = new VBox(5, senderLabel, messageLabel, imageView);
+
+    /**
+     * @param username Name des Benutzers
+     * @param images Liefert die Vorschaubilder
+     * @param openImage Wird beim Klick auf ein Bild aufgerufen
+     */
+    MessageCell(String username, ImageCache images, Consumer<ChatEntry> openImage) {
+        this.username = username;
+        this.images = images;
+        senderLabel.setStyle("-fx-text-fill: black;");
+        messageLabel.setWrapText(true);
+        messageLabel.setFont(Font.font("Segoe UI", 14));
+        imageView.setFitWidth(ImageCache.THUMBNAIL_WIDTH);
+        imageView.setPreserveRatio(true);
+        imageView.setOnMouseClicked(event -> {
+            if (getItem() != null && getItem().file() != null) {
+                openImage.accept(getItem());
+            }
+        });
+        // Ohne eigene Breite richtet sich die Zelle nach der Liste, so dass lange Texte umbrechen statt seitlich zu scrollen
+        setPrefWidth(0);
+        setStyle("-fx-background-color: transparent; -fx-padding: 5 10 5 10;");
+    }
+
+    @Override
+    protected void updateItem(ChatEntry entry, boolean empty) {
+        super.updateItem(entry, empty);
+        setText(null);
+        if (empty || entry == null) {
+            imageView.setImage(null); // Das Bild nicht über die Zelle festhalten
+            setGraphic(null);
+            return;
+        }
+        boolean isCurrentUser = entry.sender().equals(username);
+        switch (entry.kind()) {
+            case TEXT -> {
+                show(true, true, false);
+                senderLabel.setText(isCurrentUser ? "Du" : entry.sender());
+                senderLabel.setFont(Font.font("Segoe UI", 12));
+                messageLabel.setText(entry.text());
+                messageLabel.setStyle(isCurrentUser ? OWN_STYLE : OTHER_STYLE);
+                messageLabel.setTextAlignment(isCurrentUser ? TextAlignment.RIGHT : TextAlignment.LEFT);
+                box.setAlignment(isCurrentUser ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+                imageView.setImage(null);
+            }
+            case IMAGE -> {
+                show(true, false, true);
+                senderLabel.setText(entry.sender() + " hat ein Bild gesendet:");
+                senderLabel.setFont(Font.font("Segoe UI", 14));
+                box.setAlignment(Pos.CENTER_LEFT);
+                showThumbnail(entry);
+            }
+            case SYSTEM -> {
+                show(false, true, false);
+                messageLabel.setText(entry.text());
+                messageLabel.setStyle(SYSTEM_STYLE);
+                messageLabel.setTextAlignment(TextAlignment.LEFT);
+                box.setAlignment(Pos.CENTER_LEFT);
+                imageView.setImage(null);
+            }
+        }
+        setGraphic(box);
+    }
+
+    private void showThumbnail(ChatEntry entry) {
+        Image thumbnail = images.get(entry.file(), true);
+        imageView.setImage(thumbnail);
+        if (thumbnail == null) {
+            // Wurde die Zelle inzwischen neu belegt, gehört das Bild nicht mehr zu ihr
+            images.load(entry.file(), true, image -> {
+                if (getItem() == entry) {
+                    imageView.setImage(image);
+                }
+            });
+        }
+    }
+
+    // Blendet die Teile der Zelle ein bzw. aus; ausgeblendete Teile belegen keinen Platz
+    private void show(boolean sender, boolean message, boolean image) {
+        senderLabel.setVisible(sender);
+        senderLabel.setManaged(sender);
+        messageLabel.setVisible(message);
+        messageLabel.setManaged(message);
+        imageView.setVisible(image);
+        imageView.setManaged(image);
+    }
+}
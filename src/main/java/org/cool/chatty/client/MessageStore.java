@@ -0,0 +1,195 @@
+package org.cool.chatty.client;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.MessageType;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Lokale Kopie der letzten Nachrichten eines Servers, damit der Client nach einem Neustart sofort etwas anzeigt
+ * und vom Server nur die seitdem verteilten Nachrichten anfordert (HISTORY SINCE_SEQUENCE).
+ * Die Datei hat eine feste Größe und ist in den Speicher eingeblendet (memory-mapped); Einträge werden nur angehängt.
+ * Ist sie voll, wird die ältere Hälfte verworfen und der Rest an den Anfang verschoben.
+ * Ein Eintrag ist wie im MessageLog des Servers aufgebaut:
+ *
+ * <pre>
+ * int32   Länge des Frames
+ * int32   CRC32C über den Frame
+ * byte[]  Die Nachricht als Frame (FrameCodec, inklusive Längenfeld)
+ * </pre>
+ *
+ * Gespeichert werden nur nummerierte Nachrichten der Räume: Texte, Hinweise und Verweise auf Anhänge,
+ * und nur solche, die neuer sind als der Stand beim Öffnen. Weil Live-Nachrichten und Antworten auf Verlaufsanfragen
+ * sich überschneiden, ist die Datei nicht streng sortiert; recent sortiert deshalb und entfernt Doppelte.
+ * Die Anhänge selbst liegen im AttachmentCache, aus dem auch die Vorschaubilder geladen werden.
+ * Geschrieben wird nur aus dem Empfangs-Thread; gelesen wird, bevor er startet.
+ * Erzwungen (fsync) wird nicht: die Seiten schreibt das Betriebssystem auch nach einem Absturz des Clients,
+ * und ein beschädigter Rest am Ende wird beim Öffnen abgeschnitten.
+ */
+class MessageStore {
+    private static final int HEADER = 8; // Länge und Prüfsumme
+    private static final Set<MessageType> STORED = EnumSet.of(MessageType.TEXT, MessageType.SYSTEM, MessageType.ATTACHMENT);
+    private static final int RECENT_SEQUENCES = 4096; // So viele zuletzt gespeicherte Nummern werden nicht erneut gespeichert
+
+    private final MappedByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+    private int[] offsets = new int[1024]; // Anfang jedes Eintrags, aufsteigend
+    private int count; // Anzahl der Einträge
+    private int end; // Ende des letzten gültigen Eintrags
+    private long openSequence; // Größte Nummer beim Öffnen; ältere Nachrichten werden nicht gespeichert
+    private final Set<Long> recentSequences = new LinkedHashSet<>(); // Zuletzt gespeicherte Nummern, älteste zuerst
+
+    /**
+     * Öffnet die Datei oder legt sie an.
+     * @param file Die Datei
+     * @param capacity Größe der Datei in Bytes; eine bestehende Datei behält ihre Größe
+     */
+    MessageStore(Path file, int capacity) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = Math.max(channel.size(), capacity);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // Vergrößert die Datei bei Bedarf (mit Nullen)
+        }
+        recover();
+    }
+
+    // Standarddatei für einen Server im Benutzerordner
+    static MessageStore inUserHome(String address, int port, int capacity) throws IOException {
+        String name = (address + "_" + port).replaceAll("[^A-Za-z0-9._-]", "_") + ".store";
+        return new MessageStore(Path.of(System.getProperty("user.home"), ".chatty", "messages", name), capacity);
+    }
+
+    // Liest die Einträge bis zum ersten unvollständigen oder beschädigten (bzw. bis zu den Nullen am Ende)
+    private void recover() {
+        int position = 0;
+        while (position + HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < 4 || length > buffer.capacity() - position - HEADER
+                    || checksum(position + HEADER, length) != buffer.getInt(position + 4)) {
+                break;
+            }
+            addOffset(position);
+            position += HEADER + length;
+        }
+        end = position;
+        for (int i = 0; i < count; i++) {
+            openSequence = Math.max(openSequence, sequenceAt(offsets[i]));
+        }
+        clearTail();
+    }
+
+    /**
+     * Hängt eine Nachricht an, falls sie gespeichert wird, neuer als der Stand beim Öffnen ist
+     * und nicht gerade erst gespeichert wurde. Ältere Seiten des Verlaufs werden also nicht abgelegt.
+     */
+    void append(ChatMessage message) {
+        long sequence = message.getSequence();
+        if (sequence <= openSequence || !STORED.contains(message.getType()) || !recentSequences.add(sequence)) {
+            return;
+        }
+        if (recentSequences.size() > RECENT_SEQUENCES) {
+            recentSequences.remove(recentSequences.iterator().next());
+        }
+        byte[] frame = FrameCodec.encode(message);
+        int size = HEADER + frame.length;
+        if (size > buffer.capacity() / 2) {
+            return; // Passt auch nach dem Kürzen nicht sinnvoll hinein
+        }
+        if (end + size > buffer.capacity()) {
+            compact();
+        }
+        buffer.put(end + HEADER, frame);
+        buffer.putInt(end + 4, checksum(end + HEADER, frame.length));
+        buffer.putInt(end, frame.length); // Zuletzt: erst mit der Länge wird der Eintrag beim Öffnen gefunden
+        addOffset(end);
+        end += size;
+        clearTail();
+    }
+
+    /**
+     * Liefert die letzten Nachrichten eines Raums, aufsteigend nach Nummer und ohne Doppelte.
+     * @param limit Höchstens so viele
+     */
+    List<ChatMessage> recent(String room, int limit) {
+        TreeMap<Long, ChatMessage> result = new TreeMap<>();
+        for (int i = count - 1; i >= 0; i--) {
+            ChatMessage message = read(offsets[i]);
+            if (message != null && message.getRoom().equals(room)) {
+                result.put(message.getSequence(), message);
+                if (result.size() > limit) {
+                    result.pollFirstEntry();
+                }
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    // Verwirft die ältere Hälfte der Einträge und verschiebt den Rest an den Anfang
+    private void compact() {
+        int keepFrom = 0;
+        while (keepFrom < count && offsets[keepFrom] < end / 2) {
+            keepFrom++;
+        }
+        int start = keepFrom < count ? offsets[keepFrom] : end;
+        buffer.put(0, buffer, start, end - start);
+        for (int i = keepFrom; i < count; i++) {
+            offsets[i - keepFrom] = offsets[i] - start;
+        }
+        count -= keepFrom;
+        end -= start;
+    }
+
+    // Nullt die Länge hinter dem letzten Eintrag, damit beim Öffnen keine alten Einträge dahinter gefunden werden
+    private void clearTail() {
+        if (end + 4 <= buffer.capacity()) {
+            buffer.putInt(end, 0);
+        }
+    }
+
+    private void addOffset(int offset) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = offset;
+    }
+
+    private ChatMessage read(int offset) {
+        int length = buffer.getInt(offset);
+        // FrameCodec arbeitet auf einem Array; das Längenfeld des Frames wird übersprungen
+        byte[] body = new byte[length - 4];
+        buffer.get(offset + HEADER + 4, body);
+        try {
+            return FrameCodec.decode(ByteBuffer.wrap(body));
+        } catch (ProtocolException e) {
+            return null;
+        }
+    }
+
+    private long sequenceAt(int offset) {
+        ChatMessage message = read(offset);
+        return message != null ? message.getSequence() : 0;
+    }
+
+    private int checksum(int offset, int length) {
+        crc.reset();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,261 @@
+package org.cool.chatty.client;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.util.Callback;
+import org.cool.chatty.protocol.History;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Nachrichtenbereich eines Raums oder einer privaten Unterhaltung im ChatClient.
+ * Hält die Nachrichten nach ihrer Nummer sortiert und merkt sich, wie weit der Verlauf schon nachgeladen ist.
+ * Die Nachrichten liegen als ChatEntry in einer ListView, die nur für den sichtbaren Ausschnitt Zellen anlegt.
+ * Im Speicher bleiben höchstens window Nachrichten: Wer am Ende mitliest, verliert die ältesten,
+ * sie werden beim Scrollen nach oben wieder als Verlauf geladen. Liest der Benutzer weiter oben,
+ * wird erst gekürzt, wenn er wieder am Ende ist, damit der sichtbare Ausschnitt nicht springt.
+ * Wird nur im JavaFX-Thread verwendet.
+ */
+class RoomView {
+    static final String DIRECT_PREFIX = "@"; // Private Unterhaltungen heißen "@Name"; Raumnamen dürfen so nicht beginnen
+
+    private final String room; // Name des Raums ("" = Standardraum) bzw. "@Name" für eine private Unterhaltung
+    private final int window; // Höchstens so viele Nachrichten im Speicher, solange der Benutzer am Ende ist
+    private final ObservableList<ChatEntry> entries = FXCollections.observableArrayList(); // Sortiert nach order
+    private final ListView<ChatEntry> list = new ListView<>(entries);
+    private final Set<Long> shownSequences = new HashSet<>(); // Bereits angezeigte Nummern (Verlauf und Live-Nachrichten überschneiden sich)
+    private long newestSequence; // Größte angezeigte Nummer
+    private VirtualFlow<?> flow; // Scrollbereich der ListView, sobald sie angezeigt wird
+    private Runnable onScrollTop; // Wird aufgerufen, wenn der Benutzer oben ankommt
+
+    private long historyCursor; // Ab dieser Nummer wird die nächste ältere Seite angefordert (0 = noch keine Antwort)
+    private boolean historyLoading; // Eine Anfrage ist unterwegs
+    private boolean historyHasMore; // Der Server hat noch ältere Nachrichten
+    private boolean trimmedWhileLoading; // Während einer Anfrage wurde gekürzt: deren Fortsetzungsnummer gilt nicht mehr
+    private long syncCursor; // Aus dem MessageStore angezeigt: ab dieser Nummer wird nachgeladen (0 = nichts nachzuladen)
+    private boolean stickToBottom = true; // Der Benutzer ist am Ende: neue Nachrichten scrollen mit
+
+    RoomView(String room, int window, Callback<ListView<ChatEntry>, ListCell<ChatEntry>> cellFactory) {
+        this.room = room;
+        this.window = window;
+        this.historyHasMore = !isDirect(); // Private Nachrichten speichert der Server nicht
+        list.setCellFactory(cellFactory);
+        list.setFocusTraversable(false);
+        list.setStyle("""
+        -fx-background-color: transparent;
+        -fx-control-inner-background: transparent;
+        -fx-border-color: transparent;
+        """);
+        // Den Scrollbereich gibt es erst mit dem Skin der ListView, also wenn sie zum ersten Mal angezeigt wird
+        list.skinProperty().addListener((observable, oldSkin, skin) -> {
+            if (flow == null && list.lookup(".virtual-flow") instanceof VirtualFlow<?> virtualFlow) {
+                flow = virtualFlow;
+                flow.positionProperty().addListener((position, oldValue, newValue) -> scrolled(oldValue.doubleValue(), newValue.doubleValue()));
+            }
+        });
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    boolean isDirect() {
+        return room.startsWith(DIRECT_PREFIX);
+    }
+
+    // Name des Gesprächspartners einer privaten Unterhaltung
+    String getPartner() {
+        return room.substring(DIRECT_PREFIX.length());
+    }
+
+    ListView<ChatEntry> getList() {
+        return list;
+    }
+
+    void setOnScrollTop(Runnable onScrollTop) {
+        this.onScrollTop = onScrollTop;
+    }
+
+    /**
+     * Fügt eine Nachricht ein, sortiert nach ihrer Nummer.
+     * Nachrichten ohne Nummer (lokale Hinweise, Textprotokoll) kommen ans Ende.
+     * @return false, wenn die Nachricht bereits angezeigt wird
+     */
+    boolean add(ChatEntry entry) {
+        long sequence = entry.sequence();
+        if (sequence <= 0) {
+            entries.add(entry.withOrder(newestSequence)); // Bleibt hinter allen bisher angezeigten Nachrichten
+            appended();
+            return true;
+        }
+        if (!shownSequences.add(sequence)) {
+            return false;
+        }
+        // Binäre Suche nach der ersten Nachricht mit größerer Nummer; meist ist das das Ende
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle).order() <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        newestSequence = Math.max(newestSequence, sequence);
+        if (low == entries.size()) {
+            entries.add(entry);
+            appended();
+            return true;
+        }
+        // Oberhalb eingefügt (Verlauf): der sichtbare Ausschnitt soll stehen bleiben
+        int first = firstVisibleIndex();
+        entries.add(low, entry);
+        if (stickToBottom) {
+            trim();
+            scrollToBottom();
+        } else if (first >= 0 && low <= first) {
+            list.scrollTo(first + 1);
+        }
+        return true;
+    }
+
+    // Am Ende angefügt: mitscrollen und die ältesten Nachrichten verwerfen, falls der Benutzer am Ende ist
+    private void appended() {
+        if (stickToBottom) {
+            trim();
+            scrollToBottom();
+        }
+    }
+
+    // Zeigt das Ende an; neue Nachrichten scrollen wieder mit
+    void scrollToBottom() {
+        stickToBottom = true;
+        if (!entries.isEmpty()) {
+            list.scrollTo(entries.size() - 1);
+        }
+    }
+
+    // Verwirft die ältesten Nachrichten über dem Fenster; sie können über den Verlauf erneut geladen werden
+    private void trim() {
+        int excess = entries.size() - window;
+        if (excess <= 0) {
+            return;
+        }
+        long evicted = 0; // Größte verworfene Nummer
+        for (int i = 0; i < excess; i++) {
+            ChatEntry entry = entries.get(i);
+            if (entry.sequence() > 0) {
+                shownSequences.remove(entry.sequence());
+                evicted = Math.max(evicted, entry.sequence());
+            }
+        }
+        entries.remove(0, excess); // Eine einzige Änderung für die ListView
+        if (evicted > 0 && !isDirect()) {
+            // Die nächste ältere Seite beginnt unter der ältesten noch angezeigten Nachricht
+            historyCursor = evicted + 1;
+            historyHasMore = true;
+            trimmedWhileLoading = historyLoading;
+        }
+    }
+
+    private int firstVisibleIndex() {
+        IndexedCell<?> cell = flow != null ? flow.getFirstVisibleCell() : null;
+        return cell != null ? cell.getIndex() : -1;
+    }
+
+    // Der Benutzer hat gescrollt (position 0 = oben, 1 = unten)
+    private void scrolled(double oldPosition, double newPosition) {
+        IndexedCell<?> last = flow.getLastVisibleCell();
+        boolean wasStuck = stickToBottom;
+        stickToBottom = newPosition >= 1 - 0.001 || last == null || last.getIndex() >= entries.size() - 1;
+        if (stickToBottom && !wasStuck) {
+            trim(); // Beim Zurückkehren ans Ende die beim Lesen geladenen älteren Seiten wieder freigeben
+        }
+        if (newPosition <= 0 && oldPosition > newPosition && onScrollTop != null) {
+            onScrollTop.run();
+        }
+    }
+
+    // Darf die nächste ältere Seite angefordert werden?
+    boolean canLoadOlder() {
+        return !historyLoading && (historyHasMore || syncCursor > 0);
+    }
+
+    // Die erste Anfrage holt die letzten Nachrichten, jede weitere die Seite vor dem cursor.
+    // Nach einer Wiederherstellung werden zuerst die neueren Nachrichten nachgeladen.
+    History.Mode nextHistoryMode() {
+        if (syncCursor > 0) {
+            return History.Mode.SINCE_SEQUENCE;
+        }
+        return historyCursor == 0 ? History.Mode.LAST : History.Mode.BEFORE;
+    }
+
+    long getHistoryCursor() {
+        return syncCursor > 0 ? syncCursor : historyCursor;
+    }
+
+    /**
+     * Die bereits eingefügten Nachrichten stammen aus dem MessageStore.
+     * Ältere Seiten werden vor der ältesten angefordert, die neueren ab der neuesten.
+     */
+    void restored(long oldestSequence, long newestSequence) {
+        historyCursor = oldestSequence;
+        historyHasMore = true;
+        syncCursor = newestSequence;
+    }
+
+    // Verwirft alle Nachrichten; die nächste Anfrage holt wieder die letzten
+    void clear() {
+        entries.clear();
+        shownSequences.clear();
+        newestSequence = 0;
+        historyCursor = 0;
+        historyHasMore = !isDirect();
+        trimmedWhileLoading = false;
+        syncCursor = 0;
+        stickToBottom = true;
+    }
+
+    // Die Verbindung wurde neu aufgebaut: eine unterwegs verlorene Anfrage gilt als erledigt,
+    // und die nächste Anfrage holt alles nach der neuesten angezeigten Nachricht
+    void reconnected() {
+        historyLoading = false;
+        trimmedWhileLoading = false;
+        if (newestSequence > 0 && !isDirect()) {
+            syncCursor = newestSequence;
+        }
+    }
+
+    void historyRequested() {
+        historyLoading = true;
+    }
+
+    /**
+     * Das Ende einer Antwort ist eingetroffen.
+     * @return false, wenn die Lücke seit den wiederhergestellten Nachrichten größer war als die Antwort;
+     *         dann sollte der Bereich geleert und neu geladen werden
+     */
+    boolean historyReceived(History.End end) {
+        historyLoading = false;
+        if (end.mode() == History.Mode.SINCE_SEQUENCE) {
+            syncCursor = 0;
+            trimmedWhileLoading = false; // Die Fortsetzungsnummer für ältere Seiten ist hiervon nicht betroffen
+            return !end.hasMore();
+        }
+        if (trimmedWhileLoading) {
+            trimmedWhileLoading = false; // Weiter ab der ältesten noch angezeigten Nachricht
+            return true;
+        }
+        if (end.mode() == History.Mode.LAST || end.mode() == History.Mode.BEFORE) {
+            historyCursor = end.cursor();
+            historyHasMore = end.hasMore();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package org.cool.chatty.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Übergibt Änderungen an der Oberfläche aus anderen Threads gesammelt an den JavaFX-Thread.
+ * Statt für jede empfangene Nachricht ein eigenes Platform.runLater (und damit womöglich einen eigenen Layout-Durchlauf)
+ * werden die Änderungen eingereiht und einmal pro Bild (Pulse) gemeinsam ausgeführt, in der Reihenfolge des Einreihens.
+ * Pro Bild wird höchstens maxBatch Änderungen bzw. etwa eine halbe Bilddauer lang gearbeitet;
+ * der Rest folgt im nächsten Bild, so dass die Oberfläche auch während eines Ansturms bedienbar bleibt.
+ * Ohne Arbeit läuft der Timer nicht.
+ */
+class UiUpdateQueue extends AnimationTimer {
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8); // Arbeitszeit pro Bild (60 Hz = 16 ms)
+
+    private final int maxBatch;
+    private final Queue<Runnable> updates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean(); // Timer läuft oder ist angefordert
+
+    UiUpdateQueue(int maxBatch) {
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    // Reiht eine Änderung ein; aus jedem Thread aufrufbar
+    void post(Runnable update) {
+        updates.add(update);
+        if (running.compareAndSet(false, true)) {
+            Platform.runLater(this::start);
+        }
+    }
+
+    @Override
+    public void handle(long now) {
+        long start = System.nanoTime();
+        for (int i = 0; i < maxBatch; i++) {
+            Runnable update = updates.poll();
+            if (update == null) {
+                break;
+            }
+            update.run();
+            // Die Uhr nur gelegentlich lesen
+            if ((i & 15) == 15 && System.nanoTime() - start > BUDGET_NANOS) {
+                return;
+            }
+        }
+        if (updates.isEmpty()) {
+            stop();
+            running.set(false);
+            // Wurde zwischen der Prüfung und dem Zurücksetzen etwas eingereiht, weiterlaufen
+            if (!updates.isEmpty() && running.compareAndSet(false, true)) {
+                start();
+            }
+        }
+    }
+}
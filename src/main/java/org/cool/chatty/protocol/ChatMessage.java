@@ -0,0 +1,115 @@
+package org.cool.chatty.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Eine Nachricht unabhängig vom Übertragungsformat.
+ * Server und Client arbeiten mit diesem Objekt; TextCodec und FrameCodec wandeln es in das
+ * zeilenbasierte Format (v1) bzw. in binäre Frames (v2) um.
+ */
+public final class ChatMessage {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final MessageType type; // Art der Nachricht
+    private final String sender; // Absender (leer bei Nachrichten des Servers)
+    private final String room; // Raum, in dem die Nachricht gesendet wurde (leer = Standardraum)
+    private final byte[] payload; // Nutzdaten (UTF-8-Text oder rohe Bildbytes)
+    private final long sequence; // Fortlaufende Nummer im Verlauf des Servers (0 = nicht im Verlauf)
+    private final long timestamp; // Zeitpunkt des Broadcasts in Millisekunden seit 1970 (0 = unbekannt)
+
+    public ChatMessage(MessageType type, String sender, String room, byte[] payload) {
+        this(type, sender, room, payload, 0, 0);
+    }
+
+    public ChatMessage(MessageType type, String sender, String room, byte[] payload, long sequence, long timestamp) {
+        this.type = type;
+        this.sender = sender != null ? sender : "";
+        this.room = room != null ? room : "";
+        this.payload = payload != null ? payload : EMPTY;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    public static ChatMessage text(String sender, String text) {
+        return new ChatMessage(MessageType.TEXT, sender, "", text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ChatMessage image(String sender, byte[] imageBytes) {
+        return new ChatMessage(MessageType.IMAGE, sender, "", imageBytes);
+    }
+
+    // Private Nachricht; der Empfänger steht im Feld room
+    public static ChatMessage direct(String sender, String recipient, String text) {
+        return new ChatMessage(MessageType.DIRECT, sender, recipient, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ChatMessage system(String text) {
+        return new ChatMessage(MessageType.SYSTEM, "", "", text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ChatMessage participants(List<String> names) {
+        return new ChatMessage(MessageType.PARTICIPANTS, "", "", String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ChatMessage rooms(List<String> names) {
+        return new ChatMessage(MessageType.ROOMS, "", "", String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // Die rohen Nutzdaten; das Array wird nicht kopiert und darf nicht verändert werden
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    // Die Nutzdaten als Text
+    public String text() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    // Die Namen einer PARTICIPANTS- oder ROOMS-Nachricht
+    public List<String> names() {
+        String text = text();
+        return text.isEmpty() ? List.of() : Arrays.asList(text.split("\n"));
+    }
+
+    // Kopie mit anderem Absender, z. B. um den vom Server bekannten Namen einzusetzen
+    public ChatMessage withSender(String sender) {
+        return new ChatMessage(type, sender, room, payload, sequence, timestamp);
+    }
+
+    // Kopie in einem anderen Raum
+    public ChatMessage withRoom(String room) {
+        return new ChatMessage(type, sender, room, payload, sequence, timestamp);
+    }
+
+    // Kopie mit Nummer und Zeitpunkt im Verlauf des Servers
+    public ChatMessage withSequence(long sequence, long timestamp) {
+        return new ChatMessage(type, sender, room, payload, sequence, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + sender + "@" + room + (sequence > 0 ? " #" + sequence : "") + ", " + payload.length + " Bytes]";
+    }
+}
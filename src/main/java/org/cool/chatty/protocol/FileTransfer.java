@@ -0,0 +1,149 @@
+package org.cool.chatty.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Aufbau der Nachrichten für Anhänge und Dateiübertragungen im Binärprotokoll.
+ * Anhänge werden über den SHA-256-Hash ihres Inhalts adressiert. Ein Broadcast enthält nur den Verweis (ATTACHMENT),
+ * den Inhalt fordert ein Client bei Bedarf mit FETCH an. Umgekehrt fordert der Server mit FETCH den Inhalt beim Absender an,
+ * wenn er ihn noch nicht kennt. Übertragen wird eine Datei in Stücken (CHUNK_SIZE),
+ * die sich mit normalen Chat-Nachrichten abwechseln können:
+ *
+ * <pre>
+ * ATTACHMENT  32 Bytes Hash, int64 Größe, uint16 Länge + Dateiname (UTF-8)
+ * FETCH       32 Bytes Hash
+ * FILE_START  int32 Kennung, 32 Bytes Hash, int64 Größe, uint16 Länge + Dateiname (UTF-8)
+ * FILE_CHUNK  int32 Kennung, int32 laufende Nummer, Bytes der Datei
+ * FILE_END    int32 Kennung, int32 Anzahl der Stücke
+ * FILE_ACK    int32 Kennung, int32 laufende Nummer
+ * </pre>
+ *
+ * Die Kennung ist nur zusammen mit dem Absender eindeutig.
+ * Flusskontrolle: Der Absender hat höchstens WINDOW unbestätigte Stücke unterwegs.
+ */
+public final class FileTransfer {
+    public static final int CHUNK_SIZE = 64 * 1024; // Größe eines Stücks in Bytes
+    public static final int WINDOW = 8; // Maximale Anzahl unbestätigter Stücke pro Übertragung
+    public static final int CHUNK_HEADER = 8; // Kennung und laufende Nummer vor den Dateibytes
+    public static final int HASH_LENGTH = 32; // Länge eines SHA-256-Hashes in Bytes
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    // Verweis auf einen Anhang; der Hash wird als Hex-Zeichenkette dargestellt
+    public record Attachment(String hash, long size, String fileName) {
+    }
+
+    // Beschreibung einer Datei aus FILE_START
+    public record FileInfo(int transferId, Attachment attachment) {
+    }
+
+    private FileTransfer() {
+    }
+
+    public static ChatMessage attachment(String sender, Attachment attachment) {
+        ByteBuffer payload = ByteBuffer.allocate(HASH_LENGTH + 8 + nameLength(attachment));
+        putAttachment(payload, attachment);
+        return new ChatMessage(MessageType.ATTACHMENT, sender, "", payload.array());
+    }
+
+    public static ChatMessage fetch(String hash) {
+        return new ChatMessage(MessageType.FETCH, "", "", HEX.parseHex(hash));
+    }
+
+    public static ChatMessage start(String sender, int transferId, Attachment attachment) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + HASH_LENGTH + 8 + nameLength(attachment));
+        payload.putInt(transferId);
+        putAttachment(payload, attachment);
+        return new ChatMessage(MessageType.FILE_START, sender, "", payload.array());
+    }
+
+    // Ein Stück mit den ersten length Bytes aus data
+    public static ChatMessage chunk(String sender, int transferId, int sequence, byte[] data, int length) {
+        ByteBuffer payload = ByteBuffer.allocate(CHUNK_HEADER + length);
+        payload.putInt(transferId).putInt(sequence).put(data, 0, length);
+        return new ChatMessage(MessageType.FILE_CHUNK, sender, "", payload.array());
+    }
+
+    public static ChatMessage end(String sender, int transferId, int chunkCount) {
+        return new ChatMessage(MessageType.FILE_END, sender, "", ByteBuffer.allocate(8).putInt(transferId).putInt(chunkCount).array());
+    }
+
+    public static ChatMessage ack(int transferId, int sequence) {
+        return new ChatMessage(MessageType.FILE_ACK, "", "", ByteBuffer.allocate(8).putInt(transferId).putInt(sequence).array());
+    }
+
+    // Prüft, ob die Nutzdaten einer Anhangs- oder FILE_*-Nachricht lang genug für ihren Aufbau sind
+    public static boolean isValid(ChatMessage message) {
+        byte[] payload = message.getPayload();
+        return switch (message.getType()) {
+            case ATTACHMENT -> hasAttachment(payload, 0);
+            case FETCH -> payload.length == HASH_LENGTH;
+            case FILE_START -> hasAttachment(payload, 4);
+            case FILE_CHUNK, FILE_END, FILE_ACK -> payload.length >= CHUNK_HEADER;
+            default -> false;
+        };
+    }
+
+    // Kennung der Übertragung (bei allen FILE_*-Nachrichten die ersten vier Bytes)
+    public static int transferId(ChatMessage message) {
+        return ByteBuffer.wrap(message.getPayload()).getInt(0);
+    }
+
+    // Laufende Nummer bei FILE_CHUNK und FILE_ACK, Anzahl der Stücke bei FILE_END
+    public static int sequence(ChatMessage message) {
+        return ByteBuffer.wrap(message.getPayload()).getInt(4);
+    }
+
+    // Sicht auf die Dateibytes eines FILE_CHUNK (ohne Kopie)
+    public static ByteBuffer chunkData(ChatMessage message) {
+        byte[] payload = message.getPayload();
+        return ByteBuffer.wrap(payload, CHUNK_HEADER, payload.length - CHUNK_HEADER);
+    }
+
+    public static Attachment attachment(ChatMessage message) {
+        return readAttachment(ByteBuffer.wrap(message.getPayload()));
+    }
+
+    // Der angeforderte Hash einer FETCH-Nachricht
+    public static String fetchedHash(ChatMessage message) {
+        return HEX.formatHex(message.getPayload());
+    }
+
+    public static FileInfo fileInfo(ChatMessage message) {
+        ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+        int transferId = payload.getInt();
+        return new FileInfo(transferId, readAttachment(payload));
+    }
+
+    // Hex-Darstellung eines Hashes
+    public static String toHex(byte[] hash) {
+        return HEX.formatHex(hash);
+    }
+
+    private static int nameLength(Attachment attachment) {
+        return 2 + attachment.fileName().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putAttachment(ByteBuffer payload, Attachment attachment) {
+        byte[] name = attachment.fileName().getBytes(StandardCharsets.UTF_8);
+        payload.put(HEX.parseHex(attachment.hash())).putLong(attachment.size()).putShort((short) name.length).put(name);
+    }
+
+    private static Attachment readAttachment(ByteBuffer payload) {
+        byte[] hash = new byte[HASH_LENGTH];
+        payload.get(hash);
+        long size = payload.getLong();
+        byte[] name = new byte[payload.getShort() & 0xFFFF];
+        payload.get(name);
+        return new Attachment(HEX.formatHex(hash), size, new String(name, StandardCharsets.UTF_8));
+    }
+
+    // Reicht die Länge für Hash, Größe und den angegebenen Dateinamen ab offset?
+    private static boolean hasAttachment(byte[] payload, int offset) {
+        int nameOffset = offset + HASH_LENGTH + 8;
+        return payload.length >= nameOffset + 2
+                && nameOffset + 2 + (((payload[nameOffset] & 0xFF) << 8) | (payload[nameOffset + 1] & 0xFF)) <= payload.length;
+    }
+}
@@ -0,0 +1,123 @@
+package org.cool.chatty.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Das binäre Protokoll (v2).
+ * Jeder Frame beginnt mit seiner Länge, danach folgen Typ und Felder mit eigener Längenangabe,
+ * sodass beim Lesen weder nach Zeilenenden gesucht noch Text zerlegt werden muss:
+ *
+ * <pre>
+ * int32   Länge des restlichen Frames in Bytes
+ * byte    Typ (MessageType.code)
+ * uint16  Länge des Absenders, danach der Absender (UTF-8)
+ * uint16  Länge des Raums, danach der Raum (UTF-8)
+ * int64   Fortlaufende Nummer im Verlauf (0 = nicht im Verlauf)
+ * int64   Zeitpunkt in Millisekunden seit 1970 (0 = unbekannt)
+ * byte[]  Nutzdaten (Rest des Frames)
+ * </pre>
+ */
+public final class FrameCodec {
+    public static final int MAX_FRAME_SIZE = 32 * 1024 * 1024; // Größere Frames gelten als Protokollfehler
+    private static final int MAX_FIELD_LENGTH = 0xFFFF; // Absender und Raum werden mit 16 Bit gespeichert
+    private static final int MIN_BODY_LENGTH = 1 + 2 + 2 + 8 + 8; // Typ, zwei leere Felder, Nummer und Zeitpunkt
+
+    private FrameCodec() {
+    }
+
+    // Wandelt eine Nachricht in einen vollständigen Frame inklusive Längenfeld um
+    public static byte[] encode(ChatMessage message) {
+        byte[] sender = message.getSender().getBytes(StandardCharsets.UTF_8);
+        byte[] room = message.getRoom().getBytes(StandardCharsets.UTF_8);
+        if (sender.length > MAX_FIELD_LENGTH || room.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Absender oder Raum ist zu lang");
+        }
+        byte[] payload = message.getPayload();
+        int bodyLength = MIN_BODY_LENGTH + sender.length + room.length + payload.length;
+
+        ByteBuffer frame = ByteBuffer.allocate(4 + bodyLength);
+        frame.putInt(bodyLength);
+        frame.put(message.getType().code());
+        frame.putShort((short) sender.length).put(sender);
+        frame.putShort((short) room.length).put(room);
+        frame.putLong(message.getSequence()).putLong(message.getTimestamp());
+        frame.put(payload);
+        return frame.array();
+    }
+
+    // Liest den Inhalt eines Frames (ohne Längenfeld)
+    public static ChatMessage decode(ByteBuffer body) throws ProtocolException {
+        try {
+            MessageType type = MessageType.fromCode(body.get());
+            if (type == null) {
+                throw new ProtocolException("Unbekannter Nachrichtentyp");
+            }
+            String sender = readField(body);
+            String room = readField(body);
+            long sequence = body.getLong();
+            long timestamp = body.getLong();
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+            return new ChatMessage(type, sender, room, payload, sequence, timestamp);
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new ProtocolException("Frame ist unvollständig");
+        }
+    }
+
+    private static String readField(ByteBuffer body) {
+        int length = body.getShort() & 0xFFFF;
+        if (length > body.remaining()) {
+            throw new java.nio.BufferUnderflowException();
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    // Prüft das Längenfeld eines Frames
+    public static void checkLength(int length) throws ProtocolException {
+        checkLength(length, MAX_FRAME_SIZE);
+    }
+
+    // Prüft das Längenfeld eines Frames gegen eine eigene Obergrenze (höchstens MAX_FRAME_SIZE)
+    public static void checkLength(int length, int maxFrameSize) throws ProtocolException {
+        if (length < MIN_BODY_LENGTH || length > Math.min(maxFrameSize, MAX_FRAME_SIZE)) {
+            throw new ProtocolException("Ungültige Frame-Länge: " + length);
+        }
+    }
+
+    /**
+     * Liest einen vollständigen Frame aus einem blockierenden Stream.
+     * @return Die Nachricht oder null, wenn der Stream vor einem neuen Frame endet
+     */
+    public static ChatMessage read(DataInputStream in) throws IOException {
+        return read(in, MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Wie read(in), lehnt aber Frames über maxFrameSize ab, bevor ihr Inhalt gelesen wird.
+     */
+    public static ChatMessage read(DataInputStream in, int maxFrameSize) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length, maxFrameSize);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body));
+    }
+
+    // Schreibt einen Frame in einem Stück
+    public static void write(OutputStream out, ChatMessage message) throws IOException {
+        out.write(encode(message));
+    }
+}
@@ -0,0 +1,57 @@
+package org.cool.chatty.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Setzt binäre Frames aus beliebig zerstückelten Bytes zusammen, wie sie ein nicht-blockierender Kanal liefert.
+ */
+public class FrameDecoder {
+    private final ByteBuffer header = ByteBuffer.allocate(4); // Längenfeld des aktuellen Frames
+    private ByteBuffer body; // Inhalt des aktuellen Frames, null solange die Länge noch nicht bekannt ist
+    private final int maxFrameSize; // Größere Frames werden abgelehnt, bevor Platz für sie reserviert wird
+
+    public FrameDecoder() {
+        this(FrameCodec.MAX_FRAME_SIZE);
+    }
+
+    public FrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Verarbeitet alle verfügbaren Bytes und meldet jeden vollständigen Frame.
+     * @param in Gelesene Bytes; werden vollständig verbraucht
+     * @param out Empfänger der vollständigen Nachrichten
+     */
+    public void decode(ByteBuffer in, Consumer<ChatMessage> out) throws ProtocolException {
+        while (in.hasRemaining()) {
+            if (body == null) {
+                transfer(in, header);
+                if (header.hasRemaining()) {
+                    return; // Längenfeld noch unvollständig
+                }
+                int length = header.flip().getInt();
+                header.clear();
+                FrameCodec.checkLength(length, maxFrameSize);
+                body = ByteBuffer.allocate(length);
+            }
+            transfer(in, body);
+            if (body.hasRemaining()) {
+                return; // Frame noch unvollständig
+            }
+            ChatMessage message = FrameCodec.decode(body.flip());
+            body = null;
+            out.accept(message);
+        }
+    }
+
+    // Kopiert so viele Bytes wie möglich von in nach target
+    private static void transfer(ByteBuffer in, ByteBuffer target) {
+        int count = Math.min(in.remaining(), target.remaining());
+        target.put(target.position(), in, in.position(), count);
+        target.position(target.position() + count);
+        in.position(in.position() + count);
+    }
+}
@@ -0,0 +1,97 @@
+package org.cool.chatty.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Aufbau der HISTORY-Nachrichten, mit denen ein Client ältere Nachrichten anfordert.
+ * Anfrage und Antwort gelten für den Raum im Feld room der Nachricht.
+ * Der Server antwortet mit den Nachrichten selbst (mit Nummer und Zeitpunkt, aufsteigend sortiert)
+ * und schließt die Antwort mit einer HISTORY-Nachricht ab. Da währenddessen auch neue Nachrichten eintreffen können,
+ * ordnet der Client alle Nachrichten nach ihrer Nummer ein.
+ *
+ * <pre>
+ * Anfrage (Client)   byte Modus, int64 Wert, int32 maximale Anzahl
+ * Ende (Server)      byte Modus, int64 Fortsetzungsnummer, byte 1 wenn weitere vorhanden sind
+ * </pre>
+ *
+ * Die Fortsetzungsnummer ist die letzte Nummer, die der Server durchsucht hat: bei LAST und BEFORE die kleinste,
+ * sonst die größte. Die nächste Seite wird mit BEFORE bzw. SINCE_SEQUENCE ab dieser Nummer angefordert.
+ * Da der Verlauf aller Räume gemeinsam nummeriert ist, kann eine Seite auch leer sein, obwohl weitere folgen.
+ *
+ * Im Textprotokoll lautet die Anfrage z. B. "HISTORY:LAST:50" oder "HISTORY:SINCE_TIME:1700000000000:100";
+ * dort gibt es kein Ende-Signal und die Nachrichten werden ohne Nummer als normale Zeilen gesendet.
+ */
+public final class History {
+
+    // Art der Anfrage
+    public enum Mode {
+        LAST,           // Die letzten n Nachrichten (Wert wird ignoriert)
+        BEFORE,         // Die n Nachrichten vor der angegebenen Nummer (nächste ältere Seite)
+        SINCE_SEQUENCE, // Alle Nachrichten nach der angegebenen Nummer, z. B. nach einem Verbindungsabbruch
+        SINCE_TIME      // Alle Nachrichten ab dem angegebenen Zeitpunkt
+    }
+
+    // Eine zerlegte Anfrage
+    public record Request(Mode mode, long value, int limit) {
+    }
+
+    // Ein zerlegtes Ende-Signal
+    public record End(Mode mode, long cursor, boolean hasMore) {
+    }
+
+    private History() {
+    }
+
+    public static ChatMessage request(Mode mode, long value, int limit) {
+        ByteBuffer payload = ByteBuffer.allocate(13).put((byte) mode.ordinal()).putLong(value).putInt(limit);
+        return new ChatMessage(MessageType.HISTORY, "", "", payload.array());
+    }
+
+    public static ChatMessage end(Mode mode, long cursor, boolean hasMore) {
+        ByteBuffer payload = ByteBuffer.allocate(10).put((byte) mode.ordinal()).putLong(cursor).put((byte) (hasMore ? 1 : 0));
+        return new ChatMessage(MessageType.HISTORY, "", "", payload.array());
+    }
+
+    // Zerlegt eine Anfrage; null, wenn sie ungültig ist
+    public static Request request(ChatMessage message) {
+        ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+        if (payload.remaining() != 13) {
+            return null;
+        }
+        Mode mode = mode(payload.get());
+        long value = payload.getLong();
+        int limit = payload.getInt();
+        return mode != null && limit > 0 ? new Request(mode, value, limit) : null;
+    }
+
+    // Zerlegt ein Ende-Signal; null, wenn es ungültig ist
+    public static End end(ChatMessage message) {
+        ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+        if (payload.remaining() != 10) {
+            return null;
+        }
+        Mode mode = mode(payload.get());
+        long cursor = payload.getLong();
+        return mode != null ? new End(mode, cursor, payload.get() != 0) : null;
+    }
+
+    // Zerlegt eine Anfrage im Textformat ("LAST:50", "BEFORE:123:50", "SINCE_SEQUENCE:123", "SINCE_TIME:1700000000000:100")
+    static ChatMessage parseRequest(String text) {
+        String[] parts = text.split(":");
+        try {
+            Mode mode = Mode.valueOf(parts[0].trim().toUpperCase());
+            if (mode == Mode.LAST) {
+                return request(mode, 0, parts.length > 1 ? Integer.parseInt(parts[1].trim()) : Integer.MAX_VALUE);
+            }
+            long value = Long.parseLong(parts[1].trim());
+            return request(mode, value, parts.length > 2 ? Integer.parseInt(parts[2].trim()) : Integer.MAX_VALUE);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static Mode mode(byte code) {
+        Mode[] modes = Mode.values();
+        return code >= 0 && code < modes.length ? modes[code] : null;
+    }
+}
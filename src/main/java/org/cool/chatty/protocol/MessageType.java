@@ -0,0 +1,48 @@
+package org.cool.chatty.protocol;
+
+/**
+ * Art einer Nachricht. Der Code ist das Typ-Byte im binären Protokoll (v2).
+ */
+public enum MessageType {
+    TEXT(1),         // Chat-Nachricht eines Teilnehmers
+    IMAGE(2),        // Bild eines Teilnehmers (Nutzdaten sind die rohen Bildbytes)
+    SYSTEM(3),       // Hinweis des Servers, z. B. Betreten und Verlassen des Chats
+    PARTICIPANTS(4), // Liste aller Teilnehmer (Namen durch Zeilenumbruch getrennt)
+    CONNECT(5),      // Ein Teilnehmer hat sich angemeldet
+    DISCONNECT(6),   // Ein Teilnehmer hat sich abgemeldet
+    FILE_START(7),   // Beginn einer Dateiübertragung (Kennung, Größe, Hash, Dateiname), siehe FileTransfer
+    FILE_CHUNK(8),   // Ein Stück einer Datei
+    FILE_END(9),     // Ende einer Dateiübertragung
+    FILE_ACK(10),    // Bestätigung für ein empfangenes Stück (Flusskontrolle)
+    ATTACHMENT(11),  // Verweis auf einen Anhang (Hash, Größe, Dateiname) ohne dessen Inhalt
+    FETCH(12),       // Anforderung des Inhalts zu einem Hash
+    HISTORY(13),     // Anforderung älterer Nachrichten bzw. Ende einer Antwort darauf, siehe History
+    JOIN(14),        // Einen Raum betreten (Raum im Feld room); der Server bestätigt mit derselben Nachricht
+    LEAVE(15),       // Einen Raum verlassen; der Server bestätigt mit derselben Nachricht
+    ROOMS(16),       // Liste aller Räume (Namen durch Zeilenumbruch getrennt)
+    DIRECT(17),      // Private Nachricht an einen Teilnehmer; im Feld room steht der Name des Empfängers
+    PRESENCE(18);    // Änderungen der Teilnehmerliste mit Versionsnummer bzw. Anforderung des vollständigen Stands, siehe Presence
+
+    private static final MessageType[] BY_CODE = new MessageType[256];
+
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    MessageType(int code) {
+        this.code = code;
+    }
+
+    public byte code() {
+        return (byte) code;
+    }
+
+    // Liefert den Typ zu einem Typ-Byte oder null, wenn der Code unbekannt ist
+    public static MessageType fromCode(byte code) {
+        return BY_CODE[code & 0xFF];
+    }
+}
@@ -0,0 +1,114 @@
+package org.cool.chatty.protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Aufbau der PRESENCE-Nachrichten, mit denen der Server die Teilnehmerliste im Binärprotokoll verteilt.
+ * Statt bei jeder Anmeldung die ganze Liste an alle zu senden, verschickt der Server nur die Änderungen (Delta)
+ * mit einer fortlaufenden Versionsnummer. Die ganze Liste (Snapshot) erhält ein Client nur bei der Anmeldung
+ * und wenn er eine Lücke in den Versionen bemerkt; dann fordert er sie mit einer leeren PRESENCE-Nachricht an.
+ *
+ * <pre>
+ * int64   Version
+ * byte    1 = Snapshot (alle Namen stehen unter "angemeldet"), 0 = Delta
+ * int32   Anzahl angemeldeter Namen, danach je uint16 Länge + Name (UTF-8)
+ * int32   Anzahl abgemeldeter Namen, danach je uint16 Länge + Name (UTF-8)
+ * </pre>
+ *
+ * Ein Delta mit Version v setzt den Stand v - 1 voraus. Clients mit Textprotokoll erhalten weiterhin PARTICIPANTS.
+ */
+public final class Presence {
+
+    // Eine zerlegte PRESENCE-Nachricht des Servers
+    public record Update(long version, boolean snapshot, List<String> joined, List<String> left) {
+    }
+
+    private Presence() {
+    }
+
+    public static ChatMessage snapshot(long version, Collection<String> names) {
+        return new ChatMessage(MessageType.PRESENCE, "", "", encode(version, true, names, List.of()));
+    }
+
+    public static ChatMessage delta(long version, Collection<String> joined, Collection<String> left) {
+        return new ChatMessage(MessageType.PRESENCE, "", "", encode(version, false, joined, left));
+    }
+
+    // Anforderung eines Snapshots durch den Client
+    public static ChatMessage request() {
+        return new ChatMessage(MessageType.PRESENCE, "", "", null);
+    }
+
+    public static boolean isRequest(ChatMessage message) {
+        return message.getPayload().length == 0;
+    }
+
+    // Zerlegt eine Nachricht des Servers; null, wenn sie ungültig ist
+    public static Update parse(ChatMessage message) {
+        try {
+            ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+            long version = payload.getLong();
+            boolean snapshot = payload.get() == 1;
+            List<String> joined = readNames(payload);
+            List<String> left = readNames(payload);
+            return new Update(version, snapshot, joined, left);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(long version, boolean snapshot, Collection<String> joined, Collection<String> left) {
+        List<byte[]> joinedBytes = toBytes(joined);
+        List<byte[]> leftBytes = toBytes(left);
+        int length = 8 + 1 + 4 + 4;
+        for (byte[] name : joinedBytes) {
+            length += 2 + name.length;
+        }
+        for (byte[] name : leftBytes) {
+            length += 2 + name.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putLong(version).put((byte) (snapshot ? 1 : 0));
+        writeNames(payload, joinedBytes);
+        writeNames(payload, leftBytes);
+        return payload.array();
+    }
+
+    private static List<byte[]> toBytes(Collection<String> names) {
+        List<byte[]> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            result.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static void writeNames(ByteBuffer payload, List<byte[]> names) {
+        payload.putInt(names.size());
+        for (byte[] name : names) {
+            // Der Server lässt nur kurze Namen zu (ChatServer.isValidName); ein längerer Name würde den Frame zerstören
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("Name zu lang: " + name.length + " Bytes");
+            }
+            payload.putShort((short) name.length).put(name);
+        }
+    }
+
+    private static List<String> readNames(ByteBuffer payload) {
+        int count = payload.getInt();
+        if (count < 0 || count > payload.remaining() / 2) {
+            throw new IllegalArgumentException("Ungültige Anzahl");
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[payload.getShort() & 0xFFFF];
+            payload.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,9 @@
+package org.cool.chatty.protocol;
+
+/**
+ * Die Protokollversion einer Verbindung; wird bei der Anmeldung (CONNECT) ausgehandelt.
+ */
+public enum ProtocolVersion {
+    TEXT,  // v1: eine Zeile pro Nachricht (TextCodec), für ältere Clients
+    BINARY // v2: Frames mit Längenangabe (FrameCodec)
+}
@@ -0,0 +1,158 @@
+package org.cool.chatty.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Das ursprüngliche zeilenbasierte Protokoll (v1).
+ * Jede Nachricht ist eine Zeile, der Typ ergibt sich aus dem Präfix (CONNECT:, IMAGE:, SYSTEM:, PARTICIPANTS:, HISTORY:, DM:),
+ * alles andere ist eine Textnachricht der Form "Absender: Text".
+ * Private Nachrichten sendet ein Client als "DM:Empfänger:Text"; zugestellt werden sie als Textzeile
+ * "Absender (privat an Empfänger): Text", die auch ältere Clients anzeigen.
+ *
+ * Die Anmeldung bleibt auch für das binäre Protokoll eine Textzeile: Ein Client, der v2 spricht,
+ * hängt BINARY_REQUEST an seine CONNECT-Zeile an. Antwortet der Server mit PROTOCOL_ACK,
+ * werden ab der nächsten Nachricht in beide Richtungen nur noch Frames (FrameCodec) übertragen.
+ * Folgt auf BINARY_REQUEST noch SESSION_REQUEST mit einem Token (leer bei der ersten Anmeldung), fragt der Client
+ * eine Sitzung an bzw. will seine bisherige fortsetzen. Die Bestätigung lautet dann "PROTO:2;s=<neues Token>",
+ * mit SESSION_RESUMED am Ende, wenn die Sitzung samt Räumen fortgesetzt wurde. Ohne Sitzungen bleibt es bei PROTOCOL_ACK.
+ */
+public final class TextCodec {
+    public static final String BINARY_REQUEST = ";v=2"; // Anhang an "CONNECT:<Name>" für das binäre Protokoll
+    public static final String PROTOCOL_ACK = "PROTO:2"; // Bestätigung des Servers, danach folgen nur noch Frames
+    public static final String SESSION_REQUEST = ";s="; // Anhang an BINARY_REQUEST bzw. PROTOCOL_ACK, gefolgt vom Token
+    public static final String SESSION_RESUMED = ";resumed"; // Anhang an die Bestätigung: die Sitzung wurde fortgesetzt
+
+    private TextCodec() {
+    }
+
+    // Zerlegt eine Zeile, ohne den Absender zu kennen
+    public static ChatMessage decode(String line) {
+        return decode(line, null);
+    }
+
+    /**
+     * Zerlegt eine Zeile in eine ChatMessage.
+     * @param line Die empfangene Zeile
+     * @param knownSender Name des Absenders, falls bekannt; damit funktionieren auch Namen mit Doppelpunkt
+     * @return Die Nachricht oder null, wenn die Zeile ungültig ist (z. B. fehlerhaftes Base64)
+     */
+    public static ChatMessage decode(String line, String knownSender) {
+        if (line.startsWith("CONNECT:")) {
+            return new ChatMessage(MessageType.CONNECT, line.substring(8), "", null);
+        } else if (line.startsWith("DISCONNECT:")) {
+            return new ChatMessage(MessageType.DISCONNECT, line.substring(11), "", null);
+        } else if (line.startsWith("IMAGE:")) {
+            String content = line.substring(6);
+            int separator = senderSeparator(content, knownSender);
+            if (separator <= 0 || separator >= content.length() - 1) {
+                return null;
+            }
+            try {
+                byte[] imageBytes = Base64.getDecoder().decode(content.substring(separator + 1));
+                return ChatMessage.image(content.substring(0, separator), imageBytes);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        } else if (line.startsWith("SYSTEM:")) {
+            return ChatMessage.system(line.substring(7).trim());
+        } else if (line.startsWith("DM:")) {
+            String content = line.substring(3);
+            int separator = content.indexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            return ChatMessage.direct(knownSender, content.substring(0, separator).trim(), content.substring(separator + 1).trim());
+        } else if (line.startsWith("HISTORY:")) {
+            return History.parseRequest(line.substring(8).trim());
+        } else if (line.startsWith("PARTICIPANTS:")) {
+            List<String> names = new ArrayList<>();
+            for (String name : line.substring(13).split(",")) {
+                if (!name.isBlank()) {
+                    names.add(name.trim());
+                }
+            }
+            return ChatMessage.participants(names);
+        }
+
+        // Reguläre Textnachricht "Absender: Text"; ohne Absender bleibt die Zeile unverändert
+        int separator = senderSeparator(line, knownSender);
+        if (separator <= 0) {
+            return ChatMessage.text("", line);
+        }
+        return ChatMessage.text(line.substring(0, separator), line.substring(separator + 1).trim());
+    }
+
+    // Position des Doppelpunkts hinter dem Absender
+    private static int senderSeparator(String content, String knownSender) {
+        if (knownSender != null && !knownSender.isEmpty() && content.startsWith(knownSender + ":")) {
+            return knownSender.length();
+        }
+        return content.indexOf(':');
+    }
+
+    // Wandelt eine Nachricht in eine Zeile (ohne Zeilenumbruch) um; null, wenn sie im Textformat nicht darstellbar ist
+    public static String encode(ChatMessage message) {
+        return switch (message.getType()) {
+            case TEXT -> message.getSender().isEmpty() ? message.text() : message.getSender() + ": " + message.text();
+            case IMAGE -> "IMAGE:" + message.getSender() + ":" + Base64.getEncoder().encodeToString(message.getPayload());
+            case SYSTEM -> "SYSTEM: " + message.text();
+            case PARTICIPANTS -> {
+                StringBuilder participants = new StringBuilder("PARTICIPANTS: ");
+                for (String name : message.names()) {
+                    participants.append(name).append(", ");
+                }
+                yield participants.toString();
+            }
+            case DIRECT -> message.getSender() + " (privat an " + message.getRoom() + "): " + message.text();
+            case CONNECT -> "CONNECT:" + message.getSender();
+            case DISCONNECT -> "DISCONNECT:" + message.getSender();
+            // Anhänge gibt es nur im Binärprotokoll; Clients mit Textprotokoll erhalten nur einen Hinweis
+            case ATTACHMENT -> "SYSTEM: " + message.getSender() + " hat die Datei "
+                    + FileTransfer.attachment(message).fileName() + " gesendet (nur mit aktuellem Client sichtbar).";
+            // Räume gibt es nur im Binärprotokoll; Clients mit Textprotokoll bleiben im Standardraum
+            case FILE_START, FILE_CHUNK, FILE_END, FILE_ACK, FETCH, HISTORY, JOIN, LEAVE, ROOMS, PRESENCE -> null;
+        };
+    }
+
+    /**
+     * Liest eine Zeile Byte für Byte bis zum Zeilenumbruch.
+     * Anders als BufferedReader liest diese Methode nichts über das Zeilenende hinaus,
+     * sodass derselbe Stream danach für binäre Frames weiterverwendet werden kann.
+     * Der Stream sollte gepuffert sein (z. B. BufferedInputStream).
+     * @return Die Zeile ohne Zeilenumbruch oder null am Ende des Streams
+     */
+    public static String readLine(InputStream in) throws IOException {
+        return readLine(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Wie readLine(in), bricht aber mit einer ProtocolException ab, sobald die Zeile länger als maxLength Bytes wird,
+     * ohne den Rest der Zeile zu puffern.
+     */
+    public static String readLine(InputStream in, int maxLength) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= maxLength) {
+                throw new ProtocolException("Zeile länger als " + maxLength + " Bytes");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
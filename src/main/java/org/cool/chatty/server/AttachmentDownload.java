@@ -0,0 +1,76 @@
+package org.cool.chatty.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cool.chatty.protocol.FileTransfer;
+
+/**
+ * Sendet einen Anhang aus dem AttachmentStore in Stücken an einen Client.
+ * Es sind höchstens FileTransfer.WINDOW Stücke gleichzeitig eingereiht; jedes geschriebene (oder verworfene) Stück
+ * gibt den Platz für das nächste frei. Dafür wird kein eigener Thread benötigt.
+ * Ist die Verbindung des Empfängers geschlossen, endet der Download ohne weitere Stücke.
+ */
+final class AttachmentDownload {
+    private final ClientConnection client; // Empfänger
+    private final int transferId; // Kennung der Übertragung gegenüber diesem Client
+    private final FileTransfer.Attachment attachment;
+    private final ByteBuffer content; // Eingeblendeter Inhalt aus dem Store
+    private final int chunkCount; // Anzahl der Stücke
+    private int nextChunk; // Nächstes zu sendendes Stück; nur vom jeweils sendenden Thread verwendet
+
+    // Anzahl der freigegebenen, noch nicht gesendeten Stücke. Wer den Zähler von 0 auf 1 erhöht, sendet,
+    // alle anderen erhöhen nur. So werden die Stücke in der richtigen Reihenfolge und ohne Rekursion eingereiht.
+    private final AtomicInteger credits = new AtomicInteger();
+
+    AttachmentDownload(ClientConnection client, int transferId, FileTransfer.Attachment attachment, ByteBuffer content) {
+        this.client = client;
+        this.transferId = transferId;
+        this.attachment = attachment;
+        this.content = content;
+        this.chunkCount = (content.remaining() + FileTransfer.CHUNK_SIZE - 1) / FileTransfer.CHUNK_SIZE;
+    }
+
+    void start() {
+        client.sendMessage(FileTransfer.start("", transferId, attachment));
+        for (int i = 0; i < FileTransfer.WINDOW; i++) {
+            grant();
+        }
+    }
+
+    // Gibt ein weiteres Stück frei
+    private void grant() {
+        if (credits.getAndIncrement() == 0) {
+            do {
+                sendNext();
+            } while (credits.decrementAndGet() > 0);
+        }
+    }
+
+    private void sendNext() {
+        if (nextChunk > chunkCount) {
+            return; // Alles gesendet
+        }
+        if (client.isClosed()) {
+            nextChunk = chunkCount + 1; // Der Empfänger ist weg: nichts mehr lesen und kodieren
+            return;
+        }
+        if (nextChunk == chunkCount) {
+            client.sendMessage(FileTransfer.end("", transferId, chunkCount));
+            nextChunk++;
+            return;
+        }
+        int offset = nextChunk * FileTransfer.CHUNK_SIZE;
+        int length = Math.min(FileTransfer.CHUNK_SIZE, content.limit() - offset);
+        byte[] data = new byte[length];
+        content.get(offset, data);
+        EncodedMessage chunk = EncodedMessage.encode(FileTransfer.chunk("", transferId, nextChunk, data, length))
+                .whenReleased(this::grant);
+        nextChunk++;
+        try {
+            client.send(chunk);
+        } finally {
+            chunk.release();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cool.chatty.protocol.FileTransfer;
+
+/**
+ * Ablage für Anhänge, adressiert über den SHA-256-Hash ihres Inhalts.
+ * Jeder Inhalt liegt nur einmal auf der Festplatte, egal wie oft und von wem er gesendet wird.
+ * Zum Lesen werden die Dateien in den Speicher eingeblendet (memory-mapped) und belegen daher keinen Heap.
+ * Die zuletzt gelesenen MAX_MAPPED Einblendungen werden wiederverwendet; ältere werden vergessen und
+ * vom Garbage Collector freigegeben, sobald kein laufender Download sie mehr benutzt.
+ */
+public class AttachmentStore {
+    private static final int MAX_MAPPED = 64; // So viele Einblendungen bleiben für weitere Downloads erhalten
+
+    private final Path directory; // Verzeichnis, in dem jeder Inhalt unter seinem Hash liegt
+    private final long maxSize; // Maximale Größe eines Anhangs in Bytes
+    private final ServerLog log;
+    // Zuletzt eingeblendete Inhalte in der Reihenfolge des letzten Zugriffs (LRU)
+    private final Map<String, MappedByteBuffer> mapped = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MappedByteBuffer> eldest) {
+            return size() > MAX_MAPPED;
+        }
+    };
+    private final ReentrantLock mappedLock = new ReentrantLock();
+
+    public AttachmentStore(Path directory, long maxSize, ServerLog log) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    // Ist der Inhalt zu diesem Hash bereits vorhanden?
+    public boolean contains(String hash) {
+        return cached(hash) != null || Files.exists(pathOf(hash));
+    }
+
+    private MappedByteBuffer cached(String hash) {
+        mappedLock.lock();
+        try {
+            return mapped.get(hash);
+        } finally {
+            mappedLock.unlock();
+        }
+    }
+
+    /**
+     * Liefert den Inhalt zu einem Hash als schreibgeschützte Sicht auf die eingeblendete Datei.
+     * @return Der Inhalt oder null, wenn der Hash unbekannt ist
+     */
+    public ByteBuffer open(String hash) throws IOException {
+        MappedByteBuffer content = cached(hash);
+        if (content == null) {
+            Path file = pathOf(hash);
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // Die Einblendung bleibt auch nach dem Schließen des Kanals gültig
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappedLock.lock();
+            try {
+                MappedByteBuffer previous = mapped.putIfAbsent(hash, content);
+                if (previous != null) {
+                    content = previous;
+                }
+            } finally {
+                mappedLock.unlock();
+            }
+        }
+        return content.asReadOnlyBuffer();
+    }
+
+    // Beginnt das Hochladen eines Anhangs in eine temporäre Datei
+    public Upload beginUpload(FileTransfer.Attachment attachment) throws IOException {
+        if (attachment.size() < 0 || attachment.size() > maxSize) {
+            throw new IOException("Der Anhang ist größer als " + maxSize + " Bytes.");
+        }
+        return new Upload(attachment);
+    }
+
+    private Path pathOf(String hash) {
+        return directory.resolve(hash);
+    }
+
+    /**
+     * Ein laufender Upload. Der Hash wird beim Schreiben mitberechnet und erst am Ende mit dem angekündigten verglichen;
+     * nur dann wird die Datei unter ihrem Hash abgelegt.
+     * Wird von den Stücken eines Clients nacheinander verwendet, nie gleichzeitig.
+     */
+    public final class Upload {
+        private final FileTransfer.Attachment attachment;
+        private final Path file;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+        private long received; // Bisher empfangene Bytes
+
+        private Upload(FileTransfer.Attachment attachment) throws IOException {
+            this.attachment = attachment;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            this.file = Files.createTempFile(directory, "upload-", ".tmp");
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        }
+
+        public FileTransfer.Attachment getAttachment() {
+            return attachment;
+        }
+
+        // Hängt die Bytes eines Stücks an die Datei an
+        public void write(ByteBuffer data) throws IOException {
+            received += data.remaining();
+            if (received > attachment.size()) {
+                throw new IOException("Mehr Daten als angekündigt.");
+            }
+            digest.update(data.duplicate());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        // Schließt den Upload ab; bei falscher Größe oder falschem Hash wird die Datei verworfen
+        public void complete() throws IOException {
+            channel.close();
+            String hash = FileTransfer.toHex(digest.digest());
+            if (received != attachment.size() || !hash.equals(attachment.hash())) {
+                Files.deleteIfExists(file);
+                throw new IOException("Der Inhalt passt nicht zum angekündigten Hash.");
+            }
+            if (contains(hash)) {
+                Files.deleteIfExists(file); // Gleichzeitig von jemand anderem hochgeladen
+            } else {
+                Files.move(file, pathOf(hash), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        // Bricht den Upload ab und löscht die temporäre Datei
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Temporäre Datei konnte nicht gelöscht werden: " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Bus über einen MessageBroker: jede Nachricht geht an die lokalen Abonnenten und als Frame an den Broker,
+ * der sie an alle anderen Busse weitergibt. Nachrichten vom Broker erhalten nur die lokalen Abonnenten.
+ * Ein eigener Thread schreibt die Warteschlange und verbindet sich nach einer Unterbrechung neu;
+ * solange keine Verbindung besteht, erreichen Nachrichten nur die lokalen Abonnenten.
+ */
+public class BrokerMessageBus implements MessageBus {
+    private static final long MIN_BACKOFF_MILLIS = 100; // Wartezeit vor dem ersten erneuten Verbindungsversuch
+    private static final long MAX_BACKOFF_MILLIS = 5000; // Längste Wartezeit zwischen zwei Versuchen
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final String host; // Adresse des Brokers
+    private final int port;
+    private final ServerStats stats;
+    private final ServerLog log;
+    private final LocalMessageBus local = new LocalMessageBus(); // Verteilt an die Abonnenten dieses Prozesses
+    private final BlockingQueue<byte[]> queue; // Kodierte Frames für den Broker
+    private volatile boolean connected; // Nur solange verbunden werden Frames angenommen
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private Thread thread;
+
+    public BrokerMessageBus(String host, int port, int queueCapacity, ServerStats stats, ServerLog log) {
+        this.host = host;
+        this.port = port;
+        this.stats = stats;
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    // Erwartet die Adresse als "Host:Port"
+    public static BrokerMessageBus forAddress(String address, int queueCapacity, ServerStats stats, ServerLog log) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Ungültige Adresse des Brokers: " + address);
+        }
+        return new BrokerMessageBus(address.substring(0, colon).trim(),
+                Integer.parseInt(address.substring(colon + 1).trim()), queueCapacity, stats, log);
+    }
+
+    @Override
+    public void start() {
+        thread = Thread.ofPlatform().name("chatty-bus-" + host + ":" + port).daemon().start(this::run);
+    }
+
+    // Wartet höchstens timeoutMillis auf die Verbindung zum Broker
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!connected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return connected;
+    }
+
+    @Override
+    public void publish(ChatMessage message) {
+        local.publish(message);
+        if (!connected || !queue.offer(FrameCodec.encode(message))) {
+            stats.peerMessageDropped();
+        }
+    }
+
+    @Override
+    public Subscription subscribe(Consumer<ChatMessage> subscriber) {
+        return local.subscribe(subscriber);
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                out.write((MessageBroker.HELLO + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.ofPlatform().name("chatty-bus-in").daemon().start(() -> read(socket));
+                queue.clear();
+                connected = true;
+                backoff = MIN_BACKOFF_MILLIS;
+                while (!closed) {
+                    // Alles, was schon wartet, mit einem flush schreiben
+                    out.write(queue.take());
+                    byte[] frame;
+                    while ((frame = queue.poll()) != null) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (connected && !closed) {
+                    log.warn("MessageBus: Verbindung zum Broker unterbrochen: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // Beendet (close) oder vom Lese-Thread geweckt, weil der Broker die Verbindung beendet hat
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                // Nach close endet die Schleife ohnehin
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    // Liest die Nachrichten der anderen Busse und verteilt sie an die lokalen Abonnenten
+    private void read(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ChatMessage message;
+            while ((message = FrameCodec.read(in)) != null) {
+                local.publish(message);
+            }
+        } catch (IOException e) {
+            // Der Schreib-Thread bemerkt die Unterbrechung und verbindet sich neu
+        }
+        if (this.socket == socket && !closed) {
+            thread.interrupt(); // Weckt den Schreib-Thread, damit er sich neu verbindet
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+        local.close();
+    }
+}
@@ -0,0 +1,47 @@
+package org.cool.chatty.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool für Direct-ByteBuffer fester Größe.
+ * Direct-Buffer sind teuer anzulegen, können aber ohne Zwischenkopie an den Socket übergeben werden;
+ * deshalb werden sie für kurze Nachrichten wiederverwendet statt jedes Mal neu erzeugt.
+ */
+public class BufferPool {
+    private final int chunkSize; // Größe jedes Buffers im Pool
+    private final int maxPooled; // Maximale Anzahl freier Buffer, die aufbewahrt werden
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>(); // Freie Buffer
+    private final AtomicInteger freeCount = new AtomicInteger(); // Anzahl freier Buffer (size() der Queue ist O(n))
+
+    public BufferPool(int chunkSize, int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // Liefert einen leeren Buffer mit der Größe chunkSize
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        freeCount.decrementAndGet();
+        return buffer;
+    }
+
+    // Gibt einen Buffer zurück; ist der Pool voll, wird er dem Garbage Collector überlassen
+    public void release(ByteBuffer buffer) {
+        if (freeCount.incrementAndGet() <= maxPooled) {
+            buffer.clear();
+            free.add(buffer);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+}
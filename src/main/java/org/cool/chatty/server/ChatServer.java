@@ -3,93 +3,744 @@ package org.cool.chatty.server;
 // Importiert Klassen, die für Netzwerkkommunikation, Eingabe/Ausgabe und Threads benötigt werden
 import java.io.IOException; // Wird verwendet, um Eingabe- und Ausgabefehler zu behandeln
 import java.net.InetAddress; // Repräsentiert eine IP-Adresse
-import java.net.ServerSocket; // Erlaubt das Warten auf und Akzeptieren von Verbindungen von Clients
-import java.net.Socket; // Repräsentiert eine einzelne Verbindung zu einem Client
+import java.nio.ByteBuffer; // Inhalt eines Anhangs
+import java.nio.channels.ClosedChannelException; // Server-Socket von stop() geschlossen
+import java.util.ArrayList; // Veränderbare Liste, z. B. für die Raumnamen
+import java.util.HashMap; // Laufende Uploads eines Clients, nur von seinem Festplatten-Executor verwendet
 import java.util.List; // Schnittstelle für Listen-Datenstrukturen
+import java.util.Map; // Zuordnung, z. B. laufende Uploads je Client
 import java.util.Scanner; // Zum Einlesen von Benutzereingaben aus der Konsole
+import java.util.Set; // Mitglieder eines Raums
+import java.util.concurrent.ConcurrentHashMap; // Threadsichere Zuordnung
 import java.util.concurrent.CopyOnWriteArrayList; // Threadsichere Liste, geeignet für parallelen Zugriff
+import java.util.concurrent.ExecutorService; // Threads für Festplattenzugriffe
+import java.util.concurrent.Executors; // Erzeugt den Thread-Pool für Festplattenzugriffe
+import java.util.concurrent.TimeUnit; // Umrechnung der Aufbewahrungsdauer
+import java.util.concurrent.atomic.AtomicInteger; // Zähler für die Kennungen von Downloads und wartende Upload-Stücke
+import java.util.concurrent.locks.ReentrantLock; // Sperre, die virtuelle Threads nicht an ihren Träger-Thread bindet
+import java.util.function.Supplier; // Textform einer Nachricht, erst bei Bedarf erzeugt
 
-public class ChatServer {
-    private ServerSocket serverSocket; // ServerSocket wartet auf Verbindungsanfragen von Clients
-    private List<ClientHandler> clients; // Liste, die alle verbundenen Clients speichert
+import org.cool.chatty.protocol.ChatMessage; // Nachricht unabhängig vom Übertragungsformat
+import org.cool.chatty.protocol.FileTransfer; // Aufbau der Nachrichten für Dateiübertragungen
+import org.cool.chatty.protocol.History; // Anfragen nach älteren Nachrichten
+import org.cool.chatty.protocol.MessageType; // Art einer Nachricht
+import org.cool.chatty.protocol.Presence; // Änderungen der Teilnehmerliste
+import org.cool.chatty.protocol.ProtocolVersion; // Text- (v1) oder Binärprotokoll (v2)
+import org.cool.chatty.protocol.TextCodec; // Umwandlung zwischen Nachrichten und Textzeilen
 
-    // Konstruktor, um einen neuen ChatServer zu erstellen
+public final class ChatServer {
+    private final String ipAddress; // IP-Adresse, auf der der Server laufen soll
+    private final int port; // Port, auf dem der Server lauscht
+    private final ServerConfig config; // Startoptionen (z. B. die gewählte Engine)
+    private List<ClientConnection> clients; // Liste, die alle verbundenen Clients speichert
+    // Angemeldete Clients je Name, für private Nachrichten ohne Suche in der Liste.
+    // Ein Name wird bei CONNECT atomar belegt (putIfAbsent) und beim Abmelden nur vom selben Client wieder freigegeben.
+    private final Map<String, ClientConnection> clientsByName = new ConcurrentHashMap<>();
+    private ServerEngine engine; // Die laufende Engine (klassisch oder NIO)
+    private final ServerStats stats = new ServerStats(); // Zähler, z. B. für verworfene Nachrichten
+    private AttachmentStore attachments; // Anhänge, adressiert über ihren Hash
+    private MessageLog messageLog; // Dauerhaftes Protokoll aller verteilten Nachrichten, null wenn abgeschaltet
+    private MessageHistory history; // Nummerierung und Verlauf der Nachrichten, die neuesten im Speicher
+    private final Map<ClientConnection, ClientUploads> uploads = new ConcurrentHashMap<>(); // Laufende Uploads je Client
+    // Festplattenzugriffe (Verlauf aus dem Log, Anhänge) laufen hier und nicht im Thread der Verbindung,
+    // damit ein Event-Loop nicht alle seine Verbindungen auf die Festplatte warten lässt
+    private final ExecutorService diskExecutor;
+    private final AtomicInteger nextDownloadId = new AtomicInteger(); // Kennung für Übertragungen vom Server an Clients
+    // Mitglieder je Raum. Der Standardraum "" enthält alle angemeldeten Clients und wird nie entfernt,
+    // andere Räume entstehen beim ersten JOIN und verschwinden mit dem letzten Mitglied.
+    // Ein Broadcast erreicht nur die Mitglieder seines Raums, seine Dauer hängt also von der Größe des Raums ab.
+    private final Map<String, Set<ClientConnection>> rooms = new ConcurrentHashMap<>();
+    private final Map<ClientConnection, Set<String>> memberships = new ConcurrentHashMap<>(); // Räume je Client, zum Aufräumen
+    private final ReentrantLock roomsLock = new ReentrantLock(); // Sorgt dafür, dass Änderungen der Raumliste nacheinander verschickt werden
+    private final PresenceTracker presence; // Teilnehmerliste; Änderungen werden gesammelt und als Delta verschickt
+    private SessionRegistry sessions; // Sitzungen, die ein Client nach einem Verbindungsabbruch fortsetzen kann
+    private ClusterNode cluster; // Verbindung zu den anderen Knoten, null ohne Cluster
+    private final MessageBus bus; // Verteilt die Broadcasts; dieser Server verteilt als Abonnent an seine Clients
+    private final ServerLog log; // Asynchrones Log für Nachrichten, Anmeldungen und Fehler
+    private final RateLimiter rateLimiter; // Grenzen für Nachrichten und Bytes je Verbindung und je Host
+    private final ServerMetrics metrics; // JMX und Text-Endpunkt für die Zähler
+
+    // Konstruktor, um einen neuen ChatServer mit den Optionen aus den System-Properties zu erstellen
     public ChatServer(String ipAddress, int port) {
+        this(ipAddress, port, ServerConfig.fromSystemProperties());
+    }
+
+    // Konstruktor, um einen neuen ChatServer mit expliziten Optionen zu erstellen
+    public ChatServer(String ipAddress, int port, ServerConfig config) {
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.config = config;
         clients = new CopyOnWriteArrayList<>();
+        presence = new PresenceTracker(this, config.getPresenceWindow());
+        log = config.createServerLog(stats);
+        bus = config.createMessageBus(stats, log);
+        bus.subscribe(this::fanOut);
+        metrics = new ServerMetrics(this);
+        rateLimiter = new RateLimiter(config);
+        diskExecutor = Executors.newFixedThreadPool(config.getDiskThreads(),
+                Thread.ofPlatform().name("chatty-disk-", 0).daemon().factory());
         // CopyOnWriteArrayList ist eine thread-sichere Implementierung der Liste.
         // Sie wird verwendet, um gleichzeitige Änderungen durch mehrere Threads zu ermöglichen.
+    }
 
+    // Startet die gewählte Engine und blockiert, bis der Server beendet wird
+    public void start() {
         try {
             // InetAddress repräsentiert eine IP-Adresse
             // Hier wird die vom Benutzer eingegebene IP-Adresse auf Gültigkeit geprüft und als Objekt erstellt
             InetAddress bindAddress = InetAddress.getByName(ipAddress);
+            attachments = new AttachmentStore(config.getAttachmentDirectory(), config.getMaxAttachmentSize(), log);
+            if (config.isLogEnabled()) {
+                messageLog = new MessageLog(config.getLogDirectory(), config.getLogSegmentSize(),
+                        config.getLogFsyncInterval(), config.getLogFsyncBatch(), config.getLogRetentionBytes(),
+                        TimeUnit.HOURS.toMillis(config.getLogRetentionHours()), stats, log);
+            }
+            history = new MessageHistory(config.getHistorySize(), config.getHistoryBytes(), messageLog);
+            sessions = new SessionRegistry(this, config.getSessionGrace(), config.getSessionMaxAge(),
+                    config.getSessionKeyFile());
+            bus.start();
+            metrics.start(port, config.isMetricsJmx(), config.getMetricsPort());
+            if (config.isClusterEnabled()) {
+                String nodeId = config.getClusterNodeId() != null ? config.getClusterNodeId() : ipAddress + ":" + port;
+                cluster = new ClusterNode(this, presence, nodeId, InetAddress.getByName(config.getClusterBindAddress()),
+                        config.getClusterPort(), config.getClusterPeers(), config.getClusterSecret(),
+                        config.getOutboundCapacity(), stats);
+                cluster.start();
+            }
+
+            engine = switch (config.getEngine()) {
+                case NIO -> new NioServerEngine(this, bindAddress, port, config.getBacklog(), config.getNioThreads());
+                case CLASSIC -> new ClassicServerEngine(this, bindAddress, port, config.getBacklog(),
+                        config.createClientExecutor(), config.createWriterExecutor());
+            };
+            engine.start();
+        } catch (ClosedChannelException e) {
+            // stop() hat den Server-Socket geschlossen, während die Engine auf Verbindungen wartete
+        } catch (IOException e) {
+            // Behandelt Eingabe-/Ausgabefehler, z. B. beim Öffnen oder Schließen von Verbindungen
+            log.error("Server konnte nicht gestartet werden: " + e);
+        } finally {
+            stop();
+        }
+    }
+
+    // Beendet die laufende Engine
+    public void stop() {
+        if (engine != null) {
+            engine.close();
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+        bus.close();
+        presence.close();
+        diskExecutor.shutdownNow();
+        if (sessions != null) {
+            sessions.close();
+        }
+        metrics.close();
+        if (messageLog != null) {
+            messageLog.close(); // Schreibt noch wartende Einträge
+        }
+        log.close(); // Zuletzt, damit es auch Fehler beim Beenden noch aufnimmt
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    public ServerLog getLog() {
+        return log;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    // Alle offenen Verbindungen, auch die noch nicht angemeldeten
+    List<ClientConnection> connections() {
+        return clients;
+    }
+
+    // Fügt einen neu angenommenen Client zur Liste der verbundenen Clients hinzu
+    public void addClient(ClientConnection client) {
+        stats.connectionAccepted();
+        clients.add(client);
+    }
+
+    // Verarbeitet die erste Zeile einer Verbindung (Anmeldung mit CONNECT:<Name>)
+    public void handleConnect(ClientConnection client, String initialMessage) {
+        if (initialMessage != null && initialMessage.startsWith("CONNECT:")) {
+            // Extrahieren des Namens des Clients aus der Nachricht
+            String name = initialMessage.substring(8);
+            String token = null; // Token der Sitzung, die der Client fortsetzen will ("" = neue Sitzung, null = keine)
+            int session = name.lastIndexOf(TextCodec.BINARY_REQUEST + TextCodec.SESSION_REQUEST);
+            if (session >= 0) {
+                token = name.substring(session + TextCodec.BINARY_REQUEST.length() + TextCodec.SESSION_REQUEST.length());
+                name = name.substring(0, session + TextCodec.BINARY_REQUEST.length());
+            }
+            boolean binary = name.endsWith(TextCodec.BINARY_REQUEST);
+            if (binary) {
+                name = name.substring(0, name.length() - TextCodec.BINARY_REQUEST.length());
+            }
+            name = name.trim();
+            // Jeder Name darf nur einmal angemeldet sein. Die Ablehnung geht noch im Textformat hinaus,
+            // das versteht auch ein Client, der das Binärprotokoll angefragt hat.
+            if (!isValidName(name)) {
+                reject(client, "Ungültiger Name.");
+                return;
+            }
+            if (token != null && !sessions.isEnabled()) {
+                token = null; // Sitzungen sind abgeschaltet: der Client erhält die einfache Bestätigung
+            }
+            if (token != null && !token.isEmpty()) {
+                SessionRegistry.Takeover takeover = sessions.resume(name, token, client);
+                if (takeover != null) {
+                    resume(client, name, takeover);
+                    return;
+                }
+            }
+            // Im Cluster darf der Name auch auf keinem anderen Knoten angemeldet sein
+            if ((cluster != null && cluster.isRemoteName(name)) || clientsByName.putIfAbsent(name, client) != null) {
+                reject(client, "Der Name " + name + " ist bereits vergeben.");
+                return;
+            }
+            // Ein Token vom Lauf vor einem Neustart: der Client war eben noch da, die anderen erfahren nichts davon
+            boolean restored = token != null && !token.isEmpty() && sessions.restore(name, token, client);
+            if (binary) {
+                // Der Client spricht das binäre Protokoll: bestätigen, danach folgen nur noch Frames.
+                // Die Bestätigung wird eingereiht, bevor der Name gesetzt ist und Broadcasts den Client erreichen.
+                client.setProtocol(ProtocolVersion.BINARY);
+                client.sendMessage(token != null
+                        ? TextCodec.PROTOCOL_ACK + TextCodec.SESSION_REQUEST + sessions.open(name, client)
+                        : TextCodec.PROTOCOL_ACK);
+            }
+            client.setName(name);
+            join(client, "");
+            client.sendMessage(ChatMessage.rooms(roomNames()));
+            // Benachrichtige alle anderen Teilnehmer, dass der neue Client dem Chat beigetreten ist
+            if (!restored) {
+                broadcast(ChatMessage.system(client.getName() + " hat den Chat betreten."));
+            }
+            // Der neue Client erhält die vollständige Liste, alle anderen mit dem nächsten Delta nur seinen Namen
+            presence.sendSnapshot(client);
+            presence.joined(name);
+            if (cluster != null) {
+                cluster.localJoined(name);
+            }
+        }
+    }
+
+    // Eine neue Verbindung setzt eine Sitzung fort und übernimmt Namen und Räume der bisherigen.
+    // Die anderen Teilnehmer bemerken davon nichts: kein Hinweis und keine Änderung der Teilnehmerliste.
+    private void resume(ClientConnection client, String name, SessionRegistry.Takeover takeover) {
+        ClientConnection previous = takeover.previous();
+        client.setProtocol(ProtocolVersion.BINARY);
+        client.sendMessage(TextCodec.PROTOCOL_ACK + TextCodec.SESSION_REQUEST + takeover.token() + TextCodec.SESSION_RESUMED);
+        client.setName(name);
+        clientsByName.replace(name, previous, client);
+        Set<String> joined = memberships.remove(previous);
+        if (joined != null) {
+            boolean created = false;
+            for (String room : joined) {
+                boolean[] added = new boolean[1];
+                rooms.compute(room, (key, members) -> {
+                    if (members == null) {
+                        members = ConcurrentHashMap.newKeySet(); // Zwischenzeitlich von allen anderen verlassen
+                        added[0] = true;
+                    }
+                    members.remove(previous);
+                    members.add(client);
+                    return members;
+                });
+                created |= added[0];
+            }
+            memberships.put(client, joined);
+            if (created) {
+                updateRoomList();
+            }
+        }
+        // Hat der Client den Abbruch vor dem Server bemerkt, ist die alte Verbindung noch offen
+        previous.close();
+        client.sendMessage(ChatMessage.rooms(roomNames()));
+        presence.sendSnapshot(client);
+        log.info("Sitzung von " + name + " fortgesetzt.");
+    }
+
+    // Lehnt eine Anmeldung ab und trennt die Verbindung, sobald der Hinweis geschrieben ist
+    private void reject(ClientConnection client, String reason) {
+        log.warn("Anmeldung abgelehnt: " + reason);
+        client.sendMessage(ChatMessage.system(reason));
+        client.closeAfterFlush();
+    }
+
+    // Namen: 1 bis 32 Zeichen ohne Steuerzeichen. Die Obergrenze hält den Absender
+    // in jedem Frame und jede Presence-Liste weit unter den 16-Bit-Längenfeldern.
+    public static boolean isValidName(String name) {
+        return !name.isBlank() && name.length() <= 32 && name.chars().noneMatch(Character::isISOControl);
+    }
+
+    // Verarbeitet eine Zeile eines Clients, der das Textprotokoll spricht
+    public void handleLine(ClientConnection client, String line) {
+        ChatMessage message = TextCodec.decode(line, client.getName());
+        if (message == null) {
+            log.warn("Ungültige Nachricht von " + client.getName() + " verworfen.");
+            return;
+        }
+        handleMessage(client, message);
+    }
+
+    // Verarbeitet jede weitere Nachricht eines Clients
+    public void handleMessage(ClientConnection client, ChatMessage message) {
+        if (client.getName() == null) {
+            log.warn("Nachricht eines nicht angemeldeten Clients verworfen: " + message);
+            return;
+        }
+        stats.messageReceived();
+        switch (message.getType()) {
+            // Nachricht an alle Clients senden; als Absender gilt immer der angemeldete Name
+            // Nur Mitglieder eines Raums dürfen dort schreiben
+            case TEXT, IMAGE -> {
+                if (isMember(client, message.getRoom())) {
+                    broadcast(message.withSender(client.getName()));
+                } else {
+                    client.sendMessage(ChatMessage.system("Du bist nicht im Raum " + message.getRoom() + "."));
+                }
+            }
+            case ATTACHMENT, FETCH, FILE_START, FILE_CHUNK, FILE_END -> {
+                if (client.getName() == null || !FileTransfer.isValid(message)) {
+                    log.warn("Ungültige Nachricht von " + client.getName() + " verworfen.");
+                } else if (message.getType() == MessageType.ATTACHMENT) {
+                    announceAttachment(client, FileTransfer.attachment(message), message.getRoom());
+                } else if (message.getType() == MessageType.FETCH) {
+                    sendAttachment(client, FileTransfer.fetchedHash(message));
+                } else {
+                    receiveUpload(client, message);
+                }
+            }
+            case HISTORY -> sendHistory(client, message.getRoom(), History.request(message));
+            case JOIN -> {
+                if (client.getName() != null && isValidRoomName(message.getRoom())) {
+                    join(client, message.getRoom());
+                } else {
+                    client.sendMessage(ChatMessage.system("Ungültiger Raumname."));
+                }
+            }
+            case LEAVE -> leave(client, message.getRoom());
+            case DIRECT -> sendDirect(client, message);
+            // Ausdrückliches Abmelden: ohne Karenzzeit, die anderen sehen den Client sofort gehen
+            case DISCONNECT -> {
+                sessions.end(client);
+                client.close();
+            }
+            // Der Client hat eine Lücke in den Versionen bemerkt und fordert den vollständigen Stand an
+            case PRESENCE -> {
+                if (Presence.isRequest(message)) {
+                    presence.sendSnapshot(client);
+                }
+            }
+            default -> log.warn("Unerwartete Nachricht von " + client.getName() + ": " + message);
+        }
+    }
+
+    // Stellt eine private Nachricht zu; der Empfänger wird über den Namensindex in konstanter Zeit gefunden.
+    // Private Nachrichten gehören nicht zum Verlauf und werden nicht im Log gespeichert.
+    private void sendDirect(ClientConnection client, ChatMessage message) {
+        ClientConnection recipient = clientsByName.get(message.getRoom());
+        ChatMessage direct = message.withSender(client.getName());
+        if (recipient == null && cluster != null && cluster.isRemoteName(message.getRoom())) {
+            cluster.relay(direct); // Der Knoten des Empfängers stellt sie zu, alle anderen verwerfen sie
+            client.sendMessage(direct);
+            return;
+        }
+        if (recipient == null) {
+            client.sendMessage(ChatMessage.system(message.getRoom() + " ist nicht angemeldet."));
+            return;
+        }
+        recipient.sendMessage(direct);
+        if (recipient != client) {
+            client.sendMessage(direct); // Kopie für den Absender, damit er die Nachricht in seinem Verlauf sieht
+        }
+    }
+
+    // Beantwortet eine Anfrage nach älteren Nachrichten mit höchstens einer Seite und einer abschließenden HISTORY-Nachricht
+    private void sendHistory(ClientConnection client, String room, History.Request request) {
+        if (!isMember(client, room) || request == null) {
+            log.warn("Ungültige Anfrage nach dem Verlauf von " + client.getName() + " verworfen.");
+            return;
+        }
+        int limit = Math.max(0, Math.min(request.limit(), config.getHistoryPageSize()));
+        // Ältere Seiten kommen aus dem MessageLog auf der Festplatte; die Antwort wird aus dem Festplatten-Thread eingereiht
+        diskExecutor.execute(() -> {
+            try {
+                MessageHistory.Page page = history.query(room, new History.Request(request.mode(), request.value(), limit));
+                for (ChatMessage message : page.messages()) {
+                    client.sendMessage(message);
+                }
+                client.sendMessage(History.end(request.mode(), page.cursor(), page.hasMore()).withRoom(room));
+            } catch (IOException e) {
+                log.warn("Verlauf für " + client.getName() + " konnte nicht gelesen werden: " + e.getMessage());
+            }
+        });
+    }
 
-            // ServerSocket wird erstellt. Es ist ein Netzwerkobjekt, das Verbindungsanfragen akzeptieren kann.
-            // Parameter:
-            // - port: Der Port, auf dem der Server lauscht (z. B. 8080)
-            // - 50: Maximale Länge der Warteschlange für eingehende Verbindungen
-            // - bindAddress: Die IP-Adresse, an die der Server gebunden ist
-            serverSocket = new ServerSocket(port, 50, bindAddress);
-            System.out.println("Server läuft auf IP-Adresse: " + bindAddress.getHostAddress() + " und Port: " + port);
+    // Ein Client kündigt einen Anhang an: bekannte Inhalte werden sofort verteilt, unbekannte beim Absender angefordert
+    private void announceAttachment(ClientConnection client, FileTransfer.Attachment attachment, String room) {
+        if (!isMember(client, room)) {
+            client.sendMessage(ChatMessage.system("Du bist nicht im Raum " + room + "."));
+        } else if (attachment.size() > attachments.getMaxSize()) {
+            client.sendMessage(ChatMessage.system("Die Datei " + attachment.fileName() + " ist zu groß."));
+        } else if (attachments.contains(attachment.hash())) {
+            // Der Inhalt liegt schon vor (z. B. weitergeleitetes Bild): nur der Verweis wird verteilt
+            broadcast(FileTransfer.attachment(client.getName(), attachment).withRoom(room));
+        } else {
+            client.sendMessage(FileTransfer.fetch(attachment.hash()));
+        }
+    }
 
-            // Endlosschleife um kontinuierlich neue Verbindungen zu akzeptieren
-            while (true) {
-                System.out.println("Waiting for new client...");
+    // Ein Client fordert den Inhalt zu einem Hash an
+    private void sendAttachment(ClientConnection client, String hash) {
+        diskExecutor.execute(() -> {
+            try {
+                ByteBuffer content = attachments.open(hash);
+                if (content == null) {
+                    client.sendMessage(ChatMessage.system("Die angeforderte Datei ist nicht vorhanden."));
+                    return;
+                }
+                FileTransfer.Attachment attachment = new FileTransfer.Attachment(hash, content.remaining(), hash);
+                new AttachmentDownload(client, nextDownloadId.incrementAndGet(), attachment, content).start();
+            } catch (IOException e) {
+                log.warn("Anhang " + hash + " konnte nicht gelesen werden: " + e.getMessage());
+            }
+        });
+    }
 
-                // Wartet, bis ein neuer Client eine Verbindung aufbaut!!!
-                Socket connectionToClient = serverSocket.accept();
-                // accept() blockiert, bis eine neue Verbindung eingeht, und gibt ein Socket-Objekt zurück,
-                // das die Verbindung zu diesem Client repräsentiert.
+    // Laufende Uploads eines Clients. Seine Stücke werden nacheinander auf dem Festplatten-Executor geschrieben;
+    // running und closed werden nur dort verwendet.
+    private static final class ClientUploads {
+        final SerialExecutor disk;
+        final AtomicInteger pending = new AtomicInteger(); // Eingereihte, noch nicht geschriebene Nachrichten
+        final Map<Integer, AttachmentStore.Upload> running = new HashMap<>();
+        boolean closed; // Die Verbindung ist beendet und alle Uploads sind verworfen
 
-                // Ein neuer ClientHandler wird erstellt, um die Kommunikation mit dem Client zu verwalten
-                ClientHandler client = new ClientHandler(this, connectionToClient);
+        ClientUploads(SerialExecutor disk) {
+            this.disk = disk;
+        }
+    }
 
-                // Der neue Client wird zur Liste der verbundenen Clients hinzugefügt
-                clients.add(client);
-                System.out.println("Accepted new client: " + connectionToClient.getRemoteSocketAddress());
-                // getRemoteSocketAddress gibt die Adresse des verbundenen Clients zurück
+    // Reiht ein Stück eines Uploads ein; geschrieben wird in der Reihenfolge des Eintreffens auf dem Festplatten-Executor
+    private void receiveUpload(ClientConnection client, ChatMessage message) {
+        ClientUploads state = uploads.computeIfAbsent(client, c -> new ClientUploads(new SerialExecutor(diskExecutor)));
+        // Ein Client, der sich an das Fenster hält, hat je Datei höchstens WINDOW Stücke sowie Anfang und Ende unterwegs,
+        // auch für abgelehnte Dateien, bis er aufgibt. Wer weit mehr schickt, würde die Warteschlange vor der Festplatte
+        // beliebig wachsen lassen und wird getrennt.
+        if (state.pending.incrementAndGet() > 4 * config.getMaxUploadsPerClient() * (FileTransfer.WINDOW + 2)) {
+            log.warn("Client " + client.getName() + " sendet Upload-Stücke ohne Bestätigung und wird getrennt.");
+            client.close();
+            return;
+        }
+        state.disk.execute(() -> {
+            state.pending.decrementAndGet();
+            if (!state.closed) {
+                writeUpload(client, state.running, message);
+            }
+        });
+    }
+
+    // Verarbeitet ein Stück eines Uploads; nach dem letzten Stück wird der Anhang im Raum der FILE_END-Nachricht verteilt
+    private void writeUpload(ClientConnection client, Map<Integer, AttachmentStore.Upload> running, ChatMessage message) {
+        int transferId = FileTransfer.transferId(message);
+        AttachmentStore.Upload upload = running.get(transferId);
+        try {
+            switch (message.getType()) {
+                case FILE_START -> {
+                    if (!running.containsKey(transferId) && running.size() >= config.getMaxUploadsPerClient()) {
+                        client.sendMessage(ChatMessage.system("Zu viele gleichzeitige Uploads, die Datei wurde abgelehnt."));
+                        return;
+                    }
+                    AttachmentStore.Upload previous = running.put(transferId,
+                            attachments.beginUpload(FileTransfer.fileInfo(message).attachment()));
+                    if (previous != null) {
+                        previous.abort();
+                    }
+                }
+                case FILE_CHUNK -> {
+                    if (upload != null) {
+                        upload.write(FileTransfer.chunkData(message));
+                        // Bestätigt wird erst nach dem Schreiben, so richtet sich der Absender nach der Festplatte
+                        client.sendMessage(FileTransfer.ack(transferId, FileTransfer.sequence(message)));
+                    }
+                }
+                case FILE_END -> {
+                    if (upload != null) {
+                        running.remove(transferId);
+                        upload.complete();
+                        if (isMember(client, message.getRoom())) {
+                            broadcast(FileTransfer.attachment(client.getName(), upload.getAttachment()).withRoom(message.getRoom()));
+                        }
+                    }
+                }
+                default -> {
+                }
             }
         } catch (IOException e) {
-            // Behandelt Eingabe-/Ausgabefehler, z. B. beim Öffnen oder Schließen von Verbindungen
-            e.printStackTrace();
-        } finally {
-            // Dieser Block wird ausgeführt, bevor das Programm beendet wird, um Ressourcen zu bereinigen
-            if (serverSocket != null) {
-                try {
-                    serverSocket.close(); // Schließt den ServerSocket und stoppt den Server
-                } catch (IOException e) {
-                    e.printStackTrace();
+            if (upload != null) {
+                running.remove(transferId);
+                upload.abort();
+            }
+            client.sendMessage(ChatMessage.system("Fehler beim Hochladen: " + e.getMessage()));
+        }
+    }
+
+    // Wird aufgerufen, wenn die Verbindung zu einem Client beendet wurde
+    public void handleDisconnect(ClientConnection client) {
+        // Abgebrochene Uploads verwerfen, nach den schon eingereihten Stücken
+        ClientUploads state = uploads.remove(client);
+        if (state != null) {
+            state.disk.execute(() -> {
+                state.closed = true;
+                state.running.values().forEach(AttachmentStore.Upload::abort);
+                state.running.clear();
+            });
+        }
+        if (client.getName() == null) {
+            clients.remove(client); // Nie angemeldet (oder abgelehnt): niemand muss benachrichtigt werden
+            return;
+        }
+        clients.remove(client);
+        // Mit einer Sitzung bleibt der Client für die Karenzzeit angemeldet, Nachrichten an ihn werden verworfen.
+        // Hat eine neue Verbindung die Sitzung schon übernommen, ist ebenfalls nichts weiter zu tun.
+        if (sessions != null && sessions.detach(client)) {
+            return;
+        }
+        leaveChat(client);
+    }
+
+    // Die Karenzzeit einer getrennten Sitzung ist abgelaufen: der Client wird nun abgemeldet
+    void sessionExpired(ClientConnection client) {
+        leaveChat(client);
+    }
+
+    private void leaveChat(ClientConnection client) {
+        // Den Namen freigeben, aber nur, wenn er noch zu diesem Client gehört
+        clientsByName.remove(client.getName(), client);
+        // Den Client aus allen Räumen und der Teilnehmerliste entfernen und alle anderen benachrichtigen
+        leaveAll(client);
+        presence.left(client.getName());
+        if (cluster != null) {
+            cluster.localLeft(client.getName());
+        }
+        broadcast(ChatMessage.system(client.getName() + " hat den Chat verlassen."));
+    }
+
+    // Methode zum Senden einer Zeile im Textformat an alle verbundenen Clients
+    public void broadcastMessage(String message) {
+        ChatMessage decoded = TextCodec.decode(message);
+        if (decoded != null) {
+            broadcast(decoded);
+        }
+    }
+
+    // Nimmt einen Client in einen Raum auf, bestätigt ihm das und benachrichtigt die übrigen Mitglieder
+    private void join(ClientConnection client, String room) {
+        boolean[] created = new boolean[1];
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+                created[0] = true;
+            }
+            members.add(client);
+            return members;
+        });
+        memberships.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet()).add(room);
+        if (room.isEmpty()) {
+            return; // Den Standardraum betritt jeder bei der Anmeldung; dafür gibt es eigene Hinweise
+        }
+        client.sendMessage(new ChatMessage(MessageType.JOIN, client.getName(), room, null));
+        // Nach einem Neustart betritt der Client seine Räume wieder, ohne dass es jemand bemerkt
+        if (sessions == null || !sessions.isQuiet(client)) {
+            broadcast(ChatMessage.system(client.getName() + " hat den Raum betreten.").withRoom(room));
+        }
+        if (created[0]) {
+            updateRoomList();
+        }
+    }
+
+    // Entfernt einen Client aus einem Raum; den Standardraum verlässt ein Client nur beim Abmelden
+    private void leave(ClientConnection client, String room) {
+        if (room.isEmpty() || !removeMember(client, room)) {
+            return;
+        }
+        Set<String> joined = memberships.get(client);
+        if (joined != null) {
+            joined.remove(room);
+        }
+        client.sendMessage(new ChatMessage(MessageType.LEAVE, client.getName(), room, null));
+        broadcast(ChatMessage.system(client.getName() + " hat den Raum verlassen.").withRoom(room));
+    }
+
+    // Entfernt einen abgemeldeten Client aus allen Räumen
+    private void leaveAll(ClientConnection client) {
+        Set<String> joined = memberships.remove(client);
+        if (joined != null) {
+            for (String room : joined) {
+                if (removeMember(client, room) && !room.isEmpty()) {
+                    broadcast(ChatMessage.system(client.getName() + " hat den Raum verlassen.").withRoom(room));
                 }
             }
         }
     }
 
-    // Methode zum Senden einer Nachricht an alle verbundenen Clients
-    public synchronized void broadcastMessage(String message) {
-        // synchronized stellt sicher, dass nur ein Thread diese Methode zur gleichen Zeit ausführen kann,
-        // um parallelen Zugriff auf die Liste der Clients zu verhindern.
-        System.out.println(message); // Gibt die Nachricht auf der Konsole des Servers aus
-        for (ClientHandler client : clients) {
-            client.sendMessage(message); // Sendet die Nachricht an jeden Client
+    // Entfernt ein Mitglied; ein leerer Raum (außer dem Standardraum) wird gelöscht und die Raumliste verschickt
+    private boolean removeMember(ClientConnection client, String room) {
+        boolean[] removed = new boolean[2];
+        rooms.computeIfPresent(room, (name, members) -> {
+            removed[0] = members.remove(client);
+            removed[1] = members.isEmpty() && !name.isEmpty();
+            return removed[1] ? null : members;
+        });
+        if (removed[1]) {
+            updateRoomList();
+        }
+        return removed[0];
+    }
+
+    private boolean isMember(ClientConnection client, String room) {
+        Set<ClientConnection> members = rooms.get(room);
+        return client.getName() != null && members != null && members.contains(client);
+    }
+
+    // Namen aller Räume außer dem Standardraum, sortiert
+    private List<String> roomNames() {
+        List<String> names = new ArrayList<>(rooms.keySet());
+        names.remove("");
+        names.sort(null);
+        return names;
+    }
+
+    // Sendet die Raumliste an alle Clients
+    private void updateRoomList() {
+        roomsLock.lock();
+        try {
+            broadcast(ChatMessage.rooms(roomNames()));
+        } finally {
+            roomsLock.unlock();
+        }
+    }
+
+    // Raumnamen: 1 bis 32 Zeichen ohne Steuerzeichen; der Standardraum wird nicht betreten.
+    // "@" am Anfang ist im Client den privaten Unterhaltungen vorbehalten.
+    public static boolean isValidRoomName(String room) {
+        return !room.isBlank() && room.length() <= 32 && room.equals(room.trim()) && !room.startsWith("@")
+                && room.chars().noneMatch(Character::isISOControl);
+    }
+
+    // Methode zum Senden einer Nachricht an alle Mitglieder ihres Raums
+    public void broadcast(ChatMessage message) {
+        if (message.getType() == MessageType.ROOMS) {
+            fanOut(message); // Die Raumliste gilt nur für diesen Server
+            return;
+        }
+        // Im Cluster erhalten auch die anderen Knoten die Nachricht
+        if (cluster != null) {
+            cluster.relay(message);
+        }
+        bus.publish(message);
+    }
+
+    // Verarbeitet eine Nachricht, die ein anderer Knoten des Clusters weitergeleitet hat.
+    // Sie wird nur an die eigenen Clients verteilt und nicht erneut weitergeleitet.
+    void handleRelayed(ChatMessage message) {
+        if (message.getType() == MessageType.DIRECT) {
+            ClientConnection recipient = clientsByName.get(message.getRoom());
+            if (recipient != null) {
+                recipient.sendMessage(message);
+            }
+        } else {
+            fanOut(message);
+        }
+    }
+
+    // Die Namen der an diesem Knoten angemeldeten Clients
+    Set<String> localNames() {
+        return clientsByName.keySet();
+    }
+
+    // Verteilt eine Nachricht an die Mitglieder ihres Raums auf diesem Server
+    private void fanOut(ChatMessage message) {
+        long start = System.nanoTime();
+        // Keine Sperre: send reiht nur in die Ausgangswarteschlange des Clients ein,
+        // daher hängt die Dauer des Broadcasts nicht mehr vom langsamsten Empfänger ab.
+        Set<ClientConnection> members = rooms.get(message.getRoom());
+        if (members == null) {
+            return; // Der Raum ist inzwischen leer
+        }
+        // Alles außer Teilnehmer- und Raumliste gehört zum Verlauf und erhält dort Nummer und Zeitpunkt
+        if (history != null && message.getType() != MessageType.PARTICIPANTS && message.getType() != MessageType.ROOMS) {
+            message = history.append(message);
         }
+        log.message(message); // Reiht nur eine Zusammenfassung ein; geschrieben wird im Hintergrund
+        // Clients mit Textprotokoll sind nur im Standardraum
+        ChatMessage numbered = message;
+        deliver(members, message, message.getRoom().isEmpty() ? () -> TextCodec.encode(numbered) : null);
+        stats.fanOutCompleted(System.nanoTime() - start);
     }
 
-    // Aktualisiert die Liste der Teilnehmer und sendet sie an alle Clients
-    public synchronized void updateParticipantsList() {
-        // StringBuilder wird verwendet, um effizient Strings zu erstellen und zu manipulieren
-        StringBuilder participantsMessage = new StringBuilder("PARTICIPANTS: ");
-        for (ClientHandler client : clients) {
-            participantsMessage.append(client.getName()).append(", ");
-            // Fügt die Namen aller verbundenen Clients zur Teilnehmerliste hinzu
+    // Verteilt ein Delta der Teilnehmerliste an alle angemeldeten Clients.
+    // Clients mit Textprotokoll kennen keine Deltas und erhalten stattdessen einmal pro Zeitfenster die ganze Liste.
+    void broadcastPresence(ChatMessage delta, List<String> names) {
+        Set<ClientConnection> members = rooms.get("");
+        if (members != null) {
+            deliver(members, delta, () -> TextCodec.encode(ChatMessage.participants(names)));
         }
-        broadcastMessage(participantsMessage.toString());
-        // Sendet die aktualisierte Teilnehmerliste an alle Clients
     }
 
-    // Entfernt einen Client aus der Liste und aktualisiert die Teilnehmerliste
-    public synchronized void removeClient(ClientHandler client) {
-        clients.remove(client); // Entfernt den angegebenen Client aus der Liste
-        updateParticipantsList(); // Aktualisiert die Liste der Teilnehmer
+    // Schreibt eine Nachricht an die angegebenen Clients, im Binärformat bzw. als Zeile (textForm, null = keine Textform)
+    private void deliver(Set<ClientConnection> members, ChatMessage message, Supplier<String> textForm) {
+        // Die Nachricht wird je Protokoll höchstens einmal kodiert und derselbe Buffer an alle Clients geschrieben.
+        // Beide Formen entstehen erst beim ersten Empfänger, der sie braucht; ohne Clients im Textprotokoll
+        // (der Normalfall) wird die Zeile nie gebildet. Nachrichten ohne Textform erhalten nur Clients im Binärprotokoll.
+        EncodedMessage text = null;
+        EncodedMessage binary = null;
+        int delivered = 0;
+        try {
+            for (ClientConnection client : members) {
+                if (client.getProtocol() == ProtocolVersion.BINARY) {
+                    if (binary == null) {
+                        binary = EncodedMessage.encode(message);
+                    }
+                    client.send(binary);
+                    delivered++;
+                } else if (textForm != null) {
+                    if (text == null) {
+                        String line = textForm.get();
+                        if (line == null) {
+                            textForm = null; // Keine Textform: Clients im Textprotokoll erhalten die Nachricht nicht
+                            continue;
+                        }
+                        text = EncodedMessage.encode(line);
+                    }
+                    client.send(text); // Reiht die Nachricht für jeden Client ein
+                    delivered++;
+                }
+            }
+        } finally {
+            stats.messagesDelivered(delivered);
+            if (text != null) {
+                text.release();
+            }
+            if (binary != null) {
+                binary.release();
+            }
+        }
     }
 
     // Einstiegspunkt des Programms
@@ -123,7 +774,7 @@ public class ChatServer {
             }
         }
 
-        new ChatServer(ipAddress, port);
+        new ChatServer(ipAddress, port).start();
     }
 
     public static boolean isValidIPv4(String ip) {
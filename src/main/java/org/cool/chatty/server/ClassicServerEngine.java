@@ -0,0 +1,74 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Die ursprüngliche Engine: blockierendes accept() und ein eigener Thread pro Client (ClientHandler).
+ * Welche Art von Thread das ist (Plattform- oder virtueller Thread), bestimmt der übergebene Executor.
+ * Die Kanäle bleiben im blockierenden Modus; als SocketChannel können sie aber Direct-Buffer ohne Kopie schreiben.
+ */
+public class ClassicServerEngine implements ServerEngine {
+    private final ChatServer chatServer; // Server, an den neue Clients übergeben werden
+    private final InetAddress bindAddress; // Adresse, an die der Server gebunden ist
+    private final int port; // Port, auf dem der Server lauscht
+    private final int backlog; // Maximale Länge der Warteschlange für eingehende Verbindungen
+    private final ExecutorService clientExecutor; // Führt die run-Methode jedes ClientHandlers aus
+    private final ExecutorService writerExecutor; // Führt die Schreib-Tasks der ClientHandler aus
+
+    private ServerSocketChannel serverChannel; // Wartet auf Verbindungsanfragen von Clients
+
+    public ClassicServerEngine(ChatServer chatServer, InetAddress bindAddress, int port, int backlog,
+                               ExecutorService clientExecutor, ExecutorService writerExecutor) {
+        this.chatServer = chatServer;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.backlog = backlog;
+        this.clientExecutor = clientExecutor;
+        this.writerExecutor = writerExecutor;
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(bindAddress, port), backlog);
+        chatServer.getLog().info("Server läuft auf IP-Adresse: " + bindAddress.getHostAddress()
+                + " und Port: " + ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+
+        try {
+            // Endlosschleife um kontinuierlich neue Verbindungen zu akzeptieren
+            while (serverChannel.isOpen()) {
+                chatServer.getLog().debug("Waiting for new client...");
+
+                // Wartet, bis ein neuer Client eine Verbindung aufbaut
+                SocketChannel connectionToClient = serverChannel.accept();
+
+                // Ein neuer ClientHandler wird erstellt, um die Kommunikation mit dem Client zu verwalten
+                ClientHandler client = new ClientHandler(chatServer, connectionToClient, writerExecutor);
+                chatServer.addClient(client);
+                // Erst nach dem Hinzufügen starten, damit der Client seine eigene Beitrittsnachricht erhält
+                clientExecutor.execute(client);
+                chatServer.getLog().info("Accepted new client: " + connectionToClient.getRemoteAddress());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        clientExecutor.shutdown(); // Laufende ClientHandler dürfen ihre Verbindung noch sauber beenden
+        writerExecutor.shutdown();
+        if (serverChannel != null && serverChannel.isOpen()) {
+            try {
+                serverChannel.close(); // Schließt den ServerSocketChannel und stoppt den Server
+            } catch (IOException e) {
+                chatServer.getLog().warn("Server-Socket konnte nicht geschlossen werden: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.cool.chatty.protocol.TextCodec;
+
+/**
+ * Gemeinsame Schnittstelle für eine Verbindung zu einem Client,
+ * unabhängig davon, welche Server-Engine sie verwaltet.
+ */
+public interface ClientConnection {
+
+    // Gibt den Namen des Clients zurück (null, solange kein CONNECT empfangen wurde)
+    String getName();
+
+    // Setzt den Namen des Clients nach der Anmeldung
+    void setName(String name);
+
+    // Protokoll, das bei der Anmeldung ausgehandelt wurde (Standard: Textprotokoll)
+    ProtocolVersion getProtocol();
+
+    void setProtocol(ProtocolVersion protocol);
+
+    // Reiht eine bereits kodierte Nachricht ein; die Verbindung ruft retain() auf und gibt sie nach dem Schreiben frei
+    void send(EncodedMessage message);
+
+    // Sendet eine einzelne Zeile im Textformat an den Client
+    default void sendMessage(String message) {
+        EncodedMessage encoded = EncodedMessage.encode(message);
+        try {
+            send(encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // Sendet eine einzelne Nachricht im ausgehandelten Protokoll an den Client
+    // Nachrichten ohne Textform erhalten Clients im Textprotokoll nicht
+    default void sendMessage(ChatMessage message) {
+        EncodedMessage encoded;
+        if (getProtocol() == ProtocolVersion.BINARY) {
+            encoded = EncodedMessage.encode(message);
+        } else {
+            String line = TextCodec.encode(message);
+            if (line == null) {
+                return;
+            }
+            encoded = EncodedMessage.encode(line);
+        }
+        try {
+            send(encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // Anzahl der Nachrichten, die noch auf das Schreiben warten (für die Metriken)
+    default int getQueueDepth() {
+        return 0;
+    }
+
+    // Schließt die Verbindung
+    void close();
+
+    // true, sobald die Verbindung geschlossen ist; danach wird alles Gesendete verworfen
+    boolean isClosed();
+
+    // Schließt die Verbindung, nachdem alle bereits eingereihten Nachrichten geschrieben sind (z. B. nach einer Ablehnung)
+    void closeAfterFlush();
+}
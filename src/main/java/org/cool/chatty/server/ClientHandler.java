@@ -1,92 +1,286 @@
 package org.cool.chatty.server;
 
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.cool.chatty.protocol.TextCodec;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, ClientConnection {
     private ChatServer chatServer; // Referenz zum ChatServer, um Nachrichten zu senden und Teilnehmer zu verwalten
-    private Socket connectionToClient; // Socket, um mit dem Client zu kommunizieren
+    // Blockierender Kanal zum Client. Ein SocketChannel statt eines Sockets,
+    // damit die gemeinsam kodierten Direct-Buffer ohne Zwischenkopie geschrieben werden können.
+    private SocketChannel connectionToClient;
 
-    private String name; // Der Name des Clients (wird nach der Verbindung gesetzt)
+    private volatile String name; // Der Name des Clients (wird nach der Verbindung gesetzt)
+    private volatile ProtocolVersion protocol = ProtocolVersion.TEXT; // Wird bei der Anmeldung ausgehandelt
 
-    private BufferedReader fromClientReader; // Zum Lesen von Nachrichten vom Client
-    private PrintWriter toClientWriter; // Zum Senden von Nachrichten an den Client
+    private InputStream fromClientStream; // Zum Lesen von Nachrichten vom Client (Zeilen oder Frames)
+    private volatile boolean writable; // Darf der Schreib-Task bereits senden?
 
-    // Konstruktor, der den ChatServer und die Client-Verbindung übergibt
-    public ClientHandler(ChatServer chatServer, Socket connectionToClient) {
+    // Nachrichten, die noch an den Client gesendet werden müssen.
+    // Der Broadcast reiht nur ein; geschrieben wird von einem eigenen Schreib-Task,
+    // sodass ein langsamer Client die anderen Absender nicht mehr aufhält.
+    private final OutboundQueue<EncodedMessage> outbound;
+    private final Executor writerExecutor; // Führt den Schreib-Task aus
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(); // Läuft bereits ein Schreib-Task?
+    private volatile boolean closing; // Nach dem Leeren der Warteschlange schließen
+    private volatile boolean closed; // Die Verbindung ist geschlossen
+    // Nachrichten, die mit einem Schreibvorgang (writev) gesendet werden, und je eine eigene Sicht auf ihren Buffer.
+    // Es läuft immer nur ein Schreib-Task, der sie benutzt.
+    private final EncodedMessage[] batch;
+    private final ByteBuffer[] batchBuffers;
+    private final long maxDelayNanos; // Wartezeit eines beschäftigten Clients auf weitere Nachrichten
+    private long lastWriteNanos; // Zeitpunkt des letzten Schreibvorgangs (System.nanoTime)
+    private final int maxFrameSize; // Längere Zeilen und größere Frames werden abgelehnt, bevor sie ganz gepuffert sind
+    private final RateLimiter.Client limiter; // Grenzen für Nachrichten und Bytes dieses Clients
+    private long unchargedBytes; // Gelesene, noch nicht beim limiter verbuchte Bytes (nur im Lese-Thread)
+
+    // Konstruktor, der den ChatServer und die Client-Verbindung übergibt.
+    // Der Handler startet keinen eigenen Thread mehr; die Engine übergibt ihn an ihren Executor.
+    public ClientHandler(ChatServer chatServer, SocketChannel connectionToClient, Executor writerExecutor) {
         this.chatServer = chatServer;
         this.connectionToClient = connectionToClient;
-
-        // Startet den Thread, der die run-Methode ausführt
-        new Thread(this).start();
+        this.writerExecutor = writerExecutor;
+        ServerConfig config = chatServer.getConfig();
+        this.outbound = new OutboundQueue<>(config.getOutboundCapacity(), config.getOverflowPolicy(),
+                chatServer.getStats(), EncodedMessage::release);
+        this.batch = new EncodedMessage[config.getWriteBatch()];
+        this.batchBuffers = new ByteBuffer[config.getWriteBatch()];
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteMaxDelay());
+        this.lastWriteNanos = System.nanoTime() - maxDelayNanos;
+        this.maxFrameSize = config.getMaxFrameSize();
+        this.limiter = chatServer.getRateLimiter().forConnection(connectionToClient.socket().getInetAddress());
     }
 
     // Gibt den Namen des Clients zurück
+    @Override
     public String getName() {
         return name;
     }
 
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ProtocolVersion getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public void setProtocol(ProtocolVersion protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return outbound.size();
+    }
+
     // Der Haupt-Thread, der die Kommunikation mit dem Client handhabt
     @Override
     public void run() {
         try {
             // Initialisieren der Eingabe- und Ausgabe-Streams für die Kommunikation mit dem Client
-            fromClientReader = new BufferedReader(new InputStreamReader(connectionToClient.getInputStream()));
-            toClientWriter = new PrintWriter(new OutputStreamWriter(connectionToClient.getOutputStream()));
-
-            // Einlesen des ersten Nachrichtenpakets vom Client (erster Schritt: Verbindung und Name)
-            String initialMessage = fromClientReader.readLine();
-            if (initialMessage != null && initialMessage.startsWith("CONNECT:")) {
-                // Extrahieren des Namens des Clients aus der Nachricht und Festlegen des Namens
-                name = initialMessage.substring(8).trim();
-                // Benachrichtige alle anderen Teilnehmer, dass der neue Client dem Chat beigetreten ist
-                chatServer.broadcastMessage("SYSTEM: " + name + " hat den Chat betreten.");
-                // Aktualisiere die Liste der Teilnehmer im Chat
-                chatServer.updateParticipantsList();
-            }
+            // Gezählt wird unter dem Puffer, also einmal pro Lesevorgang auf dem Socket statt pro Byte
+            fromClientStream = new BufferedInputStream(new CountingInputStream(connectionToClient.socket().getInputStream()));
+            writable = true;
+            scheduleWriter(); // Nachrichten senden, die schon vor dem Öffnen des Streams eingereiht wurden
+
+            // Einlesen des ersten Nachrichtenpakets vom Client (erster Schritt: Verbindung, Name und Protokoll)
+            String initialMessage = TextCodec.readLine(fromClientStream, maxFrameSize);
+            chatServer.handleConnect(this, initialMessage);
+            throttle();
 
-            String message;
-            // Solange der Client Nachrichten sendet, werden diese verarbeitet
-            while ((message = fromClientReader.readLine()) != null) {
-                // Nachricht an alle anderen Clients senden
-                chatServer.broadcastMessage(message);
+            // Solange der Client Nachrichten sendet, werden diese verarbeitet und an alle Clients gesendet
+            if (protocol == ProtocolVersion.BINARY) {
+                DataInputStream frames = new DataInputStream(fromClientStream);
+                ChatMessage message;
+                while ((message = FrameCodec.read(frames, maxFrameSize)) != null) {
+                    chatServer.handleMessage(this, message);
+                    throttle();
+                }
+            } else {
+                String line;
+                while ((line = TextCodec.readLine(fromClientStream, maxFrameSize)) != null) {
+                    chatServer.handleLine(this, line);
+                    throttle();
+                }
             }
         } catch (IOException e) {
             // Fehlerbehandlung, falls während der Kommunikation ein Problem auftritt
-            System.err.println("Error handling client " + (name != null ? name : "unknown") + ": " + e.getMessage());
+            chatServer.getLog().warn("Error handling client " + (name != null ? name : "unknown") + ": " + e.getMessage());
         } finally {
+            limiter.close();
             // Beim Verlassen des Chat-Threads den Client aus der Teilnehmerliste entfernen und Benachrichtigen
-            chatServer.removeClient(this);
-            chatServer.broadcastMessage("SYSTEM: " + name + " hat den Chat verlassen.");
-            // Ressourcen freigeben (Streams und Socket schließen)
-            closeResources();
+            chatServer.handleDisconnect(this);
+            // Ressourcen freigeben (Warteschlange, Streams und Socket schließen)
+            close();
+        }
+    }
+
+    // Verbucht eine Nachricht und die seitdem gelesenen Bytes. Über dem Limit liest dieser Thread
+    // bis zum Ablauf der Wartezeit nicht weiter; der Client wird dann über TCP gebremst.
+    private void throttle() {
+        long wait = limiter.acquire(1, unchargedBytes);
+        unchargedBytes = 0;
+        if (wait > 0) {
+            chatServer.getStats().readThrottled();
+            long deadline = System.nanoTime() + wait;
+            while (wait > 0 && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(wait);
+                wait = deadline - System.nanoTime();
+            }
         }
     }
 
     // Hilfsmethode zum Schließen der Ressourcen (Streams und Socket)
     private void closeResources() {
         try {
-            if (fromClientReader != null) {
-                fromClientReader.close();
+            if (fromClientStream != null) {
+                fromClientStream.close();
             }
-            if (toClientWriter != null) {
-                toClientWriter.close();
-            }
-            if (connectionToClient != null && !connectionToClient.isClosed()) {
+            if (connectionToClient != null && connectionToClient.isOpen()) {
                 connectionToClient.close();
             }
         } catch (IOException e) {
             // Fehlerbehandlung, wenn beim Schließen der Ressourcen ein Problem auftritt
-            System.err.println("Error closing resources for client " + name + ": " + e.getMessage());
+            chatServer.getLog().warn("Error closing resources for client " + name + ": " + e.getMessage());
         }
     }
 
-    // Methode, um eine Nachricht an den Client zu senden
-    public void sendMessage(String message) {
-        if (toClientWriter != null) {
-            toClientWriter.println(message);
-            toClientWriter.flush(); // Sicherstellen, dass die Nachricht sofort gesendet wird
+    @Override
+    public void close() {
+        closed = true;
+        outbound.close();
+        closeResources();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closing = true;
+        if (outbound.isEmpty() && !writerScheduled.get()) {
+            close();
+        } else {
+            scheduleWriter();
         }
     }
-}
 
+    // Methode, um eine Nachricht an den Client zu senden.
+    // Die Nachricht wird nur eingereiht; der Aufrufer wartet nicht auf den Socket.
+    @Override
+    public void send(EncodedMessage message) {
+        if (!outbound.offer(message.retain())) {
+            // Warteschlange voll und OverflowPolicy.DISCONNECT: langsamen Client trennen
+            chatServer.getLog().warn("Client " + name + " ist zu langsam und wird getrennt.");
+            close();
+            return;
+        }
+        scheduleWriter();
+    }
+
+    // Startet einen Schreib-Task, falls noch keiner läuft
+    private void scheduleWriter() {
+        if (writable && !outbound.isEmpty() && writerScheduled.compareAndSet(false, true)) {
+            try {
+                writerExecutor.execute(this::drainOutbound);
+            } catch (RejectedExecutionException e) {
+                writerScheduled.set(false); // Server wird beendet
+            }
+        }
+    }
+
+    // Schreib-Task: sendet alle wartenden Nachrichten an den Client.
+    // Die wartenden Nachrichten (höchstens chatty.write.batch) gehen jeweils mit einem Schreibvorgang hinaus.
+    // Hat der Client vor kurzem erst etwas erhalten, wartet der Task bis maxDelay nach diesem Schreibvorgang,
+    // damit sich weitere Nachrichten sammeln; ein ruhender Client erhält seine Nachricht sofort.
+    private void drainOutbound() {
+        try {
+            long wait = lastWriteNanos + maxDelayNanos - System.nanoTime();
+            if (maxDelayNanos > 0 && wait > 0 && !closing) {
+                LockSupport.parkNanos(wait);
+            }
+            int count;
+            while ((count = fillBatch()) > 0) {
+                try {
+                    // Eigene Sichten auf die gemeinsamen Buffer; blockiert, bis alles geschrieben ist
+                    ByteBuffer last = batchBuffers[count - 1];
+                    while (last.hasRemaining()) {
+                        chatServer.getStats().bytesSent(connectionToClient.write(batchBuffers, 0, count));
+                    }
+                    lastWriteNanos = System.nanoTime();
+                } finally {
+                    for (int i = 0; i < count; i++) {
+                        batch[i].release();
+                        batch[i] = null;
+                        batchBuffers[i] = null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            chatServer.getLog().warn("Error writing to client " + (name != null ? name : "unknown") + ": " + e.getMessage());
+            close();
+        } finally {
+            writerScheduled.set(false);
+        }
+        if (closing && outbound.isEmpty()) {
+            close();
+            return;
+        }
+        // Nachrichten, die nach dem letzten poll() eingereiht wurden, nicht liegen lassen
+        scheduleWriter();
+    }
+
+    // Holt die wartenden Nachrichten (höchstens batch.length) aus der Warteschlange und liefert ihre Anzahl
+    private int fillBatch() {
+        int count = 0;
+        EncodedMessage message;
+        while (count < batch.length && (message = outbound.poll()) != null) {
+            batch[count] = message;
+            batchBuffers[count] = message.buffer();
+            count++;
+        }
+        return count;
+    }
+
+    // Zählt die vom Socket gelesenen Bytes für die Metriken
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                chatServer.getStats().bytesReceived(1);
+                unchargedBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                chatServer.getStats().bytesReceived(read);
+                unchargedBytes += read;
+            }
+            return read;
+        }
+    }
+}
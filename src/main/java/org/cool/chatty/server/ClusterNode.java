@@ -0,0 +1,401 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.protocol.TextCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verbindet mehrere ChatServer zu einem Cluster, ohne externen Broker.
+ * Jeder Knoten baut zu jedem konfigurierten Nachbarn eine TCP-Verbindung auf, über die er nur sendet,
+ * und nimmt auf seinem Cluster-Port die Verbindungen der Nachbarn an, über die er nur empfängt.
+ * Auf beiden Verbindungen laufen die Frames des Binärprotokolls (FrameCodec), vorab ein Handschlag:
+ * Der annehmende Knoten sendet "CLUSTER-NONCE:<Zufallswert>", der verbindende antwortet mit
+ * "CLUSTER:<Knoten>;<HMAC-SHA256 über Zufallswert und Knoten>". Den HMAC bildet nur, wer das gemeinsame Geheimnis kennt;
+ * jede andere Verbindung wird abgelehnt, bevor ihre Nachrichten als die eines Knotens gelten.
+ * Der Cluster-Port lauscht standardmäßig nur auf 127.0.0.1 (chatty.cluster.bind), getrennt vom Port der Clients.
+ *
+ * Ein Knoten leitet nur Nachrichten seiner eigenen Clients weiter, jede genau einmal an jeden Nachbarn;
+ * der Nachbar verteilt sie an seine Clients und leitet sie nicht weiter. Deshalb muss jeder Knoten alle anderen
+ * als Nachbarn kennen (vollständiges Netz). Die Teilnehmerliste entsteht aus den eigenen Namen und denen der Nachbarn:
+ * nach dem Verbindungsaufbau sendet ein Knoten den Snapshot seiner Namen, danach nur noch Änderungen (PRESENCE).
+ * Endet eine Verbindung, verschwinden die Namen des Nachbarn, bis er sich erneut verbindet.
+ */
+class ClusterNode implements Closeable {
+    private static final String CHALLENGE = "CLUSTER-NONCE:"; // Erste Zeile des annehmenden Knotens
+    private static final String HELLO = "CLUSTER:"; // Antwort des verbindenden Knotens
+    private static final int NONCE_LENGTH = 16;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final long MIN_BACKOFF_MILLIS = 100; // Wartezeit vor dem ersten erneuten Verbindungsversuch
+    private static final long MAX_BACKOFF_MILLIS = 5000; // Längste Wartezeit zwischen zwei Versuchen
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final ChatServer server; // Verteilt die weitergeleiteten Nachrichten an die eigenen Clients
+    private final PresenceTracker presence; // Gemeinsame Teilnehmerliste aller Knoten
+    private final String nodeId; // Name dieses Knotens, eindeutig im Cluster
+    private final InetAddress bindAddress;
+    private final int port; // Cluster-Port, auf dem die Nachbarn sich verbinden
+    private final ServerStats stats;
+    private final ServerLog log; // Verbindungen und Fehler des Clusters
+    private final SecretKeySpec secret; // Gemeinsames Geheimnis aller Knoten, null = nicht gesetzt
+    private final SecureRandom random = new SecureRandom();
+    private final List<Peer> peers = new ArrayList<>(); // Ausgehende Verbindungen, je Nachbar eine
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>(); // Aktuelle eingehende Verbindung je Knoten
+    private final Map<String, Set<String>> remoteNames = new ConcurrentHashMap<>(); // Angemeldete Namen je Knoten
+
+    // Hält Snapshot und Änderungen je Verbindung in der richtigen Reihenfolge.
+    // Eine ReentrantLock statt synchronized, damit virtuelle Threads nicht "gepinnt" werden.
+    private final ReentrantLock lock = new ReentrantLock();
+    private ServerSocket listener;
+    private volatile boolean closed;
+
+    ClusterNode(ChatServer server, PresenceTracker presence, String nodeId, InetAddress bindAddress, int port,
+                List<String> peerAddresses, String secret, int queueCapacity, ServerStats stats) {
+        this.server = server;
+        this.presence = presence;
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.stats = stats;
+        this.log = server.getLog();
+        this.secret = secret != null ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM) : null;
+        for (String address : peerAddresses) {
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Ungültige Adresse eines Nachbarn: " + address);
+            }
+            peers.add(new Peer(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim()), queueCapacity));
+        }
+    }
+
+    // Öffnet den Cluster-Port und beginnt, die Nachbarn zu verbinden
+    void start() throws IOException {
+        if (secret == null) {
+            throw new IOException("Für den Cluster muss ein gemeinsames Geheimnis gesetzt sein (chatty.cluster.secret).");
+        }
+        listener = new ServerSocket();
+        listener.bind(new InetSocketAddress(bindAddress, port));
+        log.info("Cluster-Knoten " + nodeId + " lauscht auf Port " + listener.getLocalPort());
+        Thread.ofPlatform().name("chatty-cluster-accept").daemon().start(this::acceptLoop);
+        for (Peer peer : peers) {
+            peer.thread = Thread.ofPlatform().name("chatty-cluster-" + peer.host + ":" + peer.port).daemon().start(peer::run);
+        }
+    }
+
+    int getPort() {
+        return listener.getLocalPort();
+    }
+
+    // Leitet eine Nachricht eines eigenen Clients an alle Nachbarn weiter; sie wird nur einmal kodiert
+    void relay(ChatMessage message) {
+        byte[] frame = FrameCodec.encode(message);
+        for (Peer peer : peers) {
+            peer.offer(frame);
+        }
+    }
+
+    // Ein eigener Client hat sich angemeldet bzw. abgemeldet
+    void localJoined(String name) {
+        sendPresence(List.of(name), List.of());
+    }
+
+    void localLeft(String name) {
+        sendPresence(List.of(), List.of(name));
+    }
+
+    private void sendPresence(List<String> joined, List<String> left) {
+        byte[] frame = FrameCodec.encode(Presence.delta(0, joined, left));
+        lock.lock();
+        try {
+            for (Peer peer : peers) {
+                peer.offer(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ist der Name auf einem anderen Knoten angemeldet?
+    boolean isRemoteName(String name) {
+        for (Set<String> names : remoteNames.values()) {
+            if (names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = listener.accept();
+                Thread.ofPlatform().name("chatty-cluster-in").daemon().start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Cluster: Fehler beim Annehmen einer Verbindung: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Empfängt die Nachrichten eines Nachbarn
+    private void serve(Socket socket) {
+        String peerId = null;
+        try (socket) {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            String challenge = Base64.getUrlEncoder().withoutPadding().encodeToString(nonce);
+            OutputStream out = socket.getOutputStream();
+            out.write((CHALLENGE + challenge + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS); // Wer nicht antwortet, belegt keinen Thread
+            String hello = TextCodec.readLine(in, 1024);
+            socket.setSoTimeout(0);
+            int separator = hello != null ? hello.lastIndexOf(';') : -1;
+            if (separator < HELLO.length() || !hello.startsWith(HELLO)
+                    || !MessageDigest.isEqual(mac(challenge, hello.substring(HELLO.length(), separator)),
+                            hello.substring(separator + 1).getBytes(StandardCharsets.US_ASCII))) {
+                log.warn("Cluster: Verbindung von " + socket.getRemoteSocketAddress()
+                        + " ohne gültigen Nachweis abgelehnt.");
+                return;
+            }
+            peerId = hello.substring(HELLO.length(), separator);
+            Socket previous = inbound.put(peerId, socket);
+            if (previous != null) {
+                previous.close(); // Der Nachbar hat sich neu verbunden; sein Snapshot ersetzt den alten Stand
+            }
+            log.info("Cluster: Knoten " + peerId + " verbunden.");
+            DataInputStream frames = new DataInputStream(in);
+            ChatMessage message;
+            while ((message = FrameCodec.read(frames)) != null) {
+                if (message.getType() == MessageType.PRESENCE) {
+                    applyPresence(peerId, socket, Presence.parse(message));
+                } else {
+                    server.handleRelayed(message);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed && peerId != null) {
+                log.warn("Cluster: Verbindung von " + peerId + " unterbrochen: " + e.getMessage());
+            }
+        } finally {
+            if (peerId != null) {
+                dropPeer(peerId, socket);
+            }
+        }
+    }
+
+    // Nachweis eines Knotens: HMAC über Zufallswert und Knotennamen, Base64 (URL-sicher, ohne ';')
+    private byte[] mac(String challenge, String id) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            mac.update((challenge + ";" + id).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal()).getBytes(StandardCharsets.US_ASCII);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e); // HmacSHA256 gibt es in jeder Java-Laufzeit
+        }
+    }
+
+    // Übernimmt Snapshot oder Änderungen der Namen eines Nachbarn in die gemeinsame Teilnehmerliste
+    private void applyPresence(String peerId, Socket socket, Presence.Update update) {
+        if (update == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (inbound.get(peerId) != socket) {
+                return; // Veraltete Verbindung
+            }
+            Set<String> names = remoteNames.computeIfAbsent(peerId, id -> ConcurrentHashMap.newKeySet());
+            if (update.snapshot()) {
+                Set<String> current = new HashSet<>(update.joined());
+                for (String name : names) {
+                    if (!current.contains(name)) {
+                        names.remove(name);
+                        presence.left(name);
+                    }
+                }
+            }
+            for (String name : update.joined()) {
+                if (names.add(name)) {
+                    presence.joined(name);
+                }
+            }
+            for (String name : update.left()) {
+                if (names.remove(name)) {
+                    presence.left(name);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Eine Verbindung ist beendet: die Namen des Nachbarn verschwinden, sofern er nicht schon neu verbunden ist
+    private void dropPeer(String peerId, Socket socket) {
+        lock.lock();
+        try {
+            if (!inbound.remove(peerId, socket)) {
+                return;
+            }
+            Set<String> names = remoteNames.remove(peerId);
+            if (names != null) {
+                names.forEach(presence::left);
+            }
+            log.info("Cluster: Knoten " + peerId + " getrennt.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException ignored) {
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+        for (Socket socket : inbound.values()) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Die ausgehende Verbindung zu einem Nachbarn mit eigener Warteschlange und eigenem Thread.
+     * Ein langsamer oder nicht erreichbarer Nachbar hält so weder den Broadcast noch die anderen Nachbarn auf;
+     * läuft die Warteschlange voll oder besteht keine Verbindung, werden Nachrichten verworfen.
+     */
+    private final class Peer {
+        private final String host;
+        private final int port;
+        private final BlockingQueue<byte[]> queue; // Kodierte Frames für diesen Nachbarn
+        private volatile boolean connected; // Nur solange verbunden werden Frames angenommen
+        private volatile Socket socket;
+        private Thread thread; // Schreibt die Warteschlange
+
+        Peer(String host, int port, int capacity) {
+            this.host = host;
+            this.port = port;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void offer(byte[] frame) {
+            if (!connected || !queue.offer(frame)) {
+                stats.peerMessageDropped();
+            }
+        }
+
+        // Verbindet sich immer wieder neu, mit wachsender Wartezeit, und schreibt die Warteschlange
+        void run() {
+            long backoff = MIN_BACKOFF_MILLIS;
+            while (!closed) {
+                try (Socket socket = new Socket()) {
+                    this.socket = socket;
+                    socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                    String challenge = TextCodec.readLine(socket.getInputStream(), 1024);
+                    if (challenge == null || !challenge.startsWith(CHALLENGE)) {
+                        throw new IOException("Kein Cluster-Knoten");
+                    }
+                    challenge = challenge.substring(CHALLENGE.length());
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                    out.write((HELLO + nodeId + ";").getBytes(StandardCharsets.UTF_8));
+                    out.write(mac(challenge, nodeId));
+                    out.write('\n');
+                    activate();
+                    backoff = MIN_BACKOFF_MILLIS;
+                    while (!closed) {
+                        // Alles, was schon wartet, mit einem flush schreiben
+                        out.write(queue.take());
+                        byte[] frame;
+                        while ((frame = queue.poll()) != null) {
+                            out.write(frame);
+                        }
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (connected && !closed) {
+                        log.warn("Cluster: Verbindung zu " + host + ":" + port + " unterbrochen: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+
+        // Die Verbindung steht: zuerst der Snapshot der eigenen Namen, danach alles Weitere
+        private void activate() {
+            lock.lock();
+            try {
+                queue.clear();
+                queue.add(FrameCodec.encode(Presence.snapshot(0, server.localNames())));
+                connected = true;
+            } finally {
+                lock.unlock();
+            }
+            log.info("Cluster: verbunden mit " + host + ":" + port);
+        }
+
+        void close() {
+            if (thread != null) {
+                thread.interrupt(); // Weckt den Thread, falls er auf Frames wartet
+            }
+            Socket current = socket;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
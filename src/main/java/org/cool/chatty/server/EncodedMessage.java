@@ -0,0 +1,99 @@
+package org.cool.chatty.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+
+/**
+ * Eine Nachricht, die genau einmal in Bytes umgewandelt wurde:
+ * als Zeile des Textprotokolls (UTF-8 mit Zeilenumbruch) oder als binärer Frame.
+ * Alle Empfänger eines Broadcasts schreiben denselben, schreibgeschützten Direct-Buffer;
+ * jeder bekommt nur eine eigene Sicht (duplicate) mit eigener Position, die Bytes werden nicht kopiert.
+ *
+ * Über einen Referenzzähler wird erkannt, wann der letzte Empfänger fertig ist,
+ * damit kurze Nachrichten ihren Buffer an den Pool zurückgeben können.
+ * Wer eine Nachricht aufbewahrt, ruft retain() auf, und nach dem Schreiben bzw. Verwerfen release().
+ * Mit whenReleased() lässt sich außerdem eine Aktion ausführen, sobald alle Empfänger fertig sind
+ * (z. B. die Bestätigung eines weitergeleiteten Stücks einer Datei).
+ */
+public final class EncodedMessage {
+    // Gemeinsamer Pool für kurze Nachrichten (4 KB je Buffer, höchstens 16 MB im Leerlauf)
+    private static final BufferPool POOL = new BufferPool(4096, 4096);
+
+    private final ByteBuffer content; // Schreibgeschützte Sicht auf die kodierten Bytes
+    private final ByteBuffer pooled; // Buffer aus dem Pool oder null, wenn er nicht zurückgegeben wird
+    private final AtomicInteger refCount = new AtomicInteger(1); // Der Ersteller hält die erste Referenz
+    private volatile Runnable onReleased; // Wird nach dem letzten release() ausgeführt, kann null sein
+
+    private EncodedMessage(ByteBuffer content, ByteBuffer pooled) {
+        this.content = content;
+        this.pooled = pooled;
+    }
+
+    // Kodiert eine Zeile; der Aufrufer besitzt danach eine Referenz und muss release() aufrufen
+    public static EncodedMessage encode(String line) {
+        return copyOf(line.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    // Kodiert eine Nachricht als binären Frame; der Aufrufer muss release() aufrufen
+    public static EncodedMessage encode(ChatMessage message) {
+        return copyOf(FrameCodec.encode(message), false);
+    }
+
+    // Kopiert die Bytes einmal in einen Direct-Buffer
+    private static EncodedMessage copyOf(byte[] bytes, boolean appendNewline) {
+        int length = appendNewline ? bytes.length + 1 : bytes.length;
+        // Kurze Nachrichten kommen aus dem Pool, lange (z. B. Bilder) bekommen einen eigenen Direct-Buffer
+        boolean fromPool = length <= POOL.getChunkSize();
+        ByteBuffer target = fromPool ? POOL.acquire() : ByteBuffer.allocateDirect(length);
+        target.put(bytes);
+        if (appendNewline) {
+            target.put((byte) '\n');
+        }
+        target.flip();
+        return new EncodedMessage(target.asReadOnlyBuffer(), fromPool ? target : null);
+    }
+
+    // Liefert eine eigene Sicht auf die Bytes für einen Empfänger (keine Kopie)
+    public ByteBuffer buffer() {
+        return content.duplicate();
+    }
+
+    // Anzahl der kodierten Bytes
+    public int length() {
+        return content.remaining();
+    }
+
+    // Legt eine Aktion fest, die nach dem letzten release() ausgeführt wird (im Thread, der zuletzt freigibt)
+    public EncodedMessage whenReleased(Runnable action) {
+        this.onReleased = action;
+        return this;
+    }
+
+    // Erhöht den Referenzzähler, z. B. beim Einreihen in die Warteschlange eines Empfängers
+    public EncodedMessage retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Nachricht wurde bereits freigegeben");
+        }
+        return this;
+    }
+
+    // Verringert den Referenzzähler; beim letzten release() geht der Buffer zurück an den Pool
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            if (pooled != null) {
+                POOL.release(pooled);
+            }
+            Runnable action = onReleased;
+            if (action != null) {
+                action.run();
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Nachricht wurde zu oft freigegeben");
+        }
+    }
+}
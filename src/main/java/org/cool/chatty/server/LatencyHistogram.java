@@ -0,0 +1,78 @@
+package org.cool.chatty.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramm für Latenzen nach dem Vorbild von HdrHistogram: logarithmisch-lineare Buckets mit fester relativer
+ * Genauigkeit (hier 7 Bit, also unter 1,6 % Abweichung) über den ganzen Wertebereich von long, bei konstantem Speicher.
+ * Jeder Wert liegt in der Zweierpotenz seiner Größe, innerhalb derer 64 bis 128 gleich breite Buckets liegen.
+ * Mehrere Threads dürfen gleichzeitig aufzeichnen; Auswertungen während des Aufzeichnens sind nur näherungsweise konsistent.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Der Wert, unter dem der angegebene Anteil der Aufzeichnungen liegt, z. B. percentile(99.9).
+     * Geliefert wird wie bei HdrHistogram die Obergrenze des Buckets, höchstens aber das Maximum.
+     */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    // Kleine Werte haben eigene Buckets; größere behalten ihre obersten SUB_BITS Bits
+    private static int index(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        int shift = index / SUB_COUNT;
+        long mantissa = index % SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
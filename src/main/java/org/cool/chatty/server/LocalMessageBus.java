@@ -0,0 +1,35 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Der Bus innerhalb eines Prozesses: publish ruft die Abonnenten direkt im Thread des Veröffentlichers auf.
+ * Das Veröffentlichen kommt ohne Sperre aus; die Liste der Abonnenten wird nur beim (seltenen) An- und Abmelden kopiert.
+ */
+public class LocalMessageBus implements MessageBus {
+    private final List<Consumer<ChatMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(ChatMessage message) {
+        for (Consumer<ChatMessage> subscriber : subscribers) {
+            subscriber.accept(message);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(Consumer<ChatMessage> subscriber) {
+        // Eigenes Objekt je Abonnement, damit dasselbe Lambda mehrfach abonniert und einzeln beendet werden kann
+        Consumer<ChatMessage> entry = subscriber::accept;
+        subscribers.add(entry);
+        return () -> subscribers.remove(entry);
+    }
+
+    @Override
+    public void close() {
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,19 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+
+/**
+ * Ein Eintrag im MessageLog: die Nachricht mit ihrer fortlaufenden Nummer und dem Zeitpunkt des Broadcasts.
+ *
+ * @param sequence Fortlaufende Nummer, eindeutig und aufsteigend über alle Segmente
+ * @param timestamp Zeitpunkt in Millisekunden seit 1970
+ * @param message Die Nachricht
+ */
+public record LogEntry(long sequence, long timestamp, ChatMessage message) {
+    private static final int OVERHEAD = 128; // Objekte, Felder und Kopf des Eintrags, großzügig geschätzt
+
+    // Ungefährer Speicherbedarf in Bytes; begrenzt Warteschlange und Ringpuffer unabhängig von der Anzahl
+    public long size() {
+        return OVERHEAD + message.getPayload().length + 2L * (message.getSender().length() + message.getRoom().length());
+    }
+}
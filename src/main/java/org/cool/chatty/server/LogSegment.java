@@ -0,0 +1,167 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+
+/**
+ * Eine Segmentdatei des MessageLog. Der Dateiname ist die Nummer des ersten Eintrags.
+ * Aufbau eines Eintrags:
+ *
+ * <pre>
+ * int32   Länge des restlichen Eintrags ohne Prüfsumme
+ * int32   CRC32C über den restlichen Eintrag
+ * int64   Fortlaufende Nummer
+ * int64   Zeitpunkt (Millisekunden seit 1970)
+ * byte[]  Die Nachricht als Frame (FrameCodec, inklusive Längenfeld)
+ * </pre>
+ *
+ * Gelesen wird über eine eingeblendete Sicht auf die Datei (memory-mapped), nur bis zur bereits geschriebenen Länge.
+ */
+final class LogSegment {
+    static final int HEADER = 8; // Länge und Prüfsumme
+    static final String SUFFIX = ".log";
+
+    private final Path file;
+    private final long baseSequence; // Nummer des ersten Eintrags
+    private volatile long size; // Bereits geschriebene und damit lesbare Bytes
+    private volatile long lastSequence; // Nummer des letzten Eintrags (baseSequence - 1, solange leer)
+    private volatile long lastTimestamp; // Zeitpunkt des letzten Eintrags
+    private volatile MappedByteBuffer mapped; // Zuletzt eingeblendeter Inhalt, wird bei Wachstum neu eingeblendet
+
+    LogSegment(Path file, long baseSequence) {
+        this.file = file;
+        this.baseSequence = baseSequence;
+        this.lastSequence = baseSequence - 1;
+    }
+
+    static Path fileName(Path directory, long baseSequence) {
+        return directory.resolve(String.format("%020d%s", baseSequence, SUFFIX));
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    // Vom Schreib-Thread nach jedem geschriebenen Block aufgerufen
+    void appended(long newSize, long sequence, long timestamp) {
+        lastSequence = sequence;
+        lastTimestamp = timestamp;
+        size = newSize;
+    }
+
+    /**
+     * Liest das Segment nach dem Öffnen ein, um Ende, letzte Nummer und letzten Zeitpunkt zu bestimmen.
+     * Ein unvollständiger oder beschädigter Eintrag am Ende (z. B. nach einem Absturz) wird abgeschnitten;
+     * zurückgegeben wird die Anzahl der entfernten Bytes.
+     */
+    long recover() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long valid = 0;
+            while (content.remaining() >= HEADER) {
+                int position = content.position();
+                int length = content.getInt();
+                int checksum = content.getInt();
+                if (length < 16 || length > content.remaining() || checksum(content, length) != checksum) {
+                    content.position(position);
+                    break;
+                }
+                lastSequence = content.getLong(content.position());
+                lastTimestamp = content.getLong(content.position() + 8);
+                content.position(content.position() + length);
+                valid = content.position();
+            }
+            long removed = channel.size() - valid;
+            if (removed > 0) {
+                channel.truncate(valid);
+            }
+            size = valid;
+            return removed;
+        }
+    }
+
+    // Markiert das Segment als abgeschlossen; danach ändert sich der Inhalt nicht mehr
+    void seal() {
+        mapped = null;
+    }
+
+    /**
+     * Liest Einträge ab einer Nummer oder einem Zeitpunkt.
+     * @param fromSequence Erste gewünschte Nummer
+     * @param fromTimestamp Frühester gewünschter Zeitpunkt
+     * @param limit Maximale Gesamtzahl der Einträge in result
+     * @param result Liste, an die die Einträge angehängt werden
+     */
+    void read(long fromSequence, long fromTimestamp, int limit, List<LogEntry> result) throws IOException {
+        ByteBuffer content = map();
+        while (content.remaining() >= HEADER && result.size() < limit) {
+            int length = content.getInt();
+            content.getInt(); // Prüfsumme, wurde beim Öffnen bzw. Schreiben bereits sichergestellt
+            int start = content.position();
+            long sequence = content.getLong(start);
+            long timestamp = content.getLong(start + 8);
+            if (sequence >= fromSequence && timestamp >= fromTimestamp) {
+                // Der Frame wird in den Heap kopiert, weil FrameCodec auf einem Array arbeitet
+                byte[] body = new byte[length - 16 - 4];
+                content.get(start + 16 + 4, body);
+                result.add(new LogEntry(sequence, timestamp, decode(body)));
+            }
+            content.position(start + length);
+        }
+    }
+
+    private ByteBuffer map() throws IOException {
+        long readable = size;
+        MappedByteBuffer current = mapped;
+        if (current == null || current.capacity() != readable) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                current = channel.map(FileChannel.MapMode.READ_ONLY, 0, readable);
+            }
+            mapped = current;
+        }
+        return current.duplicate();
+    }
+
+    private static ChatMessage decode(byte[] body) throws ProtocolException {
+        return FrameCodec.decode(ByteBuffer.wrap(body));
+    }
+
+    // CRC32C über length Bytes ab der aktuellen Position, ohne die Position zu verändern
+    static int checksum(ByteBuffer content, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(content.duplicate().limit(content.position() + length));
+        return (int) crc.getValue();
+    }
+
+    void delete() throws IOException {
+        mapped = null;
+        Files.deleteIfExists(file);
+    }
+}
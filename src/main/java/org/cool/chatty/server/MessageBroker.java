@@ -0,0 +1,189 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.TextCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ein kleiner Broker für den BrokerMessageBus, der lokal neben den ChatServern läuft (oder in einem von ihnen).
+ * Jeder Frame, den ein Bus sendet, geht unverändert an alle anderen verbundenen Busse; der Broker zerlegt ihn nicht.
+ * Jede Verbindung hat eine eigene Warteschlange und einen eigenen Schreib-Thread, ein langsamer Bus verliert also
+ * höchstens selbst Nachrichten.
+ *
+ * Der Broker prüft nicht, wer sich verbindet, und nimmt deshalb nur Adressen des eigenen Rechners (Loopback) an.
+ * ChatServer auf anderen Rechnern verbinden sich über ClusterNode, das seine Nachbarn authentifiziert.
+ *
+ * Aufruf: MessageBroker [Port] [Loopback-Adresse]  (Ausgaben wie beim ChatServer über chatty.serverlog.*)
+ */
+public class MessageBroker implements Closeable {
+    static final String HELLO = "BUS"; // Erste Zeile eines Busses, der sich verbindet
+
+    private final InetAddress bindAddress;
+    private final int port;
+    private final int queueCapacity; // Maximale Anzahl wartender Frames je Verbindung
+    private final ServerStats stats = new ServerStats(); // Verworfene Frames
+    private final ServerLog log; // Verbindungen und Fehler des Brokers
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket listener;
+    private volatile boolean closed;
+
+    public MessageBroker(InetAddress bindAddress, int port, int queueCapacity, ServerLog log) {
+        if (!bindAddress.isLoopbackAddress()) {
+            throw new IllegalArgumentException("Der MessageBroker lauscht ohne Authentifizierung nur auf Loopback-Adressen, nicht auf "
+                    + bindAddress.getHostAddress());
+        }
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.queueCapacity = queueCapacity;
+        this.log = log;
+    }
+
+    // Öffnet den Port und nimmt im Hintergrund Verbindungen an
+    public void start() throws IOException {
+        listener = new ServerSocket();
+        listener.bind(new InetSocketAddress(bindAddress, port));
+        Thread.ofPlatform().name("chatty-broker-accept").daemon().start(this::acceptLoop);
+        log.info("MessageBroker läuft auf Port " + getPort());
+    }
+
+    public int getPort() {
+        return listener.getLocalPort();
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = listener.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket, queueCapacity);
+                Thread.ofPlatform().name("chatty-broker-in").daemon().start(connection::read);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("MessageBroker: Fehler beim Annehmen einer Verbindung: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Leitet einen Frame an alle Verbindungen außer der, von der er kam
+    private void forward(Connection from, byte[] frame) {
+        for (Connection connection : connections) {
+            if (connection != from && !connection.queue.offer(frame)) {
+                stats.peerMessageDropped();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException ignored) {
+        }
+        connections.forEach(Connection::close);
+    }
+
+    // Ein verbundener Bus
+    private final class Connection {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> queue; // Frames für diesen Bus
+        private Thread writer;
+
+        Connection(Socket socket, int capacity) {
+            this.socket = socket;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void read() {
+            try (socket) {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                if (!HELLO.equals(TextCodec.readLine(in))) {
+                    log.warn("MessageBroker: unbekannte Verbindung von " + socket.getRemoteSocketAddress() + " abgelehnt.");
+                    return;
+                }
+                writer = Thread.ofPlatform().name("chatty-broker-out").daemon().start(this::write);
+                connections.add(this);
+                DataInputStream frames = new DataInputStream(in);
+                while (true) {
+                    // Nur die Länge wird geprüft; Länge und Inhalt gehen als ein Frame weiter
+                    int length = frames.readInt();
+                    FrameCodec.checkLength(length);
+                    byte[] frame = new byte[4 + length];
+                    ByteBuffer.wrap(frame).putInt(length);
+                    frames.readFully(frame, 4, length);
+                    forward(this, frame);
+                }
+            } catch (EOFException e) {
+                // Der Bus hat die Verbindung beendet
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("MessageBroker: Verbindung unterbrochen: " + e.getMessage());
+                }
+            } finally {
+                connections.remove(this);
+                if (writer != null) {
+                    writer.interrupt();
+                }
+            }
+        }
+
+        // Schreibt alles, was schon wartet, mit einem flush
+        private void write() {
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                while (true) {
+                    out.write(queue.take());
+                    byte[] frame;
+                    while ((frame = queue.poll()) != null) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Startet einen eigenständigen Broker
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7400;
+        InetAddress address = InetAddress.getByName(args.length > 1 ? args[1] : "127.0.0.1");
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        ServerLog log = config.createServerLog(new ServerStats());
+        MessageBroker broker = new MessageBroker(address, port, config.getOutboundCapacity(), log);
+        broker.start();
+        Thread.currentThread().join(); // Läuft, bis der Prozess beendet wird
+    }
+}
@@ -0,0 +1,39 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Verteilt Nachrichten an ihre Abonnenten (Publish/Subscribe).
+ * Der ChatServer veröffentlicht jeden Broadcast über den Bus und verteilt als Abonnent an seine Clients;
+ * welches Backend die Nachrichten transportiert, bestimmt allein die Wahl der Implementierung.
+ *
+ * Vertrag aller Implementierungen:
+ * - Jeder Abonnent erhält jede Nachricht, die nach seinem subscribe veröffentlicht wurde, genau einmal,
+ *   auch die des eigenen Busses.
+ * - Nachrichten desselben Veröffentlichers kommen in der Reihenfolge an, in der sie veröffentlicht wurden.
+ * - publish blockiert nicht auf langsame Abonnenten anderer Prozesse; kann ein Backend nicht mithalten,
+ *   verwirft es Nachrichten und zählt sie in den ServerStats.
+ * - Nach cancel erhält ein Abonnent keine weiteren Nachrichten.
+ */
+public interface MessageBus extends Closeable {
+
+    // Ein Abonnement, das wieder beendet werden kann
+    interface Subscription {
+        void cancel();
+    }
+
+    // Baut eine nötige Verbindung auf; vorher veröffentlichte Nachrichten erreichen nur lokale Abonnenten
+    default void start() throws IOException {
+    }
+
+    void publish(ChatMessage message);
+
+    Subscription subscribe(Consumer<ChatMessage> subscriber);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,231 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.History;
+
+/**
+ * Verlauf der verteilten Nachrichten.
+ * Vergibt die fortlaufenden Nummern, hält die neuesten Nachrichten in einem begrenzten Ringpuffer im Speicher
+ * und reicht jede Nachricht an das MessageLog weiter. Anfragen nach dem Verlauf werden aus dem Ringpuffer beantwortet;
+ * nur ältere Seiten werden von der Festplatte gelesen. So lösen viele gleichzeitige Wiederverbindungen,
+ * die meist nur die letzten Nachrichten brauchen, keine Lesezugriffe auf das Log aus.
+ * Der Ringpuffer ist nach Anzahl und nach Bytes begrenzt (siehe LogEntry.size): große Nachrichten wie Bilder
+ * verdrängen ältere Einträge vorzeitig, die dann wie überschriebene nur noch aus dem Log gelesen werden.
+ */
+public class MessageHistory {
+    private static final int SCAN_WINDOW = 1000; // So viele Einträge werden auf einmal von der Festplatte gelesen
+    private static final int MAX_SCAN = 20_000; // Höchstens so viele Einträge werden pro Anfrage durchsucht
+
+    private final LogEntry[] ring; // Die neuesten Einträge, Index = Nummer modulo Kapazität
+    private final long maxBytes; // Höchstgröße der Einträge im Ringpuffer; der neueste bleibt immer erhalten
+    private final MessageLog log; // Dauerhaftes Log oder null
+    private final long firstSequence; // Erste in diesem Lauf vergebene Nummer; ältere liegen nur im Log
+    private long nextSequence; // Nummer der nächsten Nachricht
+    private long evictedBefore; // Einträge vor dieser Nummer wurden wegen maxBytes aus dem Ringpuffer entfernt
+    private long ringBytes; // Größe der Einträge im Ringpuffer
+    private final ReentrantLock lock = new ReentrantLock(); // Schützt Ringpuffer und Nummer, nur kurz gehalten
+
+    // Ergebnis einer Anfrage: Nachrichten aufsteigend nach Nummer und die Nummer, bis zu der gesucht wurde
+    public record Page(List<ChatMessage> messages, long cursor, boolean hasMore) {
+    }
+
+    public MessageHistory(int capacity, long maxBytes, MessageLog log) {
+        this.ring = new LogEntry[Math.max(1, capacity)];
+        this.maxBytes = maxBytes;
+        this.log = log;
+        this.firstSequence = log != null ? log.getNextSequence() : 1;
+        this.nextSequence = firstSequence;
+    }
+
+    // Nummeriert eine Nachricht, legt sie im Ringpuffer ab und reicht sie an das Log weiter
+    public ChatMessage append(ChatMessage message) {
+        lock.lock();
+        try {
+            long sequence = nextSequence++;
+            ChatMessage numbered = message.withSequence(sequence, System.currentTimeMillis());
+            LogEntry entry = new LogEntry(sequence, numbered.getTimestamp(), numbered);
+            store(sequence, entry);
+            if (log != null) {
+                log.append(entry); // Reihenfolge der Nummern bleibt erhalten, weil die Sperre gehalten wird
+            }
+            return numbered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Beantwortet eine Anfrage nach dem Verlauf eines Raums.
+     * Alle Räume teilen sich die Nummern, daher wird rückwärts bzw. vorwärts gesucht, bis die Seite voll ist.
+     * Pro Anfrage werden höchstens MAX_SCAN Einträge durchsucht; danach endet die Seite mit hasMore
+     * und der Client setzt die Suche ab dem cursor fort.
+     * @param room Der Raum
+     * @param request Die Anfrage; die maximale Anzahl muss der Aufrufer bereits begrenzt haben
+     */
+    public Page query(String room, History.Request request) throws IOException {
+        long next = nextSequence();
+        int limit = request.limit();
+        return switch (request.mode()) {
+            case LAST -> backward(room, next, limit);
+            case BEFORE -> backward(room, Math.min(request.value(), next), limit);
+            case SINCE_SEQUENCE -> forward(room, Math.max(0, request.value()), 0, limit);
+            case SINCE_TIME -> forward(room, 0, request.value(), limit);
+        };
+    }
+
+    // Die limit neuesten Nachrichten des Raums mit kleinerer Nummer als before
+    private Page backward(String room, long before, int limit) throws IOException {
+        Deque<ChatMessage> result = new ArrayDeque<>();
+        long cursor = before; // Alle Nummern ab cursor sind durchsucht
+        long ringStart;
+        lock.lock();
+        try {
+            ringStart = ringStart();
+            for (long sequence = Math.min(before, nextSequence) - 1; sequence >= ringStart && result.size() < limit; sequence--) {
+                LogEntry entry = ring[(int) (sequence % ring.length)];
+                cursor = sequence;
+                if (entry.message().getRoom().equals(room)) {
+                    result.addFirst(entry.message());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Nur was älter ist als der Ringpuffer, wird in Blöcken von der Festplatte gelesen
+        long oldest = oldestSequence();
+        long scanned = before - cursor;
+        while (log != null && result.size() < limit && cursor > oldest && scanned < MAX_SCAN) {
+            long from = Math.max(oldest, cursor - SCAN_WINDOW);
+            List<LogEntry> window = log.read(from, 0, (int) (cursor - from));
+            long blockEnd = cursor;
+            cursor = from;
+            for (int i = window.size() - 1; i >= 0 && result.size() < limit; i--) {
+                LogEntry entry = window.get(i);
+                if (entry.sequence() < blockEnd && entry.message().getRoom().equals(room)) {
+                    result.addFirst(entry.message());
+                    if (result.size() == limit) {
+                        cursor = entry.sequence();
+                    }
+                }
+            }
+            scanned += blockEnd - cursor;
+        }
+        return new Page(new ArrayList<>(result), cursor, cursor > oldest);
+    }
+
+    // Die ersten limit Nachrichten des Raums mit größerer Nummer als after und Zeitpunkt ab fromTimestamp
+    private Page forward(String room, long after, long fromTimestamp, int limit) throws IOException {
+        List<ChatMessage> result = new ArrayList<>();
+        long cursor = after; // Alle Nummern bis einschließlich cursor sind durchsucht
+        long ringStart = ringStart();
+        long scanned = 0;
+
+        // Zuerst die Einträge vor dem Ringpuffer von der Festplatte. Liegt der Zeitpunkt im Ringpuffer, entfällt das.
+        if (fromTimestamp > 0 && oldestRingTimestamp() <= fromTimestamp) {
+            cursor = Math.max(cursor, ringStart - 1);
+        }
+        while (log != null && result.size() < limit && cursor + 1 < ringStart && scanned < MAX_SCAN) {
+            List<LogEntry> window = log.read(cursor + 1, fromTimestamp, SCAN_WINDOW);
+            if (window.isEmpty()) {
+                cursor = ringStart - 1;
+                break;
+            }
+            for (LogEntry entry : window) {
+                if (entry.sequence() >= ringStart) {
+                    cursor = ringStart - 1;
+                    break;
+                }
+                scanned += entry.sequence() - cursor;
+                cursor = entry.sequence();
+                if (entry.message().getRoom().equals(room)) {
+                    result.add(entry.message());
+                    if (result.size() == limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (log == null) {
+            cursor = Math.max(cursor, ringStart - 1);
+        }
+
+        lock.lock();
+        try {
+            if (cursor + 1 >= ringStart()) {
+                for (long sequence = Math.max(cursor + 1, ringStart()); sequence < nextSequence && result.size() < limit; sequence++) {
+                    LogEntry entry = ring[(int) (sequence % ring.length)];
+                    cursor = sequence;
+                    if (entry.timestamp() >= fromTimestamp && entry.message().getRoom().equals(room)) {
+                        result.add(entry.message());
+                    }
+                }
+            }
+            return new Page(result, cursor, cursor < nextSequence - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Legt einen Eintrag im Ringpuffer ab und entfernt die ältesten, bis maxBytes eingehalten ist (unter lock)
+    private void store(long sequence, LogEntry entry) {
+        int index = (int) (sequence % ring.length);
+        if (sequence - ring.length >= Math.max(firstSequence, evictedBefore)) {
+            ringBytes -= ring[index].size(); // Wird überschrieben
+        }
+        ring[index] = entry;
+        ringBytes += entry.size();
+        long oldest = ringStart();
+        while (ringBytes > maxBytes && oldest < sequence) {
+            int evicted = (int) (oldest % ring.length);
+            ringBytes -= ring[evicted].size();
+            ring[evicted] = null;
+            evictedBefore = ++oldest;
+        }
+    }
+
+    // Erste Nummer im Ringpuffer; ältere Einträge sind überschrieben, verdrängt oder stammen aus einem früheren Lauf
+    private long ringStart() {
+        lock.lock();
+        try {
+            return Math.max(Math.max(firstSequence, evictedBefore), nextSequence - ring.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Zeitpunkt des ältesten Eintrags im Ringpuffer (Long.MAX_VALUE, wenn er leer ist)
+    private long oldestRingTimestamp() {
+        lock.lock();
+        try {
+            long start = ringStart();
+            return start < nextSequence ? ring[(int) (start % ring.length)].timestamp() : Long.MAX_VALUE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Kleinste noch vorhandene Nummer
+    private long oldestSequence() {
+        if (log != null) {
+            return log.getFirstSequence();
+        }
+        return ringStart();
+    }
+
+    private long nextSequence() {
+        lock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
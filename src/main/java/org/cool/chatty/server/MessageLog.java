@@ -0,0 +1,326 @@
+package org.cool.chatty.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.cool.chatty.protocol.FrameCodec;
+
+/**
+ * Dauerhaftes, nur anhängendes Protokoll aller verteilten Nachrichten, aufgeteilt in Segmentdateien.
+ *
+ * Neue Einträge werden nur in einer Warteschlange abgelegt (append); ein eigener Thread schreibt sie gesammelt
+ * in das aktuelle Segment. Auf die Festplatte erzwungen (fsync) wird nicht pro Nachricht, sondern für mehrere
+ * gemeinsam (group commit): nach höchstens fsyncBatch Einträgen oder fsyncInterval Millisekunden.
+ * Ist die Warteschlange voll, wird der Eintrag verworfen statt den Broadcast aufzuhalten. Sie ist nach Bytes begrenzt,
+ * weil einzelne Einträge (Bilder) bis zur maximalen Frame-Größe erreichen.
+ * Scheitert das Schreiben, wird das Log beendet; wartende und neue Einträge werden verworfen.
+ * Alte Segmente werden nach Größe und Alter gelöscht.
+ */
+public class MessageLog implements Closeable {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024; // Sammelpuffer des Schreib-Threads
+    private static final long QUEUE_BYTES = 64L * 1024 * 1024; // Maximale Größe der noch nicht geschriebenen Einträge
+
+    private final Path directory;
+    private final long segmentSize; // Ab dieser Größe wird ein neues Segment begonnen
+    private final long fsyncIntervalNanos; // Spätestens nach dieser Zeit werden geschriebene Einträge erzwungen
+    private final int fsyncBatch; // Spätestens nach so vielen Einträgen wird erzwungen
+    private final long retentionBytes; // Maximale Gesamtgröße aller Segmente
+    private final long retentionMillis; // Maximales Alter eines Segments (Zeitpunkt seines letzten Eintrags)
+    private final ServerStats stats;
+    private final ServerLog log; // Beschädigte Segmente und Schreibfehler
+
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>(); // Nach erster Nummer
+    private final Queue<LogEntry> queue = new ConcurrentLinkedQueue<>(); // Noch nicht geschriebene Einträge
+    private final AtomicLong queuedBytes = new AtomicLong(); // Größe der Einträge in queue (siehe LogEntry.size)
+    private final AtomicLong nextSequence = new AtomicLong(1); // Nummer nach dem letzten angehängten Eintrag
+    private final Thread writer;
+    private volatile boolean writerParked; // Wartet der Schreib-Thread auf neue Einträge?
+    private volatile boolean running = true;
+
+    // Nur vom Schreib-Thread verwendet
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private LogSegment active; // Segment, an das angehängt wird
+    private FileChannel activeChannel;
+    private long activeSize; // Geschriebene Bytes im aktiven Segment
+    private int unsyncedEntries; // Seit dem letzten fsync geschriebene Einträge
+    private long lastSync = System.nanoTime();
+    private long lastRetention = System.nanoTime(); // Letzte Prüfung der Aufbewahrungsregeln
+    private long bufferedSequence; // Nummer und Zeitpunkt des letzten Eintrags im Sammelpuffer
+    private long bufferedTimestamp;
+
+    public MessageLog(Path directory, long segmentSize, long fsyncIntervalMillis, int fsyncBatch,
+                      long retentionBytes, long retentionMillis, ServerStats stats, ServerLog log) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.fsyncBatch = Math.max(1, fsyncBatch);
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.stats = stats;
+        this.log = log;
+        openSegments();
+        writer = new Thread(this::writeLoop, "chatty-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Öffnet vorhandene Segmente; das letzte wird geprüft und zum aktiven Segment
+    private void openSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(LogSegment.SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - LogSegment.SUFFIX.length()));
+                    segments.put(base, new LogSegment(file, base));
+                } catch (NumberFormatException e) {
+                    log.warn("MessageLog: unbekannte Datei " + file + " übersprungen.");
+                }
+            }
+        }
+        for (LogSegment segment : segments.values()) {
+            long removed = segment.recover();
+            if (removed > 0) {
+                log.warn("MessageLog: " + removed + " ungültige Bytes am Ende von " + segment.getFile() + " entfernt.");
+            }
+        }
+        if (segments.isEmpty()) {
+            rollSegment(1);
+        } else {
+            LogSegment last = segments.lastEntry().getValue();
+            nextSequence.set(last.getLastSequence() + 1);
+            active = last;
+            activeChannel = FileChannel.open(last.getFile(), StandardOpenOption.WRITE);
+            activeSize = last.getSize();
+            activeChannel.position(activeSize);
+        }
+    }
+
+    /**
+     * Hängt einen Eintrag an, ohne auf das Schreiben zu warten.
+     * Die Einträge müssen mit aufsteigender Nummer übergeben werden (siehe MessageHistory).
+     * @return false, wenn der Eintrag wegen voller Warteschlange verworfen wurde
+     */
+    public boolean append(LogEntry entry) {
+        long size = entry.size();
+        if (!running || queuedBytes.addAndGet(size) > QUEUE_BYTES) {
+            queuedBytes.addAndGet(-size);
+            stats.logEntryDropped();
+            return false;
+        }
+        queue.add(entry);
+        nextSequence.set(entry.sequence() + 1);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Liest bereits geschriebene Einträge ab einer Nummer bzw. einem Zeitpunkt (aufsteigend).
+     * Einträge, die noch in der Warteschlange stehen, sind nicht enthalten.
+     * @param fromSequence Erste gewünschte Nummer
+     * @param fromTimestamp Frühester gewünschter Zeitpunkt (0 für beliebig)
+     * @param limit Maximale Anzahl der Einträge
+     */
+    public List<LogEntry> read(long fromSequence, long fromTimestamp, int limit) throws IOException {
+        List<LogEntry> result = new ArrayList<>();
+        Long start = segments.floorKey(fromSequence);
+        Map<Long, LogSegment> candidates = start != null ? segments.tailMap(start) : segments;
+        for (LogSegment segment : candidates.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (segment.getLastTimestamp() < fromTimestamp || segment.getLastSequence() < fromSequence) {
+                continue; // Enthält nur ältere Einträge
+            }
+            segment.read(fromSequence, fromTimestamp, limit, result);
+        }
+        return result;
+    }
+
+    // Nummer des ältesten noch aufbewahrten Eintrags
+    public long getFirstSequence() {
+        Long first = segments.isEmpty() ? null : segments.firstKey();
+        return first != null ? first : getNextSequence();
+    }
+
+    // Nummer nach dem letzten angehängten Eintrag; nach dem Öffnen die erste freie Nummer
+    public long getNextSequence() {
+        return nextSequence.get();
+    }
+
+    // Schreibt alle wartenden Einträge, erzwingt sie auf die Festplatte und beendet den Schreib-Thread
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (running || !queue.isEmpty()) {
+                LogEntry entry = queue.poll();
+                if (entry == null) {
+                    flushBuffer();
+                    syncIfDue(false);
+                    if (System.nanoTime() - lastRetention >= TimeUnit.MINUTES.toNanos(1)) {
+                        applyRetention(); // Auch ohne neue Segmente veralten alte Einträge
+                    }
+                    // Warten, bis neue Einträge kommen oder der nächste fsync fällig ist
+                    writerParked = true;
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(unsyncedEntries > 0 ? fsyncIntervalNanos : TimeUnit.SECONDS.toNanos(1));
+                    }
+                    writerParked = false;
+                    continue;
+                }
+                queuedBytes.addAndGet(-entry.size());
+                write(entry);
+                syncIfDue(false);
+            }
+            flushBuffer();
+            syncIfDue(true);
+            activeChannel.close();
+        } catch (IOException | RuntimeException e) {
+            // Ohne funktionierendes Log läuft der Chat weiter. Auch ein unerwarteter Fehler (z. B. eine nicht
+            // kodierbare Nachricht) muss das Log beenden, sonst füllt sich die Warteschlange ohne Schreib-Thread.
+            log.error("MessageLog: Schreiben fehlgeschlagen, das Protokoll wird beendet: " + e);
+            running = false;
+            discardQueue();
+            try {
+                activeChannel.close();
+            } catch (IOException ignored) {
+                // Das Log ist ohnehin beendet
+            }
+        }
+    }
+
+    // Verwirft die nicht mehr schreibbaren Einträge
+    private void discardQueue() {
+        LogEntry entry;
+        while ((entry = queue.poll()) != null) {
+            queuedBytes.addAndGet(-entry.size());
+            stats.logEntryDropped();
+        }
+    }
+
+    // Fügt einen Eintrag dem Sammelpuffer hinzu
+    private void write(LogEntry entry) throws IOException {
+        byte[] frame = FrameCodec.encode(entry.message());
+        int length = 16 + frame.length;
+        if (activeSize + writeBuffer.position() + LogSegment.HEADER + length > segmentSize && activeSize + writeBuffer.position() > 0) {
+            flushBuffer();
+            rollSegment(entry.sequence());
+        }
+        ByteBuffer record = writeBuffer;
+        if (LogSegment.HEADER + length > writeBuffer.remaining()) {
+            flushBuffer();
+            if (LogSegment.HEADER + length > writeBuffer.capacity()) {
+                record = ByteBuffer.allocate(LogSegment.HEADER + length); // Sehr große Nachricht: eigener Puffer
+            }
+        }
+        int start = record.position();
+        record.putInt(length).putInt(0).putLong(entry.sequence()).putLong(entry.timestamp()).put(frame);
+        crc.reset();
+        crc.update(record.duplicate().position(start + LogSegment.HEADER).limit(record.position()));
+        record.putInt(start + 4, (int) crc.getValue());
+        bufferedSequence = entry.sequence();
+        bufferedTimestamp = entry.timestamp();
+        unsyncedEntries++;
+        if (record != writeBuffer) {
+            record.flip();
+            writeFully(record);
+        }
+    }
+
+    // Schreibt den Sammelpuffer in das aktive Segment
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            activeSize += activeChannel.write(buffer);
+        }
+        // Erst jetzt werden die Einträge für Leser sichtbar
+        active.appended(activeSize, bufferedSequence, bufferedTimestamp);
+    }
+
+    // Group commit: fsync, wenn genug Einträge gesammelt oder genug Zeit vergangen ist
+    private void syncIfDue(boolean force) throws IOException {
+        if (unsyncedEntries == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (force || unsyncedEntries >= fsyncBatch || now - lastSync >= fsyncIntervalNanos) {
+            flushBuffer();
+            activeChannel.force(false);
+            unsyncedEntries = 0;
+            lastSync = now;
+        }
+    }
+
+    // Schließt das aktive Segment ab, beginnt ein neues und wendet die Aufbewahrungsregeln an
+    private void rollSegment(long baseSequence) throws IOException {
+        if (activeChannel != null) {
+            activeChannel.force(false);
+            unsyncedEntries = 0;
+            activeChannel.close();
+            active.seal();
+        }
+        Path file = LogSegment.fileName(directory, baseSequence);
+        active = new LogSegment(file, baseSequence);
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSize = 0;
+        segments.put(baseSequence, active);
+        applyRetention();
+    }
+
+    // Löscht die ältesten abgeschlossenen Segmente, bis Größe und Alter eingehalten sind
+    private void applyRetention() throws IOException {
+        lastRetention = System.nanoTime();
+        long total = 0;
+        for (LogSegment segment : segments.values()) {
+            total += segment.getSize();
+        }
+        long oldestAllowed = System.currentTimeMillis() - retentionMillis;
+        for (LogSegment segment : segments.values()) {
+            if (segment == active) {
+                break;
+            }
+            if (total <= retentionBytes && segment.getLastTimestamp() >= oldestAllowed) {
+                break;
+            }
+            segments.remove(segment.getBaseSequence());
+            total -= segment.getSize();
+            segment.delete();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.cool.chatty.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cool.chatty.protocol.FrameDecoder;
+import org.cool.chatty.protocol.ProtocolVersion;
+
+/**
+ * Eine Client-Verbindung der NIO-Engine.
+ * Liest nicht-blockierend, zerlegt den Datenstrom in Zeilen bzw. Frames und verwaltet eine eigene Schreibwarteschlange.
+ * Alle Lese- und Schreibvorgänge laufen im zugewiesenen Event-Loop-Thread.
+ *
+ * Geschrieben wird gesammelt: alle wartenden Nachrichten (höchstens chatty.write.batch) gehen mit einem
+ * writev() hinaus. Mit chatty.write.maxDelay wartet eine Verbindung, die gerade erst geschrieben hat,
+ * bis zu dieser Zeit auf weitere Nachrichten; eine ruhende Verbindung schreibt weiterhin sofort.
+ */
+public class NioConnection implements ClientConnection {
+    private final ChatServer chatServer; // Referenz zum ChatServer für Protokoll und Broadcast
+    private final SocketChannel channel; // Nicht-blockierender Kanal zum Client
+    private final NioEventLoop eventLoop; // Event-Loop, dem diese Verbindung zugewiesen ist
+    private SelectionKey selectionKey; // Registrierung beim Selector des Event-Loops
+
+    private volatile String name; // Der Name des Clients (wird nach der Verbindung gesetzt)
+    private volatile ProtocolVersion protocol = ProtocolVersion.TEXT; // Wird bei der Anmeldung ausgehandelt
+    private boolean connectReceived; // Wurde die erste Zeile (CONNECT) bereits verarbeitet?
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192); // Puffer für eingehende Bytes
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(); // Noch unvollständige Zeile
+    private final FrameDecoder frameDecoder; // Setzt Frames des Binärprotokolls zusammen
+    private final int maxLineLength; // Längere Zeilen werden abgelehnt, bevor sie ganz gepuffert sind
+    private final RateLimiter.Client limiter; // Grenzen für Nachrichten und Bytes dieses Clients
+    private int messagesRead; // Nachrichten aus dem aktuellen Lesevorgang
+
+    private final OutboundQueue<EncodedMessage> writeQueue; // Begrenzte Warteschlange ausstehender Nachrichten
+    // Nachrichten, die gerade geschrieben werden, und je eine eigene Sicht auf ihren Buffer (nur im Event-Loop-Thread).
+    // Noch nicht vollständig geschrieben sind die Einträge ab batchStart.
+    private final EncodedMessage[] batch;
+    private final ByteBuffer[] batchBuffers;
+    private int batchStart;
+    private int batchEnd;
+    private final long maxDelayNanos; // Wartezeit einer beschäftigten Verbindung auf weitere Nachrichten
+    private long lastWriteNanos; // Zeitpunkt des letzten Schreibvorgangs (System.nanoTime)
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(); // Ist bereits ein flush im Event-Loop geplant?
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closing; // Nach dem Leeren der Warteschlange schließen
+
+    public NioConnection(ChatServer chatServer, SocketChannel channel, NioEventLoop eventLoop) {
+        this.chatServer = chatServer;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        ServerConfig config = chatServer.getConfig();
+        // Der Event-Loop darf nie blockieren: BLOCK wird hier wie DISCONNECT behandelt
+        OverflowPolicy policy = config.getOverflowPolicy() == OverflowPolicy.BLOCK
+                ? OverflowPolicy.DISCONNECT : config.getOverflowPolicy();
+        this.writeQueue = new OutboundQueue<>(config.getOutboundCapacity(), policy, chatServer.getStats(),
+                EncodedMessage::release);
+        this.batch = new EncodedMessage[config.getWriteBatch()];
+        this.batchBuffers = new ByteBuffer[config.getWriteBatch()];
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteMaxDelay());
+        this.lastWriteNanos = System.nanoTime() - maxDelayNanos;
+        this.frameDecoder = new FrameDecoder(config.getMaxFrameSize());
+        this.maxLineLength = config.getMaxFrameSize();
+        this.limiter = chatServer.getRateLimiter().forConnection(channel.socket().getInetAddress());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ProtocolVersion getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public void setProtocol(ProtocolVersion protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return writeQueue.size();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    // Wird vom Event-Loop aufgerufen, wenn Daten gelesen werden können
+    void handleRead() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            chatServer.getLog().warn("Error handling client " + (name != null ? name : "unknown") + ": " + e.getMessage());
+            close();
+            return;
+        }
+        if (read < 0) {
+            close(); // Der Client hat die Verbindung beendet
+            return;
+        }
+        chatServer.getStats().bytesReceived(read);
+
+        readBuffer.flip();
+        try {
+            // Das Protokoll kann nach der CONNECT-Zeile wechseln, deshalb wird es in jeder Runde neu geprüft
+            while (readBuffer.hasRemaining() && !closed.get()) {
+                if (protocol == ProtocolVersion.BINARY) {
+                    frameDecoder.decode(readBuffer, message -> {
+                        messagesRead++;
+                        chatServer.handleMessage(this, message);
+                    });
+                } else {
+                    readLines();
+                }
+            }
+        } catch (IOException e) {
+            chatServer.getLog().warn("Error handling client " + (name != null ? name : "unknown") + ": " + e.getMessage());
+            close();
+        }
+        readBuffer.clear();
+        // Über dem Limit: bis zum Ablauf der Wartezeit nicht weiterlesen, der Client wird dann über TCP gebremst
+        long wait = limiter.acquire(messagesRead, read);
+        messagesRead = 0;
+        if (wait > 0 && !closed.get()) {
+            chatServer.getStats().readThrottled();
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            eventLoop.schedule(this::resumeReading, wait);
+        }
+    }
+
+    private void resumeReading() {
+        if (selectionKey != null && selectionKey.isValid()) {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    // Zerlegt die gelesenen Bytes in Zeilen, ohne für jedes Byte einzeln zu kopieren.
+    // Kehrt nach jeder vollständigen Zeile zurück, damit ein Protokollwechsel sofort greift.
+    // Eine Zeile über maxLineLength wird abgelehnt, sobald sie zu lang ist, nicht erst an ihrem Ende.
+    private void readLines() throws ProtocolException {
+        byte[] bytes = readBuffer.array();
+        int start = readBuffer.position();
+        int end = readBuffer.limit();
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\n') {
+                checkLineLength(i - start);
+                lineBuffer.write(bytes, start, i - start);
+                readBuffer.position(i + 1);
+                handleLine(takeLine());
+                return;
+            }
+        }
+        checkLineLength(end - start);
+        lineBuffer.write(bytes, start, end - start);
+        readBuffer.position(end);
+    }
+
+    private void checkLineLength(int added) throws ProtocolException {
+        if (lineBuffer.size() + added > maxLineLength) {
+            throw new ProtocolException("Zeile länger als " + maxLineLength + " Bytes");
+        }
+    }
+
+    // Liefert die gesammelte Zeile als String (ohne abschließendes \r) und leert den Zeilenpuffer
+    private String takeLine() {
+        byte[] line = lineBuffer.toByteArray();
+        lineBuffer.reset();
+        int length = line.length;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Verarbeitet eine vollständige Zeile nach demselben Protokoll wie der ClientHandler
+    private void handleLine(String line) {
+        if (closed.get()) {
+            return;
+        }
+        messagesRead++;
+        if (!connectReceived) {
+            connectReceived = true;
+            chatServer.handleConnect(this, line);
+        } else {
+            chatServer.handleLine(this, line);
+        }
+    }
+
+    // Kann aus jedem Thread aufgerufen werden; das eigentliche Schreiben übernimmt der Event-Loop
+    @Override
+    public void send(EncodedMessage message) {
+        if (closed.get()) {
+            return;
+        }
+        if (!writeQueue.offer(message.retain())) {
+            // Warteschlange voll: langsamen Client trennen
+            chatServer.getLog().warn("Client " + name + " ist zu langsam und wird getrennt.");
+            close();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    // Schreibt so viel aus der Warteschlange wie der Socket aufnimmt (nur im Event-Loop-Thread)
+    void flush() {
+        flushScheduled.set(false);
+        if (selectionKey == null || !selectionKey.isValid()) {
+            return;
+        }
+        // Wer vor kurzem geschrieben hat, ist beschäftigt: die Nachrichten bis maxDelay nach dem letzten
+        // Schreibvorgang sammeln. Bis dahin bleibt flushScheduled gesetzt, send plant also keinen weiteren flush.
+        if (batchStart == batchEnd && maxDelayNanos > 0 && !closing) {
+            long wait = lastWriteNanos + maxDelayNanos - System.nanoTime();
+            if (wait > 0 && flushScheduled.compareAndSet(false, true)) {
+                eventLoop.schedule(this::flush, wait);
+                return;
+            }
+        }
+        try {
+            while (batchStart < batchEnd || fillBatch()) {
+                // Alle gesammelten Nachrichten mit einem Schreibvorgang (writev)
+                long written = channel.write(batchBuffers, batchStart, batchEnd - batchStart);
+                chatServer.getStats().bytesSent(written);
+                lastWriteNanos = System.nanoTime();
+                while (batchStart < batchEnd && !batchBuffers[batchStart].hasRemaining()) {
+                    batch[batchStart].release();
+                    batch[batchStart] = null;
+                    batchBuffers[batchStart] = null;
+                    batchStart++;
+                }
+                if (batchStart < batchEnd) {
+                    // Socket-Puffer ist voll: auf OP_WRITE warten und später weiterschreiben
+                    selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing) {
+                close();
+            }
+        } catch (IOException e) {
+            chatServer.getLog().warn("Error writing to client " + (name != null ? name : "unknown") + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    // Holt die wartenden Nachrichten (höchstens batch.length) aus der Warteschlange; false, wenn keine wartet
+    private boolean fillBatch() {
+        batchStart = 0;
+        batchEnd = 0;
+        EncodedMessage message;
+        while (batchEnd < batch.length && (message = writeQueue.poll()) != null) {
+            batch[batchEnd] = message;
+            batchBuffers[batchEnd] = message.buffer();
+            batchEnd++;
+        }
+        return batchEnd > 0;
+    }
+
+    // Gibt die noch nicht geschriebenen Nachrichten frei
+    private void releaseBatch() {
+        for (int i = batchStart; i < batchEnd; i++) {
+            batch[i].release();
+            batch[i] = null;
+            batchBuffers[i] = null;
+        }
+        batchStart = 0;
+        batchEnd = 0;
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closing = true;
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        eventLoop.execute(() -> {
+            if (selectionKey != null) {
+                selectionKey.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                chatServer.getLog().warn("Error closing resources for client " + name + ": " + e.getMessage());
+            }
+            writeQueue.close();
+            releaseBatch();
+            limiter.close();
+            // Client aus der Teilnehmerliste entfernen und alle anderen benachrichtigen
+            chatServer.handleDisconnect(this);
+        });
+    }
+}
@@ -0,0 +1,170 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein Event-Loop-Thread der NIO-Engine.
+ * Jeder Loop besitzt einen eigenen Selector und bedient alle ihm zugewiesenen Verbindungen.
+ * Aufgaben aus anderen Threads (z. B. Schreibaufträge) werden über eine Warteschlange eingereicht.
+ * Verzögerte Aufgaben (schedule) laufen frühestens zu ihrem Zeitpunkt; da select() in Millisekunden wartet,
+ * laufen sie höchstens etwa eine Millisekunde später.
+ * Ein Fehler in einer Aufgabe oder bei einer Verbindung beendet den Loop nicht: die Aufgabe wird übersprungen,
+ * die Verbindung geschlossen, alle anderen Verbindungen des Loops laufen weiter.
+ * Blockierende Arbeit (Festplatte) gehört nicht in den Loop, sondern in einen anderen Thread.
+ */
+public final class NioEventLoop implements Runnable {
+    private final Selector selector; // Selector, der die Kanäle dieses Loops überwacht
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Aufgaben aus anderen Threads
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // Verzögerte Aufgaben (nur im Loop-Thread)
+    private final Thread thread; // Der Thread, auf dem der Loop läuft
+    private final ServerLog log; // Fehler des Loops
+    private volatile boolean running = true;
+
+    public NioEventLoop(String threadName, ServerLog log) throws IOException {
+        this.log = log;
+        selector = Selector.open();
+        thread = new Thread(this, threadName);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Prüft, ob der aufrufende Thread der Thread dieses Loops ist
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Reicht eine Aufgabe ein, die im Event-Loop-Thread ausgeführt wird
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup(); // Weckt den Loop aus select() auf, damit die Aufgabe sofort läuft
+        }
+    }
+
+    // Führt eine Aufgabe frühestens nach delayNanos aus; nur aus dem Event-Loop-Thread aufrufen
+    void schedule(Runnable task, long delayNanos) {
+        timers.add(new Timer(System.nanoTime() + delayNanos, task));
+    }
+
+    // Eine verzögerte Aufgabe, sortiert nach ihrem Zeitpunkt (System.nanoTime)
+    private record Timer(long deadline, Runnable task) implements Comparable<Timer> {
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    // Registriert eine neue Verbindung für Lese-Ereignisse
+    public void register(NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.setSelectionKey(key);
+                connection.flush(); // Nachrichten senden, die schon vor der Registrierung eingereiht wurden
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Aufgaben, die der Loop sich selbst gestellt hat, lösen kein wakeup() aus: dann nicht warten.
+                // Steht eine verzögerte Aufgabe an, höchstens bis zu ihrem Zeitpunkt (auf Millisekunden aufgerundet).
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timers.isEmpty()) {
+                    selector.select();
+                } else {
+                    long wait = timers.peek().deadline() - System.nanoTime();
+                    if (wait <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(TimeUnit.NANOSECONDS.toMillis(wait + 999_999));
+                    }
+                }
+                runTasks();
+                runTimers();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.handleRead();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        // Nur diese Verbindung trennen, die übrigen des Loops laufen weiter
+                        log.error("Fehler bei Client " + connection.getName() + " im Event-Loop "
+                                + thread.getName() + ": " + e);
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Fehler im Event-Loop " + thread.getName() + ": " + e.getMessage());
+            }
+        }
+        closeAll();
+    }
+
+    // Führt alle eingereichten Aufgaben aus
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    // Führt alle verzögerten Aufgaben aus, deren Zeitpunkt erreicht ist
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline() - now <= 0) {
+            runSafely(timers.poll().task());
+        }
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.error("Fehler in einer Aufgabe im Event-Loop " + thread.getName() + ": " + e);
+        }
+    }
+
+    // Schließt beim Beenden alle noch registrierten Verbindungen und den Selector
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection connection) {
+                connection.close();
+            }
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Selector des Event-Loops " + thread.getName() + " konnte nicht geschlossen werden: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,80 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Engine auf Basis von java.nio: ein Thread nimmt Verbindungen an,
+ * eine kleine Anzahl von Event-Loops übernimmt das Lesen und Schreiben aller Clients.
+ * Das zeilenbasierte Protokoll (CONNECT:, IMAGE:, PARTICIPANTS:, SYSTEM:) bleibt unverändert.
+ */
+public class NioServerEngine implements ServerEngine {
+    private final ChatServer chatServer; // Server, an den neue Clients übergeben werden
+    private final InetAddress bindAddress; // Adresse, an die der Server gebunden ist
+    private final int port; // Port, auf dem der Server lauscht
+    private final int backlog; // Maximale Länge der Warteschlange für eingehende Verbindungen
+    private final NioEventLoop[] eventLoops; // Event-Loops, auf die die Verbindungen verteilt werden
+
+    private ServerSocketChannel serverChannel;
+    private int nextLoop; // Index für die Round-Robin-Verteilung
+
+    public NioServerEngine(ChatServer chatServer, InetAddress bindAddress, int port, int backlog, int threads) {
+        this.chatServer = chatServer;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.backlog = backlog;
+        this.eventLoops = new NioEventLoop[threads];
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (chatServer.getConfig().getOverflowPolicy() == OverflowPolicy.BLOCK) {
+            chatServer.getLog().warn("OverflowPolicy.BLOCK wird von der NIO-Engine wie DISCONNECT behandelt.");
+        }
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop("chatty-nio-" + i, chatServer.getLog());
+            eventLoops[i].start();
+        }
+
+        // Der Acceptor bleibt blockierend; nur die Client-Kanäle laufen nicht-blockierend in den Event-Loops
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(bindAddress, port), backlog);
+        chatServer.getLog().info("Server (NIO, " + eventLoops.length + " Event-Loops) läuft auf IP-Adresse: "
+                + bindAddress.getHostAddress() + " und Port: " + ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+
+                // floorMod: nach 2^31 Verbindungen läuft nextLoop über und wird negativ
+                NioEventLoop eventLoop = eventLoops[Math.floorMod(nextLoop++, eventLoops.length)];
+                NioConnection client = new NioConnection(chatServer, channel, eventLoop);
+                chatServer.addClient(client);
+                eventLoop.register(client);
+                chatServer.getLog().info("Accepted new client: " + channel.getRemoteAddress());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            chatServer.getLog().warn("Server-Socket konnte nicht geschlossen werden: " + e.getMessage());
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+}
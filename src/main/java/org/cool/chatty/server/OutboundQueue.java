@@ -0,0 +1,114 @@
+package org.cool.chatty.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Begrenzte Ausgangswarteschlange eines Clients.
+ * Der Broadcast legt Nachrichten nur noch hier ab; ein Schreib-Task des Clients leert sie.
+ * Die freien Plätze werden über eine Semaphore gezählt, damit das Einreihen ohne Sperre auskommt.
+ * Die Warteschlange übernimmt jede angebotene Nachricht: was nicht eingereiht oder später verworfen wird,
+ * geht an den discard-Callback (z. B. um den Referenzzähler einer EncodedMessage zu verringern).
+ *
+ * @param <T> Typ der Nachrichten in der Warteschlange
+ */
+public class OutboundQueue<T> {
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>(); // Die noch nicht gesendeten Nachrichten
+    private final Semaphore freeSlots; // Anzahl der freien Plätze
+    private final int capacity; // Maximale Anzahl wartender Nachrichten
+    private final OverflowPolicy policy; // Verhalten bei voller Warteschlange
+    private final ServerStats stats; // Zähler für verworfene Nachrichten
+    private final Consumer<? super T> discard; // Wird für jede nicht gesendete Nachricht aufgerufen
+    private volatile boolean closed;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, ServerStats stats, Consumer<? super T> discard) {
+        this.capacity = capacity;
+        this.freeSlots = new Semaphore(capacity);
+        this.policy = policy;
+        this.stats = stats;
+        this.discard = discard;
+    }
+
+    /**
+     * Reiht eine Nachricht ein und wendet bei voller Warteschlange die OverflowPolicy an.
+     * @param message Die zu sendende Nachricht
+     * @return false, wenn der Client wegen voller Warteschlange getrennt werden soll
+     */
+    public boolean offer(T message) {
+        if (closed) {
+            discard.accept(message);
+            return true;
+        }
+        while (!freeSlots.tryAcquire()) {
+            switch (policy) {
+                case DROP_OLDEST -> {
+                    // Der Platz der verworfenen Nachricht wird direkt für die neue verwendet
+                    T oldest = queue.poll();
+                    if (oldest != null) {
+                        stats.messageDropped();
+                        discard.accept(oldest);
+                        queue.add(message);
+                        return true;
+                    }
+                    // Der Schreib-Task hat inzwischen Platz gemacht: erneut versuchen
+                }
+                case DISCONNECT -> {
+                    stats.messageDropped();
+                    stats.slowConsumerDisconnected();
+                    discard.accept(message);
+                    return false;
+                }
+                case BLOCK -> {
+                    stats.sendBlocked();
+                    try {
+                        freeSlots.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stats.messageDropped();
+                        discard.accept(message);
+                        return true;
+                    }
+                    if (closed) {
+                        freeSlots.release();
+                        discard.accept(message);
+                        return true;
+                    }
+                    queue.add(message);
+                    return true;
+                }
+            }
+        }
+        queue.add(message);
+        return true;
+    }
+
+    // Entnimmt die nächste Nachricht oder null, wenn die Warteschlange leer ist
+    public T poll() {
+        T message = queue.poll();
+        if (message != null) {
+            freeSlots.release();
+        }
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    // Anzahl der wartenden Nachrichten
+    public int size() {
+        return Math.max(0, capacity - freeSlots.availablePermits());
+    }
+
+    // Verwirft alle wartenden Nachrichten und gibt blockierte Absender frei
+    public void close() {
+        closed = true;
+        T message;
+        while ((message = queue.poll()) != null) {
+            discard.accept(message);
+        }
+        freeSlots.release(capacity);
+    }
+}
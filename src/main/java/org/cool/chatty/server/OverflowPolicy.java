@@ -0,0 +1,10 @@
+package org.cool.chatty.server;
+
+/**
+ * Legt fest, was passiert, wenn die Ausgangswarteschlange eines Clients voll ist.
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST, // Die älteste noch nicht gesendete Nachricht wird verworfen
+    DISCONNECT,  // Der langsame Client wird getrennt
+    BLOCK        // Der Absender wartet, bis wieder Platz in der Warteschlange ist
+}
@@ -0,0 +1,150 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.protocol.ProtocolVersion;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Verwaltet die Teilnehmerliste und verteilt ihre Änderungen (siehe Presence).
+ * An- und Abmeldungen werden für ein kurzes Zeitfenster gesammelt und dann als ein Delta mit neuer Version verschickt;
+ * wer sich innerhalb des Fensters an- und wieder abmeldet, taucht gar nicht erst auf.
+ * Bei vielen gleichzeitigen Anmeldungen (z. B. nach einem Neustart) geht so pro Fenster eine Nachricht an jeden Client
+ * statt einer vollständigen Liste pro Anmeldung.
+ */
+class PresenceTracker implements Closeable {
+    private final ChatServer server;
+    private final long windowMillis; // Zeitfenster, in dem Änderungen gesammelt werden (0 = sofort senden)
+    private final Set<String> names = new LinkedHashSet<>(); // Stand der zuletzt verschickten Version
+    private final Map<String, Boolean> pending = new LinkedHashMap<>(); // Noch nicht verschickte Änderungen (true = angemeldet)
+    private long version; // Version des verschickten Stands
+
+    // Schützt Stand, Version und gesammelte Änderungen; wird nie während des Versands gehalten,
+    // damit An- und Abmeldungen nicht auf einen Broadcast an alle Clients warten.
+    // Ein Client ignoriert Deltas, deren Version nicht über der seines Snapshots liegt.
+    // Eine ReentrantLock statt synchronized, damit virtuelle Threads nicht "gepinnt" werden.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock(); // Verschickt die Deltas in der Reihenfolge ihrer Versionen
+    private final ScheduledExecutorService flusher;
+
+    PresenceTracker(ChatServer server, long windowMillis) {
+        this.server = server;
+        this.windowMillis = windowMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chatty-presence").daemon().factory());
+    }
+
+    void joined(String name) {
+        change(name, true);
+    }
+
+    void left(String name) {
+        change(name, false);
+    }
+
+    private void change(String name, boolean joined) {
+        lock.lock();
+        try {
+            boolean scheduled = !pending.isEmpty();
+            if (names.contains(name) == joined) {
+                pending.remove(name); // Hebt eine noch nicht verschickte Änderung wieder auf
+            } else {
+                pending.put(name, joined);
+            }
+            if (windowMillis > 0 && !scheduled && !pending.isEmpty()) {
+                try {
+                    flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Server wird beendet (z. B. trennt ein Cluster-Nachbar noch während stop())
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (windowMillis <= 0) {
+            flush();
+        }
+    }
+
+    // Verschickt die gesammelten Änderungen als ein Delta.
+    // Das Delta wird unter lock gebildet, verschickt wird erst nach dessen Freigabe.
+    private void flush() {
+        flushLock.lock();
+        try {
+            ChatMessage delta;
+            List<String> current;
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return; // Alle Änderungen haben sich gegenseitig aufgehoben
+                }
+                List<String> joined = new ArrayList<>();
+                List<String> left = new ArrayList<>();
+                for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+                    if (change.getValue()) {
+                        names.add(change.getKey());
+                        joined.add(change.getKey());
+                    } else {
+                        names.remove(change.getKey());
+                        left.add(change.getKey());
+                    }
+                }
+                pending.clear();
+                version++;
+                delta = Presence.delta(version, joined, left);
+                current = List.copyOf(names);
+            } finally {
+                lock.unlock();
+            }
+            server.broadcastPresence(delta, current);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Sendet einem Client den vollständigen Stand: bei der Anmeldung und wenn er eine Lücke bemerkt hat.
+    // Wie bei flush wird der Stand unter lock gebildet und erst danach verschickt. Hat sich die Version
+    // währenddessen geändert, kann das Delta vor dem Snapshot beim Client angekommen sein; dann folgt der neue Stand.
+    void sendSnapshot(ClientConnection client) {
+        long sent;
+        ChatMessage snapshot;
+        do {
+            lock.lock();
+            try {
+                sent = version;
+                snapshot = client.getProtocol() == ProtocolVersion.BINARY
+                        ? Presence.snapshot(version, names)
+                        : ChatMessage.participants(List.copyOf(names));
+            } finally {
+                lock.unlock();
+            }
+            client.sendMessage(snapshot);
+        } while (!client.isClosed() && sent != currentVersion());
+    }
+
+    private long currentVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+    }
+}
@@ -0,0 +1,98 @@
+package org.cool.chatty.server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Begrenzt, wie viele Nachrichten und Bytes ein Client pro Sekunde senden darf, damit ein einzelner Client
+ * den Broadcast nicht fluten kann (jede Nachricht wird ja an alle Mitglieder des Raums verteilt).
+ * Es gibt Grenzen je Verbindung und, optional, gemeinsame Grenzen für alle Verbindungen eines Hosts.
+ * Wird eine Grenze überschritten, trennt der Server nicht, sondern liest von dieser Verbindung erst nach der
+ * Wartezeit weiter; der Client wird über TCP gebremst.
+ * Alle Grenzen sind TokenBuckets ohne Sperre.
+ */
+class RateLimiter {
+    private final ServerConfig config;
+    private final Map<InetAddress, Host> hosts = new ConcurrentHashMap<>(); // Gemeinsame Grenzen je Host
+
+    RateLimiter(ServerConfig config) {
+        this.config = config;
+    }
+
+    // Grenzen einer neuen Verbindung; address ist die Adresse des Clients (null = unbekannt, nur Grenzen je Verbindung)
+    Client forConnection(InetAddress address) {
+        Host host = null;
+        if (address != null && (config.getHostLimitMessages() > 0 || config.getHostLimitBytes() > 0)) {
+            host = hosts.compute(address, (key, existing) -> {
+                Host shared = existing != null ? existing : new Host(
+                        bucket(config.getHostLimitMessages(), config.getHostLimitMessagesBurst()),
+                        bucket(config.getHostLimitBytes(), config.getHostLimitBytesBurst()));
+                shared.connections++;
+                return shared;
+            });
+        }
+        return new Client(bucket(config.getLimitMessages(), config.getLimitMessagesBurst()),
+                bucket(config.getLimitBytes(), config.getLimitBytesBurst()), address, host);
+    }
+
+    // Ein Limit von 0 oder weniger bedeutet unbegrenzt
+    private static TokenBucket bucket(long rate, long burst) {
+        return rate > 0 ? new TokenBucket(rate, burst) : null;
+    }
+
+    private static long acquire(TokenBucket bucket, long tokens) {
+        return bucket != null && tokens > 0 ? bucket.acquire(tokens) : 0;
+    }
+
+    // Gemeinsame Grenzen eines Hosts; connections wird nur innerhalb von compute verändert
+    private static final class Host {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+        private int connections;
+
+        Host(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    // Die Grenzen einer Verbindung
+    final class Client {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+        private final InetAddress address;
+        private final Host host; // null ohne Grenzen je Host
+        private boolean closed;
+
+        private Client(TokenBucket messages, TokenBucket bytes, InetAddress address, Host host) {
+            this.messages = messages;
+            this.bytes = bytes;
+            this.address = address;
+            this.host = host;
+        }
+
+        /**
+         * Verbucht empfangene Nachrichten und Bytes.
+         * @return Wartezeit in Nanosekunden, bevor von dieser Verbindung weitergelesen werden darf (0 = sofort)
+         */
+        long acquire(int messageCount, long byteCount) {
+            long wait = Math.max(RateLimiter.acquire(messages, messageCount), RateLimiter.acquire(bytes, byteCount));
+            if (host != null) {
+                wait = Math.max(wait, Math.max(RateLimiter.acquire(host.messages, messageCount),
+                        RateLimiter.acquire(host.bytes, byteCount)));
+            }
+            return wait;
+        }
+
+        // Gibt die gemeinsamen Grenzen frei, sobald die letzte Verbindung des Hosts geschlossen ist.
+        // Nur aus dem Thread aufrufen, der die Verbindung schließt.
+        void close() {
+            if (host == null || closed) {
+                return;
+            }
+            closed = true;
+            hosts.computeIfPresent(address, (key, shared) -> --shared.connections == 0 ? null : shared);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.cool.chatty.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Führt Aufgaben nacheinander und in der Reihenfolge des Einreichens auf einem gemeinsamen Executor aus.
+ * So bleiben z. B. die Stücke eines Uploads geordnet, ohne dass jeder Client einen eigenen Thread belegt.
+ */
+final class SerialExecutor implements Executor {
+    private final Executor executor; // Gemeinsamer Executor, auf dem die Aufgaben laufen
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(); // Ein Durchlauf ist eingereiht oder läuft
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+            // Wurde zwischen dem letzten poll und dem Zurücksetzen etwas eingereiht, weiterarbeiten
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.FrameCodec;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Startoptionen des ChatServers.
+ * Die Werte werden über System-Properties gesetzt (z. B. -Dchatty.engine=nio),
+ * damit die interaktive Eingabe von IP-Adresse und Port unverändert bleibt.
+ */
+public class ServerConfig {
+
+    // Verfügbare Server-Engines
+    public enum Engine {
+        CLASSIC, // Ein Thread pro Client mit blockierenden Sockets (ursprüngliches Verhalten)
+        NIO      // Wenige Event-Loop-Threads mit Selector und nicht-blockierenden Kanälen
+    }
+
+    // Art der Threads, auf denen die ClientHandler der klassischen Engine laufen
+    public enum ThreadMode {
+        PLATFORM, // Ein Betriebssystem-Thread pro Client (ursprüngliches Verhalten)
+        VIRTUAL   // Ein virtueller Thread pro Client (Java 21), geeignet für sehr viele ruhende Verbindungen
+    }
+
+    // Backend, über das die Broadcasts verteilt werden (siehe MessageBus)
+    public enum Bus {
+        LOCAL,  // Innerhalb des Prozesses (LocalMessageBus)
+        BROKER  // Über einen MessageBroker an alle ChatServer, die mit ihm verbunden sind (BrokerMessageBus)
+    }
+
+    private Engine engine = Engine.CLASSIC; // Gewählte Engine
+    private ThreadMode threadMode = ThreadMode.PLATFORM; // Thread-Art für die ClientHandler
+    private ExecutorService clientExecutor; // Optional vorgegebener Executor für die ClientHandler
+    private int outboundCapacity = 1024; // Maximale Anzahl wartender Nachrichten pro Client
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST; // Verhalten bei voller Warteschlange
+    private int writeBatch = 64; // Höchstens so viele wartende Nachrichten werden mit einem Schreibvorgang gesendet
+    private long writeMaxDelay = 0; // Mikrosekunden, die ein beschäftigter Client auf weitere Nachrichten wartet (0 = nie)
+    private int maxFrameSize = 16 * 1024 * 1024; // Längste Zeile bzw. größter Frame, den ein Client senden darf (Bytes)
+    // Grenzen je Verbindung und je Host (Nachrichten bzw. Bytes pro Sekunde und Größe des Eimers; 0 = unbegrenzt)
+    private long limitMessages = 50;
+    private long limitMessagesBurst = 100;
+    private long limitBytes = 4L * 1024 * 1024;
+    private long limitBytesBurst = 16L * 1024 * 1024;
+    private long hostLimitMessages = 0;
+    private long hostLimitMessagesBurst = 500;
+    private long hostLimitBytes = 0;
+    private long hostLimitBytesBurst = 64L * 1024 * 1024;
+    private int backlog = 50; // Maximale Länge der Warteschlange für eingehende Verbindungen
+    private int nioThreads = Runtime.getRuntime().availableProcessors(); // Anzahl der Event-Loop-Threads
+    private int diskThreads = 4; // Threads für Festplattenzugriffe (Verlauf aus dem Log, Anhänge), getrennt von den Verbindungen
+    private Path attachmentDirectory = Path.of(System.getProperty("java.io.tmpdir"), "chatty-attachments"); // Ablage der Anhänge
+    private long maxAttachmentSize = 100L * 1024 * 1024; // Maximale Größe eines Anhangs in Bytes
+    private int maxUploadsPerClient = 4; // Gleichzeitige Uploads je Client; weitere FILE_START werden abgelehnt
+    private boolean logEnabled = true; // Nachrichten dauerhaft im MessageLog speichern
+    private Path logDirectory = Path.of("chatty-log"); // Verzeichnis der Log-Segmente (relativ zum Arbeitsverzeichnis)
+    private long logSegmentSize = 64L * 1024 * 1024; // Größe eines Segments in Bytes
+    private long logFsyncInterval = 100; // Spätestens nach so vielen Millisekunden wird das Log erzwungen (fsync)
+    private int logFsyncBatch = 1000; // Spätestens nach so vielen Einträgen wird das Log erzwungen
+    private long logRetentionBytes = 1024L * 1024 * 1024; // Maximale Gesamtgröße des Logs
+    private long logRetentionHours = 7 * 24; // Maximales Alter der Einträge
+    private int historySize = 1000; // Anzahl der neuesten Nachrichten, die im Speicher gehalten werden
+    private long historyBytes = 64L * 1024 * 1024; // Höchstens so viele Bytes davon; Bilder verdrängen ältere Nachrichten
+    private int historyPageSize = 200; // Maximale Anzahl der Nachrichten pro Antwort auf eine Verlaufsanfrage
+    private long presenceWindow = 100; // Zeitfenster in Millisekunden, in dem An- und Abmeldungen gesammelt werden
+    private long sessionGrace = 30_000; // So lange (ms) kann ein getrennter Client seine Sitzung fortsetzen (0 = keine Sitzungen)
+    private long sessionMaxAge = 24 * 60 * 60 * 1000L; // Ältere Tokens (ms seit der Ausstellung) setzen nach einem Neustart keine Sitzung fort
+    private Path sessionKeyFile = Path.of("chatty-session.key"); // Schlüssel der Sitzungs-Tokens (null = nur für diesen Lauf)
+    private int clusterPort = -1; // Port für die Verbindungen der anderen Knoten (-1 = kein Cluster, 0 = beliebig)
+    private List<String> clusterPeers = List.of(); // Adressen ("Host:Port") der Cluster-Ports aller anderen Knoten
+    private String clusterNodeId; // Name dieses Knotens im Cluster (null = "IP-Adresse:Port" des Servers)
+    private String clusterBindAddress = "127.0.0.1"; // Adresse des Cluster-Ports; nur für Knoten auf anderen Rechnern ändern
+    private String clusterSecret; // Gemeinsames Geheimnis aller Knoten, mit dem sie sich ausweisen (Pflicht für den Cluster)
+    private Bus bus = Bus.LOCAL; // Gewähltes Backend für die Broadcasts
+    private String busBroker = "127.0.0.1:7400"; // Adresse ("Host:Port") des MessageBrokers; er läuft auf demselben Rechner
+    private boolean metricsJmx = true; // Metriken als MXBean registrieren
+    private int metricsPort = -1; // Port des Text-Endpunkts der Metriken auf 127.0.0.1 (-1 = keiner, 0 = beliebig)
+    private ServerLog.Level serverLogLevel = ServerLog.Level.INFO; // Niedrigste Stufe, die das ServerLog ausgibt
+    private Path serverLogFile = Path.of("chatty-server.log"); // Datei des ServerLogs (null = keine)
+    private long serverLogMaxSize = 16L * 1024 * 1024; // Ab dieser Größe wird die Datei rotiert
+    private int serverLogFiles = 5; // Anzahl der aufbewahrten rotierten Dateien
+    private boolean serverLogConsole = true; // Einträge zusätzlich auf der Konsole ausgeben
+    private int serverLogMaxLine = 512; // Längere Einträge werden gekürzt
+    private int serverLogSample = 1; // Jede n-te verteilte Nachricht protokollieren (im Mittel; 0 = keine)
+
+    // Liest die Konfiguration aus den System-Properties, fehlende Werte behalten ihren Standardwert
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        String engine = System.getProperty("chatty.engine");
+        if (engine != null) {
+            config.setEngine(Engine.valueOf(engine.trim().toUpperCase()));
+        }
+        String threads = System.getProperty("chatty.threads");
+        if (threads != null) {
+            config.setThreadMode(ThreadMode.valueOf(threads.trim().toUpperCase()));
+        }
+        String policy = System.getProperty("chatty.outbound.policy");
+        if (policy != null) {
+            config.setOverflowPolicy(OverflowPolicy.valueOf(policy.trim().toUpperCase()));
+        }
+        config.setOutboundCapacity(Integer.getInteger("chatty.outbound.capacity", config.getOutboundCapacity()));
+        config.setWriteBatch(Integer.getInteger("chatty.write.batch", config.getWriteBatch()));
+        config.setWriteMaxDelay(Long.getLong("chatty.write.maxDelay", config.getWriteMaxDelay()));
+        config.setMaxFrameSize(Integer.getInteger("chatty.maxFrame", config.getMaxFrameSize()));
+        config.setLimitMessages(Long.getLong("chatty.limit.messages", config.getLimitMessages()));
+        config.setLimitMessagesBurst(Long.getLong("chatty.limit.messages.burst", config.getLimitMessagesBurst()));
+        config.setLimitBytes(Long.getLong("chatty.limit.bytes", config.getLimitBytes()));
+        config.setLimitBytesBurst(Long.getLong("chatty.limit.bytes.burst", config.getLimitBytesBurst()));
+        config.setHostLimitMessages(Long.getLong("chatty.limit.host.messages", config.getHostLimitMessages()));
+        config.setHostLimitMessagesBurst(Long.getLong("chatty.limit.host.messages.burst", config.getHostLimitMessagesBurst()));
+        config.setHostLimitBytes(Long.getLong("chatty.limit.host.bytes", config.getHostLimitBytes()));
+        config.setHostLimitBytesBurst(Long.getLong("chatty.limit.host.bytes.burst", config.getHostLimitBytesBurst()));
+        config.setBacklog(Integer.getInteger("chatty.backlog", config.getBacklog()));
+        config.setNioThreads(Integer.getInteger("chatty.nio.threads", config.getNioThreads()));
+        config.setDiskThreads(Integer.getInteger("chatty.disk.threads", config.getDiskThreads()));
+        String attachmentDirectory = System.getProperty("chatty.attachments.dir");
+        if (attachmentDirectory != null) {
+            config.setAttachmentDirectory(Path.of(attachmentDirectory));
+        }
+        config.setMaxAttachmentSize(Long.getLong("chatty.attachments.maxSize", config.getMaxAttachmentSize()));
+        config.setMaxUploadsPerClient(Integer.getInteger("chatty.attachments.maxUploads", config.getMaxUploadsPerClient()));
+        config.setLogEnabled(Boolean.parseBoolean(System.getProperty("chatty.log.enabled", String.valueOf(config.isLogEnabled()))));
+        String logDirectory = System.getProperty("chatty.log.dir");
+        if (logDirectory != null) {
+            config.setLogDirectory(Path.of(logDirectory));
+        }
+        config.setLogSegmentSize(Long.getLong("chatty.log.segmentSize", config.getLogSegmentSize()));
+        config.setLogFsyncInterval(Long.getLong("chatty.log.fsyncInterval", config.getLogFsyncInterval()));
+        config.setLogFsyncBatch(Integer.getInteger("chatty.log.fsyncBatch", config.getLogFsyncBatch()));
+        config.setLogRetentionBytes(Long.getLong("chatty.log.retention.bytes", config.getLogRetentionBytes()));
+        config.setLogRetentionHours(Long.getLong("chatty.log.retention.hours", config.getLogRetentionHours()));
+        config.setHistorySize(Integer.getInteger("chatty.history.size", config.getHistorySize()));
+        config.setHistoryBytes(Long.getLong("chatty.history.bytes", config.getHistoryBytes()));
+        config.setHistoryPageSize(Integer.getInteger("chatty.history.pageSize", config.getHistoryPageSize()));
+        config.setPresenceWindow(Long.getLong("chatty.presence.window", config.getPresenceWindow()));
+        config.setSessionGrace(Long.getLong("chatty.session.grace", config.getSessionGrace()));
+        config.setSessionMaxAge(Long.getLong("chatty.session.maxAge", config.getSessionMaxAge()));
+        String sessionKeyFile = System.getProperty("chatty.session.keyFile");
+        if (sessionKeyFile != null) {
+            config.setSessionKeyFile(sessionKeyFile.isBlank() ? null : Path.of(sessionKeyFile));
+        }
+        config.setClusterPort(Integer.getInteger("chatty.cluster.port", config.getClusterPort()));
+        String peers = System.getProperty("chatty.cluster.peers");
+        if (peers != null) {
+            config.setClusterPeers(Arrays.stream(peers.split(",")).map(String::trim).filter(p -> !p.isEmpty()).toList());
+        }
+        config.setClusterNodeId(System.getProperty("chatty.cluster.nodeId", config.getClusterNodeId()));
+        config.setClusterBindAddress(System.getProperty("chatty.cluster.bind", config.getClusterBindAddress()));
+        config.setClusterSecret(System.getProperty("chatty.cluster.secret", config.getClusterSecret()));
+        String bus = System.getProperty("chatty.bus");
+        if (bus != null) {
+            config.setBus(Bus.valueOf(bus.trim().toUpperCase()));
+        }
+        config.setBusBroker(System.getProperty("chatty.bus.broker", config.getBusBroker()));
+        config.setMetricsJmx(Boolean.parseBoolean(System.getProperty("chatty.metrics.jmx", String.valueOf(config.isMetricsJmx()))));
+        config.setMetricsPort(Integer.getInteger("chatty.metrics.port", config.getMetricsPort()));
+        String serverLogLevel = System.getProperty("chatty.serverlog.level");
+        if (serverLogLevel != null) {
+            config.setServerLogLevel(ServerLog.Level.valueOf(serverLogLevel.trim().toUpperCase()));
+        }
+        String serverLogFile = System.getProperty("chatty.serverlog.file");
+        if (serverLogFile != null) {
+            config.setServerLogFile(serverLogFile.isBlank() ? null : Path.of(serverLogFile));
+        }
+        config.setServerLogMaxSize(Long.getLong("chatty.serverlog.maxSize", config.getServerLogMaxSize()));
+        config.setServerLogFiles(Integer.getInteger("chatty.serverlog.files", config.getServerLogFiles()));
+        config.setServerLogConsole(Boolean.parseBoolean(System.getProperty("chatty.serverlog.console", String.valueOf(config.isServerLogConsole()))));
+        config.setServerLogMaxLine(Integer.getInteger("chatty.serverlog.maxLine", config.getServerLogMaxLine()));
+        config.setServerLogSample(Integer.getInteger("chatty.serverlog.sample", config.getServerLogSample()));
+        return config;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    // Setzt einen eigenen Executor für die ClientHandler; hat Vorrang vor dem ThreadMode
+    public void setClientExecutor(ExecutorService clientExecutor) {
+        this.clientExecutor = clientExecutor;
+    }
+
+    // Liefert den vorgegebenen Executor oder erstellt einen, der für jeden Client einen neuen Thread startet
+    public ExecutorService createClientExecutor() {
+        if (clientExecutor != null) {
+            return clientExecutor;
+        }
+        Thread.Builder builder = switch (threadMode) {
+            case VIRTUAL -> Thread.ofVirtual().name("client-", 0);
+            case PLATFORM -> Thread.ofPlatform().name("client-", 0);
+        };
+        return Executors.newThreadPerTaskExecutor(builder.factory());
+    }
+
+    // Executor für die Schreib-Tasks der ClientHandler: virtuelle Threads bzw. ein Pool wiederverwendbarer Plattform-Threads.
+    // Auch mit vorgegebenem clientExecutor immer ein eigener: ein begrenzter Pool, dessen Threads alle in
+    // blockierenden Lesezugriffen stecken, hätte sonst keinen Thread mehr zum Schreiben frei.
+    public ExecutorService createWriterExecutor() {
+        return switch (threadMode) {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("writer-", 0).factory());
+            case PLATFORM -> Executors.newCachedThreadPool(Thread.ofPlatform().name("writer-", 0).factory());
+        };
+    }
+
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    public void setOutboundCapacity(int outboundCapacity) {
+        this.outboundCapacity = Math.max(1, outboundCapacity);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getWriteBatch() {
+        return writeBatch;
+    }
+
+    public void setWriteBatch(int writeBatch) {
+        this.writeBatch = Math.min(Math.max(1, writeBatch), 1024); // Mehr Buffer nimmt ein writev() nicht an
+    }
+
+    public long getWriteMaxDelay() {
+        return writeMaxDelay;
+    }
+
+    public void setWriteMaxDelay(long writeMaxDelay) {
+        this.writeMaxDelay = Math.max(0, writeMaxDelay);
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = Math.min(Math.max(1024, maxFrameSize), FrameCodec.MAX_FRAME_SIZE);
+    }
+
+    public long getLimitMessages() {
+        return limitMessages;
+    }
+
+    public void setLimitMessages(long limitMessages) {
+        this.limitMessages = limitMessages;
+    }
+
+    public long getLimitMessagesBurst() {
+        return limitMessagesBurst;
+    }
+
+    public void setLimitMessagesBurst(long limitMessagesBurst) {
+        this.limitMessagesBurst = limitMessagesBurst;
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    public void setLimitBytes(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    public long getLimitBytesBurst() {
+        return limitBytesBurst;
+    }
+
+    public void setLimitBytesBurst(long limitBytesBurst) {
+        this.limitBytesBurst = limitBytesBurst;
+    }
+
+    public long getHostLimitMessages() {
+        return hostLimitMessages;
+    }
+
+    public void setHostLimitMessages(long hostLimitMessages) {
+        this.hostLimitMessages = hostLimitMessages;
+    }
+
+    public long getHostLimitMessagesBurst() {
+        return hostLimitMessagesBurst;
+    }
+
+    public void setHostLimitMessagesBurst(long hostLimitMessagesBurst) {
+        this.hostLimitMessagesBurst = hostLimitMessagesBurst;
+    }
+
+    public long getHostLimitBytes() {
+        return hostLimitBytes;
+    }
+
+    public void setHostLimitBytes(long hostLimitBytes) {
+        this.hostLimitBytes = hostLimitBytes;
+    }
+
+    public long getHostLimitBytesBurst() {
+        return hostLimitBytesBurst;
+    }
+
+    public void setHostLimitBytesBurst(long hostLimitBytesBurst) {
+        this.hostLimitBytesBurst = hostLimitBytesBurst;
+    }
+
+    // Hebt alle Grenzen je Verbindung und je Host auf (z. B. für Lasttests)
+    public void disableRateLimits() {
+        limitMessages = 0;
+        limitBytes = 0;
+        hostLimitMessages = 0;
+        hostLimitBytes = 0;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    public int getNioThreads() {
+        return nioThreads;
+    }
+
+    public void setNioThreads(int nioThreads) {
+        this.nioThreads = Math.max(1, nioThreads);
+    }
+
+    public int getDiskThreads() {
+        return diskThreads;
+    }
+
+    public void setDiskThreads(int diskThreads) {
+        this.diskThreads = Math.max(1, diskThreads);
+    }
+
+    public Path getAttachmentDirectory() {
+        return attachmentDirectory;
+    }
+
+    public void setAttachmentDirectory(Path attachmentDirectory) {
+        this.attachmentDirectory = attachmentDirectory;
+    }
+
+    public long getMaxAttachmentSize() {
+        return maxAttachmentSize;
+    }
+
+    // Höchstens knapp 2 GB, weil ein Anhang als Ganzes eingeblendet wird
+    public void setMaxAttachmentSize(long maxAttachmentSize) {
+        this.maxAttachmentSize = Math.min(Math.max(0, maxAttachmentSize), Integer.MAX_VALUE);
+    }
+
+    public int getMaxUploadsPerClient() {
+        return maxUploadsPerClient;
+    }
+
+    public void setMaxUploadsPerClient(int maxUploadsPerClient) {
+        this.maxUploadsPerClient = Math.max(1, maxUploadsPerClient);
+    }
+
+    public boolean isLogEnabled() {
+        return logEnabled;
+    }
+
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+
+    public Path getLogDirectory() {
+        return logDirectory;
+    }
+
+    public void setLogDirectory(Path logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    public long getLogSegmentSize() {
+        return logSegmentSize;
+    }
+
+    // Mindestens 1 MB, höchstens knapp 2 GB, weil ein Segment als Ganzes eingeblendet wird
+    public void setLogSegmentSize(long logSegmentSize) {
+        this.logSegmentSize = Math.min(Math.max(1024 * 1024, logSegmentSize), Integer.MAX_VALUE);
+    }
+
+    public long getLogFsyncInterval() {
+        return logFsyncInterval;
+    }
+
+    public void setLogFsyncInterval(long logFsyncInterval) {
+        this.logFsyncInterval = Math.max(1, logFsyncInterval);
+    }
+
+    public int getLogFsyncBatch() {
+        return logFsyncBatch;
+    }
+
+    public void setLogFsyncBatch(int logFsyncBatch) {
+        this.logFsyncBatch = Math.max(1, logFsyncBatch);
+    }
+
+    public long getLogRetentionBytes() {
+        return logRetentionBytes;
+    }
+
+    public void setLogRetentionBytes(long logRetentionBytes) {
+        this.logRetentionBytes = logRetentionBytes;
+    }
+
+    public long getLogRetentionHours() {
+        return logRetentionHours;
+    }
+
+    public void setLogRetentionHours(long logRetentionHours) {
+        this.logRetentionHours = logRetentionHours;
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public void setHistorySize(int historySize) {
+        this.historySize = Math.max(1, historySize);
+    }
+
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    public void setHistoryBytes(long historyBytes) {
+        this.historyBytes = historyBytes;
+    }
+
+    public int getHistoryPageSize() {
+        return historyPageSize;
+    }
+
+    public void setHistoryPageSize(int historyPageSize) {
+        this.historyPageSize = Math.max(1, historyPageSize);
+    }
+
+    public long getPresenceWindow() {
+        return presenceWindow;
+    }
+
+    public void setPresenceWindow(long presenceWindow) {
+        this.presenceWindow = Math.max(0, presenceWindow);
+    }
+
+    public long getSessionGrace() {
+        return sessionGrace;
+    }
+
+    public void setSessionGrace(long sessionGrace) {
+        this.sessionGrace = Math.max(0, sessionGrace);
+    }
+
+    public long getSessionMaxAge() {
+        return sessionMaxAge;
+    }
+
+    public void setSessionMaxAge(long sessionMaxAge) {
+        this.sessionMaxAge = Math.max(0, sessionMaxAge);
+    }
+
+    public Path getSessionKeyFile() {
+        return sessionKeyFile;
+    }
+
+    public void setSessionKeyFile(Path sessionKeyFile) {
+        this.sessionKeyFile = sessionKeyFile;
+    }
+
+    public boolean isClusterEnabled() {
+        return clusterPort >= 0;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public void setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+    }
+
+    public List<String> getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(List<String> clusterPeers) {
+        this.clusterPeers = List.copyOf(clusterPeers);
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    public String getClusterBindAddress() {
+        return clusterBindAddress;
+    }
+
+    public void setClusterBindAddress(String clusterBindAddress) {
+        this.clusterBindAddress = clusterBindAddress;
+    }
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    // Ein leerer Wert gilt als nicht gesetzt
+    public void setClusterSecret(String clusterSecret) {
+        this.clusterSecret = clusterSecret == null || clusterSecret.isBlank() ? null : clusterSecret;
+    }
+
+    public Bus getBus() {
+        return bus;
+    }
+
+    public void setBus(Bus bus) {
+        this.bus = bus;
+    }
+
+    public String getBusBroker() {
+        return busBroker;
+    }
+
+    public void setBusBroker(String busBroker) {
+        this.busBroker = busBroker;
+    }
+
+    public boolean isMetricsJmx() {
+        return metricsJmx;
+    }
+
+    public void setMetricsJmx(boolean metricsJmx) {
+        this.metricsJmx = metricsJmx;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public ServerLog.Level getServerLogLevel() {
+        return serverLogLevel;
+    }
+
+    public void setServerLogLevel(ServerLog.Level serverLogLevel) {
+        this.serverLogLevel = serverLogLevel;
+    }
+
+    public Path getServerLogFile() {
+        return serverLogFile;
+    }
+
+    public void setServerLogFile(Path serverLogFile) {
+        this.serverLogFile = serverLogFile;
+    }
+
+    public long getServerLogMaxSize() {
+        return serverLogMaxSize;
+    }
+
+    public void setServerLogMaxSize(long serverLogMaxSize) {
+        this.serverLogMaxSize = Math.max(64 * 1024, serverLogMaxSize);
+    }
+
+    public int getServerLogFiles() {
+        return serverLogFiles;
+    }
+
+    public void setServerLogFiles(int serverLogFiles) {
+        this.serverLogFiles = Math.max(0, serverLogFiles);
+    }
+
+    public boolean isServerLogConsole() {
+        return serverLogConsole;
+    }
+
+    public void setServerLogConsole(boolean serverLogConsole) {
+        this.serverLogConsole = serverLogConsole;
+    }
+
+    public int getServerLogMaxLine() {
+        return serverLogMaxLine;
+    }
+
+    public void setServerLogMaxLine(int serverLogMaxLine) {
+        this.serverLogMaxLine = Math.max(16, serverLogMaxLine);
+    }
+
+    public int getServerLogSample() {
+        return serverLogSample;
+    }
+
+    public void setServerLogSample(int serverLogSample) {
+        this.serverLogSample = Math.max(0, serverLogSample);
+    }
+
+    // Erstellt das ServerLog; sein Schreib-Thread läuft sofort
+    public ServerLog createServerLog(ServerStats stats) {
+        return new ServerLog(serverLogLevel, serverLogFile, serverLogMaxSize, serverLogFiles,
+                serverLogConsole ? System.out : null, serverLogMaxLine, serverLogSample, stats);
+    }
+
+    // Erstellt den gewählten Bus; gestartet wird er vom ChatServer
+    public MessageBus createMessageBus(ServerStats stats, ServerLog log) {
+        return switch (bus) {
+            case LOCAL -> new LocalMessageBus();
+            case BROKER -> BrokerMessageBus.forAddress(busBroker, outboundCapacity, stats, log);
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package org.cool.chatty.server;
+
+import java.io.IOException;
+
+/**
+ * Eine Server-Engine nimmt Verbindungen an und leitet die Zeilen der Clients an den ChatServer weiter.
+ */
+public interface ServerEngine {
+
+    // Startet die Engine und blockiert, bis der Server beendet wird
+    void start() throws IOException;
+
+    // Beendet die Engine und gibt alle Ressourcen frei
+    void close();
+}
@@ -0,0 +1,272 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchrones Log des Servers: verteilte Nachrichten, Anmeldungen und Fehler.
+ * Wer protokolliert, legt den Eintrag nur in einen Ringpuffer fester Größe, ohne Sperre und ohne zu warten;
+ * ein eigener Thread schreibt die Einträge gesammelt in eine Datei, die ab einer Größe rotiert wird
+ * (chatty-server.log, chatty-server.log.1, ...), und auf Wunsch zusätzlich auf die Konsole.
+ * Ist der Puffer voll, wird der Eintrag verworfen und gezählt. Eine langsame Konsole oder Platte bremst
+ * den Broadcast also nicht, sie kostet höchstens Einträge.
+ *
+ * Lange Einträge werden schon beim Einreihen gekürzt, verteilte Nachrichten nur zusammengefasst,
+ * damit der Puffer keine Nutzdaten von mehreren Megabyte festhält.
+ */
+public class ServerLog implements Closeable {
+
+    // Schweregrade; ausgegeben wird alles ab der eingestellten Stufe
+    public enum Level {
+        DEBUG, // Einzelheiten, z. B. jede angenommene Verbindung
+        INFO,  // Verteilte Nachrichten und An- und Abmeldungen
+        WARN,  // Verworfene Nachrichten, abgebrochene Verbindungen
+        ERROR, // Fehler des Servers
+        OFF    // Keine Ausgabe
+    }
+
+    private static final int CAPACITY = 1 << 16; // Plätze im Ringpuffer (Zweierpotenz)
+    private static final int BATCH = 1024; // Höchstens so viele Einträge pro Schreibvorgang
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Pause, wenn nichts zu schreiben ist
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private record Entry(long millis, Level level, String text) {
+    }
+
+    private final Level level;
+    private final Path file; // null = keine Datei
+    private final long maxFileSize; // Ab dieser Größe wird rotiert
+    private final int maxFiles; // Anzahl der aufbewahrten alten Dateien
+    private final PrintStream console; // null = keine Ausgabe auf der Konsole
+    private final int maxLineLength; // Längere Einträge werden gekürzt
+    private final int sampleRate; // Von den verteilten Nachrichten im Mittel jede n-te protokollieren (0 = keine)
+    private final ServerStats stats;
+
+    // Ringpuffer für mehrere Schreiber und einen Leser (nach D. Vyukov): Jeder Platz hat eine Folgenummer.
+    // Ein Schreiber belegt einen Platz per CAS auf tail und gibt ihn mit der Folgenummer pos + 1 frei;
+    // der Leser gibt ihn nach dem Lesen mit pos + CAPACITY für die nächste Runde frei.
+    private final Entry[] entries = new Entry[CAPACITY]; // Sichtbar über das volatile Schreiben der Folgenummer
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong(); // Nächster zu belegender Platz
+    private long head; // Nächster zu lesender Platz (nur im Schreib-Thread)
+
+    private final Thread thread;
+    private volatile boolean closed;
+    private OutputStream out; // Aktuelle Datei (nur im Schreib-Thread)
+    private long fileSize;
+
+    public ServerLog(Level level, Path file, long maxFileSize, int maxFiles, PrintStream console, int maxLineLength,
+            int sampleRate, ServerStats stats) {
+        this.level = level;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.console = console;
+        this.maxLineLength = maxLineLength;
+        this.sampleRate = sampleRate;
+        this.stats = stats;
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        this.thread = Thread.ofPlatform().name("chatty-serverlog").daemon().start(this::run);
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && this.level != Level.OFF;
+    }
+
+    public void debug(String text) {
+        log(Level.DEBUG, text);
+    }
+
+    public void info(String text) {
+        log(Level.INFO, text);
+    }
+
+    public void warn(String text) {
+        log(Level.WARN, text);
+    }
+
+    public void error(String text) {
+        log(Level.ERROR, text);
+    }
+
+    /**
+     * Protokolliert eine verteilte Nachricht (Stufe INFO), falls sie zur Stichprobe gehört.
+     * Vermerkt wird nur eine Zusammenfassung (Typ, Absender, Raum, Nummer und Größe), nie der Inhalt;
+     * Stufe und Stichprobe werden geprüft, bevor überhaupt ein Text entsteht.
+     */
+    public void message(ChatMessage message) {
+        if (sampleRate <= 0 || !isEnabled(Level.INFO)) {
+            return;
+        }
+        // Zufällige Auswahl statt eines gemeinsamen Zählers, damit die Threads des Broadcasts nicht um ihn konkurrieren
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        log(Level.INFO, message.toString());
+    }
+
+    // Reiht einen Eintrag ein; blockiert nie
+    public void log(Level level, String text) {
+        if (!isEnabled(level) || closed) {
+            return;
+        }
+        if (text.length() > maxLineLength) {
+            text = text.substring(0, maxLineLength) + "... (" + (text.length() - maxLineLength) + " weitere Zeichen)";
+        }
+        if (!offer(new Entry(System.currentTimeMillis(), level, text))) {
+            stats.serverLogLinesDropped(1);
+        }
+    }
+
+    private boolean offer(Entry entry) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & (CAPACITY - 1));
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    entries[index] = entry;
+                    sequences.set(index, pos + 1); // Gibt den Eintrag für den Leser frei
+                    return true;
+                }
+                pos = tail.get(); // Ein anderer Schreiber war schneller
+            } else if (diff < 0) {
+                return false; // Der Leser hat diesen Platz noch nicht freigegeben: Puffer voll
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Nur im Schreib-Thread
+    private Entry poll() {
+        int index = (int) (head & (CAPACITY - 1));
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Entry entry = entries[index];
+        entries[index] = null;
+        sequences.set(index, head + CAPACITY);
+        head++;
+        return entry;
+    }
+
+    private void run() {
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        while (true) {
+            Entry entry = poll();
+            if (entry == null) {
+                if (closed) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            // Alles, was schon wartet, mit einem Schreibvorgang ausgeben
+            int count = 0;
+            do {
+                format(batch, entry);
+                count++;
+            } while (count < BATCH && (entry = poll()) != null);
+            write(batch, count);
+            batch.setLength(0);
+        }
+        closeFile();
+    }
+
+    private static void format(StringBuilder batch, Entry entry) {
+        TIME.formatTo(Instant.ofEpochMilli(entry.millis()), batch);
+        batch.append(' ').append(entry.level()).append(' ').append(entry.text()).append('\n');
+    }
+
+    private void write(StringBuilder batch, int count) {
+        if (console != null) {
+            console.print(batch);
+            console.flush();
+        }
+        if (file == null) {
+            return;
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null || fileSize >= maxFileSize) {
+                rotate();
+            }
+            out.write(bytes);
+            out.flush();
+            fileSize += bytes.length;
+        } catch (IOException e) {
+            // Ohne Datei weiter: die Einträge gelten als verworfen, der nächste Versuch öffnet sie neu
+            stats.serverLogLinesDropped(count);
+            closeFile();
+        }
+    }
+
+    // Öffnet die Datei; ist sie schon zu groß, werden die alten Dateien verschoben (.1 -> .2, ...) und neu begonnen
+    private void rotate() throws IOException {
+        closeFile();
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        if (Files.exists(file) && Files.size(file) >= maxFileSize) {
+            String name = file.getFileName().toString();
+            Files.deleteIfExists(parent.resolve(name + "." + maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path older = parent.resolve(name + "." + i);
+                if (Files.exists(older)) {
+                    Files.move(older, parent.resolve(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFiles > 0) {
+                Files.move(file, parent.resolve(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(file);
+            }
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                64 * 1024);
+        fileSize = Files.size(file);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    // Schreibt noch wartende Einträge (höchstens eine Sekunde lang) und beendet den Schreib-Thread
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.cool.chatty.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Macht die Zähler aus ServerStats und den Zustand der Verbindungen von außen sichtbar:
+ * als MXBean (org.cool.chatty:type=ChatServer,port=&lt;Port&gt;) und als Textseite im Format von Prometheus
+ * unter http://127.0.0.1:&lt;chatty.metrics.port&gt;/metrics.
+ * Gezählt wird nur mit LongAdder und dem LatencyHistogram; ausgewertet wird erst beim Abruf.
+ * Die Raten werden einmal pro Sekunde aus der Differenz der Zähler berechnet.
+ */
+public class ServerMetrics implements ServerMetricsMXBean, Closeable {
+    private final ChatServer server;
+    private final ServerStats stats;
+    private final ScheduledExecutorService sampler;
+    private ObjectName objectName; // null, solange nicht registriert
+    private HttpServer http; // null ohne Text-Endpunkt
+
+    // Stand bei der letzten Messung und daraus berechnete Raten pro Sekunde (nur im Thread des Samplers geschrieben)
+    private long lastNanos = System.nanoTime();
+    private long lastReceived, lastDelivered, lastBytesIn, lastBytesOut;
+    private volatile double receivedRate, deliveredRate, bytesInRate, bytesOutRate;
+
+    ServerMetrics(ChatServer server) {
+        this.server = server;
+        this.stats = server.getStats();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chatty-metrics").daemon().factory());
+    }
+
+    /**
+     * Startet die Messung der Raten und registriert die MXBean.
+     * @param httpPort Port des Text-Endpunkts auf 127.0.0.1 (-1 = keiner, 0 = beliebig)
+     */
+    void start(int serverPort, boolean jmx, int httpPort) throws IOException {
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+        if (jmx) {
+            try {
+                MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("org.cool.chatty:type=ChatServer,port=" + serverPort);
+                mbeans.registerMBean(this, name);
+                objectName = name;
+            } catch (JMException e) {
+                server.getLog().warn("Metriken konnten nicht über JMX registriert werden: " + e.getMessage());
+            }
+        }
+        if (httpPort >= 0) {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            http.createContext("/metrics", this::handle);
+            http.start();
+            server.getLog().info("Metriken unter http://127.0.0.1:" + getHttpPort() + "/metrics");
+        }
+    }
+
+    // Tatsächlicher Port des Text-Endpunkts (-1 = keiner)
+    public int getHttpPort() {
+        return http != null ? http.getAddress().getPort() : -1;
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / 1e9;
+        long received = stats.getReceivedMessages();
+        long delivered = stats.getDeliveredMessages();
+        long in = stats.getBytesIn();
+        long out = stats.getBytesOut();
+        receivedRate = (received - lastReceived) / seconds;
+        deliveredRate = (delivered - lastDelivered) / seconds;
+        bytesInRate = (in - lastBytesIn) / seconds;
+        bytesOutRate = (out - lastBytesOut) / seconds;
+        lastNanos = now;
+        lastReceived = received;
+        lastDelivered = delivered;
+        lastBytesIn = in;
+        lastBytesOut = out;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // Alle Messwerte im Textformat von Prometheus.
+    // Die Warteschlangen einzelner Clients erscheinen nur, wenn dort etwas wartet, damit die Seite bei vielen Clients klein bleibt.
+    String render() {
+        StringBuilder text = new StringBuilder(4096);
+        gauge(text, "chatty_connected_clients", "Angemeldete Clients", getConnectedClients());
+        gauge(text, "chatty_open_connections", "Offene Verbindungen", getOpenConnections());
+        counter(text, "chatty_connections_accepted_total", "Angenommene Verbindungen", getAcceptedConnections());
+        counter(text, "chatty_messages_received_total", "Von Clients empfangene Nachrichten", getMessagesReceived());
+        gauge(text, "chatty_messages_received_per_second", "Empfangene Nachrichten in der letzten Sekunde", receivedRate);
+        counter(text, "chatty_messages_delivered_total", "An Clients eingereihte Nachrichten", getMessagesDelivered());
+        gauge(text, "chatty_messages_delivered_per_second", "Eingereihte Nachrichten in der letzten Sekunde", deliveredRate);
+        counter(text, "chatty_bytes_in_total", "Von Clients gelesene Bytes", getBytesIn());
+        counter(text, "chatty_bytes_out_total", "An Clients geschriebene Bytes", getBytesOut());
+        counter(text, "chatty_socket_writes_total", "Schreibvorgänge auf Client-Sockets", getSocketWrites());
+        LatencyHistogram fanOut = stats.getFanOutLatency();
+        text.append("# HELP chatty_fanout_latency_seconds Dauer eines Broadcasts\n");
+        text.append("# TYPE chatty_fanout_latency_seconds summary\n");
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            text.append("chatty_fanout_latency_seconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(fanOut.percentile(quantile * 100) / 1e9).append('\n');
+        }
+        text.append("chatty_fanout_latency_seconds_sum ").append(fanOut.sum() / 1e9).append('\n');
+        text.append("chatty_fanout_latency_seconds_count ").append(fanOut.count()).append('\n');
+        gauge(text, "chatty_queue_depth_total", "Wartende Nachrichten über alle Clients", getQueueDepthTotal());
+        gauge(text, "chatty_queue_depth_max", "Längste Warteschlange eines Clients", getQueueDepthMax());
+        text.append("# HELP chatty_client_queue_depth Wartende Nachrichten je Client (nur nicht leere)\n");
+        text.append("# TYPE chatty_client_queue_depth gauge\n");
+        for (ClientConnection client : server.connections()) {
+            int depth = client.getQueueDepth();
+            if (depth > 0 && client.getName() != null) {
+                text.append("chatty_client_queue_depth{client=\"").append(escape(client.getName())).append("\"} ")
+                        .append(depth).append('\n');
+            }
+        }
+        counter(text, "chatty_read_throttles_total", "Pausen beim Lesen wegen überschrittener Limits", getReadThrottles());
+        counter(text, "chatty_dropped_messages_total", "Wegen voller Warteschlangen verworfene Nachrichten", getDroppedMessages());
+        counter(text, "chatty_slow_consumer_disconnects_total", "Wegen voller Warteschlange getrennte Clients", getSlowConsumerDisconnects());
+        counter(text, "chatty_blocked_sends_total", "Sendevorgänge, die auf Platz warten mussten", getBlockedSends());
+        counter(text, "chatty_dropped_log_entries_total", "Nicht protokollierte Nachrichten", getDroppedLogEntries());
+        counter(text, "chatty_dropped_peer_messages_total", "Nicht weitergeleitete Nachrichten", getDroppedPeerMessages());
+        counter(text, "chatty_dropped_server_log_lines_total", "Nicht ins ServerLog geschriebene Einträge", getDroppedServerLogLines());
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        metric(text, name, "counter", help, String.valueOf(value));
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, double value) {
+        metric(text, name, "gauge", help, value == (long) value ? String.valueOf((long) value) : String.valueOf(value));
+    }
+
+    private static void metric(StringBuilder text, String name, String type, String help, String value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Werte von Labels: Backslash, Anführungszeichen und Zeilenumbruch werden maskiert
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return server.localNames().size();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return server.connections().size();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return stats.getAcceptedConnections();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return stats.getReceivedMessages();
+    }
+
+    @Override
+    public double getMessagesReceivedPerSecond() {
+        return receivedRate;
+    }
+
+    @Override
+    public long getMessagesDelivered() {
+        return stats.getDeliveredMessages();
+    }
+
+    @Override
+    public double getMessagesDeliveredPerSecond() {
+        return deliveredRate;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return stats.getBytesIn();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return bytesInRate;
+    }
+
+    @Override
+    public long getBytesOut() {
+        return stats.getBytesOut();
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return bytesOutRate;
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return stats.getSocketWrites();
+    }
+
+    @Override
+    public long getFanOutCount() {
+        return stats.getFanOutLatency().count();
+    }
+
+    @Override
+    public double getFanOutLatencyMeanMicros() {
+        return stats.getFanOutLatency().mean() / 1000;
+    }
+
+    @Override
+    public double getFanOutLatencyP50Micros() {
+        return micros(stats.getFanOutLatency().percentile(50));
+    }
+
+    @Override
+    public double getFanOutLatencyP99Micros() {
+        return micros(stats.getFanOutLatency().percentile(99));
+    }
+
+    @Override
+    public double getFanOutLatencyP999Micros() {
+        return micros(stats.getFanOutLatency().percentile(99.9));
+    }
+
+    @Override
+    public double getFanOutLatencyMaxMicros() {
+        return micros(stats.getFanOutLatency().max());
+    }
+
+    @Override
+    public long getQueueDepthTotal() {
+        long total = 0;
+        for (ClientConnection client : server.connections()) {
+            total += client.getQueueDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public int getQueueDepthMax() {
+        int max = 0;
+        for (ClientConnection client : server.connections()) {
+            max = Math.max(max, client.getQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        for (ClientConnection client : server.connections()) {
+            if (client.getName() != null) {
+                depths.put(client.getName(), client.getQueueDepth());
+            }
+        }
+        return depths;
+    }
+
+    @Override
+    public long getReadThrottles() {
+        return stats.getReadThrottles();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return stats.getDroppedMessages();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return stats.getSlowConsumerDisconnects();
+    }
+
+    @Override
+    public long getBlockedSends() {
+        return stats.getBlockedSends();
+    }
+
+    @Override
+    public long getDroppedLogEntries() {
+        return stats.getDroppedLogEntries();
+    }
+
+    @Override
+    public long getDroppedPeerMessages() {
+        return stats.getDroppedPeerMessages();
+    }
+
+    @Override
+    public long getDroppedServerLogLines() {
+        return stats.getDroppedServerLogLines();
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        if (http != null) {
+            http.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+        }
+    }
+}
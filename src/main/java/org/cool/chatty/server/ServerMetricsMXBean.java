@@ -0,0 +1,73 @@
+package org.cool.chatty.server;
+
+import java.util.Map;
+
+/**
+ * Messwerte eines ChatServers über JMX (z. B. in JConsole oder VisualVM unter org.cool.chatty).
+ * Zähler laufen seit dem Start, Raten beziehen sich auf die letzte Sekunde, Latenzen auf alle Broadcasts seit dem Start.
+ */
+public interface ServerMetricsMXBean {
+
+    // Angemeldete Clients
+    int getConnectedClients();
+
+    // Offene Verbindungen, auch solche ohne Anmeldung
+    int getOpenConnections();
+
+    long getAcceptedConnections();
+
+    long getMessagesReceived();
+
+    double getMessagesReceivedPerSecond();
+
+    // An Clients eingereihte Nachrichten, je Empfänger eine
+    long getMessagesDelivered();
+
+    double getMessagesDeliveredPerSecond();
+
+    long getBytesIn();
+
+    double getBytesInPerSecond();
+
+    long getBytesOut();
+
+    double getBytesOutPerSecond();
+
+    // Schreibvorgänge auf Client-Sockets; im Verhältnis zu MessagesDelivered ein Maß für das Zusammenfassen
+    long getSocketWrites();
+
+    long getFanOutCount();
+
+    double getFanOutLatencyMeanMicros();
+
+    double getFanOutLatencyP50Micros();
+
+    double getFanOutLatencyP99Micros();
+
+    double getFanOutLatencyP999Micros();
+
+    double getFanOutLatencyMaxMicros();
+
+    // Summe und Maximum der wartenden Nachrichten über alle Clients
+    long getQueueDepthTotal();
+
+    int getQueueDepthMax();
+
+    // Wartende Nachrichten je angemeldetem Client
+    Map<String, Integer> getQueueDepths();
+
+    // Wie oft von einem Client über seinem Limit vorübergehend nicht gelesen wurde
+    long getReadThrottles();
+
+    long getDroppedMessages();
+
+    long getSlowConsumerDisconnects();
+
+    long getBlockedSends();
+
+    long getDroppedLogEntries();
+
+    long getDroppedPeerMessages();
+
+    long getDroppedServerLogLines();
+}
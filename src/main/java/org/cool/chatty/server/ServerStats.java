@@ -0,0 +1,136 @@
+package org.cool.chatty.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zähler des ChatServers.
+ * LongAdder verteilt gleichzeitige Erhöhungen auf mehrere Zellen und bremst den Broadcast daher nicht aus.
+ * Ausgewertet werden die Zähler von ServerMetrics (JMX und Text-Endpunkt).
+ */
+public class ServerStats {
+    private final LongAdder droppedMessages = new LongAdder(); // Verworfene Nachrichten wegen voller Warteschlangen
+    private final LongAdder slowConsumerDisconnects = new LongAdder(); // Wegen voller Warteschlange getrennte Clients
+    private final LongAdder blockedSends = new LongAdder(); // Sendevorgänge, die auf Platz warten mussten
+    private final LongAdder droppedLogEntries = new LongAdder(); // Nicht protokollierte Nachrichten (MessageLog überlastet oder beendet)
+    private final LongAdder droppedPeerMessages = new LongAdder(); // Nicht an einen anderen Knoten weitergeleitete Nachrichten
+    private final LongAdder droppedServerLogLines = new LongAdder(); // Nicht ins ServerLog geschriebene Einträge (überlastet)
+    private final LongAdder receivedMessages = new LongAdder(); // Von Clients empfangene Nachrichten
+    private final LongAdder deliveredMessages = new LongAdder(); // An Clients eingereihte Nachrichten (je Empfänger eine)
+    private final LongAdder bytesIn = new LongAdder(); // Von Clients gelesene Bytes
+    private final LongAdder bytesOut = new LongAdder(); // An Clients geschriebene Bytes
+    private final LongAdder socketWrites = new LongAdder(); // Schreibvorgänge auf Client-Sockets (ein write bzw. writev)
+    private final LongAdder acceptedConnections = new LongAdder(); // Angenommene Verbindungen seit dem Start
+    private final LongAdder readThrottles = new LongAdder(); // Pausen beim Lesen, weil ein Client über seinem Limit lag
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram(); // Dauer eines Broadcasts in Nanosekunden
+
+    public void messageDropped() {
+        droppedMessages.increment();
+    }
+
+    public void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    public void sendBlocked() {
+        blockedSends.increment();
+    }
+
+    public void logEntryDropped() {
+        droppedLogEntries.increment();
+    }
+
+    public void peerMessageDropped() {
+        droppedPeerMessages.increment();
+    }
+
+    public void serverLogLinesDropped(int count) {
+        droppedServerLogLines.add(count);
+    }
+
+    public void messageReceived() {
+        receivedMessages.increment();
+    }
+
+    public void messagesDelivered(int count) {
+        deliveredMessages.add(count);
+    }
+
+    public void bytesReceived(long count) {
+        bytesIn.add(count);
+    }
+
+    // Ein Schreibvorgang auf einem Client-Socket, der count Bytes geschrieben hat
+    public void bytesSent(long count) {
+        bytesOut.add(count);
+        socketWrites.increment();
+    }
+
+    public void connectionAccepted() {
+        acceptedConnections.increment();
+    }
+
+    public void readThrottled() {
+        readThrottles.increment();
+    }
+
+    // Zeichnet die Dauer eines Broadcasts auf, vom Eintreffen beim Server bis alle Empfänger die Nachricht eingereiht haben
+    public void fanOutCompleted(long nanos) {
+        fanOutLatency.record(nanos);
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    public long getBlockedSends() {
+        return blockedSends.sum();
+    }
+
+    public long getDroppedLogEntries() {
+        return droppedLogEntries.sum();
+    }
+
+    public long getDroppedPeerMessages() {
+        return droppedPeerMessages.sum();
+    }
+
+    public long getDroppedServerLogLines() {
+        return droppedServerLogLines.sum();
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages.sum();
+    }
+
+    public long getDeliveredMessages() {
+        return deliveredMessages.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    public long getReadThrottles() {
+        return readThrottles.sum();
+    }
+
+    public LatencyHistogram getFanOutLatency() {
+        return fanOutLatency;
+    }
+}
@@ -0,0 +1,259 @@
+package org.cool.chatty.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Sitzungen der Clients im Binärprotokoll, damit ein kurz getrennter Client ohne sichtbares Ab- und Anmelden weitermacht.
+ * Bei der Anmeldung erhält der Client ein Token. Bricht die Verbindung ab, bleibt er für die Karenzzeit angemeldet
+ * (Name, Räume, Teilnehmerliste); Nachrichten an die alte Verbindung werden verworfen, der Client holt sie über den Verlauf nach.
+ * Meldet er sich in dieser Zeit mit dem Token an, übernimmt die neue Verbindung die Sitzung, sonst wird er wie bisher abgemeldet.
+ *
+ * Ein Token enthält den Zeitpunkt der Ausstellung und einen HMAC über Namen und Zeitpunkt. Bleibt der Schlüssel
+ * über einen Neustart erhalten (Schlüsseldatei), erkennt der Server auch die Tokens seines Vorgängers:
+ * wer sich damit innerhalb der Karenzzeit nach dem Start anmeldet, betritt Chat und Räume ohne Hinweis an die anderen.
+ * Ein Token gilt dafür nur bis zu seinem Höchstalter; ein gestohlenes altes Token öffnet also nach einem Neustart keine Sitzung.
+ * Wer länger angemeldet war, meldet sich nach dem Neustart wie neu an.
+ */
+class SessionRegistry implements Closeable {
+    private static final int KEY_LENGTH = 32;
+    private static final int MAC_LENGTH = 16; // Gekürzter HMAC-SHA256
+    private static final String ALGORITHM = "HmacSHA256";
+
+    // Ergebnis einer Übernahme: die bisherige Verbindung und das neue Token
+    record Takeover(ClientConnection previous, String token) {
+    }
+
+    private static final class Session {
+        String token;
+        ClientConnection client; // Aktuelle Verbindung; nach einem Abbruch die alte, bis die Sitzung übernommen wird oder abläuft
+        ScheduledFuture<?> expiry; // Geplantes Abmelden nach einem Abbruch, sonst null
+    }
+
+    private final ChatServer server;
+    private final long graceMillis;
+    private final long maxAgeMillis; // Höchstalter eines Tokens für restore
+    private final SecretKeySpec key;
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Session> sessions = new HashMap<>(); // Je Name
+    private final Set<ClientConnection> restored = ConcurrentHashMap.newKeySet(); // Nach einem Neustart still angemeldet
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastIssuedAt; // Zeitpunkt des zuletzt ausgestellten Tokens (nur unter lock)
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param graceMillis Karenzzeit in Millisekunden (0 = keine Sitzungen)
+     * @param maxAgeMillis Höchstalter eines Tokens aus einem früheren Lauf in Millisekunden
+     * @param keyFile Datei mit dem Schlüssel; fehlt sie, wird sie angelegt. null = neuer Schlüssel nur für diesen Lauf
+     */
+    SessionRegistry(ChatServer server, long graceMillis, long maxAgeMillis, Path keyFile) throws IOException {
+        this.server = server;
+        this.graceMillis = graceMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.key = new SecretKeySpec(loadKey(keyFile), ALGORITHM);
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chatty-sessions").daemon().factory());
+        if (graceMillis > 0) {
+            timer.schedule(restored::clear, graceMillis, TimeUnit.MILLISECONDS); // Danach sind Raumwechsel wieder sichtbar
+        }
+    }
+
+    private static byte[] loadKey(Path keyFile) throws IOException {
+        if (keyFile != null && Files.exists(keyFile)) {
+            byte[] key = Files.readAllBytes(keyFile);
+            if (key.length < KEY_LENGTH) {
+                throw new IOException("Ungültiger Sitzungsschlüssel in " + keyFile);
+            }
+            return key;
+        }
+        byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        if (keyFile != null) {
+            Path parent = keyFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = Files.createTempFile(parent, "chatty-session", ".part");
+            try {
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Kein POSIX-Dateisystem (z. B. Windows): die Datei behält die Standardrechte
+            }
+            Files.write(temporary, key);
+            Files.move(temporary, keyFile);
+        }
+        return key;
+    }
+
+    boolean isEnabled() {
+        return graceMillis > 0;
+    }
+
+    // Beginnt eine neue Sitzung für einen gerade angemeldeten Client und liefert ihr Token
+    String open(String name, ClientConnection client) {
+        lock.lock();
+        try {
+            Session session = new Session();
+            session.token = issue(name);
+            session.client = client;
+            sessions.put(name, session);
+            return session.token;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Übernimmt die Sitzung eines Namens für eine neue Verbindung, falls das Token zu ihr passt.
+     * Die bisherige Verbindung kann schon getrennt sein oder (halb offen) noch bestehen.
+     * @return Die bisherige Verbindung mit einem neuen Token oder null, wenn es keine passende Sitzung gibt
+     */
+    Takeover resume(String name, String token, ClientConnection client) {
+        lock.lock();
+        try {
+            Session session = sessions.get(name);
+            if (session == null || !MessageDigest.isEqual(session.token.getBytes(StandardCharsets.US_ASCII),
+                    token.getBytes(StandardCharsets.US_ASCII))) {
+                return null;
+            }
+            if (session.expiry != null) {
+                session.expiry.cancel(false);
+                session.expiry = null;
+            }
+            ClientConnection previous = session.client;
+            session.client = client;
+            session.token = issue(name);
+            return new Takeover(previous, session.token);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prüft, ob ein Token von einem früheren Lauf dieses Servers stammt, der Start höchstens die Karenzzeit
+     * und die Ausstellung höchstens das Höchstalter zurückliegt.
+     * Dann wird der Client als still angemeldet vermerkt (siehe isQuiet).
+     */
+    boolean restore(String name, String token, ClientConnection client) {
+        long now = System.currentTimeMillis();
+        if (now - startedAt > graceMillis) {
+            return false;
+        }
+        byte[] decoded;
+        try {
+            decoded = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (decoded.length != Long.BYTES + MAC_LENGTH) {
+            return false;
+        }
+        long issuedAt = ByteBuffer.wrap(decoded).getLong();
+        if (issuedAt >= startedAt || now - issuedAt > maxAgeMillis
+                || !MessageDigest.isEqual(mac(name, issuedAt), Arrays.copyOfRange(decoded, Long.BYTES, decoded.length))) {
+            return false;
+        }
+        restored.add(client);
+        return true;
+    }
+
+    // true, solange ein nach dem Neustart still angemeldeter Client seine Räume ohne Hinweis wieder betritt
+    boolean isQuiet(ClientConnection client) {
+        return restored.contains(client);
+    }
+
+    /**
+     * Wird aufgerufen, wenn die Verbindung eines angemeldeten Clients beendet ist.
+     * @return true, wenn der Client (noch) nicht abgemeldet werden soll: er bleibt für die Karenzzeit angemeldet
+     *         oder seine Sitzung wurde bereits von einer neuen Verbindung übernommen
+     */
+    boolean detach(ClientConnection client) {
+        restored.remove(client);
+        lock.lock();
+        try {
+            Session session = sessions.get(client.getName());
+            if (session == null) {
+                return false;
+            }
+            if (session.client != client) {
+                return true;
+            }
+            session.expiry = timer.schedule(() -> expire(session, client), graceMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Beendet die Sitzung eines Clients, der sich ausdrücklich abmeldet; er wird danach sofort abgemeldet
+    void end(ClientConnection client) {
+        lock.lock();
+        try {
+            Session session = sessions.get(client.getName());
+            if (session != null && session.client == client) {
+                sessions.remove(client.getName());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(Session session, ClientConnection client) {
+        lock.lock();
+        try {
+            if (session.client != client || !sessions.remove(client.getName(), session)) {
+                return; // Inzwischen übernommen
+            }
+        } finally {
+            lock.unlock();
+        }
+        server.sessionExpired(client);
+    }
+
+    // Token: Zeitpunkt der Ausstellung (8 Bytes) und HMAC über Namen und Zeitpunkt, Base64 (URL-sicher, ohne ';').
+    // Die Zeitpunkte steigen streng, sonst erhielte eine Übernahme in derselben Millisekunde das bisherige Token zurück.
+    // Nur unter lock aufrufen.
+    private String issue(String name) {
+        long issuedAt = Math.max(System.currentTimeMillis(), lastIssuedAt + 1);
+        lastIssuedAt = issuedAt;
+        ByteBuffer token = ByteBuffer.allocate(Long.BYTES + MAC_LENGTH);
+        token.putLong(issuedAt).put(mac(name, issuedAt));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    private byte[] mac(String name, long issuedAt) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(name.getBytes(StandardCharsets.UTF_8));
+            mac.update(ByteBuffer.allocate(Long.BYTES).putLong(issuedAt).array());
+            return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e); // HmacSHA256 gibt es in jeder Java-Laufzeit
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,45 @@
+package org.cool.chatty.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-Bucket ohne Sperre, umgesetzt als "Generic Cell Rate Algorithm": statt eines Füllstands wird nur der
+ * Zeitpunkt gespeichert, zu dem der Eimer wieder voll wäre (theoretische Ankunftszeit), und mit einem CAS fortgeschrieben.
+ * Anfragen werden nie abgelehnt, sondern immer verbucht; wer über dem Limit liegt, erhält die Zeit,
+ * die er warten muss, bevor er weiterliest. Auch eine Anfrage größer als der Eimer (z. B. ein großes Bild) geht also durch.
+ */
+final class TokenBucket {
+    private final long rate; // Tokens pro Sekunde
+    private final long toleranceNanos; // So weit darf die theoretische Ankunftszeit vorauslaufen (Größe des Eimers)
+    private final AtomicLong tat; // Theoretische Ankunftszeit (System.nanoTime)
+
+    /**
+     * @param rate Tokens pro Sekunde
+     * @param burst Größe des Eimers: so viele Tokens dürfen ohne Wartezeit auf einmal verbraucht werden
+     */
+    TokenBucket(long rate, long burst) {
+        this.rate = Math.max(1, rate);
+        this.toleranceNanos = nanos(Math.max(1, burst));
+        this.tat = new AtomicLong(System.nanoTime()); // Der Eimer ist anfangs voll
+    }
+
+    /**
+     * Verbraucht tokens.
+     * @return Wartezeit in Nanosekunden, bis der Eimer wieder im Limit ist (0 = keine)
+     */
+    long acquire(long tokens) {
+        long increment = nanos(tokens);
+        while (true) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long next = (current - now > 0 ? current : now) + increment;
+            if (tat.compareAndSet(current, next)) {
+                return Math.max(0, next - now - toleranceNanos);
+            }
+        }
+    }
+
+    private long nanos(long tokens) {
+        return tokens * 1_000_000_000L / rate;
+    }
+}
@@ -0,0 +1,157 @@
+package org.cool.chatty.tools;
+
+import org.cool.chatty.client.ChatConnection;
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.server.ChatServer;
+import org.cool.chatty.server.ServerConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Misst den Durchsatz eines Clusters auf localhost mit 1 bis N Knoten.
+ * Jeder Knoten erhält gleich viele Clients, jeder Client sendet gleich viele Nachrichten an alle;
+ * gemessen wird, wie schnell alle Nachrichten bei allen Clients ankommen.
+ *
+ * Aufruf: ClusterBenchmark [Knoten] [Clients je Knoten] [Nachrichten je Client] [erster Port]
+ * Alle Knoten laufen in diesem Prozess und teilen sich die CPU; getrennte Prozesse oder Rechner
+ * (-Dchatty.cluster.port / -Dchatty.cluster.peers am ChatServer) skalieren entsprechend besser.
+ */
+public class ClusterBenchmark {
+    private static final long TIMEOUT_SECONDS = 120;
+
+    public static void main(String[] args) throws Exception {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int clientsPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int messagesPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int basePort = args.length > 3 ? Integer.parseInt(args[3]) : 7100;
+
+        System.out.println("Knoten  Clients  gesendet/s  zugestellt/s  Dauer (ms)");
+        for (int nodes = 1; nodes <= maxNodes; nodes++) {
+            run(nodes, clientsPerNode, messagesPerClient, basePort + nodes * 20);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int nodes, int clientsPerNode, int messagesPerClient, int basePort) throws Exception {
+        List<ChatServer> servers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            ServerConfig config = new ServerConfig();
+            config.setEngine(ServerConfig.Engine.NIO);
+            config.setLogEnabled(false);
+            config.disableRateLimits(); // Gemessen wird der Cluster, nicht die Grenzen je Client
+            config.setServerLogFile(null);
+            config.setServerLogConsole(false);
+            config.setOutboundCapacity(Math.max(config.getOutboundCapacity(), messagesPerClient * clientsPerNode * nodes));
+            config.setClusterPort(clusterPort(basePort, i));
+            config.setClusterNodeId("node-" + i);
+            config.setClusterSecret("benchmark");
+            List<String> peers = new ArrayList<>();
+            for (int j = 0; j < nodes; j++) {
+                if (j != i) {
+                    peers.add("127.0.0.1:" + clusterPort(basePort, j));
+                }
+            }
+            config.setClusterPeers(peers);
+            ChatServer server = new ChatServer("127.0.0.1", chatPort(basePort, i), config);
+            Thread.ofPlatform().name("benchmark-node-" + i).daemon().start(server::start);
+            servers.add(server);
+        }
+        Thread.sleep(500); // Die Knoten öffnen ihre Ports und verbinden sich
+
+        int clients = nodes * clientsPerNode;
+        long expected = (long) clients * clients * messagesPerClient;
+        LongAdder delivered = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(clients); // Alle Clients sehen die vollständige Teilnehmerliste
+        CountDownLatch done = new CountDownLatch(clients);
+        List<ChatConnection> connections = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            ChatConnection connection = new ChatConnection("127.0.0.1", chatPort(basePort, c % nodes));
+            connection.connect("bench-" + c, true);
+            connections.add(connection);
+            Thread.ofPlatform().daemon().start(() -> receive(connection, clients, messagesPerClient, delivered, ready, done));
+        }
+        if (!ready.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.println(nodes + ": Cluster nicht vollständig verbunden, übersprungen.");
+            shutdown(servers, connections);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (ChatConnection connection : connections) {
+            senders.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int m = 0; m < messagesPerClient; m++) {
+                        connection.send(ChatMessage.text("", "Nachricht " + m));
+                    }
+                } catch (IOException e) {
+                    System.err.println("Senden fehlgeschlagen: " + e.getMessage());
+                }
+            }));
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        boolean complete = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%6d  %7d  %10.0f  %12.0f  %10.0f%s%n", nodes, clients,
+                clients * messagesPerClient / seconds, delivered.sum() / seconds, seconds * 1000,
+                complete ? "" : "  (unvollständig: " + delivered.sum() + " von " + expected + ")");
+        shutdown(servers, connections);
+    }
+
+    // Zählt die empfangenen Chat-Nachrichten eines Clients
+    private static void receive(ChatConnection connection, int clients, int messagesPerClient,
+                                LongAdder delivered, CountDownLatch ready, CountDownLatch done) {
+        Set<String> participants = new HashSet<>();
+        boolean isReady = false;
+        long received = 0;
+        try {
+            ChatMessage message;
+            while ((message = connection.read()) != null) {
+                if (message.getType() == MessageType.TEXT) {
+                    delivered.increment();
+                    if (++received == (long) clients * messagesPerClient) {
+                        done.countDown();
+                    }
+                } else if (message.getType() == MessageType.PRESENCE && !isReady) {
+                    Presence.Update update = Presence.parse(message);
+                    if (update != null) {
+                        participants.addAll(update.joined());
+                        update.left().forEach(participants::remove);
+                        if (participants.size() == clients) {
+                            isReady = true;
+                            ready.countDown();
+                        }
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // Verbindung beim Aufräumen geschlossen
+        }
+    }
+
+    private static void shutdown(List<ChatServer> servers, List<ChatConnection> connections) throws IOException {
+        for (ChatConnection connection : connections) {
+            connection.close();
+        }
+        servers.forEach(ChatServer::stop);
+    }
+
+    private static int chatPort(int basePort, int node) {
+        return basePort + node;
+    }
+
+    private static int clusterPort(int basePort, int node) {
+        return basePort + 10 + node;
+    }
+}
@@ -0,0 +1,297 @@
+package org.cool.chatty.tools;
+
+import org.cool.chatty.client.ChatConnection;
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.server.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lastgenerator ohne Oberfläche: öffnet viele simulierte Clients gegen einen laufenden ChatServer,
+ * die über das echte Protokoll (CONNECT:, Textzeilen, IMAGE: bzw. Frames mit --binary) Nachrichten senden.
+ * Jede Nachricht trägt ihren Sendezeitpunkt; jeder Client misst beim Empfang die Latenz.
+ * Am Ende stehen Aufbauzeit der Verbindungen, Durchsatz und Latenzverteilung (p50 bis p99.9).
+ * Mit --max-p99 bzw. --max-p999 endet das Programm mit Exit-Code 1, wenn die Latenz darüber liegt,
+ * und eignet sich so als Regressionstest für die Leistung des Servers.
+ *
+ * Aufruf: LoadGenerator [--option=Wert ...], z. B.
+ * LoadGenerator --port=1234 --clients=2000 --senders=200 --rate=500 --duration=30 --image-ratio=0.05
+ *
+ * Optionen (Standardwert in Klammern):
+ *   --host (127.0.0.1), --port (1234)
+ *   --clients (1000)       Anzahl der verbundenen Clients, jeder empfängt alle Nachrichten
+ *   --senders (100)        Davon senden so viele
+ *   --rate (100)           Nachrichten pro Sekunde über alle Sender zusammen
+ *   --duration (30)        Dauer der Messung in Sekunden
+ *   --warmup (5)           Sekunden Last vor der Messung, nicht mitgezählt
+ *   --size (64)            Länge einer Textnachricht in Bytes
+ *   --image-ratio (0)      Anteil der Bilder an den Nachrichten (0 bis 1)
+ *   --image-size (16384)   Größe eines Bildes in Bytes
+ *   --binary (false)       Binärprotokoll statt Textprotokoll
+ *   --connect-parallelism (50)  Gleichzeitige Verbindungsaufbauten
+ *   --max-p99, --max-p999  Grenzwerte in Millisekunden
+ */
+public class LoadGenerator {
+    private static final String MARKER = "LG "; // Beginn jeder Textnachricht des Lastgenerators
+    private static final long IMAGE_MAGIC = 0x4C4F414447454E31L; // Erste 8 Bytes jedes Bildes ("LOADGEN1")
+
+    // Ein simulierter Client; der Name wird für Bilder im Textprotokoll gebraucht
+    private record Client(String name, ChatConnection connection) {
+    }
+
+    private final Map<String, String> options;
+    private final LatencyHistogram latency = new LatencyHistogram(); // Nanosekunden vom Senden bis zum Empfang
+    private final LatencyHistogram setup = new LatencyHistogram(); // Nanosekunden vom Verbindungsaufbau bis zur ersten Nachricht
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong failedConnections = new AtomicLong();
+    // Nur in der Messphase gesendete Nachrichten zählen, auch wenn sie erst danach ankommen (System.nanoTime)
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile long measureEnd = Long.MAX_VALUE;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.err.println("Unbekanntes Argument: " + arg);
+                System.exit(2);
+            }
+            int equals = arg.indexOf('=');
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals), equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+        System.exit(new LoadGenerator(options).run());
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int run() throws InterruptedException {
+        String host = option("host", "127.0.0.1");
+        int port = Integer.parseInt(option("port", "1234"));
+        int clients = Integer.parseInt(option("clients", "1000"));
+        int senders = Math.min(clients, Integer.parseInt(option("senders", "100")));
+        double rate = Double.parseDouble(option("rate", "100"));
+        int duration = Integer.parseInt(option("duration", "30"));
+        int warmup = Integer.parseInt(option("warmup", "5"));
+        int size = Integer.parseInt(option("size", "64"));
+        double imageRatio = Double.parseDouble(option("image-ratio", "0"));
+        int imageSize = Math.max(16, Integer.parseInt(option("image-size", "16384")));
+        boolean binary = Boolean.parseBoolean(option("binary", "false"));
+        int parallelism = Integer.parseInt(option("connect-parallelism", "50"));
+
+        // Verbindungen aufbauen; jeder Client liest in einem eigenen virtuellen Thread
+        System.out.printf("Verbinde %d Clients mit %s:%d (%s)...%n", clients, host, port, binary ? "binär" : "Text");
+        String run = Long.toString(System.currentTimeMillis() % 100000, 36);
+        List<Client> connections = Collections.synchronizedList(new ArrayList<>());
+        Semaphore connecting = new Semaphore(parallelism);
+        CountDownLatch connected = new CountDownLatch(clients);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            connecting.acquire();
+            String name = "lg-" + run + "-" + i;
+            Thread.ofVirtual().start(() -> {
+                long start = System.nanoTime();
+                try {
+                    ChatConnection connection = new ChatConnection(host, port);
+                    connection.connect(name, binary);
+                    connections.add(new Client(name, connection));
+                    receive(connection, start, connecting, connected);
+                } catch (IOException e) {
+                    failedConnections.incrementAndGet();
+                    connecting.release();
+                    connected.countDown();
+                }
+            });
+        }
+        connected.await();
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+        System.out.printf("%d Clients in %.1f s verbunden, %d fehlgeschlagen.%n",
+                connections.size(), connectSeconds, failedConnections.get());
+
+        // Sender: jeder hält sein Intervall selbst ein, zusammen ergibt das die gewünschte Rate
+        List<Client> senderClients = List.copyOf(connections.subList(0, Math.min(senders, connections.size())));
+        long interval = senderClients.isEmpty() ? 0 : (long) (senderClients.size() * 1e9 / rate);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup + duration);
+        List<Thread> threads = new ArrayList<>();
+        for (Client client : senderClients) {
+            threads.add(Thread.ofVirtual().start(() -> send(client, interval, end, size, imageRatio, imageSize)));
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        measureStart = System.nanoTime();
+        long lastSent = 0;
+        long lastReceived = 0;
+        for (int second = 1; second <= duration; second++) {
+            Thread.sleep(1000);
+            if (second % 5 == 0 || second == duration) {
+                long s = sent.get();
+                long r = received.get();
+                System.out.printf("%3d s: %d gesendet, %d empfangen (%.0f/s)%n", second, s - lastSent, r - lastReceived,
+                        (r - lastReceived) / (second % 5 == 0 ? 5.0 : second % 5));
+                lastSent = s;
+                lastReceived = r;
+            }
+        }
+        measureEnd = System.nanoTime();
+        double seconds = (measureEnd - measureStart) / 1e9;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Thread.sleep(1000); // Nachzügler empfangen
+        for (Client client : connections) {
+            try {
+                client.connection().close();
+            } catch (IOException ignored) {
+            }
+        }
+        return report(connections.size(), seconds);
+    }
+
+    // Empfängt alle Nachrichten eines Clients; die erste gilt als Ende des Verbindungsaufbaus
+    private void receive(ChatConnection connection, long start, Semaphore connecting, CountDownLatch connected) {
+        boolean first = true;
+        try {
+            ChatMessage message;
+            while ((message = connection.read()) != null) {
+                long now = System.nanoTime();
+                if (first) {
+                    first = false;
+                    setup.record(now - start);
+                    connecting.release();
+                    connected.countDown();
+                }
+                long sentAt = sentAt(message);
+                if (sentAt != 0 && inMeasurement(sentAt)) {
+                    latency.record(now - sentAt);
+                    received.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            // Verbindung beendet
+        } finally {
+            if (first) {
+                failedConnections.incrementAndGet();
+                connecting.release();
+                connected.countDown();
+            }
+        }
+    }
+
+    private boolean inMeasurement(long sentAt) {
+        return sentAt >= measureStart && sentAt < measureEnd;
+    }
+
+    // Sendezeitpunkt einer Nachricht des Lastgenerators, sonst 0
+    private static long sentAt(ChatMessage message) {
+        if (message.getType() == MessageType.TEXT) {
+            String text = message.text();
+            if (text.startsWith(MARKER)) {
+                int space = text.indexOf(' ', MARKER.length());
+                try {
+                    return Long.parseLong(text.substring(MARKER.length(), space < 0 ? text.length() : space));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        } else if (message.getType() == MessageType.IMAGE && message.getPayload().length >= 16) {
+            ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+            if (payload.getLong() == IMAGE_MAGIC) {
+                return payload.getLong();
+            }
+        }
+        return 0;
+    }
+
+    private void send(Client client, long interval, long end, int size, double imageRatio, int imageSize) {
+        // Zufälliger Versatz, damit nicht alle Sender gleichzeitig beginnen
+        long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+        try {
+            while (next < end) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long now = System.nanoTime();
+                if (ThreadLocalRandom.current().nextDouble() < imageRatio) {
+                    byte[] image = new byte[imageSize];
+                    ThreadLocalRandom.current().nextBytes(image);
+                    ByteBuffer.wrap(image).putLong(IMAGE_MAGIC).putLong(now);
+                    client.connection().send(ChatMessage.image(client.name(), image));
+                } else {
+                    client.connection().send(ChatMessage.text(client.name(), text(now, size)));
+                }
+                if (inMeasurement(now)) {
+                    sent.incrementAndGet();
+                }
+                next += interval;
+            }
+        } catch (IOException e) {
+            System.err.println("Senden fehlgeschlagen: " + e.getMessage());
+        }
+    }
+
+    private static String text(long sentAt, int size) {
+        StringBuilder text = new StringBuilder(size).append(MARKER).append(sentAt).append(' ');
+        while (text.length() < size) {
+            text.append((char) ('a' + text.length() % 26));
+        }
+        return text.toString();
+    }
+
+    private int report(int clients, double seconds) {
+        long expected = sent.get() * clients;
+        System.out.println();
+        System.out.printf("Verbindungsaufbau:  p50 %s  p99 %s  max %s%n",
+                millis(setup.percentile(50)), millis(setup.percentile(99)), millis(setup.max()));
+        System.out.printf("Gesendet:           %d (%.0f/s)%n", sent.get(), sent.get() / seconds);
+        System.out.printf("Empfangen:          %d von %d erwarteten (%.0f/s, %.2f %%)%n", received.get(), expected,
+                received.get() / seconds, expected == 0 ? 100.0 : 100.0 * received.get() / expected);
+        System.out.printf("Latenz:             p50 %s  p90 %s  p99 %s  p99.9 %s  max %s  Mittel %s%n",
+                millis(latency.percentile(50)), millis(latency.percentile(90)), millis(latency.percentile(99)),
+                millis(latency.percentile(99.9)), millis(latency.max()), millis((long) latency.mean()));
+
+        int result = 0;
+        if (failedConnections.get() > 0) {
+            System.out.println("FEHLER: " + failedConnections.get() + " Verbindungen fehlgeschlagen.");
+            result = 1;
+        }
+        result |= gate("max-p99", 99);
+        result |= gate("max-p999", 99.9);
+        return result;
+    }
+
+    // Prüft einen Grenzwert in Millisekunden, falls angegeben
+    private int gate(String option, double percentile) {
+        String limit = options.get(option);
+        if (limit == null) {
+            return 0;
+        }
+        long value = latency.percentile(percentile);
+        if (value > Double.parseDouble(limit) * 1_000_000) {
+            System.out.println("FEHLER: p" + percentile + " " + millis(value) + " über dem Grenzwert " + limit + " ms.");
+            return 1;
+        }
+        return 0;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,173 @@
+package org.cool.chatty.tools;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.server.BrokerMessageBus;
+import org.cool.chatty.server.LocalMessageBus;
+import org.cool.chatty.server.MessageBroker;
+import org.cool.chatty.server.MessageBus;
+import org.cool.chatty.server.ServerConfig;
+import org.cool.chatty.server.ServerLog;
+import org.cool.chatty.server.ServerStats;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Misst Durchsatz und Latenz jeder MessageBus-Implementierung, damit ein Backend nach Messwerten ausgewählt werden kann.
+ * Den Vertrag aus MessageBus prüft MessageBusContractTest; hier wird nur gemessen.
+ *
+ * Gemessen wird jeweils vom veröffentlichenden Bus zu einem zweiten Bus (beim LocalMessageBus derselbe):
+ * - Durchsatz in Nachrichten pro Sekunde
+ * - 50. und 99. Perzentil der Latenz einzelner Nachrichten
+ *
+ * Aufruf: MessageBusBenchmark [local] [broker]  (ohne Argument beide)
+ */
+public class MessageBusBenchmark {
+    private static final int THROUGHPUT_MESSAGES = 200_000;
+    private static final int LATENCY_WARMUP = 1_000;
+    private static final int LATENCY_SAMPLES = 5_000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    // Zwei Busse desselben Backends: auf dem ersten wird veröffentlicht, der zweite empfängt "von außen"
+    private interface Fixture extends AutoCloseable {
+        MessageBus publisher();
+
+        MessageBus receiver();
+
+        @Override
+        void close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> backends = args.length > 0 ? Arrays.asList(args) : List.of("local", "broker");
+        for (String backend : backends) {
+            System.out.println("== " + backend);
+            switch (backend) {
+                case "local" -> measure(MessageBusBenchmark::local);
+                case "broker" -> measure(MessageBusBenchmark::broker);
+                default -> System.out.println("Unbekanntes Backend: " + backend);
+            }
+        }
+    }
+
+    private interface FixtureFactory {
+        Fixture create() throws IOException, InterruptedException;
+    }
+
+    private static Fixture local() {
+        LocalMessageBus bus = new LocalMessageBus();
+        return new Fixture() {
+            public MessageBus publisher() {
+                return bus;
+            }
+
+            public MessageBus receiver() {
+                return bus;
+            }
+
+            public void close() {
+                bus.close();
+            }
+        };
+    }
+
+    private static Fixture broker() throws IOException, InterruptedException {
+        ServerStats stats = new ServerStats();
+        ServerConfig config = new ServerConfig();
+        config.setServerLogFile(null); // Nur auf der Konsole
+        ServerLog log = config.createServerLog(stats);
+        MessageBroker broker = new MessageBroker(InetAddress.getLoopbackAddress(), 0, THROUGHPUT_MESSAGES, log);
+        broker.start();
+        BrokerMessageBus publisher = new BrokerMessageBus("127.0.0.1", broker.getPort(), THROUGHPUT_MESSAGES, stats, log);
+        BrokerMessageBus receiver = new BrokerMessageBus("127.0.0.1", broker.getPort(), THROUGHPUT_MESSAGES, stats, log);
+        publisher.start();
+        receiver.start();
+        if (!publisher.awaitConnected(5000) || !receiver.awaitConnected(5000)) {
+            throw new IOException("Keine Verbindung zum Broker");
+        }
+        Thread.sleep(100); // Der Broker nimmt die Verbindungen nach dem HELLO in seine Liste auf
+        return new Fixture() {
+            public MessageBus publisher() {
+                return publisher;
+            }
+
+            public MessageBus receiver() {
+                return receiver;
+            }
+
+            public void close() {
+                publisher.close();
+                receiver.close();
+                broker.close();
+                log.close();
+            }
+        };
+    }
+
+    private static void measure(FixtureFactory factory) throws Exception {
+        try (Fixture fixture = factory.create()) {
+            measureThroughput(fixture);
+        }
+        try (Fixture fixture = factory.create()) {
+            measureLatency(fixture);
+        }
+    }
+
+    private static void measureThroughput(Fixture fixture) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong received = new AtomicLong();
+        fixture.receiver().subscribe(message -> {
+            if (received.incrementAndGet() == THROUGHPUT_MESSAGES) {
+                done.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        for (int i = 1; i <= THROUGHPUT_MESSAGES; i++) {
+            fixture.publisher().publish(message(i));
+        }
+        boolean complete = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long throughput = (long) (received.get() / seconds);
+        System.out.printf("  Durchsatz  %d Nachrichten/s (%d von %d)%s%n", throughput, received.get(), THROUGHPUT_MESSAGES,
+                complete ? "" : ", Zeitüberschreitung");
+    }
+
+    // Einzelne Nachrichten: Zeit vom Veröffentlichen bis zur Zustellung beim anderen Bus
+    private static void measureLatency(Fixture fixture) throws InterruptedException {
+        AtomicLong lastReceived = new AtomicLong();
+        long[] latencies = new long[LATENCY_SAMPLES];
+        fixture.receiver().subscribe(message -> {
+            long sequence = message.getSequence();
+            if (sequence > LATENCY_WARMUP) {
+                latencies[(int) (sequence - LATENCY_WARMUP - 1)] = System.nanoTime() - message.getTimestamp();
+            }
+            lastReceived.set(sequence);
+        });
+        boolean complete = true;
+        for (int i = 1; i <= LATENCY_WARMUP + LATENCY_SAMPLES && complete; i++) {
+            fixture.publisher().publish(new ChatMessage(MessageType.TEXT, "check", "", null, i, System.nanoTime()));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (lastReceived.get() < i) {
+                if (System.nanoTime() > deadline) {
+                    complete = false;
+                    break;
+                }
+                Thread.onSpinWait();
+            }
+        }
+        Arrays.sort(latencies);
+        long p50 = latencies[LATENCY_SAMPLES / 2] / 1000;
+        long p99 = latencies[LATENCY_SAMPLES * 99 / 100] / 1000;
+        System.out.printf("  Latenz     p50 %d µs, p99 %d µs%s%n", p50, p99, complete ? "" : ", Zeitüberschreitung");
+    }
+
+    private static ChatMessage message(long sequence) {
+        return new ChatMessage(MessageType.TEXT, "check", "", null, sequence, 0);
+    }
+}
@@ -0,0 +1,119 @@
+package org.cool.chatty.client;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageStoreTest {
+    private static final int CAPACITY = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private Path file() {
+        return directory.resolve("server.store");
+    }
+
+    private static ChatMessage text(long sequence, String room) {
+        return ChatMessage.text("alice", "Nachricht " + sequence).withRoom(room).withSequence(sequence, 1000 + sequence);
+    }
+
+    private static List<Long> sequences(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getSequence).toList();
+    }
+
+    private static List<Long> range(long first, long last) {
+        return LongStream.rangeClosed(first, last).boxed().toList();
+    }
+
+    @Test
+    void messagesSurviveReopening() throws IOException {
+        MessageStore store = new MessageStore(file(), CAPACITY);
+        for (long sequence = 1; sequence <= 10; sequence++) {
+            store.append(text(sequence, sequence % 2 == 0 ? "a" : ""));
+        }
+
+        MessageStore reopened = new MessageStore(file(), CAPACITY);
+        assertEquals(List.of(1L, 3L, 5L, 7L, 9L), sequences(reopened.recent("", 100)));
+        assertEquals(List.of(6L, 8L, 10L), sequences(reopened.recent("a", 3)));
+        ChatMessage last = reopened.recent("a", 1).get(0);
+        assertEquals("Nachricht 10", last.text());
+        assertEquals(1010, last.getTimestamp());
+    }
+
+    @Test
+    void onlyNewNumberedRoomMessagesAreStored() throws IOException {
+        MessageStore store = new MessageStore(file(), CAPACITY);
+        store.append(text(5, ""));
+        store.append(text(5, "")); // Live und aus dem Verlauf: nur einmal
+        store.append(ChatMessage.participants(List.of("alice", "bob")).withSequence(6, 1006));
+        store.append(text(4, "")); // Ältere Seite des Verlaufs nach dem Öffnen einer leeren Datei: wird gespeichert
+        assertEquals(List.of(4L, 5L), sequences(store.recent("", 100)));
+
+        MessageStore reopened = new MessageStore(file(), CAPACITY);
+        reopened.append(text(3, "")); // Älter als der Stand beim Öffnen
+        reopened.append(text(7, ""));
+        assertEquals(List.of(4L, 5L, 7L), sequences(reopened.recent("", 100)));
+    }
+
+    @Test
+    void damagedLastEntryIsDroppedWhenOpening() throws IOException {
+        MessageStore store = new MessageStore(file(), CAPACITY);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            store.append(text(sequence, ""));
+        }
+        int lastEntry = 0;
+        for (long sequence = 1; sequence < 5; sequence++) {
+            lastEntry += 8 + FrameCodec.encode(text(sequence, "")).length;
+        }
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), lastEntry + 8 + 10); // Ein Byte im Frame: falsche Prüfsumme
+        }
+
+        MessageStore reopened = new MessageStore(file(), CAPACITY);
+        assertEquals(range(1, 4), sequences(reopened.recent("", 100)));
+        reopened.append(text(6, "")); // Überschreibt den beschädigten Rest
+        assertEquals(List.of(1L, 2L, 3L, 4L, 6L), sequences(new MessageStore(file(), CAPACITY).recent("", 100)));
+    }
+
+    @Test
+    void fullStoreDropsTheOlderHalf() throws IOException {
+        int capacity = 4096;
+        int entrySize = 8 + FrameCodec.encode(text(100, "")).length;
+        int appended = 3 * capacity / entrySize; // Mehrfach voll
+        MessageStore store = new MessageStore(file(), capacity);
+        for (long sequence = 100; sequence < 100 + appended; sequence++) {
+            store.append(text(sequence, ""));
+        }
+        long newest = 100 + appended - 1;
+        List<Long> kept = sequences(store.recent("", Integer.MAX_VALUE));
+        assertTrue(kept.size() >= capacity / entrySize / 2, "Nach dem Kürzen bleibt mindestens die neuere Hälfte");
+        assertEquals(range(newest - kept.size() + 1, newest), kept);
+
+        // Die verschobenen Einträge sind auch nach dem Öffnen lesbar, dahinter liegt nichts Altes mehr
+        assertEquals(kept, sequences(new MessageStore(file(), capacity).recent("", Integer.MAX_VALUE)));
+        assertEquals(capacity, Files.size(file()));
+    }
+
+    @Test
+    void messageLargerThanHalfTheStoreIsSkipped() throws IOException {
+        MessageStore store = new MessageStore(file(), 1024);
+        store.append(text(1, ""));
+        store.append(ChatMessage.text("alice", "x".repeat(600)).withSequence(2, 1002));
+        store.append(text(3, ""));
+        assertEquals(List.of(1L, 3L), sequences(store.recent("", 100)));
+    }
+}
@@ -0,0 +1,156 @@
+package org.cool.chatty.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCodecTest {
+
+    private static ChatMessage sample() {
+        return ChatMessage.text("Jörg", "Grüße 👋").withRoom("Küche").withSequence(42, 1_700_000_000_000L);
+    }
+
+    private static void assertSame(ChatMessage expected, ChatMessage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getRoom(), actual.getRoom());
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertArrayEquals(expected.getPayload(), actual.getPayload());
+    }
+
+    @Test
+    void encodeWritesLengthOfRemainingFrame() {
+        byte[] frame = FrameCodec.encode(sample());
+        assertEquals(frame.length - 4, ByteBuffer.wrap(frame).getInt());
+    }
+
+    @Test
+    void roundTripKeepsAllFields() throws IOException {
+        ChatMessage message = sample();
+        byte[] frame = FrameCodec.encode(message);
+        assertSame(message, FrameCodec.decode(ByteBuffer.wrap(frame, 4, frame.length - 4).slice()));
+        assertSame(message, FrameCodec.read(new DataInputStream(new ByteArrayInputStream(frame))));
+    }
+
+    @Test
+    void roundTripWithEmptyFields() throws IOException {
+        ChatMessage message = new ChatMessage(MessageType.SYSTEM, "", "", null);
+        byte[] frame = FrameCodec.encode(message);
+        assertEquals(4 + 1 + 2 + 2 + 8 + 8, frame.length); // Kleinster möglicher Frame
+        assertSame(message, FrameCodec.read(new DataInputStream(new ByteArrayInputStream(frame))));
+    }
+
+    @Test
+    void tooLongSenderIsRejected() {
+        ChatMessage message = ChatMessage.text("x".repeat(0x10000), "Hallo");
+        assertThrows(IllegalArgumentException.class, () -> FrameCodec.encode(message));
+    }
+
+    @Test
+    void checkLengthRejectsTooSmallAndTooLargeFrames() throws ProtocolException {
+        FrameCodec.checkLength(21);
+        assertThrows(ProtocolException.class, () -> FrameCodec.checkLength(20));
+        assertThrows(ProtocolException.class, () -> FrameCodec.checkLength(-1));
+        assertThrows(ProtocolException.class, () -> FrameCodec.checkLength(FrameCodec.MAX_FRAME_SIZE + 1));
+        assertThrows(ProtocolException.class, () -> FrameCodec.checkLength(1025, 1024));
+    }
+
+    @Test
+    void truncatedBodyIsAProtocolError() {
+        byte[] frame = FrameCodec.encode(sample());
+        // Endet mitten in der Nummer; ein kürzerer Rest wäre nur eine kürzere Nutzlast
+        ByteBuffer body = ByteBuffer.wrap(frame, 4, 1 + 2 + 5 + 2 + 6 + 4).slice();
+        assertThrows(ProtocolException.class, () -> FrameCodec.decode(body));
+    }
+
+    @Test
+    void fieldLengthBeyondBodyIsAProtocolError() {
+        byte[] frame = FrameCodec.encode(sample());
+        frame[5] = (byte) 0xFF; // Länge des Absenders
+        frame[6] = (byte) 0xFF;
+        ByteBuffer body = ByteBuffer.wrap(frame, 4, frame.length - 4).slice();
+        assertThrows(ProtocolException.class, () -> FrameCodec.decode(body));
+    }
+
+    @Test
+    void unknownTypeIsAProtocolError() {
+        byte[] frame = FrameCodec.encode(sample());
+        frame[4] = (byte) 0x7F;
+        ByteBuffer body = ByteBuffer.wrap(frame, 4, frame.length - 4).slice();
+        assertThrows(ProtocolException.class, () -> FrameCodec.decode(body));
+    }
+
+    @Test
+    void readReturnsNullAtEndOfStreamBeforeFrame() throws IOException {
+        assertNull(FrameCodec.read(new DataInputStream(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    @Test
+    void readRejectsLargeFrameBeforeReadingIt() {
+        byte[] frame = FrameCodec.encode(ChatMessage.text("a", "x".repeat(2000)));
+        assertThrows(ProtocolException.class,
+                () -> FrameCodec.read(new DataInputStream(new ByteArrayInputStream(frame)), 1024));
+    }
+
+    @Test
+    void decoderAssemblesFramesFromSingleBytes() throws ProtocolException {
+        ChatMessage first = sample();
+        ChatMessage second = ChatMessage.image("Bob", new byte[] {1, 2, 3});
+        ByteBuffer stream = ByteBuffer.allocate(4096);
+        stream.put(FrameCodec.encode(first)).put(FrameCodec.encode(second)).flip();
+
+        List<ChatMessage> received = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder();
+        while (stream.hasRemaining()) {
+            decoder.decode(ByteBuffer.wrap(new byte[] {stream.get()}), received::add);
+        }
+        assertEquals(2, received.size());
+        assertSame(first, received.get(0));
+        assertSame(second, received.get(1));
+    }
+
+    @Test
+    void decoderDeliversSeveralFramesFromOneBuffer() throws ProtocolException {
+        ByteBuffer stream = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 5; i++) {
+            stream.put(FrameCodec.encode(ChatMessage.text("a", "Nachricht " + i)));
+        }
+        List<ChatMessage> received = new ArrayList<>();
+        new FrameDecoder().decode(stream.flip(), received::add);
+        assertEquals(5, received.size());
+        assertEquals("Nachricht 4", received.get(4).text());
+    }
+
+    @Test
+    void decoderKeepsIncompleteFrameUntilRestArrives() throws ProtocolException {
+        byte[] frame = FrameCodec.encode(sample());
+        List<ChatMessage> received = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.decode(ByteBuffer.wrap(frame, 0, 2), received::add); // Halbes Längenfeld
+        decoder.decode(ByteBuffer.wrap(frame, 2, 10), received::add);
+        assertTrue(received.isEmpty());
+        decoder.decode(ByteBuffer.wrap(frame, 12, frame.length - 12), received::add);
+        assertEquals(1, received.size());
+        assertSame(sample(), received.get(0));
+    }
+
+    @Test
+    void decoderRejectsFramesOverItsLimit() {
+        byte[] frame = FrameCodec.encode(ChatMessage.text("a", "x".repeat(2000)));
+        FrameDecoder decoder = new FrameDecoder(1024);
+        assertThrows(ProtocolException.class, () -> decoder.decode(ByteBuffer.wrap(frame, 0, 4), message -> { }));
+    }
+}
@@ -0,0 +1,126 @@
+package org.cool.chatty.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Die Zeilen müssen so bleiben, wie sie Clients mit dem ursprünglichen Textprotokoll (v1) senden und erwarten
+class TextCodecTest {
+
+    @Test
+    void textLinesOfV1Clients() {
+        assertEquals("alice: Hallo", TextCodec.encode(ChatMessage.text("alice", "Hallo")));
+        assertEquals("ohne Absender", TextCodec.encode(ChatMessage.text("", "ohne Absender")));
+
+        ChatMessage decoded = TextCodec.decode("alice: Hallo: wie geht's?");
+        assertEquals(MessageType.TEXT, decoded.getType());
+        assertEquals("alice", decoded.getSender());
+        assertEquals("Hallo: wie geht's?", decoded.text());
+    }
+
+    @Test
+    void knownSenderMayContainColon() {
+        ChatMessage decoded = TextCodec.decode("a:b: Hallo", "a:b");
+        assertEquals("a:b", decoded.getSender());
+        assertEquals("Hallo", decoded.text());
+    }
+
+    @Test
+    void lineWithoutSenderStaysUnchanged() {
+        ChatMessage decoded = TextCodec.decode("einfach nur Text");
+        assertEquals("", decoded.getSender());
+        assertEquals("einfach nur Text", decoded.text());
+    }
+
+    @Test
+    void connectAndDisconnect() {
+        assertEquals("CONNECT:alice", TextCodec.encode(new ChatMessage(MessageType.CONNECT, "alice", "", null)));
+        assertEquals("DISCONNECT:alice", TextCodec.encode(new ChatMessage(MessageType.DISCONNECT, "alice", "", null)));
+        assertEquals(MessageType.CONNECT, TextCodec.decode("CONNECT:alice").getType());
+        assertEquals("alice", TextCodec.decode("DISCONNECT:alice").getSender());
+    }
+
+    @Test
+    void systemAndParticipants() {
+        assertEquals("SYSTEM: bob hat den Chat betreten.", TextCodec.encode(ChatMessage.system("bob hat den Chat betreten.")));
+        assertEquals("bob hat den Chat betreten.", TextCodec.decode("SYSTEM: bob hat den Chat betreten.").text());
+
+        assertEquals("PARTICIPANTS: alice, bob, ", TextCodec.encode(ChatMessage.participants(List.of("alice", "bob"))));
+        assertEquals(List.of("alice", "bob"), TextCodec.decode("PARTICIPANTS: alice, bob, ").names());
+    }
+
+    @Test
+    void imagesAreBase64() {
+        byte[] image = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2};
+        String line = TextCodec.encode(ChatMessage.image("alice", image));
+        assertEquals("IMAGE:alice:iVBORwABAg==", line);
+        ChatMessage decoded = TextCodec.decode(line);
+        assertEquals(MessageType.IMAGE, decoded.getType());
+        assertEquals("alice", decoded.getSender());
+        assertArrayEquals(image, decoded.getPayload());
+    }
+
+    @Test
+    void invalidImagesAreRejected() {
+        assertNull(TextCodec.decode("IMAGE:alice:kein Base64!"));
+        assertNull(TextCodec.decode("IMAGE:alice:"));
+        assertNull(TextCodec.decode("IMAGE:ohneTrenner"));
+    }
+
+    @Test
+    void directMessages() {
+        ChatMessage decoded = TextCodec.decode("DM:bob: psst", "alice");
+        assertEquals(MessageType.DIRECT, decoded.getType());
+        assertEquals("alice", decoded.getSender());
+        assertEquals("bob", decoded.getRoom());
+        assertEquals("psst", decoded.text());
+        assertEquals("alice (privat an bob): psst", TextCodec.encode(decoded));
+        assertNull(TextCodec.decode("DM:ohne Empfänger"));
+    }
+
+    @Test
+    void historyRequests() {
+        History.Request last = History.request(TextCodec.decode("HISTORY:LAST:2"));
+        assertNotNull(last);
+        assertEquals(History.Mode.LAST, last.mode());
+        assertEquals(2, last.limit());
+        History.Request before = History.request(TextCodec.decode("HISTORY:before:50:10"));
+        assertEquals(History.Mode.BEFORE, before.mode());
+        assertEquals(50, before.value());
+        assertEquals(10, before.limit());
+        assertNull(TextCodec.decode("HISTORY:UNBEKANNT"));
+    }
+
+    @Test
+    void binaryOnlyTypesHaveNoTextForm() {
+        assertNull(TextCodec.encode(ChatMessage.rooms(List.of("Küche"))));
+        assertNull(TextCodec.encode(new ChatMessage(MessageType.JOIN, "alice", "Küche", null)));
+        assertNull(TextCodec.encode(History.end(History.Mode.LAST, 1, false)));
+    }
+
+    @Test
+    void readLineStopsAtLineEnd() throws IOException {
+        InputStream in = new ByteArrayInputStream("CONNECT:jörg;v=2\r\nREST".getBytes(StandardCharsets.UTF_8));
+        assertEquals("CONNECT:jörg;v=2", TextCodec.readLine(in));
+        assertEquals('R', in.read()); // Nichts hinter dem Zeilenende wurde verbraucht
+        assertEquals("EST", TextCodec.readLine(in));
+        assertNull(TextCodec.readLine(in));
+    }
+
+    @Test
+    void readLineRejectsTooLongLines() {
+        InputStream in = new ByteArrayInputStream("x".repeat(100).getBytes(StandardCharsets.US_ASCII));
+        assertThrows(ProtocolException.class, () -> TextCodec.readLine(in, 10));
+    }
+}
@@ -0,0 +1,202 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.client.ChatConnection;
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.FrameCodec;
+import org.cool.chatty.protocol.MessageType;
+import org.cool.chatty.protocol.Presence;
+import org.cool.chatty.protocol.TextCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Zwei Knoten im selben Prozess, über ihre Cluster-Ports auf 127.0.0.1 verbunden
+class ClusterNodeTest {
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final List<ChatServer> servers = new ArrayList<>();
+    private final List<ChatConnection> connections = new ArrayList<>();
+    private int[] chatPorts;
+    private int[] clusterPorts;
+
+    // Ein Client mit den empfangenen Nachrichten und der daraus gebildeten Teilnehmerliste
+    private static final class Client {
+        final ChatConnection connection;
+        final BlockingQueue<ChatMessage> received = new LinkedBlockingQueue<>();
+        final Set<String> participants = new HashSet<>(); // Nur im Test-Thread verwendet
+
+        Client(ChatConnection connection) {
+            this.connection = connection;
+            Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    ChatMessage message;
+                    while ((message = connection.read()) != null) {
+                        received.add(message);
+                    }
+                } catch (IOException ignored) {
+                    // Verbindung im Test geschlossen
+                }
+            });
+        }
+
+        // Wartet auf eine Nachricht, die condition erfüllt; PRESENCE-Nachrichten aktualisieren unterwegs die Teilnehmerliste
+        ChatMessage await(Predicate<ChatMessage> condition) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (true) {
+                ChatMessage message = received.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    return null;
+                }
+                if (message.getType() == MessageType.PRESENCE) {
+                    Presence.Update update = Presence.parse(message);
+                    if (update.snapshot()) {
+                        participants.clear();
+                    }
+                    participants.addAll(update.joined());
+                    update.left().forEach(participants::remove);
+                }
+                if (condition.test(message)) {
+                    return message;
+                }
+            }
+        }
+
+        void awaitParticipant(String name, boolean present) throws InterruptedException {
+            if (participants.contains(name) == present) {
+                return;
+            }
+            assertNotNull(await(message -> participants.contains(name) == present),
+                    name + (present ? " erscheint nicht" : " verschwindet nicht") + " in der Teilnehmerliste");
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @BeforeEach
+    void startNodes() throws Exception {
+        chatPorts = new int[] {freePort(), freePort()};
+        clusterPorts = new int[] {freePort(), freePort()};
+        for (int i = 0; i < 2; i++) {
+            ServerConfig config = new ServerConfig();
+            config.setEngine(ServerConfig.Engine.NIO);
+            config.setLogEnabled(false);
+            config.setSessionKeyFile(null);
+            config.setServerLogFile(null);
+            config.setServerLogConsole(false);
+            config.setMetricsJmx(false);
+            config.setClusterPort(clusterPorts[i]);
+            config.setClusterNodeId("node-" + i);
+            config.setClusterSecret("geheim");
+            config.setClusterPeers(List.of("127.0.0.1:" + clusterPorts[1 - i]));
+            ChatServer server = new ChatServer("127.0.0.1", chatPorts[i], config);
+            Thread.ofPlatform().daemon().start(server::start);
+            servers.add(server);
+        }
+    }
+
+    @AfterEach
+    void stopNodes() throws IOException {
+        for (ChatConnection connection : connections) {
+            connection.close();
+        }
+        servers.forEach(ChatServer::stop);
+    }
+
+    // Verbindet einen Client mit einem Knoten, sobald dieser seinen Port geöffnet hat
+    private Client connect(int node, String name) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                ChatConnection connection = new ChatConnection("127.0.0.1", chatPorts[node]);
+                connections.add(connection);
+                connection.connect(name, true);
+                return new Client(connection);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @Test
+    void messagesAndPresenceCrossNodes() throws Exception {
+        Client alice = connect(0, "alice");
+        Client bob = connect(1, "bob");
+
+        bob.awaitParticipant("alice", true);
+        alice.awaitParticipant("bob", true);
+
+        alice.connection.send(ChatMessage.text("", "Hallo von Knoten 0"));
+        ChatMessage text = bob.await(message -> message.getType() == MessageType.TEXT);
+        assertNotNull(text, "Die Nachricht erreicht den anderen Knoten nicht");
+        assertEquals("alice", text.getSender());
+        assertEquals("Hallo von Knoten 0", text.text());
+
+        bob.connection.send(ChatMessage.direct("", "alice", "psst"));
+        ChatMessage direct = alice.await(message -> message.getType() == MessageType.DIRECT);
+        assertNotNull(direct, "Die private Nachricht erreicht den anderen Knoten nicht");
+        assertEquals("bob", direct.getSender());
+
+        alice.connection.close();
+        bob.awaitParticipant("alice", false);
+    }
+
+    @Test
+    void peerWithoutValidProofIsRejected() throws Exception {
+        Client bob = connect(1, "bob");
+        bob.awaitParticipant("bob", true);
+
+        try (Socket socket = new Socket("127.0.0.1", clusterPorts[1])) {
+            socket.setSoTimeout((int) TIMEOUT_MILLIS);
+            InputStream in = socket.getInputStream();
+            String challenge = TextCodec.readLine(in);
+            assertNotNull(challenge);
+            OutputStream out = socket.getOutputStream();
+            out.write("CLUSTER:mallory-node;falsch\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                out.write(FrameCodec.encode(Presence.snapshot(0, List.of("mallory"))));
+                out.flush();
+            } catch (IOException ignored) {
+                // Der Knoten hat die Verbindung schon geschlossen
+            }
+            try {
+                if (in.read() != -1) {
+                    fail("Der Knoten hat die Verbindung nicht geschlossen");
+                }
+            } catch (IOException ignored) {
+                // Verbindung zurückgesetzt: ebenfalls abgelehnt
+            }
+        }
+
+        // Eine spätere Anmeldung dient als Grenze: bis dahin müsste mallory längst erschienen sein
+        connect(1, "carol");
+        bob.awaitParticipant("carol", true);
+        assertFalse(bob.participants.contains("mallory"));
+    }
+}
@@ -0,0 +1,219 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Prüft jede MessageBus-Implementierung gegen den Vertrag aus MessageBus,
+// jeweils vom veröffentlichenden Bus zu einem zweiten Bus (beim LocalMessageBus derselbe).
+// Durchsatz und Latenz werden nur grob nach unten abgesichert; die Messwerte liefert tools.MessageBusBenchmark.
+class MessageBusContractTest {
+    private static final int MESSAGES = 5_000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final long PROBE = 0; // Nummer der Nachrichten, mit denen open die Verbindung prüft
+    private static final long MIN_THROUGHPUT = 1_000; // Nachrichten pro Sekunde; gemessen werden ein Vielfaches
+    private static final long MAX_LATENCY_MILLIS = 250; // Für einzelne Nachrichten, auch auf einer ausgelasteten CI-Maschine
+    private static final int LATENCY_SAMPLES = 100;
+
+    enum Backend {
+        LOCAL, BROKER
+    }
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private MessageBus publisher;
+    private MessageBus receiver;
+
+    private void open(Backend backend) throws IOException, InterruptedException {
+        if (backend == Backend.LOCAL) {
+            publisher = receiver = track(new LocalMessageBus());
+            return;
+        }
+        ServerStats stats = new ServerStats();
+        ServerLog log = new ServerLog(ServerLog.Level.OFF, null, 0, 0, null, 0, 0, stats);
+        resources.add(log);
+        MessageBroker broker = new MessageBroker(InetAddress.getLoopbackAddress(), 0, MESSAGES, log);
+        broker.start();
+        resources.add(broker);
+        BrokerMessageBus first = track(new BrokerMessageBus("127.0.0.1", broker.getPort(), MESSAGES, stats, log));
+        BrokerMessageBus second = track(new BrokerMessageBus("127.0.0.1", broker.getPort(), MESSAGES, stats, log));
+        first.start();
+        second.start();
+        assertTrue(first.awaitConnected(TIMEOUT_MILLIS) && second.awaitConnected(TIMEOUT_MILLIS), "Keine Verbindung zum Broker");
+        // Der Broker nimmt eine Verbindung erst nach ihrem HELLO auf; eine Probe über beide Busse stellt das sicher.
+        // Noch unterwegs befindliche Proben ignorieren die Abonnenten der Tests (Nummer 0)
+        AtomicLong probes = new AtomicLong();
+        MessageBus.Subscription probe = second.subscribe(message -> probes.incrementAndGet());
+        await(() -> {
+            first.publish(message(PROBE));
+            return probes.get() > 0;
+        });
+        probe.cancel();
+        publisher = first;
+        receiver = second;
+    }
+
+    private <T extends MessageBus> T track(T bus) {
+        resources.add(bus);
+        return bus;
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        for (AutoCloseable resource : resources.reversed()) {
+            resource.close();
+        }
+    }
+
+    private static ChatMessage message(long sequence) {
+        return new ChatMessage(MessageType.TEXT, "check", "", null, sequence, 0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Consumer<ChatMessage> collector(List<Long> received) {
+        return message -> {
+            if (message.getSequence() != PROBE) {
+                received.add(message.getSequence());
+            }
+        };
+    }
+
+    private static List<Long> expected() {
+        return LongStream.rangeClosed(1, MESSAGES).boxed().toList();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void everyMessageArrivesOnceAndInOrder(Backend backend) throws Exception {
+        open(backend);
+        List<Long> own = Collections.synchronizedList(new ArrayList<>());
+        List<Long> remote = Collections.synchronizedList(new ArrayList<>());
+        publisher.subscribe(collector(own));
+        receiver.subscribe(collector(remote));
+        for (long i = 1; i <= MESSAGES; i++) {
+            publisher.publish(message(i));
+        }
+        await(() -> own.size() >= MESSAGES && remote.size() >= MESSAGES);
+        Thread.sleep(100); // Doppelte Zustellungen hätten jetzt Zeit anzukommen
+        assertEquals(expected(), List.copyOf(own));
+        assertEquals(expected(), List.copyOf(remote));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void everySubscriberReceivesEveryMessage(Backend backend) throws Exception {
+        open(backend);
+        List<Long> first = Collections.synchronizedList(new ArrayList<>());
+        List<Long> second = Collections.synchronizedList(new ArrayList<>());
+        List<Long> twice = Collections.synchronizedList(new ArrayList<>());
+        receiver.subscribe(collector(first));
+        receiver.subscribe(collector(second));
+        // Dasselbe Lambda zweimal abonniert zählt als zwei Abonnenten
+        Consumer<ChatMessage> shared = collector(twice);
+        receiver.subscribe(shared);
+        receiver.subscribe(shared);
+        for (long i = 1; i <= MESSAGES; i++) {
+            publisher.publish(message(i));
+        }
+        await(() -> first.size() >= MESSAGES && second.size() >= MESSAGES && twice.size() >= 2 * MESSAGES);
+        Thread.sleep(100);
+        assertEquals(expected(), List.copyOf(first));
+        assertEquals(expected(), List.copyOf(second));
+        assertEquals(2 * MESSAGES, twice.size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void nothingArrivesAfterCancel(Backend backend) throws Exception {
+        open(backend);
+        AtomicLong cancelled = new AtomicLong();
+        AtomicLong active = new AtomicLong();
+        MessageBus.Subscription subscription = receiver.subscribe(message -> cancelled.incrementAndGet());
+        receiver.subscribe(message -> {
+            if (message.getSequence() != PROBE) {
+                active.incrementAndGet();
+            }
+        });
+        subscription.cancel();
+        for (long i = 1; i <= 100; i++) {
+            publisher.publish(message(i));
+        }
+        await(() -> active.get() >= 100);
+        Thread.sleep(100);
+        assertEquals(100, active.get());
+        assertEquals(0, cancelled.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void throughputAndLatencyMeetCoarseBounds(Backend backend) throws Exception {
+        open(backend);
+        AtomicLong received = new AtomicLong();
+        MessageBus.Subscription counter = receiver.subscribe(message -> {
+            if (message.getSequence() != PROBE) {
+                received.incrementAndGet();
+            }
+        });
+        long start = System.nanoTime();
+        for (long i = 1; i <= MESSAGES; i++) {
+            publisher.publish(message(i));
+        }
+        await(() -> received.get() >= MESSAGES);
+        long elapsedNanos = System.nanoTime() - start;
+        assertEquals(MESSAGES, received.get());
+        long throughput = MESSAGES * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        assertTrue(throughput >= MIN_THROUGHPUT, backend + ": nur " + throughput + " Nachrichten/s");
+        counter.cancel();
+
+        // Latenz: immer nur eine Nachricht unterwegs, gemessen bis zum Abonnenten des zweiten Busses
+        BlockingQueue<ChatMessage> arrivals = new LinkedBlockingQueue<>();
+        receiver.subscribe(message -> {
+            if (message.getSequence() != PROBE) {
+                arrivals.add(message);
+            }
+        });
+        for (long i = 1; i <= LATENCY_SAMPLES; i++) {
+            long sent = System.nanoTime();
+            publisher.publish(message(MESSAGES + i));
+            ChatMessage arrived = arrivals.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+            assertNotNull(arrived, backend + ": Nachricht " + i + " nicht angekommen");
+            assertEquals(MESSAGES + i, arrived.getSequence());
+            assertTrue(latencyMillis <= MAX_LATENCY_MILLIS, backend + ": " + latencyMillis + " ms für eine Nachricht");
+        }
+    }
+
+    @Test
+    void brokerRefusesAddressesBeyondLoopback() throws IOException {
+        ServerLog log = new ServerLog(ServerLog.Level.OFF, null, 0, 0, null, 0, 0, new ServerStats());
+        resources.add(log);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageBroker(InetAddress.getByName("0.0.0.0"), 0, MESSAGES, log));
+    }
+}
@@ -0,0 +1,179 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.cool.chatty.protocol.History;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Nachricht i liegt im Raum "a", wenn i gerade ist, sonst im Standardraum; die Nummern beginnen bei 1
+class MessageHistoryTest {
+    @TempDir
+    Path directory;
+
+    private final ServerStats stats = new ServerStats();
+    private final ServerLog log = new ServerLog(ServerLog.Level.OFF, null, 0, 0, null, 0, 0, stats);
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    private static void append(MessageHistory history, int first, int last) {
+        for (int i = first; i <= last; i++) {
+            ChatMessage numbered = history.append(ChatMessage.text("alice", "m" + i).withRoom(i % 2 == 0 ? "a" : ""));
+            assertEquals(i, numbered.getSequence());
+        }
+    }
+
+    private static List<Long> sequences(MessageHistory.Page page) {
+        return page.messages().stream().map(ChatMessage::getSequence).toList();
+    }
+
+    private static MessageHistory.Page query(MessageHistory history, History.Mode mode, long value, int limit) throws IOException {
+        return query(history, mode, value, limit, "a");
+    }
+
+    private static MessageHistory.Page query(MessageHistory history, History.Mode mode, long value, int limit, String room)
+            throws IOException {
+        return history.query(room, new History.Request(mode, value, limit));
+    }
+
+    private MessageLog openLog() throws IOException {
+        return new MessageLog(directory, 1024 * 1024, 1, 1, Long.MAX_VALUE, Long.MAX_VALUE, stats, log);
+    }
+
+    @Test
+    void lastAndBeforePageBackwards() throws IOException {
+        MessageHistory history = new MessageHistory(100, Long.MAX_VALUE, null);
+        append(history, 1, 20);
+
+        MessageHistory.Page last = query(history, History.Mode.LAST, 0, 3);
+        assertEquals(List.of(16L, 18L, 20L), sequences(last));
+        assertEquals(16, last.cursor());
+        assertTrue(last.hasMore());
+
+        MessageHistory.Page before = query(history, History.Mode.BEFORE, last.cursor(), 3);
+        assertEquals(List.of(10L, 12L, 14L), sequences(before));
+        assertEquals(10, before.cursor());
+
+        MessageHistory.Page first = query(history, History.Mode.BEFORE, 4, 3);
+        assertEquals(List.of(2L), sequences(first));
+        assertFalse(first.hasMore());
+    }
+
+    @Test
+    void sinceSequencePagesForwards() throws IOException {
+        MessageHistory history = new MessageHistory(100, Long.MAX_VALUE, null);
+        append(history, 1, 20);
+
+        MessageHistory.Page page = query(history, History.Mode.SINCE_SEQUENCE, 15, 2);
+        assertEquals(List.of(16L, 18L), sequences(page));
+        assertEquals(18, page.cursor());
+        assertTrue(page.hasMore());
+
+        MessageHistory.Page rest = query(history, History.Mode.SINCE_SEQUENCE, page.cursor(), 5);
+        assertEquals(List.of(20L), sequences(rest));
+        assertEquals(20, rest.cursor());
+        assertFalse(rest.hasMore());
+    }
+
+    @Test
+    void sinceTimeReturnsMessagesFromThatTime() throws IOException {
+        MessageHistory history = new MessageHistory(100, Long.MAX_VALUE, null);
+        append(history, 1, 10);
+        long from = query(history, History.Mode.LAST, 0, 100).messages().get(2).getTimestamp(); // Zeitpunkt von Nummer 6
+        append(history, 11, 12);
+
+        MessageHistory.Page page = query(history, History.Mode.SINCE_TIME, from, 100);
+        assertTrue(sequences(page).containsAll(List.of(6L, 8L, 10L, 12L)));
+        assertTrue(page.messages().stream().allMatch(message -> message.getTimestamp() >= from));
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void withoutLogOnlyTheRingIsAvailable() throws IOException {
+        MessageHistory history = new MessageHistory(5, Long.MAX_VALUE, null);
+        append(history, 1, 20);
+
+        MessageHistory.Page last = query(history, History.Mode.LAST, 0, 10);
+        assertEquals(List.of(16L, 18L, 20L), sequences(last));
+        assertFalse(last.hasMore());
+        assertEquals(List.of(16L, 18L, 20L), sequences(query(history, History.Mode.SINCE_SEQUENCE, 0, 10)));
+    }
+
+    @Test
+    void olderPagesComeFromTheLogAfterARestart() throws IOException {
+        try (MessageLog log = openLog()) {
+            append(new MessageHistory(8, Long.MAX_VALUE, log), 1, 30);
+        }
+        try (MessageLog log = openLog()) {
+            MessageHistory history = new MessageHistory(8, Long.MAX_VALUE, log);
+            append(history, 31, 34);
+
+            // 32 und 34 aus dem Ringpuffer, der Rest aus dem Log des vorigen Laufs
+            MessageHistory.Page last = query(history, History.Mode.LAST, 0, 5);
+            assertEquals(List.of(26L, 28L, 30L, 32L, 34L), sequences(last));
+            assertEquals(26, last.cursor());
+            assertTrue(last.hasMore());
+
+            MessageHistory.Page before = query(history, History.Mode.BEFORE, last.cursor(), 2);
+            assertEquals(List.of(22L, 24L), sequences(before));
+
+            MessageHistory.Page first = query(history, History.Mode.BEFORE, 6, 10);
+            assertEquals(List.of(2L, 4L), sequences(first));
+            assertFalse(first.hasMore());
+
+            MessageHistory.Page since = query(history, History.Mode.SINCE_SEQUENCE, 27, 4);
+            assertEquals(List.of(28L, 30L, 32L, 34L), sequences(since));
+            assertEquals(34, since.cursor());
+            assertFalse(since.hasMore());
+
+            assertEquals("m28", since.messages().get(0).text());
+            assertEquals("a", since.messages().get(0).getRoom());
+        }
+    }
+
+    @Test
+    void largeMessagesDisplaceOlderEntriesFromTheRing() throws IOException {
+        MessageHistory history = new MessageHistory(100, 1024 * 1024 + 600, null);
+        append(history, 1, 4); // Je etwa 140 Bytes
+        history.append(ChatMessage.image("alice", new byte[1024 * 1024])); // 5: verdrängt 1
+        assertEquals(List.of(2L, 4L), sequences(query(history, History.Mode.LAST, 0, 10)));
+        assertEquals(List.of(3L, 5L), sequences(query(history, History.Mode.SINCE_SEQUENCE, 0, 10, "")));
+
+        history.append(ChatMessage.image("alice", new byte[1024 * 1024])); // 6: verdrängt alle übrigen
+        assertEquals(List.of(), sequences(query(history, History.Mode.LAST, 0, 10)));
+        assertEquals(List.of(6L), sequences(query(history, History.Mode.LAST, 0, 10, "")));
+    }
+
+    @Test
+    void displacedEntriesAreReadFromTheLog() throws Exception {
+        try (MessageLog log = openLog()) {
+            MessageHistory history = new MessageHistory(100, 1024 * 1024, log);
+            append(history, 1, 4);
+            history.append(ChatMessage.image("alice", new byte[1024 * 1024])); // Verdrängt 1 bis 4
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (log.read(0, 0, Integer.MAX_VALUE).size() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(List.of(2L, 4L), sequences(query(history, History.Mode.LAST, 0, 10)));
+            assertEquals(List.of(1L, 3L, 5L), sequences(query(history, History.Mode.LAST, 0, 10, "")));
+        }
+    }
+
+    @Test
+    void newestEntryStaysEvenIfItExceedsTheLimit() throws IOException {
+        MessageHistory history = new MessageHistory(100, 1, null);
+        append(history, 1, 3);
+        assertEquals(List.of(3L), sequences(query(history, History.Mode.LAST, 0, 10, "")));
+    }
+}
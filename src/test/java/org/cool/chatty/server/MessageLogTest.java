@@ -0,0 +1,171 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogTest {
+    @TempDir
+    Path directory;
+
+    private final ServerStats stats = new ServerStats();
+    private final ServerLog log = new ServerLog(ServerLog.Level.OFF, null, 0, 0, null, 0, 0, stats);
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    private MessageLog open(long segmentSize) throws IOException {
+        return new MessageLog(directory, segmentSize, 1, 1, Long.MAX_VALUE, Long.MAX_VALUE, stats, log);
+    }
+
+    // Schreibt die Einträge first..last und schließt das Log, damit alles auf der Platte ist
+    private void write(long first, long last, long segmentSize) throws IOException {
+        try (MessageLog log = open(segmentSize)) {
+            for (long sequence = first; sequence <= last; sequence++) {
+                ChatMessage message = ChatMessage.text("alice", "Nachricht " + sequence).withSequence(sequence, 1000 + sequence);
+                assertTrue(log.append(new LogEntry(sequence, 1000 + sequence, message)));
+            }
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(LogSegment.SUFFIX)).sorted().toList();
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> files = segmentFiles();
+        return files.get(files.size() - 1);
+    }
+
+    private void assertEntries(MessageLog log, long first, long last) throws IOException {
+        List<LogEntry> entries = log.read(0, 0, Integer.MAX_VALUE);
+        assertEquals(last - first + 1, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry entry = entries.get(i);
+            assertEquals(first + i, entry.sequence());
+            assertEquals(1000 + first + i, entry.timestamp());
+            assertEquals("Nachricht " + (first + i), entry.message().text());
+        }
+    }
+
+    @Test
+    void entriesSurviveReopening() throws IOException {
+        write(1, 10, 1024 * 1024);
+        try (MessageLog log = open(1024 * 1024)) {
+            assertEntries(log, 1, 10);
+            assertEquals(1, log.getFirstSequence());
+            assertEquals(11, log.getNextSequence());
+        }
+    }
+
+    @Test
+    void readsAcrossSegmentsFromSequenceAndTimestamp() throws IOException {
+        write(1, 50, 512);
+        assertTrue(segmentFiles().size() > 1);
+        try (MessageLog log = open(512)) {
+            assertEntries(log, 1, 50);
+            List<LogEntry> fromSequence = log.read(20, 0, 5);
+            assertEquals(List.of(20L, 21L, 22L, 23L, 24L), fromSequence.stream().map(LogEntry::sequence).toList());
+            List<LogEntry> fromTimestamp = log.read(0, 1045, 100);
+            assertEquals(45, fromTimestamp.get(0).sequence());
+            assertEquals(6, fromTimestamp.size());
+        }
+    }
+
+    @Test
+    void partiallyWrittenLastEntryIsTruncated() throws IOException {
+        write(1, 10, 1024 * 1024);
+        Path file = lastSegment();
+        long intact = Files.size(file);
+        write(11, 11, 1024 * 1024);
+        long complete = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete - 5); // Absturz mitten im Schreiben des letzten Eintrags
+        }
+        try (MessageLog log = open(1024 * 1024)) {
+            assertEntries(log, 1, 10);
+            assertEquals(11, log.getNextSequence());
+        }
+        assertEquals(intact, Files.size(file));
+    }
+
+    @Test
+    void corruptedLastEntryIsTruncated() throws IOException {
+        write(1, 10, 1024 * 1024);
+        Path file = lastSegment();
+        long intact = Files.size(file);
+        write(11, 11, 1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), Files.size(file) - 1); // Falsche Prüfsumme
+        }
+        try (MessageLog log = open(1024 * 1024)) {
+            assertEntries(log, 1, 10);
+        }
+        assertEquals(intact, Files.size(file));
+    }
+
+    @Test
+    void garbageAfterLastEntryIsRemovedAndAppendingContinues() throws IOException {
+        write(1, 10, 1024 * 1024);
+        Path file = lastSegment();
+        long intact = Files.size(file);
+        Files.write(file, new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+        write(11, 12, 1024 * 1024);
+        assertTrue(Files.size(file) > intact);
+        try (MessageLog log = open(1024 * 1024)) {
+            assertEntries(log, 1, 12);
+            assertEquals(13, log.getNextSequence());
+        }
+    }
+
+    @Test
+    void headerShorterThanAnEntryIsRemoved() throws IOException {
+        write(1, 3, 1024 * 1024);
+        Path file = lastSegment();
+        long intact = Files.size(file);
+        Files.write(file, new byte[] {0, 0, 0}, StandardOpenOption.APPEND); // Nicht einmal ein vollständiger Kopf
+        try (MessageLog log = open(1024 * 1024)) {
+            assertEntries(log, 1, 3);
+        }
+        assertEquals(intact, Files.size(file));
+    }
+
+    @Test
+    void unexpectedWriteFailureStopsTheLog() throws Exception {
+        try (MessageLog messageLog = open(1024 * 1024)) {
+            ChatMessage first = ChatMessage.text("alice", "Nachricht 1").withSequence(1, 1001);
+            assertTrue(messageLog.append(new LogEntry(1, 1001, first)));
+            // Ein Absender über 64 KB lässt sich nicht als Frame kodieren (IllegalArgumentException im Schreib-Thread)
+            ChatMessage broken = ChatMessage.text("x".repeat(70_000), "kaputt").withSequence(2, 1002);
+            assertTrue(messageLog.append(new LogEntry(2, 1002, broken)));
+
+            // Danach nimmt das Log nichts mehr an, statt die Warteschlange ohne Schreib-Thread zu füllen
+            long deadline = System.currentTimeMillis() + 10_000;
+            long sequence = 3;
+            while (messageLog.append(new LogEntry(sequence, 1000 + sequence, first)) && System.currentTimeMillis() < deadline) {
+                sequence++;
+                Thread.sleep(5);
+            }
+            assertFalse(messageLog.append(new LogEntry(sequence, 1000 + sequence, first)));
+            assertEquals(1, messageLog.read(0, 0, Integer.MAX_VALUE).size());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.cool.chatty.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    private final ServerStats stats = new ServerStats();
+    private final List<String> discarded = new ArrayList<>();
+
+    private OutboundQueue<String> queue(int capacity, OverflowPolicy policy) {
+        return new OutboundQueue<>(capacity, policy, stats, discarded::add);
+    }
+
+    @Test
+    void deliversInOrderUpToCapacity() {
+        OutboundQueue<String> queue = queue(3, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertTrue(queue.offer("c"));
+        assertEquals(3, queue.size());
+        assertEquals("a", queue.poll());
+        assertEquals("b", queue.poll());
+        assertEquals("c", queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void dropOldestReplacesTheOldestMessage() {
+        OutboundQueue<String> queue = queue(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer("a");
+        queue.offer("b");
+        assertTrue(queue.offer("c"));
+        assertEquals(List.of("a"), discarded);
+        assertEquals(1, stats.getDroppedMessages());
+        assertEquals(2, queue.size());
+        assertEquals("b", queue.poll());
+        assertEquals("c", queue.poll());
+    }
+
+    @Test
+    void disconnectRejectsTheNewMessage() {
+        OutboundQueue<String> queue = queue(2, OverflowPolicy.DISCONNECT);
+        queue.offer("a");
+        queue.offer("b");
+        assertFalse(queue.offer("c"));
+        assertEquals(List.of("c"), discarded);
+        assertEquals(1, stats.getDroppedMessages());
+        assertEquals(1, stats.getSlowConsumerDisconnects());
+        assertEquals("a", queue.poll()); // Die wartenden Nachrichten bleiben unverändert
+    }
+
+    @Test
+    void blockWaitsForAFreeSlot() throws InterruptedException {
+        OutboundQueue<String> queue = queue(1, OverflowPolicy.BLOCK);
+        queue.offer("a");
+        CountDownLatch offered = new CountDownLatch(1);
+        Thread sender = Thread.ofPlatform().start(() -> {
+            queue.offer("b");
+            offered.countDown();
+        });
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        assertEquals("a", queue.poll());
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        sender.join();
+        assertEquals("b", queue.poll());
+        assertEquals(1, stats.getBlockedSends());
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    void closeReleasesBlockedSenders() throws InterruptedException {
+        OutboundQueue<String> queue = new OutboundQueue<>(1, OverflowPolicy.BLOCK, stats, message -> { });
+        queue.offer("a");
+        CountDownLatch offered = new CountDownLatch(1);
+        Thread sender = Thread.ofPlatform().start(() -> {
+            queue.offer("b");
+            offered.countDown();
+        });
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        queue.close();
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        sender.join();
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void closeDiscardsWaitingAndLaterMessages() {
+        OutboundQueue<String> queue = queue(4, OverflowPolicy.DROP_OLDEST);
+        queue.offer("a");
+        queue.offer("b");
+        queue.close();
+        assertEquals(List.of("a", "b"), discarded);
+        assertTrue(queue.offer("c")); // Nach dem Schließen wird nichts mehr eingereiht, aber auch nicht getrennt
+        assertEquals(List.of("a", "b", "c"), discarded);
+        assertNull(queue.poll());
+        assertEquals(0, stats.getDroppedMessages());
+    }
+}
@@ -0,0 +1,150 @@
+package org.cool.chatty.server;
+
+import org.cool.chatty.protocol.ProtocolVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ohne ChatServer: er wird nur beim Ablauf einer Sitzung benachrichtigt, und die Tests lassen keine ablaufen
+class SessionRegistryTest {
+    private static final long GRACE = 10_000;
+    private static final long MAX_AGE = 60_000;
+
+    @TempDir
+    Path directory;
+
+    private final List<SessionRegistry> registries = new ArrayList<>();
+
+    // Eine Verbindung, die nur ihren Namen kennt
+    private static final class Connection implements ClientConnection {
+        private String name;
+
+        Connection(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public ProtocolVersion getProtocol() {
+            return ProtocolVersion.BINARY;
+        }
+
+        @Override
+        public void setProtocol(ProtocolVersion protocol) {
+        }
+
+        @Override
+        public void send(EncodedMessage message) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void closeAfterFlush() {
+        }
+    }
+
+    // Ein Lauf des Servers; alle Läufe eines Tests teilen sich die Schlüsseldatei
+    private SessionRegistry start(long graceMillis, long maxAgeMillis) throws IOException {
+        SessionRegistry registry = new SessionRegistry(null, graceMillis, maxAgeMillis, directory.resolve("session.key"));
+        registries.add(registry);
+        return registry;
+    }
+
+    @AfterEach
+    void close() {
+        registries.forEach(SessionRegistry::close);
+    }
+
+    // Stellt ein Token aus, das sicher vor dem Start des nächsten Laufs liegt
+    private String tokenFromPreviousRun(String name) throws Exception {
+        String token = start(GRACE, MAX_AGE).open(name, new Connection(name));
+        Thread.sleep(5);
+        return token;
+    }
+
+    @Test
+    void resumeWithCurrentTokenTakesOverTheSession() throws IOException {
+        SessionRegistry registry = start(GRACE, MAX_AGE);
+        Connection first = new Connection("alice");
+        String token = registry.open("alice", first);
+
+        Connection second = new Connection("alice");
+        SessionRegistry.Takeover takeover = registry.resume("alice", token, second);
+        assertNotNull(takeover);
+        assertSame(first, takeover.previous());
+        assertNotEquals(token, takeover.token());
+
+        // Das alte Token ist verbraucht, und ein Token gilt nur für seinen Namen
+        assertNull(registry.resume("alice", token, new Connection("alice")));
+        assertNull(registry.resume("bob", takeover.token(), new Connection("bob")));
+    }
+
+    @Test
+    void tokenOfThePreviousRunIsRestoredQuietly() throws Exception {
+        String token = tokenFromPreviousRun("alice");
+        SessionRegistry registry = start(GRACE, MAX_AGE);
+        Connection client = new Connection("alice");
+        assertTrue(registry.restore("alice", token, client));
+        assertTrue(registry.isQuiet(client));
+        assertFalse(registry.restore("bob", token, new Connection("bob")));
+    }
+
+    @Test
+    void tokenOlderThanTheMaximumAgeIsRejected() throws Exception {
+        String token = tokenFromPreviousRun("alice");
+        Thread.sleep(50);
+        assertFalse(start(GRACE, 20).restore("alice", token, new Connection("alice")));
+        assertTrue(start(GRACE, MAX_AGE).restore("alice", token, new Connection("alice")));
+    }
+
+    @Test
+    void noRestoreOnceTheGracePeriodAfterStartHasPassed() throws Exception {
+        String token = tokenFromPreviousRun("alice");
+        SessionRegistry registry = start(20, MAX_AGE);
+        Thread.sleep(50);
+        assertFalse(registry.restore("alice", token, new Connection("alice")));
+    }
+
+    @Test
+    void tokensOfThisRunAndForgedTokensAreNotRestored() throws Exception {
+        SessionRegistry registry = start(GRACE, MAX_AGE);
+        String current = registry.open("alice", new Connection("alice"));
+        assertFalse(registry.restore("alice", current, new Connection("alice")));
+
+        byte[] forged = Base64.getUrlDecoder().decode(tokenFromPreviousRun("alice"));
+        forged[forged.length - 1] ^= 1;
+        SessionRegistry next = start(GRACE, MAX_AGE);
+        assertFalse(next.restore("alice", Base64.getUrlEncoder().withoutPadding().encodeToString(forged), new Connection("alice")));
+        assertFalse(next.restore("alice", "kein Token", new Connection("alice")));
+    }
+}
@@ -0,0 +1,74 @@
+package org.cool.chatty.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Die Raten sind so gewählt, dass die Laufzeit des Tests die erwarteten Wartezeiten nicht merklich verändert
+class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Wartezeit in Sekunden, gerundet; genügt, weil zwischen zwei Aufrufen nur Mikrosekunden vergehen
+    private static long seconds(long nanos) {
+        return Math.round((double) nanos / SECOND);
+    }
+
+    @Test
+    void fullBucketAllowsBurstWithoutWaiting() {
+        TokenBucket bucket = new TokenBucket(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.acquire(1));
+        }
+        assertEquals(1, seconds(bucket.acquire(1)));
+        assertEquals(2, seconds(bucket.acquire(1)));
+    }
+
+    @Test
+    void requestLargerThanBucketPassesAndIsCharged() {
+        TokenBucket bucket = new TokenBucket(1, 5);
+        assertEquals(15, seconds(bucket.acquire(20)));
+        assertEquals(16, seconds(bucket.acquire(1)));
+    }
+
+    @Test
+    void bucketRefillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        assertEquals(0, bucket.acquire(1));
+        assertTrue(bucket.acquire(1) > 0); // Höchstens 100 ms nach dem ersten Aufruf
+        Thread.sleep(500); // Weit mehr als die 200 ms für die verbrauchten Tokens
+        assertEquals(0, bucket.acquire(1));
+    }
+
+    @Test
+    void concurrentAcquiresAreAllCharged() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        int threads = 8;
+        int perThread = 1000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    bucket.acquire(1);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // Kein Token darf verloren gehen: jeder Aufruf hat die theoretische Ankunftszeit um eine Sekunde verschoben
+        assertEquals(threads * perThread, seconds(bucket.acquire(1)));
+    }
+}